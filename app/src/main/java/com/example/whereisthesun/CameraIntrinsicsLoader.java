@@ -0,0 +1,161 @@
+package com.example.whereisthesun;
+
+import android.graphics.Rect;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureRequest;
+import android.os.Build;
+import android.util.Log;
+import android.util.Size;
+import android.util.SizeF;
+import androidx.annotation.Nullable;
+import androidx.annotation.experimental.UseExperimental;
+import androidx.camera.camera2.interop.Camera2CameraInfo;
+import androidx.camera.camera2.interop.Camera2Interop;
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
+import androidx.camera.core.CameraInfo;
+import androidx.camera.core.ExtendableBuilder;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Derives {@link CameraIntrinsics} from a bound camera's CameraCharacteristics and caches them on
+ * disk per camera ID, so later starts read one small file instead of querying the camera again. The
+ * cache is keyed to the build fingerprint as well, since an OS update can change the calibration the
+ * camera HAL reports.
+ */
+final class CameraIntrinsicsLoader {
+    private static final String TAG = "CameraIntrinsics";
+    private static final int DERIVATION = 2; // Part of the cache file name; bumped when query() changes
+
+    private CameraIntrinsicsLoader() {}
+
+    /** @return the intrinsics in active-array pixels, or null if the camera reports too little to derive them */
+    @Nullable
+    @UseExperimental(markerClass = ExperimentalCamera2Interop.class)
+    static CameraIntrinsics load(File cacheDir, CameraInfo cameraInfo) {
+        Camera2CameraInfo camera2Info = Camera2CameraInfo.from(cameraInfo);
+        File cacheFile = new File(cacheDir, "intrinsics-" + camera2Info.getCameraId() + "-v" + DERIVATION + ".bin");
+
+        CameraIntrinsics intrinsics = readCache(cacheFile);
+        if (intrinsics != null) {
+            Log.d(TAG, "Cached " + intrinsics);
+            return intrinsics;
+        }
+        intrinsics = query(camera2Info);
+        if (intrinsics != null) {
+            Log.i(TAG, "Queried " + intrinsics);
+            writeCache(cacheFile, intrinsics);
+        }
+        return intrinsics;
+    }
+
+    @Nullable
+    @UseExperimental(markerClass = ExperimentalCamera2Interop.class)
+    private static CameraIntrinsics query(Camera2CameraInfo camera) {
+        Integer sensorOrientation = camera.getCameraCharacteristic(CameraCharacteristics.SENSOR_ORIENTATION);
+        int orientation = sensorOrientation != null ? sensorOrientation : 0;
+
+        Rect activeArray = camera.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+
+        // Factory calibration where the HAL reports it (API 23+): [fx, fy, cx, cy, skew] with the
+        // principal point in pre-correction active array coordinates. Output images cover the active
+        // array, so the principal point is moved to its origin; both rectangles are given in pixel
+        // array coordinates.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && activeArray != null) {
+            float[] calibration = camera.getCameraCharacteristic(CameraCharacteristics.LENS_INTRINSIC_CALIBRATION);
+            Rect preCorrection = camera.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_PRE_CORRECTION_ACTIVE_ARRAY_SIZE);
+            if (calibration != null && calibration.length >= 4 && calibration[0] > 0 && calibration[1] > 0) {
+                int left = preCorrection != null ? preCorrection.left : 0;
+                int top = preCorrection != null ? preCorrection.top : 0;
+                double[] k = distortion(camera);
+                return new CameraIntrinsics(activeArray.width(), activeArray.height(),
+                        calibration[0], calibration[1],
+                        calibration[2] + left - activeArray.left, calibration[3] + top - activeArray.top,
+                        k[0], k[1], k[2], k[3], k[4], orientation);
+            }
+        }
+
+        // Otherwise from focal length and sensor size, assuming a centered, undistorted lens
+        float[] focalLengths = camera.getCameraCharacteristic(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS);
+        SizeF physicalSize = camera.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_PHYSICAL_SIZE);
+        Size pixelArray = camera.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_PIXEL_ARRAY_SIZE);
+        if (focalLengths == null || focalLengths.length == 0 || physicalSize == null || pixelArray == null
+                || activeArray == null || physicalSize.getWidth() <= 0 || physicalSize.getHeight() <= 0) {
+            Log.w(TAG, "Camera " + camera.getCameraId() + " reports no usable optics characteristics.");
+            return null;
+        }
+        double fx = focalLengths[0] * pixelArray.getWidth() / physicalSize.getWidth();
+        double fy = focalLengths[0] * pixelArray.getHeight() / physicalSize.getHeight();
+        return new CameraIntrinsics(activeArray.width(), activeArray.height(), fx, fy,
+                activeArray.width() / 2.0, activeArray.height() / 2.0, 0, 0, 0, 0, 0, orientation);
+    }
+
+    /**
+     * [k1, k2, k3, p1, p2], or zeros if the lens distortion is unknown. The HAL's own distortion
+     * correction would already have removed it from the images, so it is switched off on every use
+     * case ({@link #disableDistortionCorrection}) rather than guessed at from the modes on offer.
+     */
+    @UseExperimental(markerClass = ExperimentalCamera2Interop.class)
+    private static double[] distortion(Camera2CameraInfo camera) {
+        double[] k = new double[5];
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.P) {
+            return k;
+        }
+        float[] distortion = camera.getCameraCharacteristic(CameraCharacteristics.LENS_DISTORTION);
+        if (distortion != null && distortion.length >= 5) {
+            for (int i = 0; i < 5; i++) {
+                k[i] = distortion[i];
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Turns off the HAL's distortion correction for a use case, so its images carry the distortion
+     * that {@link #load} reports. OFF is always among the available modes where the control exists;
+     * cameras without it ignore the key.
+     */
+    @UseExperimental(markerClass = ExperimentalCamera2Interop.class)
+    static <T> void disableDistortionCorrection(ExtendableBuilder<T> builder) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            new Camera2Interop.Extender<>(builder).setCaptureRequestOption(
+                    CaptureRequest.DISTORTION_CORRECTION_MODE, CaptureRequest.DISTORTION_CORRECTION_MODE_OFF);
+        }
+    }
+
+    @Nullable
+    private static CameraIntrinsics readCache(File file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (!Build.FINGERPRINT.equals(in.readUTF())) {
+                return null;
+            }
+            return CameraIntrinsics.readFrom(in);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable intrinsics cache " + file, e);
+            return null;
+        }
+    }
+
+    private static void writeCache(File file, CameraIntrinsics intrinsics) {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeUTF(Build.FINGERPRINT);
+            intrinsics.writeTo(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to cache intrinsics", e);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.w(TAG, "Failed to replace " + file);
+        }
+    }
+}
@@ -2,18 +2,19 @@ package com.example.whereisthesun;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.camera.core.Camera;
 import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.ImageCapture;
 import androidx.camera.core.ImageCaptureException;
+import androidx.camera.core.ImageProxy;
 import androidx.camera.core.Preview;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import android.Manifest;
-import android.hardware.Sensor;
-import android.hardware.SensorEvent;
-import android.hardware.SensorEventListener;
+import android.hardware.GeomagneticField;
 import android.hardware.SensorManager;
 import android.location.Location;
 import android.location.LocationListener;
@@ -21,34 +22,37 @@ import android.location.LocationManager;
 import android.provider.Settings.Secure; // For Android ID
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.Size;
 import android.view.View;
 import android.widget.Button;
+import android.widget.TextView;
 import android.widget.Toast;
 import com.google.common.util.concurrent.ListenableFuture;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.concurrent.ExecutionException;
-import org.opencv.core.Core;
+import org.opencv.android.OpenCVLoader;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
-import org.opencv.core.MatOfPoint2f;
-import org.json.JSONObject;
-import org.opencv.core.Point;
-import org.opencv.core.Scalar;
 import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.imgproc.Imgproc;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.MediaType;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
@@ -60,34 +64,101 @@ public class MainActivity extends AppCompatActivity {
 
     private PreviewView previewView;
     private Button captureButton;
+    private Button trackButton;
     private ImageCapture imageCapture;
-    private ExecutorService cameraExecutor;
+    private ImageAnalysis imageAnalysis;
+    private ExecutorService cameraExecutor; // CameraX callbacks: saved stills and analysis frames
+
+    // Capture -> detect -> project -> persist pipeline. CameraX delivers to cameraExecutor, every later
+    // stage has its own thread and bounded queue, and uploads run on ObservationQueue's thread, so the
+    // main thread only handles the UI. When detection falls behind, tracking frames are dropped; stills
+    // and everything after detection wait for room instead, so no measurement is lost.
+    private static final int STILL_QUEUE_CAPACITY = 4;
+    private static final int FRAME_QUEUE_CAPACITY = 1;        // Only the newest frame is worth detecting
+    private static final int DETECTION_QUEUE_CAPACITY = 16;
+    private static final int OBSERVATION_QUEUE_CAPACITY = 64;
+    private static final long STAGE_SHUTDOWN_TIMEOUT_MS = 5_000; // Per detect stage, on the shutdown thread
+    private PipelineStage<StillCapture> stillStage;           // Decode and detect
+    private PipelineStage<AnalysisFrame> frameStage;          // Detect and track
+    private PipelineStage<PendingDetection> projectStage;     // Orientation, calibration and world angles
+    private PipelineStage<Observation> persistStage;          // Durable append to the history and upload queue
+
+    // Continuous tracking (ImageAnalysis) state, only touched on the frame stage
+    private static final Size ANALYSIS_RESOLUTION = new Size(640, 480);
+    private volatile boolean trackingEnabled = false;
+
+    // Tracking sessions can be recorded for replay on a desktop JVM (see Recording and ReplayMain)
+    private static final boolean RECORD_SESSIONS = false;
+    private static final int RECORDING_SCALE = 2; // Frames are stored at half resolution
+    private static final String RECORDINGS_DIR = "recordings";
+    private volatile Recording.Writer recording; // Null while not recording
+
+    // Detection engines, one per input stream so each keeps buffers sized to its own resolution. The
+    // tracking path detects all candidates of a frame and lets the track across frames choose.
+    private SunDetector stillDetector;
+    private TrackingDetector frameTracking;
+    private final SunDetection stillDetection = new SunDetection();
+    private final SunDetection frameDetection = new SunDetection();
 
     // Sensor related member variables
     private LocationManager locationManager;
     private LocationListener locationListener;
-    private SensorManager sensorManager;
-    private Sensor accelerometer;
-    private Sensor magnetometer; // Added
-    private SensorEventListener accelerometerListener;
-
-    private Location lastKnownLocation;
-    private float[] lastOrientation = new float[3]; // Azimuth, Pitch, Roll (will be in degrees)
-    private float[] gravity;     // Stores accelerometer readings (for orientation)
-    private float[] geomagnetic; // Stores magnetometer readings
-
-    // Final calculated object angles
-    private double objectAzimuth = -1.0;
-    private double objectElevation = -1.0;
-
-    // Camera Field of View (default values)
+    private OrientationEngine orientationEngine;
+
+    // Best fix across GPS and network, read per detection; it also decides how often to ask for fixes
+    private final LocationFusion locationFusion = new LocationFusion();
+    private long locationIntervalMillis; // Rate of the current location requests, 0 while not registered
+    private volatile float magneticDeclination = 0f; // Degrees east of true north at the best fix
+    private static final long MAX_FRAME_CLOCK_SKEW_NANOS = 1_000_000_000L;
+
+    // Learned sensor/mount errors, persisted across runs of this device
+    private final CompassCalibration calibration = new CompassCalibration();
+    private static final String CALIBRATION_FILE = "compass-calibration.bin";
+    // Detection to world angles (and to where the sun should be), only used in processDetection()
+    private DetectionProjector projector;
+    private DetectionReporter reporter; // Pairs detections with orientation and location for the projector
+
+    // Camera Field of View (defaults until the camera's intrinsics are known). Set on the main thread
+    // and read on the stages, all guarded by cameraLock.
+    private final Object cameraLock = new Object();
     private float cameraFovHorizontal = 60.0f;
     private float cameraFovVertical = 45.0f;
-
-    // OkHttp client and server URL
+    private CameraIntrinsics cameraIntrinsics; // Active-array intrinsics, null until the camera is bound
+    private PixelRayTable stillRays;           // Pixel-to-angle tables at each stream's resolution
+    private PixelRayTable frameRays;
+    private static final int DEFAULT_SENSOR_ORIENTATION = 90; // Back cameras of nearly all phones
+
+    // Short exposure for detection, so the sun is a small disk instead of a saturated glare: on while
+    // tracking, and bracketed around each still (see SunExposureControl)
+    private static final boolean SUN_EXPOSURE = true;
+    private volatile SunExposureControl sunExposure; // Null until the camera is bound
+    private final SunExposureControl.Results exposureResults = new SunExposureControl.Results();
+    private static final long EXPOSURE_WAIT_MS = 1_000; // For a still; a few frames is typical
+    private final AtomicBoolean stillPending = new AtomicBoolean(); // One still (and bracket) at a time
+
+    // OkHttp client, server URL and the durable queue batching uploads to it
     private OkHttpClient httpClient;
     private static final String SERVER_URL = "https://your-placeholder-server.com/api/locationdata"; // Replace with actual server URL
-    public static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    private static final int UPLOAD_BATCH_SIZE = 50;             // Observations per request
+    private static final long UPLOAD_BATCH_AGE_MS = 60_000;      // Upload a partial batch after this long
+    private static final boolean DEBUG_JSON_UPLOADS = false;     // Send readable JSON instead of the binary format
+    private ObservationQueue observationQueue;
+    private String deviceId;
+
+    // Local history of observations, for calibration, replay and retransmission
+    private static final String HISTORY_DIR = "observations";
+    private static final long HISTORY_RETENTION_MS = 30L * 24 * 60 * 60 * 1000;
+    private ObservationStore observationStore;
+
+    // Stage latencies and counters, reported with every upload and shown in the debug overlay
+    private static final boolean COLLECT_METRICS = true;
+    private static final long OVERLAY_REFRESH_MS = 1000;
+    private final Metrics metrics = new Metrics();
+    private TextView metricsOverlay;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private MetricsSnapshot overlaySnapshot;
+    private long lastFrameNanos;     // For the dropped-frame estimate, only touched on cameraExecutor
+    private long frameIntervalNanos; // Shortest interval seen between frames, i.e. the frame period
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -96,9 +167,40 @@ public class MainActivity extends AppCompatActivity {
 
         previewView = findViewById(R.id.previewView);
         captureButton = findViewById(R.id.capture_button);
+        trackButton = findViewById(R.id.track_button);
+        metricsOverlay = findViewById(R.id.metrics_overlay);
+        metrics.setEnabled(COLLECT_METRICS);
+        frameTracking = new TrackingDetector(metrics);
+        projector = new DetectionProjector(calibration, metrics);
+
+        if (!OpenCVLoader.initDebug()) {
+            Log.e(TAG, "OpenCV native library failed to load.");
+        }
 
         cameraExecutor = Executors.newSingleThreadExecutor();
         httpClient = new OkHttpClient(); // Initialize OkHttpClient
+        deviceId = Secure.getString(getContentResolver(), Secure.ANDROID_ID);
+        if (deviceId == null) deviceId = "unknown_device";
+        observationQueue = new ObservationQueue(new File(getFilesDir(), "upload-queue"), httpClient, SERVER_URL,
+                DEBUG_JSON_UPLOADS ? new JsonBatchEncoder() : new BinaryBatchEncoder(),
+                UPLOAD_BATCH_SIZE, UPLOAD_BATCH_AGE_MS, metrics);
+        observationStore = new ObservationStore(new File(getFilesDir(), HISTORY_DIR));
+        createPipeline();
+        persistStage.execute(() -> {
+            try {
+                observationQueue.start(); // Picks up batches left over from a previous process
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to start upload queue", e);
+            }
+            try {
+                observationStore.open();
+                long dropped = observationStore.compact(System.currentTimeMillis() - HISTORY_RETENTION_MS);
+                Log.i(TAG, "Observation history: " + observationStore.size() + " records, " + dropped + " expired");
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to open observation history", e);
+            }
+        });
+        projectStage.execute(this::loadCalibration);
         initializeSensors(); // Initialize sensors
 
         if (allPermissionsGranted()) {
@@ -115,6 +217,17 @@ public class MainActivity extends AppCompatActivity {
                 takePhoto();
             }
         });
+
+        trackButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                setTrackingEnabled(!trackingEnabled);
+            }
+        });
+        trackButton.setOnLongClickListener(v -> {
+            setMetricsOverlayVisible(metricsOverlay.getVisibility() != View.VISIBLE);
+            return true;
+        });
     }
 
     private void startCamera() {
@@ -124,28 +237,50 @@ public class MainActivity extends AppCompatActivity {
             try {
                 ProcessCameraProvider cameraProvider = cameraProviderFuture.get();
 
-                Preview preview = new Preview.Builder().build();
+                // Distortion correction off throughout, so images match the lens model the intrinsics
+                // describe (and the use cases sharing the repeating request agree on it)
+                Preview.Builder previewBuilder = new Preview.Builder();
+                CameraIntrinsicsLoader.disableDistortionCorrection(previewBuilder);
+                if (SUN_EXPOSURE) {
+                    exposureResults.attach(previewBuilder); // Preview always streams
+                }
+                Preview preview = previewBuilder.build();
                 preview.setSurfaceProvider(previewView.getSurfaceProvider());
 
-                imageCapture = new ImageCapture.Builder().build();
+                ImageCapture.Builder captureBuilder = new ImageCapture.Builder();
+                CameraIntrinsicsLoader.disableDistortionCorrection(captureBuilder);
+                imageCapture = captureBuilder.build();
+
+                // Analysis frames arrive as YUV_420_888; only the latest frame is kept so that a slow
+                // detection pass drops frames instead of queueing them up behind it.
+                ImageAnalysis.Builder analysisBuilder = new ImageAnalysis.Builder()
+                        .setTargetResolution(ANALYSIS_RESOLUTION)
+                        .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST);
+                CameraIntrinsicsLoader.disableDistortionCorrection(analysisBuilder);
+                imageAnalysis = analysisBuilder.build();
+                if (trackingEnabled) {
+                    imageAnalysis.setAnalyzer(cameraExecutor, this::onAnalysisFrame);
+                }
 
                 CameraSelector cameraSelector = CameraSelector.DEFAULT_BACK_CAMERA;
 
                 cameraProvider.unbindAll();
-                cameraProvider.bindToLifecycle(
-                        this, cameraSelector, preview, imageCapture);
+                Camera camera = cameraProvider.bindToLifecycle(
+                        this, cameraSelector, preview, imageCapture, imageAnalysis);
 
-                    /*
-                    try {
-                        // ... CameraCharacteristics FOV calculation code ...
-                        // This would typically involve getting CameraCharacteristics from cameraProvider
-                        // and then getting SENSOR_INFO_PHYSICAL_SIZE and LENS_INFO_AVAILABLE_FOCAL_LENGTHS
-                        // For now, we use default values.
-                    } catch (Exception e) {
-                        Log.e(TAG, "Could not get camera characteristics for FOV, using defaults.", e);
+                if (SUN_EXPOSURE) {
+                    sunExposure = SunExposureControl.create(camera, exposureResults);
+                    if (trackingEnabled) {
+                        sunExposure.enable();
                     }
-                    */
+                }
+
+                CameraIntrinsics intrinsics = CameraIntrinsicsLoader.load(getFilesDir(), camera.getCameraInfo());
+                if (intrinsics != null) {
+                    setCameraIntrinsics(intrinsics);
+                } else {
                     Log.i(TAG, "Using default FOV - H: " + cameraFovHorizontal + ", V: " + cameraFovVertical);
+                }
 
             } catch (ExecutionException | InterruptedException e) {
                 Log.e(TAG, "Use case binding failed", e);
@@ -157,30 +292,281 @@ public class MainActivity extends AppCompatActivity {
         if (imageCapture == null) {
             return;
         }
+        if (!stillPending.compareAndSet(false, true)) {
+            Log.d(TAG, "Still capture in progress, ignoring the press");
+            return;
+        }
 
         File photoFile = new File(getExternalMediaDirs()[0], System.currentTimeMillis() + ".jpg");
+        SunExposureControl exposure = sunExposure;
+        if (exposure == null) {
+            capturePhoto(photoFile, false, false);
+            return;
+        }
+        // Bracket unless tracking has the short exposure on already: for this shot only, back to auto
+        // exposure once it is taken
+        boolean bracketed = !exposure.isActive();
+        if (bracketed) {
+            exposure.enable();
+        }
+        cameraExecutor.execute(() -> capturePhoto(photoFile, awaitShortExposure(exposure), bracketed));
+    }
+
+    /**
+     * Waits for a capture result at the short exposure, so the still is not taken before the sensor
+     * has switched. Runs on cameraExecutor, where it holds up analysis frames for a few frame times.
+     */
+    private boolean awaitShortExposure(SunExposureControl exposure) {
+        try {
+            if (exposure.awaitInEffect(EXPOSURE_WAIT_MS)) {
+                return true;
+            }
+            Log.w(TAG, "Short exposure not in effect after " + EXPOSURE_WAIT_MS + " ms, taking the still anyway");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * @param shortExposure whether the shot is taken at the sun exposure, for detection to expect a disk
+     * @param bracketed whether to return to auto exposure afterwards (unless tracking took it over)
+     */
+    private void capturePhoto(File photoFile, boolean shortExposure, boolean bracketed) {
+        // Orientation is looked up for the shutter press, not for when the JPEG is finally decoded
+        final long shutterNanos = SystemClock.elapsedRealtimeNanos();
 
         ImageCapture.OutputFileOptions outputOptions =
                 new ImageCapture.OutputFileOptions.Builder(photoFile).build();
 
         imageCapture.takePicture(
-                outputOptions, ContextCompat.getMainExecutor(this), new ImageCapture.OnImageSavedCallback() {
+                outputOptions, cameraExecutor, new ImageCapture.OnImageSavedCallback() {
                     @Override
                     public void onImageSaved(@NonNull ImageCapture.OutputFileResults outputFileResults) {
+                        metrics.record(Metrics.STAGE_CAPTURE, SystemClock.elapsedRealtimeNanos() - shutterNanos);
+                        endStill(bracketed);
                         String msg = "Photo capture succeeded: " + photoFile.getAbsolutePath();
-                        Toast.makeText(getBaseContext(), msg, Toast.LENGTH_SHORT).show();
+                        mainHandler.post(() -> Toast.makeText(getBaseContext(), msg, Toast.LENGTH_SHORT).show());
                         Log.d(TAG, msg);
-                            // Add call to image processing
-                            processImage(photoFile.getAbsolutePath());
+                        // Waits here (on cameraExecutor) if a burst of stills is still being decoded
+                        stillStage.offer(new StillCapture(photoFile.getAbsolutePath(), shutterNanos, shortExposure));
                     }
 
                     @Override
                     public void onError(@NonNull ImageCaptureException exception) {
+                        endStill(bracketed);
                         Log.e(TAG, "Photo capture failed: " + exception.getMessage(), exception);
                     }
                 });
     }
 
+    private void endStill(boolean bracketed) {
+        SunExposureControl exposure = sunExposure;
+        if (bracketed && exposure != null && !trackingEnabled) {
+            exposure.disable();
+        }
+        stillPending.set(false);
+    }
+
+    private void setTrackingEnabled(boolean enabled) {
+        trackingEnabled = enabled;
+        trackButton.setText(enabled ? "Stop" : "Track");
+        if (imageAnalysis == null) {
+            return; // Analyzer is attached in startCamera() once the use case is bound
+        }
+        if (enabled) {
+            if (RECORD_SESSIONS) {
+                projectStage.execute(this::startRecording);
+            }
+            if (sunExposure != null) {
+                sunExposure.enable();
+            }
+            imageAnalysis.setAnalyzer(cameraExecutor, this::onAnalysisFrame);
+            Log.d(TAG, "Continuous tracking started.");
+        } else {
+            imageAnalysis.clearAnalyzer();
+            if (sunExposure != null) {
+                sunExposure.disable();
+            }
+            projectStage.execute(this::stopRecording);
+            Log.d(TAG, "Continuous tracking stopped.");
+        }
+    }
+
+    /**
+     * Starts recording what the tracking pipeline consumes (sensor events, fixes, declination and
+     * frames, see {@link Recording}) to a file under the app's external files, for replay off-device.
+     * Runs on the project stage, like stopRecording(): the file I/O stays off the UI thread, and the
+     * calibration the recording starts from is the one processDetection() is about to use.
+     */
+    private void startRecording() {
+        if (recording != null) {
+            return;
+        }
+        File dir = new File(getExternalFilesDir(null), RECORDINGS_DIR);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Cannot create " + dir);
+            return;
+        }
+        File file = new File(dir, System.currentTimeMillis() + ".rec");
+        long now = SystemClock.elapsedRealtimeNanos();
+        // What frameRayTable() projects with, at any frame size
+        CameraIntrinsics intrinsics;
+        float fovHorizontal;
+        float fovVertical;
+        synchronized (cameraLock) {
+            fovHorizontal = cameraFovHorizontal;
+            fovVertical = cameraFovVertical;
+            intrinsics = cameraIntrinsics != null ? cameraIntrinsics
+                    : CameraIntrinsics.fromFieldOfView(ANALYSIS_RESOLUTION.getWidth(), ANALYSIS_RESOLUTION.getHeight(),
+                            fovHorizontal, fovVertical, DEFAULT_SENSOR_ORIENTATION);
+        }
+        Recording.Writer recorder;
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            recorder = new Recording.Writer(out, deviceId, System.currentTimeMillis(), now,
+                    orientationEngine.filterType(), intrinsics, fovHorizontal, fovVertical, calibration);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to start recording", e);
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+            return;
+        }
+        // The state the first frames will be processed with
+        GeoFix fix = locationFusion.current(now);
+        if (fix != null) {
+            recorder.location(now, fix);
+        }
+        recorder.declination(now, magneticDeclination);
+        recording = recorder;
+        orientationEngine.setRecorder(recorder);
+        Log.i(TAG, "Recording to " + file);
+    }
+
+    /** Runs on the project stage; waits for an event being written. */
+    private void stopRecording() {
+        Recording.Writer recorder = recording;
+        if (recorder == null) {
+            return;
+        }
+        recording = null;
+        orientationEngine.setRecorder(null);
+        try {
+            recorder.close();
+            Log.i(TAG, "Recording stopped.");
+        } catch (IOException e) {
+            Log.e(TAG, "Recording failed", e);
+        }
+    }
+
+    /** Debug overlay with the metrics of the last second, refreshed while visible. */
+    private void setMetricsOverlayVisible(boolean visible) {
+        mainHandler.removeCallbacks(refreshMetricsOverlay);
+        metricsOverlay.setVisibility(visible ? View.VISIBLE : View.GONE);
+        if (visible) {
+            if (!metrics.isEnabled()) {
+                metricsOverlay.setText("Metrics collection is disabled.");
+                return;
+            }
+            overlaySnapshot = metrics.snapshot();
+            mainHandler.postDelayed(refreshMetricsOverlay, OVERLAY_REFRESH_MS);
+        }
+    }
+
+    private final Runnable refreshMetricsOverlay = new Runnable() {
+        @Override
+        public void run() {
+            MetricsSnapshot snapshot = metrics.snapshot(overlaySnapshot);
+            overlaySnapshot = snapshot;
+            metricsOverlay.setText(snapshot.toString());
+            mainHandler.postDelayed(this, OVERLAY_REFRESH_MS);
+        }
+    };
+
+    /**
+     * Counts a tracking frame and estimates how many were dropped before it from the gap to the
+     * previous one: with STRATEGY_KEEP_ONLY_LATEST, frames that arrive while one is being processed
+     * are discarded without notice.
+     */
+    private void countFrame(long timestampNanos) {
+        metrics.increment(Metrics.FRAMES);
+        long interval = timestampNanos - lastFrameNanos;
+        lastFrameNanos = timestampNanos;
+        if (interval <= 0 || interval > MAX_FRAME_CLOCK_SKEW_NANOS) {
+            return; // First frame, or tracking was paused
+        }
+        if (frameIntervalNanos == 0 || interval < frameIntervalNanos) {
+            frameIntervalNanos = interval;
+        }
+        long missed = Math.round((double) interval / frameIntervalNanos) - 1;
+        if (missed > 0) {
+            metrics.add(Metrics.FRAMES_DROPPED, missed);
+        }
+    }
+
+    /**
+     * Runs on cameraExecutor: timestamps an analysis frame and hands it to the frame stage, which closes
+     * it once detected (or dropped). CameraX does not deliver the next frame until then.
+     */
+    private void onAnalysisFrame(@NonNull ImageProxy image) {
+        long timestampNanos = frameTimestampNanos(image);
+        if (metrics.isEnabled()) {
+            countFrame(timestampNanos);
+        }
+        frameStage.offer(new AnalysisFrame(image, timestampNanos));
+    }
+
+    /**
+     * Runs detection directly on the Y (luminance) plane of an analysis frame. The plane already is
+     * the grayscale image the detector needs, so it is wrapped in a Mat header without copying pixels.
+     * The header is made per frame: every ImageProxy hands out a new ByteBuffer for its plane, so
+     * there is nothing stable to key a cached one on, and the plane is gone once the frame is closed.
+     * Runs on the frame stage; the frame must be closed so CameraX can deliver the next one.
+     */
+    private void analyzeFrame(AnalysisFrame analysisFrame) {
+        ImageProxy frame = analysisFrame.image;
+        Mat frameMat = null;
+        try {
+            ImageProxy.PlaneProxy yPlane = frame.getPlanes()[0];
+            ByteBuffer yBuffer = yPlane.getBuffer();
+            int width = frame.getWidth();
+            int height = frame.getHeight();
+            int rowStride = yPlane.getRowStride();
+            frameMat = new Mat(height, width, CvType.CV_8UC1, yBuffer, rowStride);
+            SunExposureControl exposure = sunExposure; // Null unless this frame is at the short exposure
+            if (exposure != null && !exposure.onAnalysisFrame()) {
+                exposure = null;
+            }
+            Recording.Writer recorder = recording;
+            if (recorder != null) {
+                recorder.frame(analysisFrame.timestampNanos, System.currentTimeMillis(), yBuffer, width, height,
+                        rowStride, RECORDING_SCALE, exposure != null);
+            }
+            processGrayFrame(frameMat, analysisFrame.timestampNanos, exposure);
+        } finally {
+            if (frameMat != null) {
+                frameMat.release(); // The header only; the pixels belong to the frame
+            }
+            frame.close();
+        }
+    }
+
+    /**
+     * Sensor timestamp of an analysis frame in the SensorEvent time base. Cameras whose timestamp
+     * source is not the realtime clock report times that cannot be compared with sensor events; for
+     * those the arrival time is the best estimate there is.
+     */
+    private static long frameTimestampNanos(ImageProxy frame) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        long timestamp = frame.getImageInfo().getTimestamp();
+        return Math.abs(now - timestamp) <= MAX_FRAME_CLOCK_SKEW_NANOS ? timestamp : now;
+    }
+
     private boolean allPermissionsGranted() {
         for (String permission : REQUIRED_PERMISSIONS) {
             if (ContextCompat.checkSelfPermission(
@@ -218,24 +604,71 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onPause() {
         super.onPause();
+        setMetricsOverlayVisible(false);
+        observationQueue.flush(); // Don't leave a partial batch waiting while we are in the background
+        persistStage.execute(observationStore::flush);
+        projectStage.execute(this::saveCalibration);
         unregisterSensorListeners();
     }
 
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (imageAnalysis != null) {
+            imageAnalysis.clearAnalyzer();
+        }
         cameraExecutor.shutdown();
+        projectStage.execute(this::stopRecording); // After a start still queued there
+        // Draining the stages and closing the files can take seconds; not on the UI thread
+        Thread shutdown = new Thread(this::shutDownPipeline, "pipeline-shutdown");
+        shutdown.start();
         // unregisterSensorListeners(); // Already called in onPause
     }
 
+    /**
+     * Runs on its own thread after onDestroy(). Upstream first, so the last items of each stage still
+     * find the next one open; a frame offered after its stage closed is closed right away. The
+     * detectors' native buffers are only released once their stage's thread has finished; if it does
+     * not, they are left to the finalizers rather than freed under a running detection.
+     */
+    private void shutDownPipeline() {
+        stillStage.shutdown();
+        frameStage.shutdown();
+        try {
+            if (stillStage.awaitTermination(STAGE_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                if (stillDetector != null) {
+                    stillDetector.release();
+                    stillDetector = null;
+                }
+            } else {
+                Log.w(TAG, "Still stage still running; not releasing its detector");
+            }
+            if (frameStage.awaitTermination(STAGE_SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                frameTracking.release();
+            } else {
+                Log.w(TAG, "Frame stage still running; not releasing its detector");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        projectStage.close();
+        persistStage.close();
+        observationStore.close();
+        try {
+            observationQueue.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to close upload queue", e);
+        }
+    }
+
     private void initializeSensors() {
         // Location Manager
         locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
         locationListener = new LocationListener() {
             @Override
             public void onLocationChanged(@NonNull Location location) {
-                lastKnownLocation = location;
-                Log.d(TAG, "Location Updated: " + location.getLatitude() + ", " + location.getLongitude());
+                onLocationFix(location);
             }
             @Override
             public void onProviderDisabled(@NonNull String provider) {}
@@ -245,61 +678,9 @@ public class MainActivity extends AppCompatActivity {
             public void onStatusChanged(String provider, int status, Bundle extras) {}
         };
 
-        // Sensor Manager for Accelerometer
-        sensorManager = (SensorManager) getSystemService(SENSOR_SERVICE);
-        accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-        if (magnetometer == null) {
-            Log.w(TAG, "Magnetometer not available, orientation accuracy will be lower.");
-        }
-        // Initialize gravity and geomagnetic arrays
-        gravity = new float[3];
-        geomagnetic = new float[3];
-
-        accelerometerListener = new SensorEventListener() {
-            // float[] gravity; // Now a class member
-
-            @Override
-            public void onSensorChanged(SensorEvent event) {
-                final float alpha = 0.8f; // Low-pass filter alpha
-
-                if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
-                    gravity[0] = alpha * gravity[0] + (1 - alpha) * event.values[0];
-                    gravity[1] = alpha * gravity[1] + (1 - alpha) * event.values[1];
-                    gravity[2] = alpha * gravity[2] + (1 - alpha) * event.values[2];
-                } else if (event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-                    geomagnetic[0] = alpha * geomagnetic[0] + (1 - alpha) * event.values[0];
-                    geomagnetic[1] = alpha * geomagnetic[1] + (1 - alpha) * event.values[1];
-                    geomagnetic[2] = alpha * geomagnetic[2] + (1 - alpha) * event.values[2];
-                }
-
-                // Check for non-zero to ensure actual readings, especially after initialization
-                boolean gravityReady = gravity != null && (gravity[0] != 0.0f || gravity[1] != 0.0f || gravity[2] != 0.0f);
-                boolean geomagneticReady = geomagnetic != null && (geomagnetic[0] != 0.0f || geomagnetic[1] != 0.0f || geomagnetic[2] != 0.0f);
-
-                if (gravityReady && geomagneticReady) {
-                    float[] R = new float[9];
-                    float[] I = new float[9]; // Inclination matrix
-
-                    boolean success = SensorManager.getRotationMatrix(R, I, gravity, geomagnetic);
-                    if (success) {
-                        float[] orientationAngles = new float[3]; // azimuth, pitch, roll in radians
-                        SensorManager.getOrientation(R, orientationAngles);
-
-                        lastOrientation[0] = (float) Math.toDegrees(orientationAngles[0]); // Azimuth
-                        lastOrientation[1] = (float) Math.toDegrees(orientationAngles[1]); // Pitch
-                        lastOrientation[2] = (float) Math.toDegrees(orientationAngles[2]); // Roll
-
-                        if (lastOrientation[0] < 0) {
-                            lastOrientation[0] += 360;
-                        }
-                    }
-                }
-            }
-
-            @Override
-            public void onAccuracyChanged(Sensor sensor, int accuracy) {}
-        };
+        // Orientation (sensor fusion runs on the engine's own thread)
+        orientationEngine = new OrientationEngine((SensorManager) getSystemService(SENSOR_SERVICE), metrics);
+        reporter = new DetectionReporter(orientationEngine.tracker(), locationFusion, projector);
     }
 
     private void registerSensorListeners() {
@@ -307,202 +688,339 @@ public class MainActivity extends AppCompatActivity {
         if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
                 == PackageManager.PERMISSION_GRANTED) {
             try {
-                locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 5000, 10, locationListener);
-                locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, 5000, 10, locationListener);
+                // Whatever the providers still have is a start; the fusion judges how stale it is
+                for (String provider : new String[]{LocationManager.GPS_PROVIDER, LocationManager.NETWORK_PROVIDER}) {
+                    Location last = locationManager.getLastKnownLocation(provider);
+                    if (last != null) {
+                        onLocationFix(last);
+                    }
+                }
+                requestLocationUpdates();
                 Log.d(TAG, "Location listeners registered.");
             } catch (SecurityException e) {
                 Log.e(TAG, "Failed to register location listener", e);
             }
         }
-        // Accelerometer
-        if (accelerometer != null) {
-            sensorManager.registerListener(accelerometerListener, accelerometer, SensorManager.SENSOR_DELAY_UI);
-            Log.d(TAG, "Accelerometer listener registered.");
+        // Orientation
+        orientationEngine.start();
+    }
+
+    /**
+     * Offers a fix from either provider to the fusion, which keeps it only if it beats the current
+     * best, and follows the fusion's update rate: slower the longer the device stays put. Runs on the
+     * main thread, where location updates arrive.
+     */
+    private void onLocationFix(Location location) {
+        long now = SystemClock.elapsedRealtimeNanos();
+        String provider = location.getProvider();
+        long elapsedNanos = location.getElapsedRealtimeNanos();
+        GeoFix fix = new GeoFix(
+                LocationManager.GPS_PROVIDER.equals(provider) ? GeoFix.PROVIDER_GPS
+                        : LocationManager.NETWORK_PROVIDER.equals(provider) ? GeoFix.PROVIDER_NETWORK
+                        : GeoFix.PROVIDER_OTHER,
+                location.getLatitude(), location.getLongitude(),
+                location.hasAltitude() ? location.getAltitude() : Double.NaN,
+                location.hasAccuracy() ? location.getAccuracy() : Float.NaN,
+                location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                location.getTime(), elapsedNanos != 0 ? elapsedNanos : now);
+        Recording.Writer recorder = recording;
+        if (recorder != null) {
+            recorder.location(now, fix);
+        }
+        if (!locationFusion.offer(fix, now)) {
+            Log.d(TAG, "Ignoring " + fix + ", keeping " + locationFusion.current(now));
+            return;
+        }
+        // Orientation is relative to magnetic north; the sun is not
+        magneticDeclination = new GeomagneticField((float) fix.latitude, (float) fix.longitude,
+                Double.isNaN(fix.altitude) ? 0f : (float) fix.altitude, fix.timeMillis).getDeclination();
+        if (recorder != null) {
+            recorder.declination(now, magneticDeclination);
         }
-        // Magnetometer
-        if (magnetometer != null) {
-            sensorManager.registerListener(accelerometerListener, magnetometer, SensorManager.SENSOR_DELAY_UI);
-            Log.d(TAG, "Magnetometer listener registered.");
+        Log.d(TAG, "Location Updated: " + fix);
+        if (locationIntervalMillis != 0 && locationIntervalMillis != locationFusion.updateIntervalMillis()) {
+            requestLocationUpdates();
+        }
+    }
+
+    /** (Re-)requests updates from both providers at the fusion's current rate. */
+    private void requestLocationUpdates() {
+        long interval = locationFusion.updateIntervalMillis();
+        float distance = LocationFusion.UPDATE_DISTANCE_METERS;
+        try {
+            locationManager.removeUpdates(locationListener);
+            locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, interval, distance, locationListener);
+            locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER, interval, distance, locationListener);
+            locationIntervalMillis = interval;
+            Log.d(TAG, "Location updates every " + interval + " ms / " + distance + " m");
+        } catch (SecurityException e) {
+            Log.e(TAG, "Failed to register location listener", e);
         }
     }
 
     private void unregisterSensorListeners() {
         if (locationManager != null && locationListener != null) {
             locationManager.removeUpdates(locationListener);
+            locationIntervalMillis = 0;
+            locationFusion.resetMotion(); // Nobody watches for movement until the listeners are back
             Log.d(TAG, "Location listeners unregistered.");
         }
-        if (sensorManager != null && accelerometerListener != null) {
-            sensorManager.unregisterListener(accelerometerListener);
-            Log.d(TAG, "Accelerometer listener unregistered.");
+        if (orientationEngine != null) {
+            orientationEngine.stop();
         }
     }
 
-    private void processImage(String imagePath) {
-        Mat image = Imgcodecs.imread(imagePath);
+    /** Runs on the still stage. */
+    private void processImage(String imagePath, long captureNanos, boolean shortExposure) {
+        // Keep the sensor's pixel layout (no EXIF rotation) so the camera intrinsics apply as they are
+        long decodeStart = metrics.startTimer();
+        Mat image = Imgcodecs.imread(imagePath, Imgcodecs.IMREAD_COLOR | Imgcodecs.IMREAD_IGNORE_ORIENTATION);
+        metrics.stopTimer(Metrics.STAGE_DECODE, decodeStart);
         if (image.empty()) {
             Log.e(TAG, "Failed to load image: " + imagePath);
+            image.release();
             return;
         }
 
-        Mat grayImage = new Mat();
-        Imgproc.cvtColor(image, grayImage, Imgproc.COLOR_BGR2GRAY);
-
-        // Find the brightest spot
-        Core.MinMaxLocResult mmr = Core.minMaxLoc(grayImage);
-        Point brightestPoint = mmr.maxLoc;
-        double maxVal = mmr.maxVal;
-
-        Log.d(TAG, "Brightest point at: " + brightestPoint + " with intensity: " + maxVal);
-
-        // Simple thresholding based on the max brightness (e.g., 80% of max)
-        Mat thresholdImage = new Mat();
-        double thresholdValue = maxVal * 0.8;
-        Imgproc.threshold(grayImage, thresholdImage, thresholdValue, 255, Imgproc.THRESH_BINARY);
+        if (stillDetector == null) {
+            stillDetector = new SunDetector(image.cols(), image.rows());
+        }
+        PixelRayTable rays = stillRayTable(image.cols(), image.rows());
+        stillDetector.setMinContourArea(SunExposure.minContourArea(rays.intrinsics(), shortExposure));
+        long detectStart = metrics.startTimer();
+        stillDetector.detectBgr(image, stillDetection);
+        metrics.stopTimer(Metrics.STAGE_DETECT, detectStart);
+        image.release();
+        projectStage.offer(new PendingDetection(stillDetection, rays, captureNanos));
+    }
 
-        List<MatOfPoint> contours = new ArrayList<>();
-        Mat hierarchy = new Mat();
-        Imgproc.findContours(thresholdImage, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+    /**
+     * Tracking-path counterpart of processImage(), for frames that already are grayscale; see
+     * {@link TrackingDetector}. At the short exposure only the disk is bright, so the floor for a
+     * candidate follows its expected size, and the frame's peak steers {@code exposure}. Runs on the
+     * frame stage.
+     *
+     * @param exposure the sun exposure control if the frame was taken at the short exposure, else null
+     */
+    private void processGrayFrame(Mat grayImage, long captureNanos, SunExposureControl exposure) {
+        PixelRayTable rays = frameRayTable(grayImage.cols(), grayImage.rows());
+        boolean shortExposure = exposure != null;
+        frameTracking.detect(grayImage, captureNanos, SunExposure.minContourArea(rays.intrinsics(), shortExposure),
+                frameDetection);
+        if (shortExposure) {
+            exposure.onFrame(frameDetection.brightestValue);
+        }
+        projectStage.offer(new PendingDetection(frameDetection, rays, captureNanos));
+    }
 
-        double maxArea = 0;
-        Point detectedCenter = null;
-        double detectedRadius = 0;
+    private void setCameraIntrinsics(CameraIntrinsics intrinsics) {
+        synchronized (cameraLock) {
+            cameraIntrinsics = intrinsics;
+            cameraFovHorizontal = (float) intrinsics.horizontalFov();
+            cameraFovVertical = (float) intrinsics.verticalFov();
+            stillRays = null; // Rebuilt from the new intrinsics on next use
+            frameRays = null;
+        }
+        Log.i(TAG, "Camera FOV - H: " + intrinsics.horizontalFov() + ", V: " + intrinsics.verticalFov());
+    }
 
-        for (MatOfPoint contour : contours) {
-            double area = Imgproc.contourArea(contour);
-            if (area < 100) continue; // Filter out small noise
+    private PixelRayTable stillRayTable(int width, int height) {
+        synchronized (cameraLock) {
+            stillRays = rayTableFor(stillRays, width, height);
+            return stillRays;
+        }
+    }
 
-            MatOfPoint2f contour2f = new MatOfPoint2f(contour.toArray());
-            Point center = new Point();
-            float[] radius = new float[1];
-            Imgproc.minEnclosingCircle(contour2f, center, radius);
+    private PixelRayTable frameRayTable(int width, int height) {
+        synchronized (cameraLock) {
+            frameRays = rayTableFor(frameRays, width, height);
+            return frameRays;
+        }
+    }
 
-            double circularity = 4 * Math.PI * area / (Math.pow(Imgproc.arcLength(contour2f, true), 2));
+    /**
+     * Returns {@code current} if it is for this image size, else a new table (built once per stream,
+     * not per frame). Holding cameraLock.
+     */
+    private PixelRayTable rayTableFor(PixelRayTable current, int width, int height) {
+        if (current != null && current.width() == width && current.height() == height) {
+            return current;
+        }
+        CameraIntrinsics intrinsics = cameraIntrinsics != null
+                ? cameraIntrinsics.forImage(width, height)
+                : CameraIntrinsics.fromFieldOfView(width, height, cameraFovHorizontal, cameraFovVertical,
+                        DEFAULT_SENSOR_ORIENTATION);
+        return new PixelRayTable(intrinsics);
+    }
 
-            Log.d(TAG, "Contour: area=" + area + ", circularity=" + circularity + ", center=" + center + ", radius=" + radius[0]);
+    /**
+     * Turns a detection into world angles and reports them. Runs on the project stage, for stills and
+     * tracked frames alike, which owns the projector and the calibration. Runs for every
+     * tracked frame, so the detailed logging (and the string building that comes with it) only happens
+     * with {@code adb shell setprop log.tag.MainActivity DEBUG}.
+     */
+    private void processDetection(SunDetection detection, PixelRayTable rays, long captureNanos) {
+        boolean verbose = Log.isLoggable(TAG, Log.DEBUG);
+        // Wall time as of the exposure, like the orientation and location the reporter pairs it with; the
+        // detection may have waited in the queues for a while
+        long wallMillis = System.currentTimeMillis() - (SystemClock.elapsedRealtimeNanos() - captureNanos) / 1_000_000;
+        if (!reporter.project(detection, rays, captureNanos, magneticDeclination, wallMillis)) {
+            if (verbose) {
+                Log.d(TAG, "No orientation estimate yet; detection dropped.");
+            }
+            return;
+        }
+        GeoFix location = reporter.location();
+        float[] orientation = reporter.orientationDegrees();
+        if (verbose) {
+            Log.d(TAG, "Brightest point at: (" + detection.brightestX + ", " + detection.brightestY
+                    + ") with intensity: " + detection.brightestValue);
+        }
 
-            // Prioritize larger, more circular objects that are bright
-            if (circularity > 0.6 && area > maxArea) { // Adjust circularity threshold as needed
-                // Check if the center of this contour is close to the brightest point found earlier
-                // This helps to ensure we are picking a bright, circular object
-                double dist = Math.sqrt(Math.pow(center.x - brightestPoint.x, 2) + Math.pow(center.y - brightestPoint.y, 2));
-                if (dist < radius[0] * 2) { // Allow some tolerance
-                    maxArea = area;
-                    detectedCenter = center;
-                    detectedRadius = radius[0];
+        if (projector.hasObject()) {
+            if (verbose) {
+                double objectAzimuth = projector.azimuth();
+                double objectElevation = projector.elevation();
+                Log.d(TAG, "Sun/Moon detected at: (" + detection.centerX + ", " + detection.centerY
+                        + ") with radius: " + detection.radius);
+                Log.d(TAG, "Object ray in camera coordinates: (" + projector.normalizedX() + ", "
+                        + projector.normalizedY() + ", 1)");
+                Log.d(TAG, "Device State: Azimuth=" + orientation[0] + ", Pitch=" + orientation[1]
+                        + ", Roll=" + orientation[2]);
+                Log.d(TAG, "Calibrated Object World Azimuth/Elevation (deg): " + objectAzimuth + ", " + objectElevation
+                        + " using " + calibration);
+                if (location != null) {
+                    SolarPosition expectedSun = projector.expectedSun();
+                    double azimuthError = ((objectAzimuth - expectedSun.azimuth + 540) % 360) - 180;
+                    Log.d(TAG, "Expected sun: Azimuth=" + expectedSun.azimuth + ", Elevation=" + expectedSun.elevation
+                            + " (measured - expected: " + azimuthError + ", " + (objectElevation - expectedSun.elevation) + ")");
                 }
             }
+        } else if (verbose) {
+            Log.d(TAG, "Sun/Moon not detected with high confidence.");
         }
 
-        if (detectedCenter != null) {
-            Log.i(TAG, "Sun/Moon detected at: " + detectedCenter + " with radius: " + detectedRadius);
-            // For now, just log. Later, this data will be used.
-            // You might want to draw on the original image for debugging:
-            // Imgproc.circle(image, detectedCenter, (int) detectedRadius, new Scalar(0, 255, 0), 3);
-            // Imgproc.putText(image, "Object", detectedCenter, Imgproc.FONT_HERSHEY_SIMPLEX, 1.0, new Scalar(0,0,255));
-            // Imgcodecs.imwrite(imagePath.replace(".jpg", "_processed.jpg"), image);
-
-            // Calculate angular offsets
-            // Mat image = Imgcodecs.imread(imagePath); // image is already loaded
-            int imageWidth = image.cols();
-            int imageHeight = image.rows();
-
-            double x_offset_deg = Math.toDegrees(Math.atan2(detectedCenter.x - imageWidth / 2.0,
-                    (imageWidth / 2.0) / Math.tan(Math.toRadians(cameraFovHorizontal / 2.0))));
-            double y_offset_deg = Math.toDegrees(Math.atan2(detectedCenter.y - imageHeight / 2.0,
-                    (imageHeight / 2.0) / Math.tan(Math.toRadians(cameraFovVertical / 2.0))));
-
-            Log.d(TAG, "Object offset from camera center (deg): H=" + x_offset_deg + ", V=" + y_offset_deg);
-
-            float deviceAzimuth = lastOrientation[0];
-            float devicePitch = lastOrientation[1];
-            float deviceRoll = lastOrientation[2];
-
-            objectAzimuth = (deviceAzimuth + x_offset_deg + 360) % 360;
-            objectElevation = devicePitch - y_offset_deg; // y_offset is positive if object is below center, so subtract
-
-            Log.i(TAG, "Device State: Azimuth=" + deviceAzimuth + ", Pitch=" + devicePitch + ", Roll=" + deviceRoll);
-            Log.i(TAG, "Object Offsets (camera frame): H_offset=" + x_offset_deg + ", V_offset=" + y_offset_deg);
-            Log.w(TAG, "ROUGH ESTIMATE Object World Azimuth (deg): " + objectAzimuth);
-            Log.w(TAG, "ROUGH ESTIMATE Object World Elevation (deg): " + objectElevation);
+        // Log sensor data (now includes refined orientation)
+        if (verbose) {
+            if (location != null) {
+                Log.d(TAG, "Current Location: Lat " + location.latitude + ", Lon " + location.longitude + ", Alt " + location.altitude);
+            } else {
+                Log.d(TAG, "Current Location: Unknown");
+            }
+            Log.d(TAG, "Current Orientation (Az,El,Roll degrees): " + Arrays.toString(orientation));
+        }
+        sendDataToServer(); // Call data sending method
+    }
 
-        } else {
-            Log.i(TAG, "Sun/Moon not detected with high confidence.");
-            objectAzimuth = -1.0; // Reset if not detected
-            objectElevation = -1.0;
+    /** Runs on the project stage, like everything else that touches the calibration. */
+    private void loadCalibration() {
+        File file = new File(getFilesDir(), CALIBRATION_FILE);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            calibration.readFrom(in);
+            Log.i(TAG, "Loaded " + calibration);
+        } catch (FileNotFoundException e) {
+            Log.d(TAG, "No saved compass calibration yet.");
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable compass calibration", e);
+            calibration.reset();
         }
+    }
 
-        // Log sensor data (now includes refined orientation)
-        if (lastKnownLocation != null) {
-            Log.i(TAG, "Current Location: Lat " + lastKnownLocation.getLatitude() + ", Lon " + lastKnownLocation.getLongitude() + ", Alt " + lastKnownLocation.getAltitude());
-        } else {
-            Log.i(TAG, "Current Location: Unknown");
+    /**
+     * Written to a temporary file and renamed, so a crash mid-write keeps the previous calibration.
+     * Runs on the project stage.
+     */
+    private void saveCalibration() {
+        if (calibration.samples() == 0) {
+            return;
+        }
+        File file = new File(getFilesDir(), CALIBRATION_FILE);
+        File tmp = new File(getFilesDir(), CALIBRATION_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            calibration.writeTo(out);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save compass calibration", e);
+            return;
+        }
+        if (!tmp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace " + file);
         }
-        Log.i(TAG, "Current Orientation (Az,El,Roll degrees): " + Arrays.toString(lastOrientation));
-        sendDataToServer(); // Call data sending method
     }
 
     private void sendDataToServer() {
-        if (lastKnownLocation == null && objectAzimuth == -1) {
+        float fovHorizontal;
+        float fovVertical;
+        synchronized (cameraLock) {
+            fovHorizontal = cameraFovHorizontal;
+            fovVertical = cameraFovVertical;
+        }
+        Observation observation = reporter.observation(deviceId, fovHorizontal, fovVertical);
+        if (observation == null) {
             Log.d(TAG, "No valid data to send to server.");
             return;
         }
 
-        String androidId = Secure.getString(getContentResolver(), Secure.ANDROID_ID);
-        if (androidId == null) androidId = "unknown_device";
-
-        try {
-            JSONObject jsonData = new JSONObject();
-            jsonData.put("timestamp", System.currentTimeMillis());
-            jsonData.put("deviceId", androidId);
-
-            if (lastKnownLocation != null) {
-                jsonData.put("latitude", lastKnownLocation.getLatitude());
-                jsonData.put("longitude", lastKnownLocation.getLongitude());
-                jsonData.put("altitude", lastKnownLocation.getAltitude());
-            }
+        // Persisted on the persist stage; batching, compression and retries happen on the queue's thread
+        persistStage.offer(observation);
+    }
 
-            // Device Orientation
-            jsonData.put("deviceAzimuth", lastOrientation[0]);
-            jsonData.put("devicePitch", lastOrientation[1]);
-            jsonData.put("deviceRoll", lastOrientation[2]);
+    private void createPipeline() {
+        stillStage = new PipelineStage<>("still", STILL_QUEUE_CAPACITY, PipelineStage.BLOCK,
+                still -> processImage(still.path, still.shutterNanos, still.shortExposure), null, null, metrics);
+        frameStage = new PipelineStage<>("frame", FRAME_QUEUE_CAPACITY, PipelineStage.DROP_OLDEST,
+                this::analyzeFrame, frame -> frame.image.close(), null, metrics);
+        projectStage = new PipelineStage<>("project", DETECTION_QUEUE_CAPACITY, PipelineStage.BLOCK,
+                pending -> processDetection(pending.detection, pending.rays, pending.captureNanos),
+                null, null, metrics);
+        persistStage = new PipelineStage<>("persist", OBSERVATION_QUEUE_CAPACITY, PipelineStage.BLOCK,
+                observation -> {
+                    try {
+                        observationStore.append(observation);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to record observation: " + e.getMessage(), e);
+                    }
+                    try {
+                        observationQueue.enqueue(observation);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Failed to queue data for server: " + e.getMessage(), e);
+                    }
+                }, null, null, metrics);
+    }
 
-            if (objectAzimuth != -1 && objectElevation != -1) {
-                jsonData.put("objectWorldAzimuth", objectAzimuth);
-                jsonData.put("objectWorldElevation", objectElevation);
-            }
+    /** A saved still on its way to the still stage. */
+    private static final class StillCapture {
+        final String path;
+        final long shutterNanos;
+        final boolean shortExposure;
 
-            jsonData.put("cameraFovHorizontal", cameraFovHorizontal);
-            jsonData.put("cameraFovVertical", cameraFovVertical);
+        StillCapture(String path, long shutterNanos, boolean shortExposure) {
+            this.path = path;
+            this.shutterNanos = shutterNanos;
+            this.shortExposure = shortExposure;
+        }
+    }
 
-            RequestBody body = RequestBody.create(jsonData.toString(), JSON);
-            Request request = new Request.Builder()
-                    .url(SERVER_URL)
-                    .post(body)
-                    .build();
+    /** An analysis frame on its way to the frame stage, with its timestamp taken on arrival. */
+    private static final class AnalysisFrame {
+        final ImageProxy image;
+        final long timestampNanos;
 
-            httpClient.newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(@NonNull Call call, @NonNull IOException e) {
-                    Log.e(TAG, "Failed to send data to server: " + e.getMessage(), e);
-                }
+        AnalysisFrame(ImageProxy image, long timestampNanos) {
+            this.image = image;
+            this.timestampNanos = timestampNanos;
+        }
+    }
 
-                @Override
-                public void onResponse(@NonNull Call call, @NonNull Response response) throws IOException {
-                    String responseBody = response.body().string(); // Read once
-                    if (response.isSuccessful()) {
-                        Log.i(TAG, "Data sent to server successfully. Response: " + responseBody);
-                    } else {
-                        Log.w(TAG, "Failed to send data. Server responded with: " + response.code() + " " + response.message());
-                        Log.w(TAG, "Response body: " + responseBody);
-                    }
-                    // For OkHttp 4.x, response.body().string() closes the body.
-                    // Explicitly closing the response itself is good practice if not using try-with-resources for the response.
-                    response.close();
-                }
-            });
+    /** A detection on its way to the project stage; a copy, since the detect stages reuse theirs. */
+    private static final class PendingDetection {
+        final SunDetection detection = new SunDetection();
+        final PixelRayTable rays;
+        final long captureNanos;
 
-        } catch (Exception e) {
-            Log.e(TAG, "Error preparing data for server: " + e.getMessage(), e);
+        PendingDetection(SunDetection detection, PixelRayTable rays, long captureNanos) {
+            this.detection.set(detection);
+            this.rays = rays;
+            this.captureNanos = captureNanos;
         }
     }
 }
@@ -0,0 +1,118 @@
+package com.example.whereisthesun;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+/**
+ * Feeds SensorManager events into an {@link OrientationTracker} on its own HandlerThread, which
+ * publishes the orientation for other threads through {@link #tracker()}. Uses the platform rotation
+ * vector when the device has one, otherwise fuses gyroscope, accelerometer and magnetometer with a
+ * {@link MadgwickFilter}.
+ *
+ * The sensor callback does not allocate, and the tracker keeps every estimate in an
+ * {@link OrientationHistory}, so a frame can be paired with the orientation at its exposure without
+ * ever blocking the sensor thread.
+ */
+public class OrientationEngine implements SensorEventListener {
+    private static final String TAG = "OrientationEngine";
+    private static final int SENSOR_DELAY = SensorManager.SENSOR_DELAY_GAME;
+
+    private final SensorManager sensorManager;
+    private final Sensor rotationVector;
+    private final Sensor gyroscope;
+    private final Sensor accelerometer;
+    private final Sensor magnetometer;
+    private final OrientationFilter filter;
+    private final OrientationTracker tracker;
+
+    private HandlerThread thread;
+    private volatile Recording.Writer recorder; // Gets every raw event while set
+
+    /** @param metrics counts sensor events */
+    public OrientationEngine(SensorManager sensorManager, Metrics metrics) {
+        this.sensorManager = sensorManager;
+        rotationVector = sensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        gyroscope = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        accelerometer = sensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        magnetometer = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        if (rotationVector != null) {
+            filter = new RotationVectorFilter();
+        } else {
+            filter = new MadgwickFilter();
+            if (gyroscope == null) {
+                Log.w(TAG, "Gyroscope not available, orientation will be noisier.");
+            }
+            if (magnetometer == null) {
+                Log.w(TAG, "Magnetometer not available, orientation accuracy will be lower.");
+            }
+        }
+        tracker = new OrientationTracker(filter, metrics);
+    }
+
+    public synchronized void start() {
+        if (thread != null) {
+            return;
+        }
+        thread = new HandlerThread("OrientationEngine");
+        thread.start();
+        Handler handler = new Handler(thread.getLooper());
+        handler.post(tracker::reset); // Stale state from before a pause would only skew the restart
+        if (rotationVector != null) {
+            sensorManager.registerListener(this, rotationVector, SENSOR_DELAY, handler);
+        } else {
+            register(gyroscope, handler);
+            register(accelerometer, handler);
+            register(magnetometer, handler);
+        }
+        Log.d(TAG, "Orientation listeners registered (" + filter.getClass().getSimpleName() + ").");
+    }
+
+    public synchronized void stop() {
+        if (thread == null) {
+            return;
+        }
+        sensorManager.unregisterListener(this);
+        thread.quitSafely();
+        thread = null;
+        tracker.clearLatest();
+        Log.d(TAG, "Orientation listeners unregistered.");
+    }
+
+    /** The Recording.FILTER_* the events are fused with, for replaying a recording of them. */
+    public int filterType() {
+        return rotationVector != null ? Recording.FILTER_ROTATION_VECTOR : Recording.FILTER_MADGWICK;
+    }
+
+    /** Records every raw sensor event to {@code recorder} from now on; null stops. */
+    public void setRecorder(Recording.Writer recorder) {
+        this.recorder = recorder;
+    }
+
+    /** Orientation estimates for any thread; fed by this engine while it runs. */
+    public OrientationTracker tracker() {
+        return tracker;
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        Recording.Writer r = recorder;
+        if (r != null) {
+            r.sensor(event.sensor.getType(), event.timestamp, event.values);
+        }
+        tracker.onSensorEvent(event.sensor.getType(), event.timestamp, event.values);
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+
+    private void register(Sensor sensor, Handler handler) {
+        if (sensor != null) {
+            sensorManager.registerListener(this, sensor, SENSOR_DELAY, handler);
+        }
+    }
+}
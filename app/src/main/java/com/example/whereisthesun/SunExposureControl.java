@@ -0,0 +1,227 @@
+package com.example.whereisthesun;
+
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import androidx.annotation.NonNull;
+import androidx.annotation.experimental.UseExperimental;
+import androidx.camera.camera2.interop.Camera2CameraControl;
+import androidx.camera.camera2.interop.Camera2CameraInfo;
+import androidx.camera.camera2.interop.Camera2Interop;
+import androidx.camera.camera2.interop.CaptureRequestOptions;
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
+import androidx.camera.core.Camera;
+import androidx.camera.core.ExtendableBuilder;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Switches a bound camera between its normal auto exposure and the short manual exposure of
+ * {@link SunExposure}, through Camera2 interop. The options apply to the repeating request and to
+ * still captures alike. CameraX runs Preview and ImageAnalysis from one repeating request, so while
+ * tracking with the short exposure the preview shows it too (a dark sky with the disk in it); a still
+ * is bracketed instead: switched in for the shot and back out afterwards.
+ *
+ * Asking for the options is not the same as getting them. Analysis frames count as short exposure
+ * only once the future of {@link #enable()} has completed and {@link SunExposure#SETTLE_FRAMES} more
+ * frames have gone by, and a still only once {@link #awaitInEffect} has seen a capture result with
+ * the requested settings, which needs {@link Results} attached to a use case of the session.
+ *
+ * Cameras without the MANUAL_SENSOR capability get their lowest auto-exposure compensation, which
+ * only takes off a few stops but still shrinks the halo. Thread-safe.
+ */
+final class SunExposureControl {
+    private static final String TAG = "SunExposure";
+    private static final long FRAME_DURATION_NANOS = 33_333_333L; // 30 fps; required with AE off
+    private static final long EXPOSURE_TOLERANCE_DIVISOR = 8; // Sensors round to whole line times
+
+    private final Camera2CameraControl control;
+    private final Results results;
+    private final SunExposure exposure; // Null without manual sensor control
+    private final int minCompensation;
+    private boolean active;   // Asked for
+    private boolean applied;  // And the camera has taken the options
+    private int settling;     // Frames to skip after that, still in flight with the old settings
+    private int generation;   // Of enable() and disable() calls, so a late future does not count
+
+    private SunExposureControl(Camera2CameraControl control, Results results, SunExposure exposure,
+                               int minCompensation) {
+        this.control = control;
+        this.results = results;
+        this.exposure = exposure;
+        this.minCompensation = minCompensation;
+    }
+
+    /** @param results attached with {@link Results#attach} to a use case bound to {@code camera} */
+    @UseExperimental(markerClass = ExperimentalCamera2Interop.class)
+    static SunExposureControl create(Camera camera, Results results) {
+        Camera2CameraInfo info = Camera2CameraInfo.from(camera.getCameraInfo());
+        int[] capabilities = info.getCameraCharacteristic(CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+        boolean manualSensor = false;
+        if (capabilities != null) {
+            for (int capability : capabilities) {
+                manualSensor |= capability == CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES_MANUAL_SENSOR;
+            }
+        }
+        Range<Long> exposureTimes = info.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_EXPOSURE_TIME_RANGE);
+        Range<Integer> sensitivities = info.getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_SENSITIVITY_RANGE);
+        Range<Integer> compensation = info.getCameraCharacteristic(CameraCharacteristics.CONTROL_AE_COMPENSATION_RANGE);
+
+        SunExposure exposure = null;
+        if (manualSensor && exposureTimes != null && sensitivities != null) {
+            exposure = new SunExposure(exposureTimes.getLower(), exposureTimes.getUpper(),
+                    sensitivities.getLower(), sensitivities.getUpper());
+            Log.i(TAG, "Manual sensor control, starting at " + exposure);
+        } else {
+            Log.i(TAG, "No manual sensor control, using the lowest exposure compensation");
+        }
+        return new SunExposureControl(Camera2CameraControl.from(camera.getCameraControl()), results, exposure,
+                compensation != null ? compensation.getLower() : 0);
+    }
+
+    /** Switches to the short exposure, starting over from its initial settings. */
+    synchronized ListenableFuture<Void> enable() {
+        active = true;
+        applied = false;
+        settling = SunExposure.SETTLE_FRAMES;
+        if (exposure != null) {
+            exposure.reset();
+        }
+        int enabled = ++generation;
+        ListenableFuture<Void> future = apply();
+        future.addListener(() -> onApplied(future, enabled), Runnable::run);
+        return future;
+    }
+
+    /** Back to auto exposure. */
+    @UseExperimental(markerClass = ExperimentalCamera2Interop.class)
+    synchronized ListenableFuture<Void> disable() {
+        active = false;
+        applied = false;
+        generation++;
+        return control.clearCaptureRequestOptions();
+    }
+
+    /** Whether the short exposure is asked for, though perhaps not yet in effect. */
+    synchronized boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Whether an analysis frame arriving now was taken at the short exposure; call once per frame, on
+     * any thread. False until the options have reached the camera and the frames in flight have passed.
+     */
+    synchronized boolean onAnalysisFrame() {
+        if (!applied) {
+            return false;
+        }
+        if (settling > 0) {
+            settling--;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Steers the short exposure by the peak brightness of a frame taken with it; any thread. Applies
+     * the new settings when they change, which is rare once they have settled.
+     */
+    synchronized void onFrame(double peakValue) {
+        if (applied && exposure != null && exposure.update(peakValue)) {
+            Log.d(TAG, "Now " + exposure);
+            apply();
+        }
+    }
+
+    @UseExperimental(markerClass = ExperimentalCamera2Interop.class)
+    private ListenableFuture<Void> apply() {
+        CaptureRequestOptions.Builder options = new CaptureRequestOptions.Builder();
+        if (exposure != null) {
+            options.setCaptureRequestOption(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_OFF)
+                    .setCaptureRequestOption(CaptureRequest.SENSOR_EXPOSURE_TIME, exposure.exposureNanos())
+                    .setCaptureRequestOption(CaptureRequest.SENSOR_SENSITIVITY, exposure.iso())
+                    .setCaptureRequestOption(CaptureRequest.SENSOR_FRAME_DURATION, FRAME_DURATION_NANOS);
+        } else {
+            options.setCaptureRequestOption(CaptureRequest.CONTROL_AE_EXPOSURE_COMPENSATION, minCompensation);
+        }
+        return control.setCaptureRequestOptions(options.build());
+    }
+
+    private synchronized void onApplied(ListenableFuture<Void> future, int enabled) {
+        if (enabled != generation) {
+            return; // Disabled or enabled again since
+        }
+        try {
+            future.get();
+            applied = true;
+        } catch (Exception e) { // Camera closed, or the options superseded
+            Log.w(TAG, "Short exposure not applied", e);
+        }
+    }
+
+    /**
+     * Waits until a capture result shows the short exposure in effect, for a still to be taken at it.
+     * Blocks; not for the main thread.
+     *
+     * @return whether it was in effect within {@code timeoutMillis}; false too once it is disabled
+     */
+    boolean awaitInEffect(long timeoutMillis) throws InterruptedException {
+        long deadline = SystemClock.elapsedRealtime() + timeoutMillis;
+        synchronized (results) {
+            while (!inEffect()) {
+                long remaining = deadline - SystemClock.elapsedRealtime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                results.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    // Holds results' lock; nothing holding this one takes that, so the order cannot invert
+    private synchronized boolean inEffect() {
+        if (!active) {
+            return false;
+        }
+        if (exposure == null) {
+            return results.compensation != null && results.compensation == minCompensation;
+        }
+        long expected = exposure.exposureNanos();
+        return results.aeMode != null && results.aeMode == CaptureResult.CONTROL_AE_MODE_OFF
+                && results.exposureNanos != null
+                && Math.abs(results.exposureNanos - expected) <= expected / EXPOSURE_TOLERANCE_DIVISOR;
+    }
+
+    /**
+     * The exposure settings of the latest completed capture of a session, kept from a session capture
+     * callback; create one before binding and {@link #attach} it to a use case that is always
+     * streaming. Callbacks arrive on the camera's own thread.
+     */
+    static final class Results extends CameraCaptureSession.CaptureCallback {
+        // Guarded by this
+        private Integer aeMode;
+        private Long exposureNanos;
+        private Integer compensation;
+
+        @UseExperimental(markerClass = ExperimentalCamera2Interop.class)
+        <T> void attach(ExtendableBuilder<T> builder) {
+            new Camera2Interop.Extender<>(builder).setSessionCaptureCallback(this);
+        }
+
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+            synchronized (this) {
+                aeMode = result.get(CaptureResult.CONTROL_AE_MODE);
+                exposureNanos = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+                compensation = result.get(CaptureResult.CONTROL_AE_EXPOSURE_COMPENSATION);
+                notifyAll();
+            }
+        }
+    }
+}
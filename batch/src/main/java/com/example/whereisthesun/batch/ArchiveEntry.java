@@ -0,0 +1,126 @@
+package com.example.whereisthesun.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * One captured image of an archive plus the sensor state recorded with it. Archives are described by
+ * a {@code metadata.csv} next to the images, with a header row naming the columns:
+ *
+ * <pre>
+ * file,timestamp,latitude,longitude,altitude,deviceAzimuth,devicePitch,deviceRoll
+ * 1623412345678.jpg,1623412345678,47.61,-122.33,56.0,181.2,31.5,-2.1
+ * </pre>
+ *
+ * The names match the keys of the report the app sends. Column order is free and location columns
+ * may be empty; {@code file} is resolved against the archive directory.
+ */
+final class ArchiveEntry {
+    final int index;          // Row in metadata.csv (0-based, header excluded)
+    final File image;
+    final long timestamp;
+    final double latitude;    // NaN when unknown
+    final double longitude;
+    final double altitude;
+    final float deviceAzimuth;
+    final float devicePitch;
+    final float deviceRoll;
+
+    private ArchiveEntry(int index, File image, long timestamp, double latitude, double longitude,
+                         double altitude, float deviceAzimuth, float devicePitch, float deviceRoll) {
+        this.index = index;
+        this.image = image;
+        this.timestamp = timestamp;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        this.deviceAzimuth = deviceAzimuth;
+        this.devicePitch = devicePitch;
+        this.deviceRoll = deviceRoll;
+    }
+
+    /** Streams entries out of a metadata.csv without loading the whole archive index. */
+    static final class Reader {
+        private final File archiveDir;
+        private final BufferedReader in;
+        private final int fileColumn;
+        private final int timestampColumn;
+        private final int latitudeColumn;
+        private final int longitudeColumn;
+        private final int altitudeColumn;
+        private final int azimuthColumn;
+        private final int pitchColumn;
+        private final int rollColumn;
+        private int nextIndex = 0;
+
+        Reader(File archiveDir, BufferedReader in) throws IOException {
+            this.archiveDir = archiveDir;
+            this.in = in;
+            String header = in.readLine();
+            if (header == null) {
+                throw new IOException("metadata.csv is empty");
+            }
+            String[] names = header.trim().split(",");
+            fileColumn = requireColumn(names, "file");
+            timestampColumn = requireColumn(names, "timestamp");
+            latitudeColumn = column(names, "latitude");
+            longitudeColumn = column(names, "longitude");
+            altitudeColumn = column(names, "altitude");
+            azimuthColumn = requireColumn(names, "deviceAzimuth");
+            pitchColumn = requireColumn(names, "devicePitch");
+            rollColumn = column(names, "deviceRoll");
+        }
+
+        /** @return the next entry, or null at the end of the file */
+        ArchiveEntry next() throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                if (line == null) {
+                    return null;
+                }
+            } while (line.trim().isEmpty());
+
+            String[] fields = line.split(",", -1);
+            int index = nextIndex++;
+            try {
+                return new ArchiveEntry(index,
+                        new File(archiveDir, fields[fileColumn].trim()),
+                        Long.parseLong(fields[timestampColumn].trim()),
+                        optionalDouble(fields, latitudeColumn),
+                        optionalDouble(fields, longitudeColumn),
+                        optionalDouble(fields, altitudeColumn),
+                        Float.parseFloat(fields[azimuthColumn].trim()),
+                        Float.parseFloat(fields[pitchColumn].trim()),
+                        rollColumn < 0 ? 0f : Float.parseFloat(fields[rollColumn].trim()));
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed metadata row " + (index + 1) + ": " + line, e);
+            }
+        }
+
+        private static double optionalDouble(String[] fields, int column) {
+            if (column < 0 || column >= fields.length || fields[column].trim().isEmpty()) {
+                return Double.NaN;
+            }
+            return Double.parseDouble(fields[column].trim());
+        }
+
+        private static int column(String[] names, String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].trim().equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private static int requireColumn(String[] names, String name) throws IOException {
+            int column = column(names, name);
+            if (column < 0) {
+                throw new IOException("metadata.csv has no '" + name + "' column");
+            }
+            return column;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example.whereisthesun.batch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import nu.pattern.OpenCV;
+
+/**
+ * Headless re-processing of a captured image archive:
+ *
+ * <pre>
+ * batch [--threads N] [--fov-h DEG] [--fov-v DEG] [--sensor-orientation DEG] [--full-frame] ARCHIVE_DIR OUTPUT_FILE
+ * </pre>
+ *
+ * ARCHIVE_DIR must contain a metadata.csv (see {@link ArchiveEntry}); results are written in the
+ * format described in {@link ColumnarResultWriter}.
+ */
+public final class BatchMain {
+    private static final int ROW_GROUP_SIZE = 4096;
+
+    private BatchMain() {}
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        float fovHorizontal = 60.0f; // Same defaults as the app
+        float fovVertical = 45.0f;
+        int sensorOrientation = 90;
+        boolean multiResolution = true;
+        String archivePath = null;
+        String outputPath = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads":
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "--fov-h":
+                    fovHorizontal = Float.parseFloat(args[++i]);
+                    break;
+                case "--fov-v":
+                    fovVertical = Float.parseFloat(args[++i]);
+                    break;
+                case "--sensor-orientation":
+                    sensorOrientation = Integer.parseInt(args[++i]);
+                    break;
+                case "--full-frame":
+                    multiResolution = false;
+                    break;
+                default:
+                    if (archivePath == null) {
+                        archivePath = args[i];
+                    } else if (outputPath == null) {
+                        outputPath = args[i];
+                    } else {
+                        usage();
+                    }
+            }
+        }
+        if (archivePath == null || outputPath == null || threads < 1 || sensorOrientation % 90 != 0) {
+            usage();
+            return;
+        }
+
+        OpenCV.loadLocally();
+
+        File archiveDir = new File(archivePath);
+        File metadata = new File(archiveDir, "metadata.csv");
+        BatchProcessor processor = new BatchProcessor(threads, fovHorizontal, fovVertical, sensorOrientation,
+                multiResolution);
+        long start = System.nanoTime();
+        long rows;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(metadata), StandardCharsets.UTF_8));
+             ColumnarResultWriter writer = new ColumnarResultWriter(new File(outputPath), ROW_GROUP_SIZE)) {
+            processor.run(new ArchiveEntry.Reader(archiveDir, in), writer);
+            rows = writer.rowCount();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.err.printf("Processed %d images in %.1f s (%.1f images/s, %d threads): %d detected, %d unreadable%n",
+                rows, seconds, rows / seconds, threads, processor.found.get(), processor.unreadable.get());
+    }
+
+    private static void usage() {
+        System.err.println("usage: batch [--threads N] [--fov-h DEG] [--fov-v DEG] [--sensor-orientation DEG] [--full-frame] ARCHIVE_DIR OUTPUT_FILE");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,174 @@
+package com.example.whereisthesun.batch;
+
+import com.example.whereisthesun.CameraIntrinsics;
+import com.example.whereisthesun.CameraProjection;
+import com.example.whereisthesun.SunDetection;
+import com.example.whereisthesun.SunDetector;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * Re-runs detection and the angle math over an archive. Images are fanned out over a work-stealing
+ * pool; the number of images in flight is bounded so that memory stays flat however large the
+ * archive is, and results are streamed to the writer as they complete. Each worker thread keeps its
+ * own {@link SunDetector}, so the detector buffers are allocated once per thread, not per image.
+ */
+final class BatchProcessor {
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+
+    private final int parallelism;
+    private final float cameraFovHorizontal;
+    private final float cameraFovVertical;
+    private final int sensorOrientation;
+    private final boolean multiResolution;
+
+    private final ConcurrentLinkedQueue<SunDetector> detectors = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<SunDetector> detector = new ThreadLocal<SunDetector>() {
+        @Override
+        protected SunDetector initialValue() {
+            SunDetector d = new SunDetector(0, 0); // Sized on first use
+            d.setMultiResolution(multiResolution);
+            detectors.add(d);
+            return d;
+        }
+    };
+    private final ThreadLocal<SunDetection> detection = new ThreadLocal<SunDetection>() {
+        @Override
+        protected SunDetection initialValue() {
+            return new SunDetection();
+        }
+    };
+    private final ThreadLocal<Projection> projection = new ThreadLocal<Projection>() {
+        @Override
+        protected Projection initialValue() {
+            return new Projection();
+        }
+    };
+
+    final AtomicInteger found = new AtomicInteger();
+    final AtomicInteger unreadable = new AtomicInteger();
+
+    BatchProcessor(int parallelism, float cameraFovHorizontal, float cameraFovVertical, int sensorOrientation,
+                   boolean multiResolution) {
+        this.parallelism = parallelism;
+        this.cameraFovHorizontal = cameraFovHorizontal;
+        this.cameraFovVertical = cameraFovVertical;
+        this.sensorOrientation = sensorOrientation;
+        this.multiResolution = multiResolution;
+    }
+
+    /** Processes every entry of {@code reader}; returns once all results have been handed to the writer. */
+    void run(ArchiveEntry.Reader reader, ColumnarResultWriter writer) throws IOException, InterruptedException {
+        int maxInFlight = parallelism * IN_FLIGHT_PER_THREAD;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ArchiveEntry entry;
+            while (failure.get() == null && (entry = reader.next()) != null) {
+                inFlight.acquire();
+                final ArchiveEntry task = entry;
+                pool.execute(() -> {
+                    try {
+                        process(task, writer);
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            inFlight.acquire(maxInFlight); // Wait for the tail of the archive
+        } finally {
+            // Interrupted or failed while reading, tasks may still be running on the detectors: they
+            // have to finish before the native buffers are freed
+            pool.shutdownNow();
+            awaitTerminationUninterruptibly(pool);
+            SunDetector d;
+            while ((d = detectors.poll()) != null) {
+                d.release();
+            }
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        } else if (t != null) {
+            throw new IOException("Batch processing failed", t);
+        }
+    }
+
+    /** Waits for the pool's tasks to finish, restoring the interrupt status if it was interrupted. */
+    private static void awaitTerminationUninterruptibly(ForkJoinPool pool) {
+        boolean interrupted = false;
+        while (!pool.isTerminated()) {
+            try {
+                pool.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void process(ArchiveEntry entry, ColumnarResultWriter writer) throws IOException {
+        // Decoding straight to grayscale lets libjpeg skip the chroma planes. Pixels stay in sensor
+        // orientation (no EXIF rotation), which is what the projection expects.
+        Mat gray = Imgcodecs.imread(entry.image.getPath(), Imgcodecs.IMREAD_GRAYSCALE | Imgcodecs.IMREAD_IGNORE_ORIENTATION);
+        try {
+            if (gray.empty()) {
+                unreadable.incrementAndGet();
+                writer.append(entry.index, entry.timestamp, ColumnarResultWriter.STATUS_UNREADABLE,
+                        Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+                return;
+            }
+
+            SunDetection result = detection.get();
+            if (!detector.get().detect(gray, result)) {
+                writer.append(entry.index, entry.timestamp, ColumnarResultWriter.STATUS_NOT_FOUND,
+                        Double.NaN, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+                return;
+            }
+
+            Projection p = projection.get();
+            p.project(entry, result, gray.cols(), gray.rows());
+            found.incrementAndGet();
+            writer.append(entry.index, entry.timestamp, ColumnarResultWriter.STATUS_FOUND,
+                    result.centerX, result.centerY, result.radius,
+                    CameraProjection.azimuth(p.world), CameraProjection.elevation(p.world));
+        } finally {
+            gray.release();
+        }
+    }
+
+    /** Per-thread projection state: intrinsics for the last image size seen and the scratch matrices. */
+    private final class Projection {
+        private CameraIntrinsics intrinsics;
+        private final double[] normalized = new double[2];
+        private final double[] deviceToWorld = new double[9];
+        private final double[] cameraToDevice = new double[9];
+        private final double[] cameraToWorld = new double[9];
+        final double[] world = new double[3];
+
+        /** Projects the detection into {@link #world} using the orientation angles the archive recorded. */
+        void project(ArchiveEntry entry, SunDetection result, int width, int height) {
+            if (intrinsics == null || intrinsics.width != width || intrinsics.height != height) {
+                intrinsics = CameraIntrinsics.fromFieldOfView(width, height, cameraFovHorizontal, cameraFovVertical,
+                        sensorOrientation);
+            }
+            intrinsics.normalize(result.centerX, result.centerY, normalized);
+            CameraProjection.matrixFromOrientation(entry.deviceAzimuth, entry.devicePitch, entry.deviceRoll, deviceToWorld);
+            CameraProjection.cameraToWorld(deviceToWorld, sensorOrientation, cameraToDevice, cameraToWorld);
+            CameraProjection.project(cameraToWorld, normalized[0], normalized[1], world);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.whereisthesun.batch;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Streams batch results into a compact columnar file. Rows are buffered into row groups; each group
+ * is written column by column, so readers can pull single columns without parsing whole rows and
+ * the writer never holds more than one group in memory.
+ *
+ * <pre>
+ * file      := "WITSCOL" version:u8 columnCount:i32 (name:utf type:u8)* group* end
+ * group     := rowCount:i32 column[0] .. column[columnCount-1]   (rowCount values each, big-endian)
+ * end       := 0:i32
+ * </pre>
+ *
+ * Rows arrive in completion order, not archive order; the {@code index} column maps each row back
+ * to its line in metadata.csv. Thread-safe.
+ */
+final class ColumnarResultWriter implements Closeable {
+    static final byte STATUS_NOT_FOUND = 0;
+    static final byte STATUS_FOUND = 1;
+    static final byte STATUS_UNREADABLE = 2;
+
+    private static final byte[] MAGIC = {'W', 'I', 'T', 'S', 'C', 'O', 'L'};
+    private static final int VERSION = 1;
+
+    private static final byte TYPE_BYTE = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+
+    private static final String[] COLUMN_NAMES = {
+            "index", "timestamp", "status", "centerX", "centerY", "radius", "objectAzimuth", "objectElevation"
+    };
+    private static final byte[] COLUMN_TYPES = {
+            TYPE_INT, TYPE_LONG, TYPE_BYTE, TYPE_FLOAT, TYPE_FLOAT, TYPE_FLOAT, TYPE_FLOAT, TYPE_FLOAT
+    };
+
+    private final DataOutputStream out;
+    private final int groupSize;
+    private final int[] index;
+    private final long[] timestamp;
+    private final byte[] status;
+    private final float[] centerX;
+    private final float[] centerY;
+    private final float[] radius;
+    private final float[] objectAzimuth;
+    private final float[] objectElevation;
+    private int rows = 0;
+    private long totalRows = 0;
+
+    ColumnarResultWriter(File file, int groupSize) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        this.groupSize = groupSize;
+        index = new int[groupSize];
+        timestamp = new long[groupSize];
+        status = new byte[groupSize];
+        centerX = new float[groupSize];
+        centerY = new float[groupSize];
+        radius = new float[groupSize];
+        objectAzimuth = new float[groupSize];
+        objectElevation = new float[groupSize];
+
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        out.writeInt(COLUMN_NAMES.length);
+        for (int i = 0; i < COLUMN_NAMES.length; i++) {
+            out.writeUTF(COLUMN_NAMES[i]);
+            out.writeByte(COLUMN_TYPES[i]);
+        }
+    }
+
+    synchronized void append(int rowIndex, long rowTimestamp, byte rowStatus, double x, double y, double r,
+                             double azimuth, double elevation) throws IOException {
+        index[rows] = rowIndex;
+        timestamp[rows] = rowTimestamp;
+        status[rows] = rowStatus;
+        centerX[rows] = (float) x;
+        centerY[rows] = (float) y;
+        radius[rows] = (float) r;
+        objectAzimuth[rows] = (float) azimuth;
+        objectElevation[rows] = (float) elevation;
+        if (++rows == groupSize) {
+            flushGroup();
+        }
+    }
+
+    synchronized long rowCount() {
+        return totalRows + rows;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            flushGroup();
+            out.writeInt(0);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void flushGroup() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        out.writeInt(rows);
+        for (int i = 0; i < rows; i++) out.writeInt(index[i]);
+        for (int i = 0; i < rows; i++) out.writeLong(timestamp[i]);
+        out.write(status, 0, rows);
+        for (int i = 0; i < rows; i++) out.writeFloat(centerX[i]);
+        for (int i = 0; i < rows; i++) out.writeFloat(centerY[i]);
+        for (int i = 0; i < rows; i++) out.writeFloat(radius[i]);
+        for (int i = 0; i < rows; i++) out.writeFloat(objectAzimuth[i]);
+        for (int i = 0; i < rows; i++) out.writeFloat(objectElevation[i]);
+        totalRows += rows;
+        rows = 0;
+    }
+}
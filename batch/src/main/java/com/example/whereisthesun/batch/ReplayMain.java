@@ -0,0 +1,108 @@
+package com.example.whereisthesun.batch;
+
+import com.example.whereisthesun.BinaryBatchEncoder;
+import com.example.whereisthesun.JsonBatchEncoder;
+import com.example.whereisthesun.Recording;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import nu.pattern.OpenCV;
+
+/**
+ * Replays a tracking session the app recorded (see {@link Recording}) through the same detection,
+ * projection and upload encoding, for profiling and for comparing builds:
+ *
+ * <pre>
+ * replay [--realtime] [--json] [--batch N] [--output FILE] RECORDING
+ * </pre>
+ *
+ * Runs as fast as it can unless {@code --realtime} paces the events as they were recorded. The upload
+ * bodies (binary, or JSON with {@code --json}, {@code N} observations each) are written to FILE if
+ * given; their SHA-256 is printed on stdout either way, so two builds produce the same digest exactly
+ * when they report the same bytes. Throughput and stage latencies go to stderr.
+ */
+public final class ReplayMain {
+    private static final int DEFAULT_BATCH_SIZE = 50; // As the app uploads
+
+    private ReplayMain() {}
+
+    public static void main(String[] args) throws Exception {
+        boolean realtime = false;
+        boolean json = false;
+        int batchSize = DEFAULT_BATCH_SIZE;
+        String outputPath = null;
+        String recordingPath = null;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--realtime":
+                    realtime = true;
+                    break;
+                case "--json":
+                    json = true;
+                    break;
+                case "--batch":
+                    batchSize = Integer.parseInt(args[++i]);
+                    break;
+                case "--output":
+                    outputPath = args[++i];
+                    break;
+                default:
+                    if (recordingPath == null) {
+                        recordingPath = args[i];
+                    } else {
+                        usage();
+                    }
+            }
+        }
+        if (recordingPath == null || batchSize < 1) {
+            usage();
+            return;
+        }
+
+        OpenCV.loadLocally();
+
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        Replayer replayer = new Replayer(json ? new JsonBatchEncoder() : new BinaryBatchEncoder(), batchSize, realtime);
+        long start = System.nanoTime();
+        boolean truncated;
+        try (Recording.Reader reader = new Recording.Reader(new FileInputStream(recordingPath));
+             OutputStream out = new DigestOutputStream(outputPath != null
+                     ? new BufferedOutputStream(new FileOutputStream(outputPath)) : new NullOutputStream(), sha256)) {
+            replayer.run(reader, out);
+            truncated = reader.truncated;
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.err.printf("Replayed %d frames (%d events, %.1f s recorded) in %.2f s: %.1f frames/s, %.1fx real time%n",
+                replayer.frames, replayer.events, replayer.recordedNanos / 1e9, seconds, replayer.frames / seconds,
+                replayer.recordedNanos / 1e9 / seconds);
+        System.err.printf("%d detections, %d observations%s%n", replayer.detections, replayer.observations,
+                truncated ? " (recording ends mid-event)" : "");
+        System.err.print(replayer.metrics.snapshot());
+        StringBuilder hex = new StringBuilder();
+        for (byte b : sha256.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        System.out.println(hex);
+    }
+
+    private static void usage() {
+        System.err.println("usage: replay [--realtime] [--json] [--batch N] [--output FILE] RECORDING");
+        System.exit(2);
+    }
+
+    /** Java 8 has no OutputStream.nullOutputStream(). */
+    private static final class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.whereisthesun.batch;
+
+import com.example.whereisthesun.BatchEncoder;
+import com.example.whereisthesun.DetectionProjector;
+import com.example.whereisthesun.DetectionReporter;
+import com.example.whereisthesun.LocationFusion;
+import com.example.whereisthesun.MadgwickFilter;
+import com.example.whereisthesun.Metrics;
+import com.example.whereisthesun.Observation;
+import com.example.whereisthesun.OrientationTracker;
+import com.example.whereisthesun.PixelRayTable;
+import com.example.whereisthesun.Recording;
+import com.example.whereisthesun.RotationVectorFilter;
+import com.example.whereisthesun.SunDetection;
+import com.example.whereisthesun.SunExposure;
+import com.example.whereisthesun.TrackingDetector;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Pushes a {@link Recording} through the app's tracking pipeline on one thread: sensor events into the
+ * same {@link OrientationTracker}, fixes into the location fusion, frames through
+ * {@link TrackingDetector} and the same {@link DetectionReporter}, and the observations through the
+ * upload encoder in batches. Nothing reads a clock that influences the result, so the encoded output
+ * is a pure function of the recording and the code; timing only goes into {@link #metrics}.
+ *
+ * On the device the stages run concurrently, so which sensor events have arrived by the time a
+ * frame's orientation is looked up varies from run to run; here each frame sees exactly the events
+ * recorded before it.
+ */
+final class Replayer {
+    final Metrics metrics = new Metrics();
+    long events;
+    long frames;
+    long detections;
+    long observations;
+    long recordedNanos; // Span of the recording's event times
+
+    private final BatchEncoder encoder;
+    private final int batchSize;
+    private final boolean realtime;
+
+    Replayer(BatchEncoder encoder, int batchSize, boolean realtime) {
+        this.encoder = encoder;
+        this.batchSize = batchSize;
+        this.realtime = realtime;
+        metrics.setEnabled(true);
+    }
+
+    /** Replays {@code reader} to its end, writing the encoded batches to {@code out}. */
+    void run(Recording.Reader reader, OutputStream out) throws IOException, InterruptedException {
+        OrientationTracker orientation = new OrientationTracker(
+                reader.orientationFilter == Recording.FILTER_ROTATION_VECTOR
+                        ? new RotationVectorFilter() : new MadgwickFilter(), metrics);
+        LocationFusion locationFusion = new LocationFusion();
+        DetectionProjector projector = new DetectionProjector(reader.calibration, metrics);
+        DetectionReporter reporter = new DetectionReporter(orientation, locationFusion, projector);
+        TrackingDetector detector = new TrackingDetector(metrics);
+        SunDetection detection = new SunDetection();
+        float declination = 0;
+        List<Observation> batch = new ArrayList<>(batchSize);
+        PixelRayTable rays = null;
+        Mat frame = null;
+
+        long firstNanos = Long.MIN_VALUE;
+        long startNanos = System.nanoTime();
+        try {
+            while (reader.next() != Recording.END) {
+                events++;
+                if (firstNanos == Long.MIN_VALUE) {
+                    firstNanos = reader.elapsedNanos;
+                }
+                recordedNanos = Math.max(recordedNanos, reader.elapsedNanos - firstNanos);
+                if (realtime) {
+                    long wait = reader.elapsedNanos - firstNanos - (System.nanoTime() - startNanos);
+                    if (wait > 0) {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    }
+                }
+
+                switch (reader.type) {
+                    case Recording.SENSOR:
+                        orientation.onSensorEvent(reader.sensorType, reader.elapsedNanos, reader.values);
+                        break;
+                    case Recording.LOCATION:
+                        locationFusion.offer(reader.fix, reader.elapsedNanos);
+                        break;
+                    case Recording.DECLINATION:
+                        declination = reader.declination;
+                        break;
+                    case Recording.FRAME:
+                        frames++;
+                        metrics.increment(Metrics.FRAMES);
+                        if (frame == null || frame.cols() != reader.width || frame.rows() != reader.height) {
+                            if (frame != null) {
+                                frame.release();
+                            }
+                            frame = new Mat(reader.height, reader.width, CvType.CV_8UC1);
+                            rays = new PixelRayTable(reader.intrinsics.forImage(reader.width, reader.height));
+                        }
+                        frame.put(0, 0, reader.pixels);
+                        detector.detect(frame, reader.elapsedNanos,
+                                SunExposure.minContourArea(rays.intrinsics(), reader.shortExposure), detection);
+
+                        // As MainActivity.processDetection()
+                        reporter.project(detection, rays, reader.elapsedNanos, declination, reader.wallMillis);
+                        if (projector.hasObject()) {
+                            detections++;
+                        }
+                        Observation observation = reporter.observation(reader.deviceId,
+                                reader.cameraFovHorizontal, reader.cameraFovVertical);
+                        if (observation == null) {
+                            break;
+                        }
+                        batch.add(observation);
+                        observations++;
+                        metrics.increment(Metrics.OBSERVATIONS);
+                        if (batch.size() == batchSize) {
+                            encoder.encode(batch, null, out); // No metrics: they would differ between runs
+                            batch.clear();
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (!batch.isEmpty()) {
+                encoder.encode(batch, null, out);
+            }
+        } finally {
+            if (frame != null) {
+                frame.release();
+            }
+            detector.release();
+        }
+    }
+}
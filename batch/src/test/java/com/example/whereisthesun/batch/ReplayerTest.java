@@ -0,0 +1,113 @@
+package com.example.whereisthesun.batch;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.whereisthesun.BinaryBatchEncoder;
+import com.example.whereisthesun.CameraIntrinsics;
+import com.example.whereisthesun.CompassCalibration;
+import com.example.whereisthesun.GeoFix;
+import com.example.whereisthesun.OrientationFilter;
+import com.example.whereisthesun.Recording;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import nu.pattern.OpenCV;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A synthetic session through {@link Replayer}: two runs over the same recording produce the same
+ * bytes, which is what makes the digest ReplayMain prints comparable between builds.
+ */
+public class ReplayerTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int FRAMES = 60;
+    private static final long FRAME_NANOS = 33_333_333L;
+    private static final long SENSOR_NANOS = 10_000_000L;
+    private static final long START_NANOS = 1_000_000_000L;
+    private static final long START_MILLIS = 1_655_805_600_000L; // 2022-06-21 10:00 UTC
+    private static final int BATCH_SIZE = 10;
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    public void sameRecordingSameDigest() throws Exception {
+        byte[] recording = record(0);
+        Replayer first = new Replayer(new BinaryBatchEncoder(), BATCH_SIZE, false);
+        byte[] firstDigest = replay(first, recording);
+        Replayer second = new Replayer(new BinaryBatchEncoder(), BATCH_SIZE, false);
+        byte[] secondDigest = replay(second, recording);
+
+        assertArrayEquals(firstDigest, secondDigest);
+        assertEquals(FRAMES, first.frames);
+        assertEquals(FRAMES, first.observations); // A fix from the start
+        assertTrue("detections " + first.detections, first.detections > FRAMES - 5);
+        assertEquals(first.detections, second.detections);
+
+        // And it does depend on what was recorded
+        byte[] shifted = replay(new Replayer(new BinaryBatchEncoder(), BATCH_SIZE, false), record(1));
+        assertFalse(Arrays.equals(firstDigest, shifted));
+    }
+
+    private static byte[] replay(Replayer replayer, byte[] recording) throws Exception {
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        try (Recording.Reader reader = new Recording.Reader(new ByteArrayInputStream(recording));
+             DigestOutputStream out = new DigestOutputStream(new ByteArrayOutputStream(), sha256)) {
+            replayer.run(reader, out);
+            assertFalse(reader.truncated);
+        }
+        return sha256.digest();
+    }
+
+    /**
+     * Orientation events at 100 Hz, one fix, and frames of a disc moving across a plain sky; the
+     * disc starts {@code shift} pixels further right.
+     */
+    private static byte[] record(int shift) throws IOException {
+        CameraIntrinsics intrinsics = new CameraIntrinsics(WIDTH, HEIGHT, 300, 300, WIDTH / 2.0, HEIGHT / 2.0,
+                0, 0, 0, 0, 0, 90);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Mat frame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC1);
+        byte[] pixels = new byte[WIDTH * HEIGHT];
+        try (Recording.Writer writer = new Recording.Writer(bytes, "replayer-test", START_MILLIS, START_NANOS,
+                Recording.FILTER_ROTATION_VECTOR, intrinsics, 55, 42, new CompassCalibration())) {
+            writer.location(START_NANOS, new GeoFix(GeoFix.PROVIDER_GPS, 48.14, 11.58, 520, 5, 0,
+                    START_MILLIS, START_NANOS));
+            writer.declination(START_NANOS, 3.5f);
+            long sensorNanos = START_NANOS;
+            for (int i = 0; i < FRAMES; i++) {
+                long frameNanos = START_NANOS + (i + 1) * FRAME_NANOS;
+                for (; sensorNanos < frameNanos; sensorNanos += SENSOR_NANOS) {
+                    // Tilted up about the device x axis, slowly turning
+                    double half = Math.toRadians(60 + (sensorNanos - START_NANOS) * 1e-9) / 2;
+                    writer.sensor(OrientationFilter.TYPE_ROTATION_VECTOR, sensorNanos,
+                            new float[] {(float) Math.sin(half), 0, 0, (float) Math.cos(half)});
+                }
+                frame.setTo(new Scalar(60));
+                Imgproc.circle(frame, new Point(80 + shift + 2 * i, 100 + i), 10, new Scalar(250), -1);
+                frame.get(0, 0, pixels);
+                writer.frame(frameNanos, START_MILLIS + (frameNanos - START_NANOS) / 1_000_000,
+                        ByteBuffer.wrap(pixels), WIDTH, HEIGHT, WIDTH, 1, false);
+            }
+        } finally {
+            frame.release();
+        }
+        return bytes.toByteArray();
+    }
+}
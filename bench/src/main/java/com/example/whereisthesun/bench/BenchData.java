@@ -0,0 +1,104 @@
+package com.example.whereisthesun.bench;
+
+import com.example.whereisthesun.Observation;
+import com.example.whereisthesun.OrientationFilter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/** Deterministic, realistic-looking inputs shared by the benchmarks. */
+final class BenchData {
+    private BenchData() {}
+
+    /** A 30 Hz tracking session from one device, with the occasional missed detection. */
+    static List<Observation> observations(int count, Random random) {
+        List<Observation> observations = new ArrayList<>(count);
+        long timestamp = 1_623_412_345_678L;
+        for (int i = 0; i < count; i++) {
+            timestamp += 33 + random.nextInt(3);
+            boolean detected = random.nextInt(10) != 0;
+            observations.add(new Observation(timestamp, "3f9a1c22b8e4d017",
+                    47.6062 + random.nextGaussian() * 1e-5, -122.3321 + random.nextGaussian() * 1e-5, 56.0,
+                    181.2f + (float) random.nextGaussian(), 31.5f + (float) random.nextGaussian(), -2.1f,
+                    detected ? 183.4 + random.nextGaussian() * 0.1 : Double.NaN,
+                    detected ? 42.7 + random.nextGaussian() * 0.1 : Double.NaN,
+                    60.0f, 45.0f));
+        }
+        return observations;
+    }
+
+    /**
+     * A grayscale sky: a vertical brightness gradient with sensor noise, the sun as a saturated disc
+     * with a soft halo at ({@code sunX}, {@code sunY}), a dimmer lens-flare blob, and {@code glints}
+     * small bright specks (water, windows, leaves) scattered over the lower half.
+     */
+    static Mat skyFrame(int width, int height, double sunX, double sunY, int glints, Random random) {
+        Mat frame = new Mat(height, width, CvType.CV_8UC1);
+        for (int row = 0; row < height; row++) {
+            frame.row(row).setTo(new Scalar(90 + 60.0 * row / height));
+        }
+        Mat noise = new Mat(height, width, CvType.CV_8UC1);
+        Core.randn(noise, 0, 6);
+        Core.add(frame, noise, frame);
+        noise.release();
+
+        double radius = width / 64.0;
+        Point sun = new Point(sunX, sunY);
+        Imgproc.circle(frame, sun, (int) (radius * 2), new Scalar(200), -1);
+        Imgproc.GaussianBlur(frame, frame, new Size(0, 0), radius / 2);
+        Imgproc.circle(frame, sun, (int) radius, new Scalar(255), -1);
+        Imgproc.circle(frame, new Point(width - sunX, height - sunY), (int) (radius * 0.6), new Scalar(170), -1);
+        for (int i = 0; i < glints; i++) {
+            Point glint = new Point(random.nextInt(width), height / 2 + random.nextInt(height / 2));
+            Imgproc.circle(frame, glint, 1 + random.nextInt(2), new Scalar(215 + random.nextInt(40)), -1);
+        }
+        return frame;
+    }
+
+    /** A 200 Hz gyroscope stream interleaved with 100 Hz accelerometer and 50 Hz magnetometer events, hand-held. */
+    static SensorEvents sensorEvents(int count, Random random) {
+        SensorEvents events = new SensorEvents(count);
+        long timestamp = 1_000_000_000L;
+        for (int i = 0; i < count; i++) {
+            float[] values = events.values[i];
+            if (i % 4 == 1) {
+                events.types[i] = OrientationFilter.TYPE_ACCELEROMETER;
+                values[0] = 0.3f + (float) random.nextGaussian() * 0.05f;
+                values[1] = 6.9f + (float) random.nextGaussian() * 0.05f;
+                values[2] = 6.9f + (float) random.nextGaussian() * 0.05f;
+            } else if (i % 8 == 3) {
+                events.types[i] = OrientationFilter.TYPE_MAGNETIC_FIELD;
+                values[0] = 1.5f + (float) random.nextGaussian() * 0.3f;
+                values[1] = 18.0f + (float) random.nextGaussian() * 0.3f;
+                values[2] = -42.0f + (float) random.nextGaussian() * 0.3f;
+            } else {
+                events.types[i] = OrientationFilter.TYPE_GYROSCOPE;
+                timestamp += 5_000_000L;
+                values[0] = (float) random.nextGaussian() * 0.02f;
+                values[1] = (float) random.nextGaussian() * 0.02f;
+                values[2] = (float) random.nextGaussian() * 0.02f;
+            }
+            events.timestamps[i] = timestamp;
+        }
+        return events;
+    }
+
+    static final class SensorEvents {
+        final int[] types;
+        final long[] timestamps;
+        final float[][] values;
+
+        SensorEvents(int count) {
+            types = new int[count];
+            timestamps = new long[count];
+            values = new float[count][3];
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.whereisthesun.bench;
+
+import com.example.whereisthesun.CameraIntrinsics;
+import com.example.whereisthesun.CameraProjection;
+import com.example.whereisthesun.CompassCalibration;
+import com.example.whereisthesun.PixelRayTable;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Detected pixel to world azimuth/elevation per tracked frame: the raw projection (quaternion to
+ * matrix, pixel to ray, rotate into ENU) and the same with the calibration corrections folded in.
+ * Orientations and pixels cycle through a pregenerated set so nothing is constant-folded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CameraProjectionBenchmark {
+    private static final int SAMPLES = 1024; // Power of two
+
+    private final float[][] quaternions = new float[SAMPLES][4];
+    private final double[][] pixels = new double[SAMPLES][2];
+    private final CompassCalibration calibration = new CompassCalibration();
+    private PixelRayTable rays;
+    private int sensorOrientation;
+    private int next;
+
+    private final double[] deviceToWorld = new double[9];
+    private final double[] cameraToDevice = new double[9];
+    private final double[] cameraToWorld = new double[9];
+    private final double[] normalized = new double[2];
+    private final double[] world = new double[3];
+
+    @Setup
+    public void setUp() {
+        CameraIntrinsics intrinsics = new CameraIntrinsics(4032, 3024, 3000, 3000, 2010, 1515,
+                0.05, -0.1, 0.02, 0.0005, -0.0003, 90);
+        rays = new PixelRayTable(intrinsics.forImage(640, 480));
+        sensorOrientation = intrinsics.sensorOrientation;
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            float[] q = quaternions[i];
+            double norm = 0;
+            for (int j = 0; j < 4; j++) {
+                q[j] = (float) random.nextGaussian();
+                norm += q[j] * q[j];
+            }
+            for (int j = 0; j < 4; j++) {
+                q[j] /= (float) Math.sqrt(norm);
+            }
+            pixels[i][0] = random.nextDouble() * 640;
+            pixels[i][1] = random.nextDouble() * 480;
+        }
+    }
+
+    @Benchmark
+    public double project() {
+        int i = next++ & (SAMPLES - 1);
+        CameraProjection.quaternionToMatrix(quaternions[i], deviceToWorld);
+        CameraProjection.cameraToWorld(deviceToWorld, sensorOrientation, cameraToDevice, cameraToWorld);
+        rays.normalize(pixels[i][0], pixels[i][1], normalized);
+        CameraProjection.project(cameraToWorld, normalized[0], normalized[1], world);
+        return CameraProjection.azimuth(world) + CameraProjection.elevation(world);
+    }
+
+    @Benchmark
+    public double projectCalibrated() {
+        int i = next++ & (SAMPLES - 1);
+        CameraProjection.quaternionToMatrix(quaternions[i], deviceToWorld);
+        calibration.correct(deviceToWorld, 15.0, sensorOrientation, cameraToWorld);
+        rays.normalize(pixels[i][0], pixels[i][1], normalized);
+        CameraProjection.project(cameraToWorld, normalized[0], normalized[1], world);
+        return CameraProjection.azimuth(world) + CameraProjection.elevation(world);
+    }
+}
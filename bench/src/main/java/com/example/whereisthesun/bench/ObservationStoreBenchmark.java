@@ -0,0 +1,104 @@
+package com.example.whereisthesun.bench;
+
+import com.example.whereisthesun.Observation;
+import com.example.whereisthesun.ObservationStore;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ObservationStore} holding a day of 30 Hz tracking (2.6 million records, about 165 MB of
+ * segments in a temporary directory): range scans over an hour and over the whole day, a scan
+ * filtered by location, and an append.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ObservationStoreBenchmark {
+    private static final long START = 1_700_000_000_000L;
+    private static final long PERIOD_MS = 33;
+    private static final int RECORDS = 24 * 60 * 60 * 30;
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+
+    private File directory;
+    private ObservationStore store;
+    private long next;
+    private double sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("observation-store").toFile();
+        store = new ObservationStore(directory);
+        store.open();
+        for (int i = 0; i < RECORDS; i++) {
+            store.append(observation(START + i * PERIOD_MS, i));
+        }
+        next = START + RECORDS * PERIOD_MS;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public double scanHour() {
+        return scan(START + 12 * HOUR_MS, START + 13 * HOUR_MS);
+    }
+
+    @Benchmark
+    public double scanDay() {
+        return scan(Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+
+    /** The records from one of 26 places the day moves through; the index skips the others. */
+    @Benchmark
+    public int scanArea() {
+        return store.scan(Long.MIN_VALUE, Long.MAX_VALUE, 37.125, 37.135, -123, -121, record -> true);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void append() throws IOException {
+        store.append(observation(next, 0));
+        next += PERIOD_MS;
+    }
+
+    private double scan(long fromMillis, long toMillis) {
+        sink = 0;
+        store.scan(fromMillis, toMillis, record -> {
+            sink += record.objectAzimuth();
+            return true;
+        });
+        return sink;
+    }
+
+    private static Observation observation(long timestamp, int index) {
+        double latitude = 37 + index / 100_000 * 0.01;
+        return new Observation(timestamp, "bench", latitude, -122, 50, 180, 30, 0,
+                (index % 3600) * 0.1, 30 + (index % 600) * 0.01, 60, 45);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.whereisthesun.bench;
+
+import com.example.whereisthesun.MadgwickFilter;
+import com.example.whereisthesun.OrientationFilter;
+import com.example.whereisthesun.OrientationHistory;
+import com.example.whereisthesun.Orientations;
+import com.example.whereisthesun.RotationVectorFilter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * What OrientationEngine does per sensor event on its sensor thread: feed the filter, read the
+ * quaternion, record it in the history and convert it to angles. Madgwick fusion runs on a recorded
+ * mix of gyroscope, accelerometer and magnetometer events; the rotation vector path on rotation
+ * vector events.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OrientationFilterBenchmark {
+    private static final int EVENTS = 4096; // Power of two
+
+    private BenchData.SensorEvents events;
+    private long span;
+    private final float[][] rotationVectors = new float[EVENTS][4];
+    private final MadgwickFilter madgwick = new MadgwickFilter();
+    private final RotationVectorFilter rotationVector = new RotationVectorFilter();
+    private final OrientationHistory history = new OrientationHistory(1024, 100_000_000L);
+    private final float[] q = new float[4];
+    private final float[] angles = new float[3];
+    private long next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        events = BenchData.sensorEvents(EVENTS, random);
+        span = events.timestamps[EVENTS - 1] - events.timestamps[0] + 5_000_000L;
+        for (int i = 0; i < EVENTS; i++) {
+            float[] v = rotationVectors[i];
+            double norm = 0;
+            for (int j = 0; j < 4; j++) {
+                v[j] = (float) random.nextGaussian();
+                norm += v[j] * v[j];
+            }
+            for (int j = 0; j < 4; j++) {
+                v[j] /= (float) Math.sqrt(norm);
+            }
+        }
+        for (int i = 0; i < EVENTS; i++) {
+            madgwick.onSensorEvent(events.types[i], events.timestamps[i], events.values[i]); // Converge first
+        }
+        next = EVENTS;
+    }
+
+    @Benchmark
+    public float madgwick() {
+        int i = (int) (next & (EVENTS - 1));
+        long timestamp = events.timestamps[i] + (next / EVENTS) * span; // Time keeps moving forward across cycles
+        next++;
+        return onEvent(madgwick, events.types[i], timestamp, events.values[i]);
+    }
+
+    @Benchmark
+    public float rotationVector() {
+        int i = (int) (next & (EVENTS - 1));
+        long timestamp = 1_000_000_000L + next * 5_000_000L;
+        next++;
+        return onEvent(rotationVector, OrientationFilter.TYPE_ROTATION_VECTOR, timestamp, rotationVectors[i]);
+    }
+
+    private float onEvent(OrientationFilter filter, int type, long timestamp, float[] values) {
+        filter.onSensorEvent(type, timestamp, values);
+        if (!filter.getQuaternion(q)) {
+            return 0;
+        }
+        history.add(timestamp, q);
+        Orientations.quaternionToDegrees(q, angles);
+        return angles[0];
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.whereisthesun.bench;
+
+import com.example.whereisthesun.BatchEncoder;
+import com.example.whereisthesun.BinaryBatchEncoder;
+import com.example.whereisthesun.JsonBatchEncoder;
+import com.example.whereisthesun.Observation;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encode time of one upload batch: the per-capture JSONObject the app used to build in
+ * sendDataToServer(), the JSON batch encoder, and the binary batch encoder. Serialized sizes (raw and
+ * gzipped) are printed once per trial, since those matter as much as the time on metered links.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PayloadEncodingBenchmark {
+    @Param({"50"})
+    public int batchSize;
+
+    private List<Observation> batch;
+    private final BatchEncoder json = new JsonBatchEncoder();
+    private final BatchEncoder binary = new BinaryBatchEncoder();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void setUp() throws Exception {
+        batch = BenchData.observations(batchSize, new Random(42));
+
+        // Each capture used to be its own request, so each one is sized (and compressed) on its own
+        int legacy = 0;
+        int legacyGzipped = 0;
+        for (Observation o : batch) {
+            byte[] body = legacyJsonObject(o).toString().getBytes(StandardCharsets.UTF_8);
+            ByteArrayOutputStream single = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(single);
+            gzip.write(body);
+            gzip.close();
+            legacy += body.length;
+            legacyGzipped += single.size();
+        }
+
+        System.out.printf("%nSerialized size of %d observations (raw / gzipped):%n", batchSize);
+        System.out.printf("  per-capture JSONObject: %6d / %6d bytes%n", legacy, legacyGzipped);
+        System.out.printf("  JSON batch:             %6d / %6d bytes%n", encode(json, false), encode(json, true));
+        System.out.printf("  binary batch:           %6d / %6d bytes%n", encode(binary, false), encode(binary, true));
+    }
+
+    @Benchmark
+    public int perCaptureJsonObject() throws Exception {
+        int size = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            size += legacyJsonObject(batch.get(i)).toString().length();
+        }
+        return size;
+    }
+
+    @Benchmark
+    public int jsonBatch() throws IOException {
+        buffer.reset();
+        json.encode(batch, null, buffer);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int binaryBatch() throws IOException {
+        buffer.reset();
+        binary.encode(batch, null, buffer);
+        return buffer.size();
+    }
+
+    private int encode(BatchEncoder encoder, boolean gzipped) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (gzipped) {
+            GZIPOutputStream gzip = new GZIPOutputStream(out);
+            encoder.encode(batch, null, gzip);
+            gzip.close();
+        } else {
+            encoder.encode(batch, null, out);
+        }
+        return out.size();
+    }
+
+    /** The payload sendDataToServer() built per capture before uploads were batched. */
+    private static JSONObject legacyJsonObject(Observation o) throws Exception {
+        JSONObject jsonData = new JSONObject();
+        jsonData.put("timestamp", o.timestamp);
+        jsonData.put("deviceId", o.deviceId);
+        if (o.hasLocation()) {
+            jsonData.put("latitude", o.latitude);
+            jsonData.put("longitude", o.longitude);
+            jsonData.put("altitude", o.altitude);
+        }
+        jsonData.put("deviceAzimuth", o.deviceAzimuth);
+        jsonData.put("devicePitch", o.devicePitch);
+        jsonData.put("deviceRoll", o.deviceRoll);
+        if (o.hasObject()) {
+            jsonData.put("objectWorldAzimuth", o.objectAzimuth);
+            jsonData.put("objectWorldElevation", o.objectElevation);
+        }
+        jsonData.put("cameraFovHorizontal", o.cameraFovHorizontal);
+        jsonData.put("cameraFovVertical", o.cameraFovVertical);
+        return jsonData;
+    }
+}
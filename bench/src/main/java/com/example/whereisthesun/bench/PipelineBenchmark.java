@@ -0,0 +1,77 @@
+package com.example.whereisthesun.bench;
+
+import com.example.whereisthesun.PipelineStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The app's pipeline shape under simulated load: a producer (the camera thread) offers frames as fast
+ * as it can into a detect stage that takes {@code detectMicros} per frame, which feeds a blocking
+ * persist stage. The score is what one offer costs the producer under each full-queue policy; with
+ * {@code BLOCK} it converges on the detect time (backpressure), with the others it stays at the cost
+ * of a queue operation while frames are shed. Processed and shed counts are printed per iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelineBenchmark {
+    @Param({"DROP_OLDEST", "BLOCK", "COALESCE"})
+    public String policy;
+
+    @Param({"0", "50"})
+    public int detectMicros;
+
+    private PipelineStage<long[]> detect;
+    private PipelineStage<long[]> persist;
+    private final AtomicLong persisted = new AtomicLong();
+    private long next;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        int policyValue = policy.equals("DROP_OLDEST") ? PipelineStage.DROP_OLDEST
+                : policy.equals("BLOCK") ? PipelineStage.BLOCK : PipelineStage.COALESCE;
+        persist = new PipelineStage<>("persist", 64, PipelineStage.BLOCK, item -> persisted.incrementAndGet());
+        detect = new PipelineStage<>("detect", 4, policyValue, item -> {
+            spin(detectMicros * 1000L);
+            persist.offer(item);
+        });
+        persisted.set(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        detect.close();
+        persist.close();
+        System.out.println("  offered " + next + ", detected " + detect.processed() + ", shed " + detect.dropped()
+                + ", persisted " + persisted.get());
+        next = 0;
+    }
+
+    @Benchmark
+    public boolean offer() {
+        return detect.offer(new long[]{next++});
+    }
+
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // Busy, like detection
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.whereisthesun.bench;
+
+import com.example.whereisthesun.SolarDayTable;
+import com.example.whereisthesun.SolarEphemeris;
+import com.example.whereisthesun.SolarPosition;
+import com.example.whereisthesun.SolarPositionCache;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Expected sun position per tracked frame: a full ephemeris evaluation against a lookup in a cached
+ * day table, plus what building a table costs the first frame of a day.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SolarEphemerisBenchmark {
+    private static final double LATITUDE = 47.6062;
+    private static final double LONGITUDE = -122.3321;
+    private static final long START = 1_623_412_345_678L;
+
+    private final SolarPosition position = new SolarPosition();
+    private final SolarPositionCache cache = new SolarPositionCache();
+    private long timestamp;
+
+    @Setup
+    public void setUp() {
+        timestamp = START;
+        cache.lookup(timestamp, LATITUDE, LONGITUDE, position); // Build the table outside the measurement
+    }
+
+    /** Advances like a 30 Hz tracking session that stays within the same day. */
+    private long nextTimestamp() {
+        timestamp += 33;
+        if (timestamp > START + 3_600_000L) {
+            timestamp = START;
+        }
+        return timestamp;
+    }
+
+    @Benchmark
+    public double ephemeris() {
+        SolarEphemeris.compute(nextTimestamp(), LATITUDE, LONGITUDE, position);
+        return position.azimuth + position.elevation;
+    }
+
+    @Benchmark
+    public double cachedTable() {
+        cache.lookup(nextTimestamp(), LATITUDE, LONGITUDE, position);
+        return position.azimuth + position.elevation;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SolarDayTable buildTable() {
+        return new SolarDayTable(START - START % SolarDayTable.DAY_MILLIS, LATITUDE, LONGITUDE);
+    }
+}
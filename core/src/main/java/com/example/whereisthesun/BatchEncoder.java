@@ -0,0 +1,16 @@
+package com.example.whereisthesun;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/** Serializes a batch of observations, optionally with a metrics snapshot, into an upload request body. */
+public interface BatchEncoder {
+    /** MIME type of the encoded body, e.g. {@code application/json; charset=utf-8}. */
+    String contentType();
+
+    /**
+     * @param metrics device metrics to send along with the batch, or null for none
+     */
+    void encode(List<Observation> batch, MetricsSnapshot metrics, OutputStream out) throws IOException;
+}
@@ -0,0 +1,271 @@
+package com.example.whereisthesun;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of an observation batch. Values are big-endian; varints are unsigned
+ * LEB128, and signed ones are zigzag-encoded first.
+ *
+ * <pre>
+ * batch    := "WITB" version:u8 count:varint
+ *             deviceCount:varint deviceId:utf*      (dictionary, in first-use order)
+ *             baseTimestamp:i64 record*
+ * record   := flags:u8 device:varint timestampDelta:zigzag-varint
+ *             [latitude:f64 longitude:f64 altitude:f32]   if flags &amp; HAS_LOCATION
+ *             deviceAzimuth:f32 devicePitch:f32 deviceRoll:f32
+ *             [objectAzimuth:f32 objectElevation:f32]     if flags &amp; HAS_OBJECT
+ *             cameraFovHorizontal:f32 cameraFovVertical:f32
+ * trailer  := hasMetrics:u8 [metrics]                  (version 2+)
+ * metrics  := intervalMillis:varint
+ *             counterCount:varint counter:varint*
+ *             stageCount:varint (count:varint p50:varint p90:varint p99:varint max:varint)*
+ * </pre>
+ *
+ * Timestamps are deltas from the previous record (the first from {@code baseTimestamp}), so a
+ * 30 Hz stream costs one or two bytes per timestamp. Latitude/longitude stay doubles because a
+ * float would round positions to meters. Counters and stages are in the order of
+ * {@link Metrics#COUNTER_NAMES} and {@link Metrics#STAGE_NAMES}, durations in microseconds; the counts
+ * let a reader skip entries added after it was written. Readers must reject versions they do not know,
+ * and anything after the trailer.
+ */
+public class BinaryBatchEncoder implements BatchEncoder {
+    public static final String CONTENT_TYPE = "application/x-wits-observations";
+    public static final int VERSION = 2;
+
+    private static final byte[] MAGIC = {'W', 'I', 'T', 'B'};
+    private static final int HAS_LOCATION = 1;
+    private static final int HAS_OBJECT = 1 << 1;
+    private static final int MAX_TRAILER_ENTRIES = 1024; // Far more counters or stages than will ever exist
+
+    @Override
+    public String contentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public void encode(List<Observation> batch, MetricsSnapshot metrics, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 4096));
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        writeVarint(out, batch.size());
+
+        Map<String, Integer> devices = new HashMap<>();
+        List<String> dictionary = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            String deviceId = batch.get(i).deviceId;
+            if (!devices.containsKey(deviceId)) {
+                devices.put(deviceId, dictionary.size());
+                dictionary.add(deviceId);
+            }
+        }
+        writeVarint(out, dictionary.size());
+        for (int i = 0; i < dictionary.size(); i++) {
+            out.writeUTF(dictionary.get(i));
+        }
+
+        long previousTimestamp = batch.isEmpty() ? 0 : batch.get(0).timestamp;
+        out.writeLong(previousTimestamp);
+        for (int i = 0; i < batch.size(); i++) {
+            Observation o = batch.get(i);
+            boolean hasLocation = o.hasLocation();
+            boolean hasObject = o.hasObject();
+            out.writeByte((hasLocation ? HAS_LOCATION : 0) | (hasObject ? HAS_OBJECT : 0));
+            writeVarint(out, devices.get(o.deviceId));
+            long delta = o.timestamp - previousTimestamp;
+            writeVarint(out, (delta << 1) ^ (delta >> 63));
+            previousTimestamp = o.timestamp;
+
+            if (hasLocation) {
+                out.writeDouble(o.latitude);
+                out.writeDouble(o.longitude);
+                out.writeFloat((float) o.altitude);
+            }
+            out.writeFloat(o.deviceAzimuth);
+            out.writeFloat(o.devicePitch);
+            out.writeFloat(o.deviceRoll);
+            if (hasObject) {
+                out.writeFloat((float) o.objectAzimuth);
+                out.writeFloat((float) o.objectElevation);
+            }
+            out.writeFloat(o.cameraFovHorizontal);
+            out.writeFloat(o.cameraFovVertical);
+        }
+
+        out.writeByte(metrics != null ? 1 : 0);
+        if (metrics != null) {
+            writeVarint(out, metrics.intervalNanos / 1_000_000);
+            writeVarint(out, Metrics.COUNTER_COUNT);
+            for (int i = 0; i < Metrics.COUNTER_COUNT; i++) {
+                writeVarint(out, metrics.counters[i]);
+            }
+            writeVarint(out, Metrics.STAGE_COUNT);
+            for (int i = 0; i < Metrics.STAGE_COUNT; i++) {
+                writeVarint(out, metrics.stageCounts[i]);
+                writeVarint(out, metrics.p50Nanos[i] / 1000);
+                writeVarint(out, metrics.p90Nanos[i] / 1000);
+                writeVarint(out, metrics.p99Nanos[i] / 1000);
+                writeVarint(out, metrics.maxNanos[i] / 1000);
+            }
+        }
+        out.flush();
+    }
+
+    /** The metrics trailer of a decoded batch, durations in microseconds as written. */
+    public static final class Trailer {
+        public boolean hasMetrics;
+        public long intervalMillis;
+        public long[] counters = new long[0];
+        public long[] stageCounts = new long[0];
+        public long[] p50Micros = new long[0];
+        public long[] p90Micros = new long[0];
+        public long[] p99Micros = new long[0];
+        public long[] maxMicros = new long[0];
+    }
+
+    /** Decodes the observations of a batch written by {@link #encode}; meant for debugging and tooling. */
+    public static List<Observation> decode(InputStream stream) throws IOException {
+        return decode(stream, new Trailer());
+    }
+
+    /**
+     * Decodes a whole batch, its metrics trailer into {@code trailer}. Throws if the batch is
+     * malformed, including an inconsistent trailer or bytes after it, so a corrupted upload does not
+     * pass for a shorter one.
+     */
+    public static List<Observation> decode(InputStream stream, Trailer trailer) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (magic[i] != MAGIC[i]) {
+                throw new IOException("Not an observation batch");
+            }
+        }
+        int version = in.readUnsignedByte();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported observation batch version " + version);
+        }
+
+        int count = (int) readVarint(in);
+        String[] dictionary = new String[(int) readVarint(in)];
+        for (int i = 0; i < dictionary.length; i++) {
+            dictionary[i] = in.readUTF();
+        }
+
+        List<Observation> batch = new ArrayList<>(count);
+        long timestamp = in.readLong();
+        for (int i = 0; i < count; i++) {
+            int flags = in.readUnsignedByte();
+            if ((flags & ~(HAS_LOCATION | HAS_OBJECT)) != 0) {
+                throw new IOException("Unknown flags " + flags + " in record " + i);
+            }
+            long device = readVarint(in);
+            if (device >= dictionary.length) {
+                throw new IOException("Device " + device + " of record " + i + " is not in the dictionary");
+            }
+            String deviceId = dictionary[(int) device];
+            long zigzag = readVarint(in);
+            timestamp += (zigzag >>> 1) ^ -(zigzag & 1);
+
+            double latitude = Double.NaN;
+            double longitude = Double.NaN;
+            double altitude = Double.NaN;
+            if ((flags & HAS_LOCATION) != 0) {
+                latitude = in.readDouble();
+                longitude = in.readDouble();
+                altitude = in.readFloat();
+            }
+            float deviceAzimuth = in.readFloat();
+            float devicePitch = in.readFloat();
+            float deviceRoll = in.readFloat();
+            double objectAzimuth = Double.NaN;
+            double objectElevation = Double.NaN;
+            if ((flags & HAS_OBJECT) != 0) {
+                objectAzimuth = in.readFloat();
+                objectElevation = in.readFloat();
+            }
+            batch.add(new Observation(timestamp, deviceId, latitude, longitude, altitude,
+                    deviceAzimuth, devicePitch, deviceRoll, objectAzimuth, objectElevation,
+                    in.readFloat(), in.readFloat()));
+        }
+
+        trailer.hasMetrics = false;
+        if (version >= 2) {
+            int hasMetrics = in.readUnsignedByte();
+            if (hasMetrics > 1) {
+                throw new IOException("Malformed trailer");
+            }
+            if (hasMetrics == 1) {
+                readMetrics(in, trailer);
+            }
+        }
+        if (in.read() != -1) {
+            throw new IOException("Bytes after the end of the observation batch");
+        }
+        return batch;
+    }
+
+    private static void readMetrics(DataInputStream in, Trailer trailer) throws IOException {
+        trailer.hasMetrics = true;
+        trailer.intervalMillis = readVarint(in);
+        trailer.counters = new long[readTrailerCount(in)];
+        for (int i = 0; i < trailer.counters.length; i++) {
+            trailer.counters[i] = readVarint(in);
+        }
+        int stages = readTrailerCount(in);
+        trailer.stageCounts = new long[stages];
+        trailer.p50Micros = new long[stages];
+        trailer.p90Micros = new long[stages];
+        trailer.p99Micros = new long[stages];
+        trailer.maxMicros = new long[stages];
+        for (int i = 0; i < stages; i++) {
+            trailer.stageCounts[i] = readVarint(in);
+            trailer.p50Micros[i] = readVarint(in);
+            trailer.p90Micros[i] = readVarint(in);
+            trailer.p99Micros[i] = readVarint(in);
+            trailer.maxMicros[i] = readVarint(in);
+            if (trailer.p50Micros[i] > trailer.p90Micros[i] || trailer.p90Micros[i] > trailer.p99Micros[i]
+                    || trailer.p99Micros[i] > trailer.maxMicros[i]
+                    || (trailer.stageCounts[i] == 0 && trailer.maxMicros[i] != 0)) {
+                throw new IOException("Inconsistent percentiles for stage " + i);
+            }
+        }
+    }
+
+    private static int readTrailerCount(DataInputStream in) throws IOException {
+        long count = readVarint(in);
+        if (count > MAX_TRAILER_ENTRIES) {
+            throw new IOException("Malformed trailer: " + count + " entries");
+        }
+        return (int) count;
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarint(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.whereisthesun;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Pinhole camera model with Brown-Conrady lens distortion, in the pixel coordinates of some image:
+ * the sensor's active array as reported by Camera2, or an output image derived from it with
+ * {@link #forImage}. Pixel coordinates follow the image (x right, y down) and the optical axis
+ * points out of the lens, so a pixel maps to the ray (x', y', 1) in normalized camera coordinates.
+ *
+ * The distortion model is the one Camera2's LENS_DISTORTION documents, mapping undistorted
+ * normalized coordinates to distorted ones with radial terms k1..k3 and tangential terms p1, p2.
+ * Immutable.
+ */
+public class CameraIntrinsics {
+    private static final int FORMAT_VERSION = 1;
+    private static final int UNDISTORT_ITERATIONS = 8;
+
+    public final int width;
+    public final int height;
+    public final double fx;
+    public final double fy;
+    public final double cx;
+    public final double cy;
+    public final double k1;
+    public final double k2;
+    public final double k3;
+    public final double p1;
+    public final double p2;
+    /** Clockwise rotation of the sensor image relative to the device's natural orientation (SENSOR_ORIENTATION). */
+    public final int sensorOrientation;
+
+    public CameraIntrinsics(int width, int height, double fx, double fy, double cx, double cy,
+                            double k1, double k2, double k3, double p1, double p2, int sensorOrientation) {
+        this.width = width;
+        this.height = height;
+        this.fx = fx;
+        this.fy = fy;
+        this.cx = cx;
+        this.cy = cy;
+        this.k1 = k1;
+        this.k2 = k2;
+        this.k3 = k3;
+        this.p1 = p1;
+        this.p2 = p2;
+        this.sensorOrientation = sensorOrientation;
+    }
+
+    /**
+     * Intrinsics of an undistorted camera with the given fields of view (degrees) and the principal
+     * point in the image center: what the app assumed before it queried the camera.
+     */
+    public static CameraIntrinsics fromFieldOfView(int width, int height, double fovHorizontal, double fovVertical,
+                                                   int sensorOrientation) {
+        double fx = width / 2.0 / Math.tan(Math.toRadians(fovHorizontal / 2));
+        double fy = height / 2.0 / Math.tan(Math.toRadians(fovVertical / 2));
+        return new CameraIntrinsics(width, height, fx, fy, width / 2.0, height / 2.0, 0, 0, 0, 0, 0, sensorOrientation);
+    }
+
+    /**
+     * Intrinsics for an output image of {@code imageWidth} x {@code imageHeight}. Camera outputs are
+     * the largest centered crop of the array with the output's aspect ratio, scaled to size.
+     */
+    public CameraIntrinsics forImage(int imageWidth, int imageHeight) {
+        if (imageWidth == width && imageHeight == height) {
+            return this;
+        }
+        double cropWidth = width;
+        double cropHeight = height;
+        if ((double) imageWidth / imageHeight > (double) width / height) {
+            cropHeight = width * (double) imageHeight / imageWidth;
+        } else {
+            cropWidth = height * (double) imageWidth / imageHeight;
+        }
+        double scale = imageWidth / cropWidth;
+        double left = (width - cropWidth) / 2;
+        double top = (height - cropHeight) / 2;
+        return new CameraIntrinsics(imageWidth, imageHeight, fx * scale, fy * scale,
+                (cx - left) * scale, (cy - top) * scale, k1, k2, k3, p1, p2, sensorOrientation);
+    }
+
+    public boolean hasDistortion() {
+        return k1 != 0 || k2 != 0 || k3 != 0 || p1 != 0 || p2 != 0;
+    }
+
+    /** Horizontal field of view across the full width, in degrees. */
+    public double horizontalFov() {
+        return Math.toDegrees(Math.atan2(cx, fx) + Math.atan2(width - cx, fx));
+    }
+
+    /** Vertical field of view across the full height, in degrees. */
+    public double verticalFov() {
+        return Math.toDegrees(Math.atan2(cy, fy) + Math.atan2(height - cy, fy));
+    }
+
+    /**
+     * Undistorted normalized camera coordinates (x', y') of pixel ({@code x}, {@code y}), written
+     * to {@code out[0]} and {@code out[1]}. The distortion model has no closed-form inverse, so it is
+     * inverted by fixed-point iteration, which converges in a few steps for phone lenses.
+     */
+    public void normalize(double x, double y, double[] out) {
+        double xd = (x - cx) / fx;
+        double yd = (y - cy) / fy;
+        double xu = xd;
+        double yu = yd;
+        if (hasDistortion()) {
+            for (int i = 0; i < UNDISTORT_ITERATIONS; i++) {
+                double r2 = xu * xu + yu * yu;
+                double radial = 1 + r2 * (k1 + r2 * (k2 + r2 * k3));
+                double dx = 2 * p1 * xu * yu + p2 * (r2 + 2 * xu * xu);
+                double dy = p1 * (r2 + 2 * yu * yu) + 2 * p2 * xu * yu;
+                xu = (xd - dx) / radial;
+                yu = (yd - dy) / radial;
+            }
+        }
+        out[0] = xu;
+        out[1] = yu;
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeDouble(fx);
+        out.writeDouble(fy);
+        out.writeDouble(cx);
+        out.writeDouble(cy);
+        out.writeDouble(k1);
+        out.writeDouble(k2);
+        out.writeDouble(k3);
+        out.writeDouble(p1);
+        out.writeDouble(p2);
+        out.writeInt(sensorOrientation);
+    }
+
+    public static CameraIntrinsics readFrom(DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported intrinsics format version " + version);
+        }
+        return new CameraIntrinsics(in.readInt(), in.readInt(),
+                in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble(),
+                in.readInt());
+    }
+
+    @Override
+    public String toString() {
+        return "CameraIntrinsics{" + width + "x" + height + ", f=(" + fx + ", " + fy + "), c=(" + cx + ", " + cy
+                + "), k=(" + k1 + ", " + k2 + ", " + k3 + "), p=(" + p1 + ", " + p2 + "), orientation=" + sensorOrientation
+                + ", fov=" + horizontalFov() + "x" + verticalFov() + "}";
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.whereisthesun;
+
+/**
+ * Camera pixel to world direction, with every rotation accounted for: lens (via
+ * {@link PixelRayTable}), sensor mounting ({@link CameraIntrinsics#sensorOrientation}) and the full
+ * device orientation including roll.
+ *
+ * Frames: camera coordinates follow the sensor image (x right, y down, z out through the lens);
+ * device coordinates are Android's (x right and y up in the natural orientation, z out of the
+ * screen); world coordinates are East-North-Up. Matrices are 3x3 row-major double arrays rotating
+ * device coordinates into world coordinates, as SensorManager.getRotationMatrix() produces.
+ *
+ * Everything works on caller-supplied primitive arrays and nothing allocates, so it can run per
+ * frame. Only the back camera is modelled (no mirroring).
+ */
+public final class CameraProjection {
+    private CameraProjection() {}
+
+    /**
+     * Camera-to-device rotation for a back camera with the given SENSOR_ORIENTATION (0, 90, 180 or
+     * 270 degrees), written to {@code M} (row-major, columns are the camera axes in device coordinates).
+     */
+    public static void cameraToDevice(int sensorOrientation, double[] M) {
+        double r = Math.toRadians(sensorOrientation);
+        double c = Math.round(Math.cos(r));
+        double s = Math.round(Math.sin(r));
+        // Sensor image rotated clockwise by r is upright; the lens looks out of the back (-z)
+        M[0] = c;  M[1] = -s; M[2] = 0;
+        M[3] = -s; M[4] = -c; M[5] = 0;
+        M[6] = 0;  M[7] = 0;  M[8] = -1;
+    }
+
+    /** Camera-to-world rotation: {@code out = deviceToWorld * cameraToDevice}. */
+    public static void cameraToWorld(double[] deviceToWorld, int sensorOrientation, double[] scratch, double[] out) {
+        cameraToDevice(sensorOrientation, scratch);
+        multiply(deviceToWorld, scratch, out);
+    }
+
+    /**
+     * World direction (unit vector) of the ray through normalized camera coordinates
+     * ({@code x}, {@code y}), see {@link PixelRayTable#normalize}.
+     */
+    public static void project(double[] cameraToWorld, double x, double y, double[] world) {
+        double norm = 1 / Math.sqrt(x * x + y * y + 1);
+        double cx = x * norm;
+        double cy = y * norm;
+        double cz = norm;
+        world[0] = cameraToWorld[0] * cx + cameraToWorld[1] * cy + cameraToWorld[2] * cz;
+        world[1] = cameraToWorld[3] * cx + cameraToWorld[4] * cy + cameraToWorld[5] * cz;
+        world[2] = cameraToWorld[6] * cx + cameraToWorld[7] * cy + cameraToWorld[8] * cz;
+    }
+
+    /** Azimuth of a world (ENU) direction in degrees, clockwise from north in [0, 360). */
+    public static double azimuth(double[] world) {
+        double azimuth = Math.toDegrees(Math.atan2(world[0], world[1]));
+        return azimuth < 0 ? azimuth + 360 : azimuth;
+    }
+
+    /** Elevation of a world (ENU) unit direction above the horizon, in degrees. */
+    public static double elevation(double[] world) {
+        return Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, world[2]))));
+    }
+
+    /** World (ENU) unit direction for an azimuth and elevation in degrees. */
+    public static void direction(double azimuth, double elevation, double[] world) {
+        double a = Math.toRadians(azimuth);
+        double e = Math.toRadians(elevation);
+        double horizontal = Math.cos(e);
+        world[0] = horizontal * Math.sin(a);
+        world[1] = horizontal * Math.cos(a);
+        world[2] = Math.sin(e);
+    }
+
+    /** Rotation matrix of a unit quaternion (w, x, y, z), as {@link Orientations#quaternionToMatrix}. */
+    public static void quaternionToMatrix(float[] q, double[] R) {
+        double w = q[0], x = q[1], y = q[2], z = q[3];
+        R[0] = 1 - 2 * (y * y + z * z);
+        R[1] = 2 * (x * y - w * z);
+        R[2] = 2 * (x * z + w * y);
+        R[3] = 2 * (x * y + w * z);
+        R[4] = 1 - 2 * (x * x + z * z);
+        R[5] = 2 * (y * z - w * x);
+        R[6] = 2 * (x * z - w * y);
+        R[7] = 2 * (y * z + w * x);
+        R[8] = 1 - 2 * (x * x + y * y);
+    }
+
+    /**
+     * Device-to-world matrix for SensorManager.getOrientation() angles in degrees, i.e. the inverse
+     * of {@link Orientations#orientationDegrees}. For sources that only recorded the angles.
+     */
+    public static void matrixFromOrientation(double azimuth, double pitch, double roll, double[] R) {
+        double a = Math.toRadians(azimuth);
+        double p = Math.toRadians(pitch);
+        double r = Math.toRadians(roll);
+        double ca = Math.cos(a), sa = Math.sin(a);
+        double cp = Math.cos(p), sp = Math.sin(p);
+        double cr = Math.cos(r), sr = Math.sin(r);
+        // Rz(-azimuth) * Rx(-pitch) * Ry(roll)
+        R[0] = ca * cr - sa * sp * sr;
+        R[1] = sa * cp;
+        R[2] = ca * sr + sa * sp * cr;
+        R[3] = -sa * cr - ca * sp * sr;
+        R[4] = ca * cp;
+        R[5] = -sa * sr + ca * sp * cr;
+        R[6] = -cp * sr;
+        R[7] = -sp;
+        R[8] = cp * cr;
+    }
+
+    /** Rotation by {@code degrees} about the unit {@code axis} (right-handed), written to {@code R}. */
+    public static void axisAngle(double[] axis, double degrees, double[] R) {
+        double angle = Math.toRadians(degrees);
+        double c = Math.cos(angle);
+        double s = Math.sin(angle);
+        double t = 1 - c;
+        double x = axis[0], y = axis[1], z = axis[2];
+        R[0] = t * x * x + c;     R[1] = t * x * y - s * z; R[2] = t * x * z + s * y;
+        R[3] = t * x * y + s * z; R[4] = t * y * y + c;     R[5] = t * y * z - s * x;
+        R[6] = t * x * z - s * y; R[7] = t * y * z + s * x; R[8] = t * z * z + c;
+    }
+
+    /** {@code out = a * b} for 3x3 matrices; {@code out} must not be {@code a} or {@code b}. */
+    public static void multiply(double[] a, double[] b, double[] out) {
+        for (int row = 0; row < 9; row += 3) {
+            double a0 = a[row], a1 = a[row + 1], a2 = a[row + 2];
+            out[row] = a0 * b[0] + a1 * b[3] + a2 * b[6];
+            out[row + 1] = a0 * b[1] + a1 * b[4] + a2 * b[7];
+            out[row + 2] = a0 * b[2] + a1 * b[5] + a2 * b[8];
+        }
+    }
+
+    /** Column {@code column} of a row-major 3x3 matrix. */
+    public static void column(double[] M, int column, double[] out) {
+        out[0] = M[column];
+        out[1] = M[3 + column];
+        out[2] = M[6 + column];
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.whereisthesun;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Learns how far the world directions computed from the device sensors are off, by comparing detected
+ * sun positions with where {@link SolarEphemeris} says the sun is. Three small rotations are
+ * estimated: an azimuth bias about the vertical (magnetometer errors), a pitch bias about the
+ * camera's horizontal axis (accelerometer and camera mounting), and a roll about the optical axis.
+ * {@link #correct} folds them into the camera-to-world matrix of {@link CameraProjection}, so the
+ * corrected direction comes out of the same projection as the raw one.
+ *
+ * Each sample is a recursive least squares step on the residual between expected and measured
+ * direction, split into its azimuth and elevation components: O(1) time and memory, no history kept
+ * and no solve per fix. A forgetting factor lets the estimate follow slow drift, e.g. after the phone
+ * went near something magnetic. A residual is an outlier when it lies too many standard deviations
+ * out, as predicted from the current uncertainty of the estimate plus the measurement noise: wide
+ * open for the first samples, a few degrees once the estimate has settled. Not thread-safe.
+ *
+ * All angles are in degrees.
+ */
+public class CompassCalibration {
+    private static final int FORMAT_VERSION = 2;
+
+    private static final double FORGETTING_FACTOR = 0.999;      // ~1000 samples of memory
+    private static final double MEASUREMENT_VARIANCE = 1;       // ~1 deg noise; P is in these units
+    private static final double INITIAL_BIAS_VARIANCE = 30 * 30; // Prior spread relative to the noise
+    private static final double INITIAL_ROLL_VARIANCE = 10 * 10;
+    private static final double OUTLIER_SIGMAS = 5;             // Innovations beyond this many sigmas are rejected
+    private static final double MIN_ELEVATION = 2;              // Refraction and haze make lower suns unreliable
+    private static final double[] UP = {0, 0, 1};
+    private static final double[] CAMERA_X = {1, 0, 0};
+    private static final double[] CAMERA_Z = {0, 0, 1};
+
+    private final double[] theta = new double[3]; // azimuth bias, pitch bias, roll
+    private final double[] P = new double[9];     // Covariance of theta, row-major
+    private final double[] phi = new double[3];
+    private final double[] Pphi = new double[3];
+    private long samples;
+    private long rejected;
+
+    // Scratch space for correct() and addSample()
+    private final double[] rotation = new double[9];
+    private final double[] product = new double[9];
+    private final double[] uncorrected = new double[9];
+    private final double[] cameraToWorld = new double[9];
+    private final double[] measured = new double[3];
+    private final double[] expectedDirection = new double[3];
+    private final double[] axis = new double[3];
+    private final double[] azimuthTangent = new double[3];
+    private final double[] elevationTangent = new double[3];
+    private final double[][] jacobian = new double[3][3];
+
+    public CompassCalibration() {
+        reset();
+    }
+
+    public void reset() {
+        theta[0] = theta[1] = theta[2] = 0;
+        for (int i = 0; i < 9; i++) {
+            P[i] = 0;
+        }
+        P[0] = INITIAL_BIAS_VARIANCE;
+        P[4] = INITIAL_BIAS_VARIANCE;
+        P[8] = INITIAL_ROLL_VARIANCE;
+        samples = 0;
+        rejected = 0;
+    }
+
+    public double azimuthBias() {
+        return theta[0];
+    }
+
+    public double pitchBias() {
+        return theta[1];
+    }
+
+    public double roll() {
+        return theta[2];
+    }
+
+    /** Samples accepted so far. */
+    public long samples() {
+        return samples;
+    }
+
+    /** Samples rejected as outliers so far. */
+    public long rejected() {
+        return rejected;
+    }
+
+    /**
+     * Corrected camera-to-world matrix (see {@link CameraProjection#cameraToWorld}) for a raw
+     * device-to-world matrix. {@code declination} (degrees east) turns magnetic into true azimuths.
+     */
+    public void correct(double[] deviceToWorld, double declination, int sensorOrientation, double[] out) {
+        // Azimuth: rotate the world clockwise (seen from above) about the vertical
+        CameraProjection.axisAngle(UP, -(theta[0] + declination), rotation);
+        CameraProjection.multiply(rotation, deviceToWorld, product);
+        CameraProjection.cameraToDevice(sensorOrientation, rotation);
+        CameraProjection.multiply(product, rotation, uncorrected);
+        // Pitch and roll: rotate the camera about its own x and z axes
+        CameraProjection.axisAngle(CAMERA_X, theta[1], rotation);
+        CameraProjection.multiply(uncorrected, rotation, product);
+        CameraProjection.axisAngle(CAMERA_Z, theta[2], rotation);
+        CameraProjection.multiply(product, rotation, out);
+    }
+
+    /**
+     * Adds one detection at normalized camera coordinates ({@code x}, {@code y}) (see
+     * {@link PixelRayTable#normalize}), taken with the given raw orientation, against the ephemeris
+     * position {@code expected} for the same time and place.
+     *
+     * @return false if the sample was not used (sun too low, or an outlier)
+     */
+    public boolean addSample(double[] deviceToWorld, double declination, int sensorOrientation,
+                             double x, double y, SolarPosition expected) {
+        if (expected.elevation < MIN_ELEVATION) {
+            return false;
+        }
+        correct(deviceToWorld, declination, sensorOrientation, cameraToWorld);
+        CameraProjection.project(cameraToWorld, x, y, measured);
+        CameraProjection.direction(expected.azimuth, expected.elevation, expectedDirection);
+
+        // How the measured direction moves with each parameter: (rotation axis) x direction, in
+        // radians per radian, i.e. degrees per degree. "uncorrected" still holds the camera-to-world
+        // matrix before the pitch and roll rotations.
+        axis[0] = 0;
+        axis[1] = 0;
+        axis[2] = -1;
+        cross(axis, measured, jacobian[0]);
+        CameraProjection.column(uncorrected, 0, axis);
+        cross(axis, measured, jacobian[1]);
+        CameraProjection.column(cameraToWorld, 2, axis);
+        cross(axis, measured, jacobian[2]);
+
+        // Residual split along the local azimuth and elevation directions at the measured point
+        double azimuth = Math.toRadians(CameraProjection.azimuth(measured));
+        double elevation = Math.asin(Math.max(-1, Math.min(1, measured[2])));
+        azimuthTangent[0] = Math.cos(azimuth);
+        azimuthTangent[1] = -Math.sin(azimuth);
+        azimuthTangent[2] = 0;
+        elevationTangent[0] = -Math.sin(elevation) * Math.sin(azimuth);
+        elevationTangent[1] = -Math.sin(elevation) * Math.cos(azimuth);
+        elevationTangent[2] = Math.cos(elevation);
+        double azimuthResidual = Math.toDegrees(residual(azimuthTangent));
+        double elevationResidual = Math.toDegrees(residual(elevationTangent));
+        setRegressor(azimuthTangent);
+        double azimuthVariance = innovationVariance();
+        setRegressor(elevationTangent);
+        double elevationVariance = innovationVariance();
+        if (azimuthResidual * azimuthResidual > OUTLIER_SIGMAS * OUTLIER_SIGMAS * azimuthVariance
+                || elevationResidual * elevationResidual > OUTLIER_SIGMAS * OUTLIER_SIGMAS * elevationVariance) {
+            rejected++;
+            return false;
+        }
+
+        setRegressor(azimuthTangent);
+        double azimuthBias = theta[0];
+        double pitchBias = theta[1];
+        double roll = theta[2];
+        update(azimuthResidual, FORGETTING_FACTOR);
+        setRegressor(elevationTangent);
+        // Against the estimate the azimuth step just moved, to first order
+        elevationResidual -= phi[0] * (theta[0] - azimuthBias) + phi[1] * (theta[1] - pitchBias) + phi[2] * (theta[2] - roll);
+        update(elevationResidual, 1); // Forget once per sample
+        samples++;
+        return true;
+    }
+
+    private void setRegressor(double[] direction) {
+        for (int i = 0; i < 3; i++) {
+            phi[i] = dot(jacobian[i], direction);
+        }
+    }
+
+    /** Predicted innovation variance for {@link #phi} in deg^2: (phi^T P phi + 1) R, P being relative to R. */
+    private double innovationVariance() {
+        double variance = 0;
+        for (int i = 0; i < 3; i++) {
+            variance += phi[i] * (P[i * 3] * phi[0] + P[i * 3 + 1] * phi[1] + P[i * 3 + 2] * phi[2]);
+        }
+        return (variance + 1) * MEASUREMENT_VARIANCE;
+    }
+
+    private double residual(double[] direction) {
+        return (expectedDirection[0] - measured[0]) * direction[0]
+                + (expectedDirection[1] - measured[1]) * direction[1]
+                + (expectedDirection[2] - measured[2]) * direction[2];
+    }
+
+    private static double dot(double[] a, double[] b) {
+        return a[0] * b[0] + a[1] * b[1] + a[2] * b[2];
+    }
+
+    private static void cross(double[] a, double[] b, double[] out) {
+        out[0] = a[1] * b[2] - a[2] * b[1];
+        out[1] = a[2] * b[0] - a[0] * b[2];
+        out[2] = a[0] * b[1] - a[1] * b[0];
+    }
+
+    /**
+     * Scalar RLS step for regressor {@link #phi} and an innovation already measured against the
+     * current estimate.
+     */
+    private void update(double innovation, double lambda) {
+        double denominator = lambda;
+        for (int i = 0; i < 3; i++) {
+            Pphi[i] = P[i * 3] * phi[0] + P[i * 3 + 1] * phi[1] + P[i * 3 + 2] * phi[2];
+            denominator += phi[i] * Pphi[i];
+        }
+        for (int i = 0; i < 3; i++) {
+            theta[i] += Pphi[i] / denominator * innovation;
+        }
+        // P = (P - k phi^T P) / lambda, with k = P phi / denominator; P stays symmetric
+        double trace = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                P[i * 3 + j] = (P[i * 3 + j] - Pphi[i] * Pphi[j] / denominator) / lambda;
+            }
+            trace += P[i * 3 + i];
+        }
+        // Without excitation the forgetting factor inflates P without bound; cap it at the prior
+        double maxTrace = 2 * INITIAL_BIAS_VARIANCE + INITIAL_ROLL_VARIANCE;
+        if (trace > maxTrace) {
+            double scale = maxTrace / trace;
+            for (int i = 0; i < 9; i++) {
+                P[i] *= scale;
+            }
+        }
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(FORMAT_VERSION);
+        for (double value : theta) {
+            out.writeDouble(value);
+        }
+        for (double value : P) {
+            out.writeDouble(value);
+        }
+        out.writeLong(samples);
+        out.writeLong(rejected);
+    }
+
+    /** Restores state written by {@link #writeTo}. */
+    public void readFrom(DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported calibration format version " + version);
+        }
+        for (int i = 0; i < theta.length; i++) {
+            theta[i] = in.readDouble();
+        }
+        for (int i = 0; i < P.length; i++) {
+            P[i] = in.readDouble();
+        }
+        samples = in.readLong();
+        rejected = in.readLong();
+    }
+
+    @Override
+    public String toString() {
+        return "CompassCalibration{azimuthBias=" + theta[0] + ", pitchBias=" + theta[1] + ", roll=" + theta[2]
+                + ", samples=" + samples + ", rejected=" + rejected + "}";
+    }
+}
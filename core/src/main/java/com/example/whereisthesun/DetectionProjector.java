@@ -0,0 +1,127 @@
+package com.example.whereisthesun;
+
+/**
+ * Turns a detection into world azimuth/elevation and an {@link Observation}: pixel to camera ray
+ * (lens model), then through the full device rotation, roll included, corrected by the learned
+ * {@link CompassCalibration}. With a location, each detection is also compared with where the sun
+ * should be and fed to the calibration as a sample.
+ *
+ * Shared by the app's project stage and the desktop replay, so both compute the same angles from the
+ * same inputs; nothing here reads a clock or a sensor. Not thread-safe, and the calibration must not
+ * be used elsewhere while {@link #project} runs.
+ */
+public class DetectionProjector {
+    private final CompassCalibration calibration;
+    private final Metrics metrics;
+    private final SolarPositionCache solarPositions = new SolarPositionCache();
+    private final SolarPosition expectedSun = new SolarPosition();
+
+    // Scratch
+    private final double[] deviceToWorld = new double[9];
+    private final double[] cameraToWorld = new double[9];
+    private final double[] normalizedPixel = new double[2];
+    private final double[] objectDirection = new double[3];
+
+    // Result of the last projection
+    private boolean hasObject;
+    private double azimuth = Double.NaN;
+    private double elevation = Double.NaN;
+
+    /** @param metrics counts detections and records the project stage latency */
+    public DetectionProjector(CompassCalibration calibration, Metrics metrics) {
+        this.calibration = calibration;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Projects {@code detection} if it found something; otherwise clears the result.
+     *
+     * @param quaternion device-to-world orientation (w, x, y, z) when the image was exposed
+     * @param location best fix, or null if there is none
+     * @param declination magnetic declination at the location, degrees east
+     * @param wallMillis UTC time of the detection, for the expected sun position
+     * @return whether there is an object
+     */
+    public boolean project(SunDetection detection, PixelRayTable rays, float[] quaternion, GeoFix location,
+                           double declination, long wallMillis) {
+        if (!detection.found) {
+            clear();
+            return false;
+        }
+        metrics.increment(Metrics.DETECTIONS);
+        long projectStart = metrics.startTimer();
+
+        rays.normalize(detection.centerX, detection.centerY, normalizedPixel);
+        int sensorOrientation = rays.intrinsics().sensorOrientation;
+        CameraProjection.quaternionToMatrix(quaternion, deviceToWorld);
+
+        if (location != null) {
+            solarPositions.lookup(wallMillis, location.latitude, location.longitude, expectedSun);
+            calibration.addSample(deviceToWorld, declination, sensorOrientation,
+                    normalizedPixel[0], normalizedPixel[1], expectedSun);
+        }
+        calibration.correct(deviceToWorld, declination, sensorOrientation, cameraToWorld);
+        CameraProjection.project(cameraToWorld, normalizedPixel[0], normalizedPixel[1], objectDirection);
+        hasObject = true;
+        azimuth = CameraProjection.azimuth(objectDirection);
+        elevation = CameraProjection.elevation(objectDirection);
+        metrics.stopTimer(Metrics.STAGE_PROJECT, projectStart);
+        return true;
+    }
+
+    /**
+     * Forgets the last projection, for a detection that cannot be projected at all (no orientation
+     * estimate yet), so nothing carries over from an earlier frame.
+     */
+    public void clear() {
+        hasObject = false;
+        azimuth = Double.NaN;
+        elevation = Double.NaN;
+    }
+
+    public boolean hasObject() {
+        return hasObject;
+    }
+
+    /** World azimuth of the last projected object in degrees, NaN without one. */
+    public double azimuth() {
+        return azimuth;
+    }
+
+    /** World elevation of the last projected object in degrees, NaN without one. */
+    public double elevation() {
+        return elevation;
+    }
+
+    /** Where the sun should have been for the last projection; only meaningful if it had a location. */
+    public SolarPosition expectedSun() {
+        return expectedSun;
+    }
+
+    /** Undistorted camera ray (x', y', 1) of the last projected object. */
+    public double normalizedX() {
+        return normalizedPixel[0];
+    }
+
+    public double normalizedY() {
+        return normalizedPixel[1];
+    }
+
+    /**
+     * The observation to report for the last projection.
+     *
+     * @param orientationDegrees device azimuth, pitch and roll the projection used
+     */
+    public Observation observation(long wallMillis, String deviceId, GeoFix location, float[] orientationDegrees,
+                                   float cameraFovHorizontal, float cameraFovVertical) {
+        return new Observation(
+                wallMillis,
+                deviceId,
+                location != null ? location.latitude : Double.NaN,
+                location != null ? location.longitude : Double.NaN,
+                location != null ? location.altitude : Double.NaN,
+                orientationDegrees[0], orientationDegrees[1], orientationDegrees[2],
+                azimuth, elevation,
+                cameraFovHorizontal, cameraFovVertical);
+    }
+}
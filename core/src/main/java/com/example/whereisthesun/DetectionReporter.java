@@ -0,0 +1,73 @@
+package com.example.whereisthesun;
+
+/**
+ * Pairs a detection with the orientation and location as of its exposure, projects it and builds the
+ * {@link Observation} to report. The app's project stage and the desktop replay both go through here,
+ * so they drop and report the same detections; only where the inputs come from differs.
+ *
+ * Not thread-safe, like the {@link DetectionProjector} it drives.
+ */
+public class DetectionReporter {
+    private final OrientationTracker orientation;
+    private final LocationFusion locationFusion;
+    private final DetectionProjector projector;
+
+    // Inputs of the last projection
+    private final float[] quaternion = {1, 0, 0, 0};
+    private final float[] orientationDegrees = new float[3];
+    private GeoFix location;
+    private long wallMillis;
+    private boolean projected;
+
+    public DetectionReporter(OrientationTracker orientation, LocationFusion locationFusion,
+                             DetectionProjector projector) {
+        this.orientation = orientation;
+        this.locationFusion = locationFusion;
+        this.projector = projector;
+    }
+
+    /**
+     * Projects {@code detection} with the orientation at {@code captureNanos} (the latest estimate if
+     * the history does not reach that far) and the best fix at that time. Without any orientation
+     * estimate yet there are no angles to report: the projector is cleared and nothing is projected.
+     *
+     * @param captureNanos exposure time, SensorEvent.timestamp time base
+     * @param declination magnetic declination at the location, degrees east
+     * @param wallMillis UTC time of the exposure
+     * @return false if there was no orientation to project with
+     */
+    public boolean project(SunDetection detection, PixelRayTable rays, long captureNanos, double declination,
+                           long wallMillis) {
+        this.wallMillis = wallMillis;
+        location = locationFusion.current(captureNanos);
+        projected = orientation.getOrientationFor(captureNanos, quaternion, orientationDegrees);
+        if (!projected) {
+            projector.clear();
+            return false;
+        }
+        projector.project(detection, rays, quaternion, location, declination, wallMillis);
+        return true;
+    }
+
+    /**
+     * The observation for the last projection, or null if there was none or it has neither a location
+     * nor an object and so nothing worth reporting.
+     */
+    public Observation observation(String deviceId, float cameraFovHorizontal, float cameraFovVertical) {
+        if (!projected || location == null && !projector.hasObject()) {
+            return null;
+        }
+        return projector.observation(wallMillis, deviceId, location, orientationDegrees,
+                cameraFovHorizontal, cameraFovVertical);
+    }
+
+    /** Fix the last projection used, or null if there was none. */
+    public GeoFix location() {
+        return location;
+    }
+
+    /** Device azimuth, pitch and roll in degrees the last projection used; not to be modified. */
+    public float[] orientationDegrees() {
+        return orientationDegrees;
+    }
+}
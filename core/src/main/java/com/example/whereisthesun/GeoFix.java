@@ -0,0 +1,63 @@
+package com.example.whereisthesun;
+
+/**
+ * One position fix, independent of the platform's location classes. Immutable, so a fix can be
+ * published to other threads by reference. Ages are measured on {@code elapsedNanos}, a monotonic
+ * clock (Android's elapsedRealtimeNanos); {@code timeMillis} is the UTC time of the fix.
+ */
+public class GeoFix {
+    // Providers
+    public static final int PROVIDER_GPS = 0;
+    public static final int PROVIDER_NETWORK = 1;
+    public static final int PROVIDER_OTHER = 2; // Fused, passive, mock
+
+    private static final double EARTH_RADIUS_METERS = 6_371_000;
+
+    public final int provider;
+    public final double latitude;      // Degrees
+    public final double longitude;     // Degrees
+    public final double altitude;      // Meters above the WGS84 ellipsoid, NaN if unknown
+    public final float accuracy;       // Horizontal, meters (68% radius)
+    public final float speed;          // Meters per second, NaN if unknown
+    public final long timeMillis;
+    public final long elapsedNanos;
+
+    public GeoFix(int provider, double latitude, double longitude, double altitude, float accuracy, float speed,
+                  long timeMillis, long elapsedNanos) {
+        this.provider = provider;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        this.accuracy = accuracy;
+        this.speed = speed;
+        this.timeMillis = timeMillis;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /** Whether this is a position at all: coordinates in range, not the 0/0 of a failed fix, and a positive accuracy. */
+    public boolean isValid() {
+        return latitude >= -90 && latitude <= 90 && longitude >= -180 && longitude <= 180
+                && !(latitude == 0 && longitude == 0)
+                && accuracy > 0 && !Float.isInfinite(accuracy);
+    }
+
+    public double ageSeconds(long nowElapsedNanos) {
+        return Math.max(0, nowElapsedNanos - elapsedNanos) / 1e9;
+    }
+
+    /** Great-circle distance to {@code other} in meters (haversine). */
+    public double distanceTo(GeoFix other) {
+        double lat1 = Math.toRadians(latitude);
+        double lat2 = Math.toRadians(other.latitude);
+        double sinLat = Math.sin((lat2 - lat1) / 2);
+        double sinLon = Math.sin(Math.toRadians(other.longitude - longitude) / 2);
+        double h = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    @Override
+    public String toString() {
+        return "GeoFix{" + (provider == PROVIDER_GPS ? "gps" : provider == PROVIDER_NETWORK ? "network" : "other")
+                + " " + latitude + ", " + longitude + " +/-" + accuracy + " m}";
+    }
+}
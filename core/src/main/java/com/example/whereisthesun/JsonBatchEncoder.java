@@ -0,0 +1,110 @@
+package com.example.whereisthesun;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Encodes a batch as a JSON array of the per-capture objects the app used to POST one at a time,
+ * with the same keys. Location and object angles are omitted when unknown. With a metrics snapshot
+ * the body becomes an object instead, {@code {"observations": [...], "metrics": {...}}}, durations in
+ * microseconds.
+ */
+public class JsonBatchEncoder implements BatchEncoder {
+    @Override
+    public String contentType() {
+        return "application/json; charset=utf-8";
+    }
+
+    @Override
+    public void encode(List<Observation> batch, MetricsSnapshot metrics, OutputStream out) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        StringBuilder json = new StringBuilder(256);
+        if (metrics != null) {
+            writer.write("{\"observations\":");
+        }
+        writer.write('[');
+        for (int i = 0; i < batch.size(); i++) {
+            json.setLength(0);
+            if (i > 0) {
+                json.append(',');
+            }
+            appendObject(json, batch.get(i));
+            writer.append(json);
+        }
+        writer.write(']');
+        if (metrics != null) {
+            json.setLength(0);
+            json.append(",\"metrics\":");
+            appendMetrics(json, metrics);
+            json.append('}');
+            writer.append(json);
+        }
+        writer.flush();
+    }
+
+    static void appendMetrics(StringBuilder json, MetricsSnapshot metrics) {
+        json.append("{\"intervalMillis\":").append(metrics.intervalNanos / 1_000_000);
+        json.append(",\"counters\":{");
+        for (int i = 0; i < Metrics.COUNTER_COUNT; i++) {
+            json.append(i == 0 ? "\"" : ",\"").append(Metrics.COUNTER_NAMES[i]).append("\":").append(metrics.counters[i]);
+        }
+        json.append("},\"stages\":{");
+        boolean first = true;
+        for (int i = 0; i < Metrics.STAGE_COUNT; i++) {
+            if (metrics.stageCounts[i] == 0) {
+                continue;
+            }
+            json.append(first ? "\"" : ",\"").append(Metrics.STAGE_NAMES[i]).append("\":{");
+            json.append("\"count\":").append(metrics.stageCounts[i]);
+            json.append(",\"p50Micros\":").append(metrics.p50Nanos[i] / 1000);
+            json.append(",\"p90Micros\":").append(metrics.p90Nanos[i] / 1000);
+            json.append(",\"p99Micros\":").append(metrics.p99Nanos[i] / 1000);
+            json.append(",\"maxMicros\":").append(metrics.maxNanos[i] / 1000);
+            json.append('}');
+            first = false;
+        }
+        json.append("}}");
+    }
+
+    static void appendObject(StringBuilder json, Observation o) {
+        json.append("{\"timestamp\":").append(o.timestamp);
+        json.append(",\"deviceId\":");
+        appendString(json, o.deviceId);
+        if (o.hasLocation()) {
+            json.append(",\"latitude\":").append(o.latitude);
+            json.append(",\"longitude\":").append(o.longitude);
+            if (!Double.isNaN(o.altitude)) { // Network fixes have none, and JSON has no NaN
+                json.append(",\"altitude\":").append(o.altitude);
+            }
+        }
+        json.append(",\"deviceAzimuth\":").append(o.deviceAzimuth);
+        json.append(",\"devicePitch\":").append(o.devicePitch);
+        json.append(",\"deviceRoll\":").append(o.deviceRoll);
+        if (o.hasObject()) {
+            json.append(",\"objectWorldAzimuth\":").append(o.objectAzimuth);
+            json.append(",\"objectWorldElevation\":").append(o.objectElevation);
+        }
+        json.append(",\"cameraFovHorizontal\":").append(o.cameraFovHorizontal);
+        json.append(",\"cameraFovVertical\":").append(o.cameraFovVertical);
+        json.append('}');
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
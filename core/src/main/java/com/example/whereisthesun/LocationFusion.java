@@ -0,0 +1,121 @@
+package com.example.whereisthesun;
+
+/**
+ * Keeps the best position fix from several providers and suggests how often to ask for new ones.
+ *
+ * Fixes are compared by their effective uncertainty: the reported accuracy, scaled up for network
+ * fixes (a WiFi/cell model whose accuracy is often optimistic), plus how far the device could have
+ * moved since, at {@link #ASSUMED_SPEED_MPS}. A new fix replaces the current one unless the current
+ * one is still tighter, so a coarse network fix cannot displace a recent GPS fix, but a GPS fix from
+ * ten minutes ago does give way. Fixes older than {@link #MAX_AGE_NANOS} are not used at all. While
+ * the device is at rest the limit stretches to {@link #STATIONARY_MAX_AGE_NANOS}: providers go quiet
+ * then, and the last fix stays as good as it was. A few idle intervals without any fix, though, mean
+ * updates are not arriving at all, and nothing would notice the device moving; see also
+ * {@link #resetMotion()}.
+ *
+ * The device counts as stationary while accepted fixes stay within {@link #STATIONARY_RADIUS_METERS}
+ * (or their combined accuracy) of where it came to rest and report no speed above walking pace. The
+ * longer it rests, the longer {@link #updateIntervalMillis()} gets: the sun's apparent position moves
+ * by about 0.01 deg per kilometer, so a few meters of drift are irrelevant and GPS can mostly sleep.
+ * The first fix that leaves the radius returns to the fast rate. Only the interval stretches; the
+ * minimum distance stays at {@link #UPDATE_DISTANCE_METERS}, because a distance as large as the radius
+ * would hold back every update of a device at rest, including the one that notices it has moved.
+ *
+ * {@link #offer} is meant for the thread location updates arrive on; {@link #current} is a volatile
+ * read plus a comparison and can be called from any thread, per frame.
+ */
+public class LocationFusion {
+    public static final long MAX_AGE_NANOS = 30 * 60 * 1_000_000_000L;
+    public static final double ASSUMED_SPEED_MPS = 1.5;
+    public static final double NETWORK_ACCURACY_FACTOR = 1.5;
+    public static final double STATIONARY_RADIUS_METERS = 50;
+    private static final double MOVING_SPEED_MPS = 1.0;
+    public static final float UPDATE_DISTANCE_METERS = 5;
+
+    // Update rates by how long the device has been at rest
+    public static final long FAST_INTERVAL_MILLIS = 5_000;
+    public static final long SLOW_INTERVAL_MILLIS = 30_000;
+    public static final long IDLE_INTERVAL_MILLIS = 120_000;
+    private static final long SLOW_AFTER_NANOS = 2 * 60 * 1_000_000_000L;
+    private static final long IDLE_AFTER_NANOS = 10 * 60 * 1_000_000_000L;
+    public static final long STATIONARY_MAX_AGE_NANOS = MAX_AGE_NANOS + 3 * IDLE_INTERVAL_MILLIS * 1_000_000L;
+
+    private volatile GeoFix best;
+    private volatile boolean stationary;
+
+    // Guarded by this
+    private GeoFix restAnchor;
+    private long restSinceNanos;
+    private long updateIntervalMillis = FAST_INTERVAL_MILLIS;
+
+    /**
+     * Considers a new fix. {@code nowElapsedNanos} is the current monotonic time, on the clock of the
+     * fixes' {@code elapsedNanos}.
+     *
+     * @return whether {@code fix} became the current best
+     */
+    public synchronized boolean offer(GeoFix fix, long nowElapsedNanos) {
+        if (!fix.isValid() || nowElapsedNanos - fix.elapsedNanos > MAX_AGE_NANOS) {
+            return false;
+        }
+        GeoFix current = current(nowElapsedNanos);
+        if (current != null && uncertainty(current, nowElapsedNanos) < uncertainty(fix, nowElapsedNanos)) {
+            return false;
+        }
+        best = fix;
+        updateMotion(fix, nowElapsedNanos);
+        return true;
+    }
+
+    /**
+     * The best fix if it is not older than {@link #MAX_AGE_NANOS}, or {@link #STATIONARY_MAX_AGE_NANOS}
+     * while the device is at rest; else null.
+     */
+    public GeoFix current(long nowElapsedNanos) {
+        GeoFix fix = best;
+        long maxAge = stationary ? STATIONARY_MAX_AGE_NANOS : MAX_AGE_NANOS;
+        return fix != null && nowElapsedNanos - fix.elapsedNanos <= maxAge ? fix : null;
+    }
+
+    /**
+     * Forgets that the device was at rest, for when location updates stop: nothing watches for
+     * movement then, so the last fix gets the normal age limit and the next updates start fast.
+     */
+    public synchronized void resetMotion() {
+        restAnchor = null;
+        restSinceNanos = 0;
+        updateIntervalMillis = FAST_INTERVAL_MILLIS;
+        stationary = false;
+    }
+
+    /** How often location updates are worth requesting right now. */
+    public synchronized long updateIntervalMillis() {
+        return updateIntervalMillis;
+    }
+
+    public boolean isStationary() {
+        return stationary;
+    }
+
+    /** Effective 68% radius of {@code fix} at {@code nowElapsedNanos}, in meters. */
+    public static double uncertainty(GeoFix fix, long nowElapsedNanos) {
+        double accuracy = fix.provider == GeoFix.PROVIDER_NETWORK ? fix.accuracy * NETWORK_ACCURACY_FACTOR : fix.accuracy;
+        return accuracy + fix.ageSeconds(nowElapsedNanos) * ASSUMED_SPEED_MPS;
+    }
+
+    private void updateMotion(GeoFix fix, long nowElapsedNanos) {
+        boolean moving = restAnchor == null
+                || fix.speed > MOVING_SPEED_MPS // False for NaN
+                || fix.distanceTo(restAnchor) > Math.max(STATIONARY_RADIUS_METERS, restAnchor.accuracy + fix.accuracy);
+        if (moving) {
+            restAnchor = fix;
+            restSinceNanos = nowElapsedNanos;
+        } else if (fix.accuracy < restAnchor.accuracy) {
+            restAnchor = fix; // Same rest, better idea of where
+        }
+        long rested = nowElapsedNanos - restSinceNanos;
+        updateIntervalMillis = rested >= IDLE_AFTER_NANOS ? IDLE_INTERVAL_MILLIS
+                : rested >= SLOW_AFTER_NANOS ? SLOW_INTERVAL_MILLIS : FAST_INTERVAL_MILLIS;
+        stationary = updateIntervalMillis != FAST_INTERVAL_MILLIS;
+    }
+}
@@ -0,0 +1,271 @@
+package com.example.whereisthesun;
+
+/**
+ * Madgwick gradient-descent orientation filter (S. Madgwick, "An efficient orientation filter for
+ * inertial and inertial/magnetic sensor arrays", 2010). The gyroscope is integrated on every
+ * gyroscope event and corrected towards the latest accelerometer (and magnetometer, when present)
+ * reading, with {@code beta} setting how hard: higher converges faster, lower is smoother.
+ *
+ * The filter starts from the accelerometer/magnetometer orientation so it does not have to converge
+ * from identity. Without a gyroscope it still works as a (noisier) accelerometer/magnetometer filter
+ * by stepping on accelerometer events with zero rotation rate. Allocation-free.
+ *
+ * Internally the state uses Madgwick's earth frame (x magnetic north, z up, i.e. North-West-Up); it
+ * is rotated into East-North-Up on output.
+ */
+public class MadgwickFilter implements OrientationFilter {
+    public static final float DEFAULT_BETA = 0.1f;
+
+    private static final float MAX_DT_SECONDS = 0.5f;            // Longer gaps are not integrated
+    private static final float HALF_SQRT2 = (float) Math.sqrt(0.5);
+
+    private final float beta;
+
+    private float q0 = 1, q1 = 0, q2 = 0, q3 = 0;               // North-West-Up orientation
+    private boolean initialized = false;
+    private boolean hasAccel = false;
+    private boolean hasMag = false;
+    private boolean gyroSeen = false;
+    private long lastStepNanos = 0;
+    private final float[] accel = new float[3];
+    private final float[] mag = new float[3];
+    private final float[] R = new float[9];
+    private final float[] initial = new float[4];
+
+    public MadgwickFilter() {
+        this(DEFAULT_BETA);
+    }
+
+    public MadgwickFilter(float beta) {
+        this.beta = beta;
+    }
+
+    @Override
+    public void onSensorEvent(int type, long timestampNanos, float[] values) {
+        switch (type) {
+            case TYPE_ACCELEROMETER:
+                accel[0] = values[0];
+                accel[1] = values[1];
+                accel[2] = values[2];
+                hasAccel = true;
+                if (!initialized) {
+                    initialize();
+                } else if (!gyroSeen) {
+                    step(timestampNanos, 0, 0, 0);
+                }
+                break;
+            case TYPE_MAGNETIC_FIELD:
+                mag[0] = values[0];
+                mag[1] = values[1];
+                mag[2] = values[2];
+                hasMag = true;
+                if (!initialized) {
+                    initialize();
+                }
+                break;
+            case TYPE_GYROSCOPE:
+                gyroSeen = true;
+                if (initialized) {
+                    step(timestampNanos, values[0], values[1], values[2]);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public boolean getQuaternion(float[] q) {
+        if (!initialized) {
+            return false;
+        }
+        // q_enu = rotz(+90 deg) * q_nwu
+        q[0] = HALF_SQRT2 * (q0 - q3);
+        q[1] = HALF_SQRT2 * (q1 - q2);
+        q[2] = HALF_SQRT2 * (q2 + q1);
+        q[3] = HALF_SQRT2 * (q3 + q0);
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        q0 = 1;
+        q1 = q2 = q3 = 0;
+        initialized = false;
+        hasAccel = false;
+        hasMag = false;
+        gyroSeen = false;
+        lastStepNanos = 0;
+    }
+
+    private void initialize() {
+        if (!hasAccel || !hasMag || !Orientations.rotationMatrixFromAccelMag(R, accel, mag)) {
+            return;
+        }
+        Orientations.matrixToQuaternion(R, initial);
+        // q_nwu = rotz(-90 deg) * q_enu
+        q0 = HALF_SQRT2 * (initial[0] + initial[3]);
+        q1 = HALF_SQRT2 * (initial[1] + initial[2]);
+        q2 = HALF_SQRT2 * (initial[2] - initial[1]);
+        q3 = HALF_SQRT2 * (initial[3] - initial[0]);
+        initialized = true;
+    }
+
+    private void step(long timestampNanos, float gx, float gy, float gz) {
+        long previous = lastStepNanos;
+        lastStepNanos = timestampNanos;
+        if (previous == 0) {
+            return;
+        }
+        float dt = (timestampNanos - previous) * 1e-9f;
+        if (dt <= 0 || dt > MAX_DT_SECONDS) {
+            return;
+        }
+        if (hasMag) {
+            updateMarg(dt, gx, gy, gz, accel[0], accel[1], accel[2], mag[0], mag[1], mag[2]);
+        } else {
+            updateImu(dt, gx, gy, gz, accel[0], accel[1], accel[2]);
+        }
+    }
+
+    private void updateMarg(float dt, float gx, float gy, float gz, float ax, float ay, float az,
+                            float mx, float my, float mz) {
+        // Rate of change of quaternion from gyroscope
+        float qDot1 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot2 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot3 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot4 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        float aNorm = ax * ax + ay * ay + az * az;
+        float mNorm = mx * mx + my * my + mz * mz;
+        if (aNorm > 0 && mNorm > 0) {
+            float recipNorm = invSqrt(aNorm);
+            ax *= recipNorm;
+            ay *= recipNorm;
+            az *= recipNorm;
+            recipNorm = invSqrt(mNorm);
+            mx *= recipNorm;
+            my *= recipNorm;
+            mz *= recipNorm;
+
+            float _2q0mx = 2f * q0 * mx;
+            float _2q0my = 2f * q0 * my;
+            float _2q0mz = 2f * q0 * mz;
+            float _2q1mx = 2f * q1 * mx;
+            float _2q0 = 2f * q0;
+            float _2q1 = 2f * q1;
+            float _2q2 = 2f * q2;
+            float _2q3 = 2f * q3;
+            float _2q0q2 = 2f * q0 * q2;
+            float _2q2q3 = 2f * q2 * q3;
+            float q0q0 = q0 * q0;
+            float q0q1 = q0 * q1;
+            float q0q2 = q0 * q2;
+            float q0q3 = q0 * q3;
+            float q1q1 = q1 * q1;
+            float q1q2 = q1 * q2;
+            float q1q3 = q1 * q3;
+            float q2q2 = q2 * q2;
+            float q2q3 = q2 * q3;
+            float q3q3 = q3 * q3;
+
+            // Reference direction of Earth's magnetic field
+            float hx = mx * q0q0 - _2q0my * q3 + _2q0mz * q2 + mx * q1q1 + _2q1 * my * q2 + _2q1 * mz * q3 - mx * q2q2 - mx * q3q3;
+            float hy = _2q0mx * q3 + my * q0q0 - _2q0mz * q1 + _2q1mx * q2 - my * q1q1 + my * q2q2 + _2q2 * mz * q3 - my * q3q3;
+            float _2bx = (float) Math.sqrt(hx * hx + hy * hy);
+            float _2bz = -_2q0mx * q2 + _2q0my * q1 + mz * q0q0 + _2q1mx * q3 - mz * q1q1 + _2q2 * my * q3 - mz * q2q2 + mz * q3q3;
+            float _4bx = 2f * _2bx;
+            float _4bz = 2f * _2bz;
+
+            // Gradient descent corrective step
+            float s0 = -_2q2 * (2f * q1q3 - _2q0q2 - ax) + _2q1 * (2f * q0q1 + _2q2q3 - ay)
+                    - _2bz * q2 * (_2bx * (0.5f - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx)
+                    + (-_2bx * q3 + _2bz * q1) * (_2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my)
+                    + _2bx * q2 * (_2bx * (q0q2 + q1q3) + _2bz * (0.5f - q1q1 - q2q2) - mz);
+            float s1 = _2q3 * (2f * q1q3 - _2q0q2 - ax) + _2q0 * (2f * q0q1 + _2q2q3 - ay)
+                    - 4f * q1 * (1 - 2f * q1q1 - 2f * q2q2 - az)
+                    + _2bz * q3 * (_2bx * (0.5f - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx)
+                    + (_2bx * q2 + _2bz * q0) * (_2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my)
+                    + (_2bx * q3 - _4bz * q1) * (_2bx * (q0q2 + q1q3) + _2bz * (0.5f - q1q1 - q2q2) - mz);
+            float s2 = -_2q0 * (2f * q1q3 - _2q0q2 - ax) + _2q3 * (2f * q0q1 + _2q2q3 - ay)
+                    - 4f * q2 * (1 - 2f * q1q1 - 2f * q2q2 - az)
+                    + (-_4bx * q2 - _2bz * q0) * (_2bx * (0.5f - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx)
+                    + (_2bx * q1 + _2bz * q3) * (_2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my)
+                    + (_2bx * q0 - _4bz * q2) * (_2bx * (q0q2 + q1q3) + _2bz * (0.5f - q1q1 - q2q2) - mz);
+            float s3 = _2q1 * (2f * q1q3 - _2q0q2 - ax) + _2q2 * (2f * q0q1 + _2q2q3 - ay)
+                    + (-_4bx * q3 + _2bz * q1) * (_2bx * (0.5f - q2q2 - q3q3) + _2bz * (q1q3 - q0q2) - mx)
+                    + (-_2bx * q0 + _2bz * q2) * (_2bx * (q1q2 - q0q3) + _2bz * (q0q1 + q2q3) - my)
+                    + _2bx * q1 * (_2bx * (q0q2 + q1q3) + _2bz * (0.5f - q1q1 - q2q2) - mz);
+
+            float sNorm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (sNorm > 0) {
+                recipNorm = invSqrt(sNorm);
+                qDot1 -= beta * s0 * recipNorm;
+                qDot2 -= beta * s1 * recipNorm;
+                qDot3 -= beta * s2 * recipNorm;
+                qDot4 -= beta * s3 * recipNorm;
+            }
+        }
+        integrate(dt, qDot1, qDot2, qDot3, qDot4);
+    }
+
+    private void updateImu(float dt, float gx, float gy, float gz, float ax, float ay, float az) {
+        float qDot1 = 0.5f * (-q1 * gx - q2 * gy - q3 * gz);
+        float qDot2 = 0.5f * (q0 * gx + q2 * gz - q3 * gy);
+        float qDot3 = 0.5f * (q0 * gy - q1 * gz + q3 * gx);
+        float qDot4 = 0.5f * (q0 * gz + q1 * gy - q2 * gx);
+
+        float aNorm = ax * ax + ay * ay + az * az;
+        if (aNorm > 0) {
+            float recipNorm = invSqrt(aNorm);
+            ax *= recipNorm;
+            ay *= recipNorm;
+            az *= recipNorm;
+
+            float _2q0 = 2f * q0;
+            float _2q1 = 2f * q1;
+            float _2q2 = 2f * q2;
+            float _2q3 = 2f * q3;
+            float _4q0 = 4f * q0;
+            float _4q1 = 4f * q1;
+            float _4q2 = 4f * q2;
+            float _8q1 = 8f * q1;
+            float _8q2 = 8f * q2;
+            float q0q0 = q0 * q0;
+            float q1q1 = q1 * q1;
+            float q2q2 = q2 * q2;
+            float q3q3 = q3 * q3;
+
+            float s0 = _4q0 * q2q2 + _2q2 * ax + _4q0 * q1q1 - _2q1 * ay;
+            float s1 = _4q1 * q3q3 - _2q3 * ax + 4f * q0q0 * q1 - _2q0 * ay - _4q1 + _8q1 * q1q1 + _8q1 * q2q2 + _4q1 * az;
+            float s2 = 4f * q0q0 * q2 + _2q0 * ax + _4q2 * q3q3 - _2q3 * ay - _4q2 + _8q2 * q1q1 + _8q2 * q2q2 + _4q2 * az;
+            float s3 = 4f * q1q1 * q3 - _2q1 * ax + 4f * q2q2 * q3 - _2q2 * ay;
+
+            float sNorm = s0 * s0 + s1 * s1 + s2 * s2 + s3 * s3;
+            if (sNorm > 0) {
+                recipNorm = invSqrt(sNorm);
+                qDot1 -= beta * s0 * recipNorm;
+                qDot2 -= beta * s1 * recipNorm;
+                qDot3 -= beta * s2 * recipNorm;
+                qDot4 -= beta * s3 * recipNorm;
+            }
+        }
+        integrate(dt, qDot1, qDot2, qDot3, qDot4);
+    }
+
+    private void integrate(float dt, float qDot1, float qDot2, float qDot3, float qDot4) {
+        q0 += qDot1 * dt;
+        q1 += qDot2 * dt;
+        q2 += qDot3 * dt;
+        q3 += qDot4 * dt;
+        float recipNorm = invSqrt(q0 * q0 + q1 * q1 + q2 * q2 + q3 * q3);
+        q0 *= recipNorm;
+        q1 *= recipNorm;
+        q2 *= recipNorm;
+        q3 *= recipNorm;
+    }
+
+    private static float invSqrt(float x) {
+        return 1f / (float) Math.sqrt(x);
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.whereisthesun;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histograms for the capture-to-upload path. Everything is lock-free and
+ * allocation-free to record, so it can sit on the sensor thread and in the per-frame path. While
+ * disabled, every recording call is a single volatile read and the timers do not even read the clock.
+ *
+ * Time a stage with {@link #startTimer()} / {@link #stopTimer(int, long)}, or {@link #record} a
+ * duration measured elsewhere. {@link #snapshot()} summarizes everything since the last snapshot
+ * passed to {@link #markReported}, so a snapshot whose upload failed is simply covered again by the
+ * next one.
+ */
+public class Metrics {
+    // Stages, see STAGE_NAMES
+    public static final int STAGE_CAPTURE = 0;  // Shutter press to image saved
+    public static final int STAGE_DECODE = 1;   // Image file to Mat
+    public static final int STAGE_DETECT = 2;   // Detection (and tracking) on one image or frame
+    public static final int STAGE_PROJECT = 3;  // Detection to calibrated world angles
+    public static final int STAGE_ENQUEUE = 4;  // Durable append to the upload queue
+    public static final int STAGE_UPLOAD = 5;   // Encoding plus the HTTP round trip of one batch
+    public static final int STAGE_COUNT = 6;
+
+    // Counters, see COUNTER_NAMES
+    public static final int SENSOR_EVENTS = 0;
+    public static final int FRAMES = 1;
+    public static final int FRAMES_DROPPED = 2;   // Estimated from gaps in the frame timestamps
+    public static final int DETECTIONS = 3;
+    public static final int OBSERVATIONS = 4;
+    public static final int UPLOADS = 5;
+    public static final int UPLOAD_FAILURES = 6;
+    public static final int QUEUE_DROPS = 7;      // Items a full PipelineStage dropped or coalesced away
+    public static final int COUNTER_COUNT = 8;
+
+    public static final String[] STAGE_NAMES = {"capture", "decode", "detect", "project", "enqueue", "upload"};
+    public static final String[] COUNTER_NAMES = {
+            "sensorEvents", "frames", "framesDropped", "detections", "observations", "uploads", "uploadFailures",
+            "queueDrops"};
+
+    private volatile boolean enabled;
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTER_COUNT);
+    private final LatencyHistogram[] stages = new LatencyHistogram[STAGE_COUNT];
+    private volatile MetricsSnapshot reported;
+
+    public Metrics() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            stages[i] = new LatencyHistogram();
+        }
+        reported = MetricsSnapshot.baseline(System.nanoTime());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /** @return the start time to pass to {@link #stopTimer}, or 0 while disabled */
+    public long startTimer() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /** Records the time since {@code startNanos} for {@code stage}; nothing if the timer was started disabled. */
+    public void stopTimer(int stage, long startNanos) {
+        if (startNanos != 0) {
+            stages[stage].record(System.nanoTime() - startNanos);
+        }
+    }
+
+    public void record(int stage, long nanos) {
+        if (enabled) {
+            stages[stage].record(nanos);
+        }
+    }
+
+    public void increment(int counter) {
+        if (enabled) {
+            counters.incrementAndGet(counter);
+        }
+    }
+
+    public void add(int counter, long delta) {
+        if (enabled) {
+            counters.addAndGet(counter, delta);
+        }
+    }
+
+    /** Everything recorded since the last {@link #markReported} snapshot (or since creation). Safe from any thread. */
+    public MetricsSnapshot snapshot() {
+        return snapshot(reported);
+    }
+
+    /**
+     * Everything recorded since {@code since}, an earlier snapshot of this instance, e.g. for a display
+     * that refreshes on its own schedule. Safe from any thread.
+     */
+    public MetricsSnapshot snapshot(MetricsSnapshot since) {
+        long[] counterTotals = new long[COUNTER_COUNT];
+        for (int i = 0; i < COUNTER_COUNT; i++) {
+            counterTotals[i] = counters.get(i);
+        }
+        long[][] bucketTotals = new long[STAGE_COUNT][LatencyHistogram.BUCKETS];
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            stages[i].copyCounts(bucketTotals[i]);
+        }
+        return new MetricsSnapshot(System.nanoTime(), counterTotals, bucketTotals, since);
+    }
+
+    /** Makes {@code snapshot} the baseline of the next one, once it has been delivered. */
+    public synchronized void markReported(MetricsSnapshot snapshot) {
+        if (snapshot.takenNanos > reported.takenNanos) {
+            reported = snapshot;
+        }
+    }
+}
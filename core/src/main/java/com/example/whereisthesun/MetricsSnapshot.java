@@ -0,0 +1,104 @@
+package com.example.whereisthesun;
+
+import java.util.Locale;
+
+/**
+ * Summary of one {@link Metrics} interval: how long it was, the counter increments, and per stage the
+ * number of samples with their 50th, 90th and 99th percentile and maximum (bucket upper bounds, see
+ * {@link LatencyHistogram}). Immutable; also keeps the cumulative totals it was computed from, so it
+ * can serve as the baseline of the next interval.
+ */
+public class MetricsSnapshot {
+    final long takenNanos;
+    private final long[] counterTotals;
+    private final long[][] bucketTotals;
+
+    public final long intervalNanos;
+    public final long[] counters = new long[Metrics.COUNTER_COUNT];
+    public final long[] stageCounts = new long[Metrics.STAGE_COUNT];
+    public final long[] p50Nanos = new long[Metrics.STAGE_COUNT];
+    public final long[] p90Nanos = new long[Metrics.STAGE_COUNT];
+    public final long[] p99Nanos = new long[Metrics.STAGE_COUNT];
+    public final long[] maxNanos = new long[Metrics.STAGE_COUNT];
+
+    MetricsSnapshot(long takenNanos, long[] counterTotals, long[][] bucketTotals, MetricsSnapshot baseline) {
+        this.takenNanos = takenNanos;
+        this.counterTotals = counterTotals;
+        this.bucketTotals = bucketTotals;
+        intervalNanos = baseline != null ? takenNanos - baseline.takenNanos : 0;
+        if (baseline == null) {
+            return;
+        }
+        for (int i = 0; i < Metrics.COUNTER_COUNT; i++) {
+            counters[i] = counterTotals[i] - baseline.counterTotals[i];
+        }
+        for (int stage = 0; stage < Metrics.STAGE_COUNT; stage++) {
+            long[] now = bucketTotals[stage];
+            long[] before = baseline.bucketTotals[stage];
+            long count = 0;
+            for (int b = 0; b < LatencyHistogram.BUCKETS; b++) {
+                count += now[b] - before[b];
+            }
+            stageCounts[stage] = count;
+            if (count == 0) {
+                continue;
+            }
+            // Ranks of the percentiles, 1-based
+            long rank50 = (count + 1) / 2;
+            long rank90 = (long) Math.ceil(count * 0.9);
+            long rank99 = (long) Math.ceil(count * 0.99);
+            long seen = 0;
+            for (int b = 0; b < LatencyHistogram.BUCKETS; b++) {
+                long n = now[b] - before[b];
+                if (n == 0) {
+                    continue;
+                }
+                long previous = seen;
+                seen += n;
+                long bound = LatencyHistogram.upperBound(b);
+                if (previous < rank50 && seen >= rank50) {
+                    p50Nanos[stage] = bound;
+                }
+                if (previous < rank90 && seen >= rank90) {
+                    p90Nanos[stage] = bound;
+                }
+                if (previous < rank99 && seen >= rank99) {
+                    p99Nanos[stage] = bound;
+                }
+                maxNanos[stage] = bound;
+            }
+        }
+    }
+
+    /** An empty starting point at {@code takenNanos}. */
+    static MetricsSnapshot baseline(long takenNanos) {
+        return new MetricsSnapshot(takenNanos, new long[Metrics.COUNTER_COUNT],
+                new long[Metrics.STAGE_COUNT][LatencyHistogram.BUCKETS], null);
+    }
+
+    /** Average rate of {@code counter} over the interval, per second. */
+    public double rate(int counter) {
+        return intervalNanos > 0 ? counters[counter] * 1e9 / intervalNanos : 0;
+    }
+
+    /** Multi-line summary for a debug display: rates, then one line per stage in milliseconds. */
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder(512);
+        s.append(String.format(Locale.US, "%.1f s: sensors %.0f/s, frames %.1f/s, dropped %d, detections %d%n",
+                intervalNanos / 1e9, rate(Metrics.SENSOR_EVENTS), rate(Metrics.FRAMES),
+                counters[Metrics.FRAMES_DROPPED], counters[Metrics.DETECTIONS]));
+        s.append(String.format(Locale.US, "observations %d, uploads %d, failed %d, queue drops %d%n",
+                counters[Metrics.OBSERVATIONS], counters[Metrics.UPLOADS], counters[Metrics.UPLOAD_FAILURES],
+                counters[Metrics.QUEUE_DROPS]));
+        for (int i = 0; i < Metrics.STAGE_COUNT; i++) {
+            if (stageCounts[i] == 0) {
+                continue;
+            }
+            s.append(String.format(Locale.US, "%-8s n=%-5d p50 %7.2f  p90 %7.2f  p99 %7.2f  max %7.2f ms%n",
+                    Metrics.STAGE_NAMES[i], stageCounts[i], p50Nanos[i] / 1e6, p90Nanos[i] / 1e6,
+                    p99Nanos[i] / 1e6, maxNanos[i] / 1e6));
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.whereisthesun;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * One report: where the device was, how it was oriented, and where the detected object appeared.
+ * Unknown values are NaN (location before the first fix, object angles when nothing was detected).
+ * Angles are in degrees.
+ */
+public final class Observation {
+    public final long timestamp;          // Wall clock, milliseconds since the epoch
+    public final String deviceId;
+    public final double latitude;
+    public final double longitude;
+    public final double altitude;
+    public final float deviceAzimuth;
+    public final float devicePitch;
+    public final float deviceRoll;
+    public final double objectAzimuth;
+    public final double objectElevation;
+    public final float cameraFovHorizontal;
+    public final float cameraFovVertical;
+
+    public Observation(long timestamp, String deviceId,
+                       double latitude, double longitude, double altitude,
+                       float deviceAzimuth, float devicePitch, float deviceRoll,
+                       double objectAzimuth, double objectElevation,
+                       float cameraFovHorizontal, float cameraFovVertical) {
+        this.timestamp = timestamp;
+        this.deviceId = deviceId;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.altitude = altitude;
+        this.deviceAzimuth = deviceAzimuth;
+        this.devicePitch = devicePitch;
+        this.deviceRoll = deviceRoll;
+        this.objectAzimuth = objectAzimuth;
+        this.objectElevation = objectElevation;
+        this.cameraFovHorizontal = cameraFovHorizontal;
+        this.cameraFovVertical = cameraFovVertical;
+    }
+
+    public boolean hasLocation() {
+        return !Double.isNaN(latitude);
+    }
+
+    public boolean hasObject() {
+        return !Double.isNaN(objectAzimuth) && !Double.isNaN(objectElevation);
+    }
+
+    /** Serializes this observation for local storage (not the wire format). */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeLong(timestamp);
+        out.writeUTF(deviceId);
+        out.writeDouble(latitude);
+        out.writeDouble(longitude);
+        out.writeDouble(altitude);
+        out.writeFloat(deviceAzimuth);
+        out.writeFloat(devicePitch);
+        out.writeFloat(deviceRoll);
+        out.writeDouble(objectAzimuth);
+        out.writeDouble(objectElevation);
+        out.writeFloat(cameraFovHorizontal);
+        out.writeFloat(cameraFovVertical);
+    }
+
+    public static Observation readFrom(DataInput in) throws IOException {
+        return new Observation(in.readLong(), in.readUTF(),
+                in.readDouble(), in.readDouble(), in.readDouble(),
+                in.readFloat(), in.readFloat(), in.readFloat(),
+                in.readDouble(), in.readDouble(),
+                in.readFloat(), in.readFloat());
+    }
+}
@@ -0,0 +1,415 @@
+package com.example.whereisthesun;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPOutputStream;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * Durable, batching upload queue for observations.
+ *
+ * {@link #enqueue(Observation)} appends the observation to {@code pending.log} in the queue
+ * directory before returning, so nothing is lost if the process dies afterwards. Once the pending
+ * batch reaches {@code maxBatchSize} observations, or its oldest entry is {@code maxBatchAgeMillis}
+ * old, it is sealed into a {@code batch-<id>-<offset>.log} file and uploaded as one gzipped request.
+ * Sealed batches are uploaded oldest first, one at a time, with exponential backoff on failure; on
+ * restart everything left in the directory is picked up again.
+ *
+ * Each request carries {@value #HEADER_BATCH_ID} and {@value #HEADER_BATCH_OFFSET} headers, so the
+ * server can de-duplicate retransmissions and put batches back in order. A successful response may
+ * include {@value #HEADER_ACKNOWLEDGED} to accept only the first n observations; the rest are kept and
+ * sent again at the next offset. Other 4xx responses (except 408/429) drop the batch, since
+ * retrying a rejected body would block the queue forever.
+ *
+ * With {@link Metrics} given (and enabled), each request also carries a snapshot of them; it becomes
+ * the baseline of the next one only once the server accepted the request.
+ *
+ * On-disk records are {@code length:i32 crc32:i32 payload}; a torn or corrupt tail is truncated on
+ * recovery.
+ */
+public class ObservationQueue implements Closeable {
+    public static final String HEADER_BATCH_ID = "X-Batch-Id";
+    public static final String HEADER_BATCH_OFFSET = "X-Batch-Offset";
+    public static final String HEADER_ACKNOWLEDGED = "X-Acknowledged-Count";
+
+    private static final Logger LOG = Logger.getLogger(ObservationQueue.class.getName());
+    private static final String PENDING_FILE = "pending.log";
+    private static final String BATCH_PREFIX = "batch-";
+    private static final String BATCH_SUFFIX = ".log";
+    private static final long INITIAL_BACKOFF_MILLIS = 5_000;
+    private static final long MAX_BACKOFF_MILLIS = 10 * 60_000;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private final File directory;
+    private final OkHttpClient httpClient;
+    private final String url;
+    private final BatchEncoder encoder;
+    private final int maxBatchSize;
+    private final long maxBatchAgeMillis;
+    private final Metrics metrics;
+    private final ScheduledThreadPoolExecutor executor;
+    private final Random random = new Random();
+
+    // Guarded by this
+    private FileOutputStream pendingOut;
+    private int pendingCount = 0;
+    private long sealGeneration = 0;
+    private long nextBatchId = 0;
+
+    // Only touched on the executor thread
+    private int failedAttempts = 0;
+    private boolean retryScheduled = false;
+
+    /** @param metrics where to record queue latencies and counts and what to report with each batch; may be null */
+    public ObservationQueue(File directory, OkHttpClient httpClient, String url, BatchEncoder encoder,
+                            int maxBatchSize, long maxBatchAgeMillis, Metrics metrics) {
+        this.directory = directory;
+        this.httpClient = httpClient;
+        this.url = url;
+        this.encoder = encoder;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchAgeMillis = maxBatchAgeMillis;
+        this.metrics = metrics;
+        this.executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "observation-upload");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /** Recovers whatever a previous process left behind and starts uploading it. */
+    public synchronized void start() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create queue directory " + directory);
+        }
+        for (File batch : sealedBatches()) {
+            nextBatchId = Math.max(nextBatchId, batchId(batch) + 1);
+        }
+
+        File pending = new File(directory, PENDING_FILE);
+        if (pending.exists()) {
+            List<Observation> recovered = new ArrayList<>();
+            long validLength = readRecords(pending, recovered);
+            if (validLength < pending.length()) {
+                LOG.warning("Truncating torn tail of " + pending + " at " + validLength + " bytes");
+                try (RandomAccessFile file = new RandomAccessFile(pending, "rw")) {
+                    file.setLength(validLength);
+                }
+            }
+            pendingCount = recovered.size();
+        }
+        pendingOut = new FileOutputStream(pending, true);
+
+        if (pendingCount > 0) {
+            scheduleSeal(maxBatchAgeMillis);
+        }
+        executor.execute(this::uploadNext);
+    }
+
+    /** Durably appends one observation; the upload happens later on the queue's own thread. */
+    public synchronized void enqueue(Observation observation) throws IOException {
+        if (pendingOut == null) {
+            throw new IOException("Observation queue is not running");
+        }
+        long start = metrics != null ? metrics.startTimer() : 0;
+        pendingOut.write(frame(observation));
+        pendingCount++;
+        if (metrics != null) {
+            metrics.stopTimer(Metrics.STAGE_ENQUEUE, start);
+            metrics.increment(Metrics.OBSERVATIONS);
+        }
+        if (pendingCount >= maxBatchSize) {
+            executor.execute(() -> sealAndUpload(-1));
+        } else if (pendingCount == 1) {
+            scheduleSeal(maxBatchAgeMillis);
+        }
+    }
+
+    /** Seals whatever is pending and uploads it now (still honoring an active backoff). */
+    public void flush() {
+        executor.execute(() -> sealAndUpload(-1));
+    }
+
+    /** Number of observations not yet sealed into a batch. */
+    public synchronized int pendingCount() {
+        return pendingCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (pendingOut != null) {
+                pendingOut.close();
+                pendingOut = null;
+            }
+        }
+    }
+
+    private void scheduleSeal(long delayMillis) {
+        final long generation = sealGeneration;
+        executor.schedule(() -> sealAndUpload(generation), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** @param generation only seal if no seal happened since this generation; -1 to seal regardless */
+    private void sealAndUpload(long generation) {
+        try {
+            synchronized (this) {
+                if (pendingOut != null && pendingCount > 0 && (generation < 0 || generation == sealGeneration)) {
+                    seal();
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Failed to seal pending observations", e);
+            synchronized (this) {
+                scheduleSeal(maxBatchAgeMillis); // Try again even if no more observations arrive
+            }
+        }
+        uploadNext();
+    }
+
+    /** On failure the pending observations stay pending, and {@link #enqueue} keeps appending to them. */
+    private void seal() throws IOException {
+        File pending = new File(directory, PENDING_FILE);
+        File batch = batchFile(nextBatchId, 0);
+        try {
+            pendingOut.close();
+            if (!pending.renameTo(batch)) {
+                throw new IOException("Cannot rename " + pending + " to " + batch);
+            }
+            nextBatchId++;
+            pendingCount = 0;
+            sealGeneration++;
+        } finally {
+            pendingOut = null; // Stays null, and enqueue() fails loudly, if not even this works
+            pendingOut = new FileOutputStream(pending, true);
+        }
+    }
+
+    private void uploadNext() {
+        File[] batches = sealedBatches();
+        if (batches.length == 0 || retryScheduled) {
+            return; // Nothing to do, or backing off until the scheduled retry
+        }
+        File batch = batches[0];
+        long id = batchId(batch);
+        int offset = batchOffset(batch);
+
+        List<Observation> records = new ArrayList<>();
+        MetricsSnapshot snapshot = null;
+        long start = 0;
+        try {
+            readRecords(batch, records);
+            if (records.isEmpty()) {
+                deleteBatch(batch);
+                executor.execute(this::uploadNext);
+                return;
+            }
+
+            if (metrics != null && metrics.isEnabled()) {
+                snapshot = metrics.snapshot();
+                start = metrics.startTimer();
+            }
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            GZIPOutputStream gzip = new GZIPOutputStream(body);
+            encoder.encode(records, snapshot, gzip);
+            gzip.finish();
+
+            Request request = new Request.Builder()
+                    .url(url)
+                    .header("Content-Encoding", "gzip")
+                    .header(HEADER_BATCH_ID, Long.toString(id))
+                    .header(HEADER_BATCH_OFFSET, Integer.toString(offset))
+                    .post(RequestBody.create(body.toByteArray(), MediaType.get(encoder.contentType())))
+                    .build();
+
+            try (Response response = httpClient.newCall(request).execute()) {
+                int code = response.code();
+                if (code >= 400 && code < 500 && code != 408 && code != 429) {
+                    LOG.severe("Server rejected batch " + id + " (HTTP " + code + "), dropping "
+                            + records.size() + " observations");
+                    deleteBatch(batch);
+                } else if (!response.isSuccessful()) {
+                    retryLater("HTTP " + code + " " + response.message());
+                    return;
+                } else {
+                    int acknowledged = acknowledgedCount(response, records.size());
+                    if (acknowledged == 0) {
+                        retryLater("server acknowledged none of batch " + id);
+                        return;
+                    }
+                    if (snapshot != null) {
+                        metrics.stopTimer(Metrics.STAGE_UPLOAD, start);
+                        metrics.increment(Metrics.UPLOADS);
+                        metrics.markReported(snapshot);
+                    }
+                    if (acknowledged < records.size()) {
+                        rewriteBatch(batch, id, offset + acknowledged, records.subList(acknowledged, records.size()));
+                    } else {
+                        deleteBatch(batch);
+                    }
+                    LOG.fine("Uploaded " + acknowledged + " observations of batch " + id);
+                }
+            }
+        } catch (IOException e) {
+            retryLater(e.toString());
+            return;
+        }
+
+        failedAttempts = 0;
+        executor.execute(this::uploadNext);
+    }
+
+    private void retryUpload() {
+        retryScheduled = false;
+        uploadNext();
+    }
+
+    private void retryLater(String reason) {
+        if (metrics != null) {
+            metrics.increment(Metrics.UPLOAD_FAILURES);
+        }
+        failedAttempts++;
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(failedAttempts - 1, 16));
+        long delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2)); // Jitter avoids synchronized retries
+        retryScheduled = true;
+        LOG.warning("Upload failed (" + reason + "), retry " + failedAttempts + " in " + delay + " ms");
+        executor.schedule(this::retryUpload, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static int acknowledgedCount(Response response, int sent) {
+        String header = response.header(HEADER_ACKNOWLEDGED);
+        if (header == null) {
+            return sent;
+        }
+        try {
+            return Math.max(0, Math.min(sent, Integer.parseInt(header.trim())));
+        } catch (NumberFormatException e) {
+            return sent;
+        }
+    }
+
+    private void rewriteBatch(File batch, long id, int newOffset, List<Observation> remaining) throws IOException {
+        File tmp = new File(directory, batch.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            for (Observation observation : remaining) {
+                out.write(frame(observation));
+            }
+            out.getFD().sync();
+        }
+        File renamed = batchFile(id, newOffset);
+        if (!tmp.renameTo(renamed)) {
+            throw new IOException("Cannot rename " + tmp + " to " + renamed);
+        }
+        deleteBatch(batch);
+    }
+
+    private static void deleteBatch(File batch) {
+        if (!batch.delete()) {
+            LOG.warning("Cannot delete " + batch);
+        }
+    }
+
+    private File[] sealedBatches() {
+        File[] batches = directory.listFiles((dir, name) -> name.startsWith(BATCH_PREFIX) && name.endsWith(BATCH_SUFFIX));
+        if (batches == null) {
+            return new File[0];
+        }
+        // Zero-padded ids sort lexicographically
+        Arrays.sort(batches, (a, b) -> a.getName().compareTo(b.getName()));
+        return batches;
+    }
+
+    private File batchFile(long id, int offset) {
+        return new File(directory, String.format("%s%019d-%d%s", BATCH_PREFIX, id, offset, BATCH_SUFFIX));
+    }
+
+    private static long batchId(File batch) {
+        String name = batch.getName();
+        return Long.parseLong(name.substring(BATCH_PREFIX.length(), name.lastIndexOf('-')));
+    }
+
+    private static int batchOffset(File batch) {
+        String name = batch.getName();
+        return Integer.parseInt(name.substring(name.lastIndexOf('-') + 1, name.length() - BATCH_SUFFIX.length()));
+    }
+
+    private static byte[] frame(Observation observation) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream(96);
+        observation.writeTo(new DataOutputStream(payload));
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream(payload.size() + 8);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeInt(payload.size());
+        out.writeInt((int) crc.getValue());
+        payload.writeTo(out);
+        return record.toByteArray();
+    }
+
+    /**
+     * Reads every intact record of {@code file} into {@code out}.
+     *
+     * @return length of the valid prefix of the file
+     */
+    private static long readRecords(File file, List<Observation> out) throws IOException {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                int length;
+                int checksum;
+                byte[] payload;
+                try {
+                    length = in.readInt();
+                    checksum = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_BYTES) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                out.add(Observation.readFrom(new DataInputStream(new ByteArrayInputStream(payload))));
+                valid += 8 + length;
+            }
+        }
+        return valid;
+    }
+}
@@ -0,0 +1,641 @@
+package com.example.whereisthesun;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Local, append-only history of observations, for calibration, replay and retransmission.
+ *
+ * Observations are stored as fixed-size {@value #RECORD_BYTES}-byte records in segment files of
+ * {@code segmentRecords} records each, memory-mapped, so an append writes straight into the page
+ * cache and a scan reads fields straight out of it through a reusable {@link Record} view, without
+ * copying or allocating per record. A new segment is started when the current one is full, and when a
+ * timestamp goes backwards (wall clock adjusted), so time is non-decreasing within every segment.
+ *
+ * Each segment's header holds a sparse index: for every {@value #INDEX_INTERVAL} records the first
+ * timestamp and the bounding box of their locations. It is updated as records are appended, so
+ * opening a store reads only headers, a time range scan binary-searches to its first block, and a
+ * scan with a bounding box skips blocks (and whole segments) that lie elsewhere.
+ *
+ * Segment file: {@code header index records}, little-endian.
+ * <pre>
+ * header := magic:i32 version:i32 recordBytes:i32 capacity:i32 indexInterval:i32 (padded to 64 bytes)
+ * index  := (firstTimestamp:i64 minLat:f64 maxLat:f64 minLon:f64 maxLon:f64) per block, padded to 64 bytes
+ * record := timestamp:i64 latitude:f64 longitude:f64 objectAzimuth:f64 objectElevation:f64
+ *           altitude:f32 deviceAzimuth:f32 devicePitch:f32 deviceRoll:f32 fovHorizontal:f32 fovVertical:f32
+ * </pre>
+ * The timestamp is written last and is never 0, so it marks a record as complete: records end at
+ * the first 0 timestamp, which also makes a record torn by a crash disappear on reopen. Mapped
+ * writes survive a process crash; {@link #flush()} forces them to storage against power loss.
+ *
+ * {@link #compact(long)} drops records older than a cutoff: whole segments are deleted, a segment
+ * straddling the cutoff is rewritten without them. The device ID is not stored; it is the same for
+ * all records of a device's store.
+ *
+ * Appends, compaction and lifecycle are synchronized; scans can run concurrently with them from any
+ * thread and see every record appended before they reached its segment. A segment that compaction
+ * replaces or deletes is retired: a scan that still holds it reads the old file through the mapping it
+ * already has, or skips it, but never maps the new file in its place.
+ */
+public class ObservationStore implements Closeable {
+    public static final int RECORD_BYTES = 64;
+    public static final int INDEX_INTERVAL = 256;
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 16; // 4 MiB of records, about 36 min at 30 Hz
+
+    private static final Logger LOG = Logger.getLogger(ObservationStore.class.getName());
+    private static final int MAGIC = 0x5749544F; // "WITO"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int INDEX_ENTRY_BYTES = 40;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".obs";
+    private static final int MAX_MAPPED_SEGMENTS = 16; // Older segments are mapped again on demand
+
+    // Record layout
+    private static final int TIMESTAMP = 0;
+    private static final int LATITUDE = 8;
+    private static final int LONGITUDE = 16;
+    private static final int OBJECT_AZIMUTH = 24;
+    private static final int OBJECT_ELEVATION = 32;
+    private static final int ALTITUDE = 40;
+    private static final int DEVICE_AZIMUTH = 44;
+    private static final int DEVICE_PITCH = 48;
+    private static final int DEVICE_ROLL = 52;
+    private static final int FOV_HORIZONTAL = 56;
+    private static final int FOV_VERTICAL = 60;
+
+    /** Receives the records of a scan, in time order within each segment. */
+    public interface Visitor {
+        /** @return false to stop the scan */
+        boolean visit(Record record);
+    }
+
+    private final File directory;
+    private final int segmentRecords;
+
+    // Guarded by this; scans read the volatile array without locking
+    private volatile Segment[] segments = new Segment[0];
+    private final List<Segment> mapped = new ArrayList<>(); // Least recently used first
+    private long nextSequence = 0;
+    private boolean open = false;
+
+    public ObservationStore(File directory) {
+        this(directory, DEFAULT_SEGMENT_RECORDS);
+    }
+
+    /** @param segmentRecords records per segment file, a multiple of {@value #INDEX_INTERVAL} */
+    public ObservationStore(File directory, int segmentRecords) {
+        if (segmentRecords <= 0 || segmentRecords % INDEX_INTERVAL != 0) {
+            throw new IllegalArgumentException("Segment size must be a multiple of " + INDEX_INTERVAL + ": " + segmentRecords);
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+    }
+
+    /** Reads the headers of the existing segments; appends continue in the last one. */
+    public synchronized void open() throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create store directory " + directory);
+        }
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            throw new IOException("Cannot list " + directory);
+        }
+        Arrays.sort(files); // Fixed-width hex sequence numbers sort by name
+        List<Segment> loaded = new ArrayList<>();
+        for (File file : files) {
+            try {
+                Segment segment = Segment.read(file, sequence(file));
+                if (segment.count > 0) {
+                    loaded.add(segment);
+                } else if (!file.delete()) {
+                    LOG.warning("Cannot delete empty segment " + file);
+                }
+            } catch (IOException e) {
+                LOG.warning("Skipping unreadable segment " + file + ": " + e);
+            }
+            nextSequence = Math.max(nextSequence, sequence(file) + 1);
+        }
+        segments = loaded.toArray(new Segment[0]);
+        open = true;
+    }
+
+    /** Appends {@code observation} (its timestamp must be positive); durable against a process crash on return. */
+    public synchronized void append(Observation observation) throws IOException {
+        if (!open) {
+            throw new IOException("Observation store is not open");
+        }
+        if (observation.timestamp <= 0) {
+            throw new IllegalArgumentException("Timestamp must be positive: " + observation.timestamp);
+        }
+        Segment[] current = segments;
+        Segment active = current.length > 0 ? current[current.length - 1] : null;
+        if (active == null || active.count == active.capacity || observation.timestamp < active.lastTimestamp) {
+            if (active != null) {
+                map(active).force();
+            }
+            active = Segment.create(new File(directory, name(nextSequence)), nextSequence++, segmentRecords);
+            segments = append(current, active);
+        }
+        ByteBuffer buffer = map(active);
+        int index = active.count;
+        int base = active.recordOffset(index);
+        buffer.putDouble(base + LATITUDE, observation.latitude);
+        buffer.putDouble(base + LONGITUDE, observation.longitude);
+        buffer.putDouble(base + OBJECT_AZIMUTH, observation.objectAzimuth);
+        buffer.putDouble(base + OBJECT_ELEVATION, observation.objectElevation);
+        buffer.putFloat(base + ALTITUDE, (float) observation.altitude);
+        buffer.putFloat(base + DEVICE_AZIMUTH, observation.deviceAzimuth);
+        buffer.putFloat(base + DEVICE_PITCH, observation.devicePitch);
+        buffer.putFloat(base + DEVICE_ROLL, observation.deviceRoll);
+        buffer.putFloat(base + FOV_HORIZONTAL, observation.cameraFovHorizontal);
+        buffer.putFloat(base + FOV_VERTICAL, observation.cameraFovVertical);
+        active.index(buffer, index, observation.timestamp, observation.latitude, observation.longitude);
+        buffer.putLong(base + TIMESTAMP, observation.timestamp); // Completes the record
+        active.published(index + 1, observation.timestamp, observation.latitude, observation.longitude);
+    }
+
+    /** Forces the active segment to storage. */
+    public synchronized void flush() {
+        Segment[] current = segments;
+        if (open && current.length > 0) {
+            map(current[current.length - 1]).force();
+        }
+    }
+
+    /** Number of records in the store. */
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.count;
+        }
+        return size;
+    }
+
+    /** Visits the records with {@code fromMillis <= timestamp < toMillis}; returns how many were visited. */
+    public int scan(long fromMillis, long toMillis, Visitor visitor) {
+        return scan(fromMillis, toMillis, Double.NaN, Double.NaN, Double.NaN, Double.NaN, visitor);
+    }
+
+    /**
+     * Visits the records with {@code fromMillis <= timestamp < toMillis} and a location within the given
+     * latitude and longitude bounds (inclusive, degrees; a box across the antimeridian is not supported).
+     * NaN bounds disable the location filter. Returns how many records were visited.
+     */
+    public int scan(long fromMillis, long toMillis, double minLatitude, double maxLatitude,
+                    double minLongitude, double maxLongitude, Visitor visitor) {
+        boolean spatial = !Double.isNaN(minLatitude);
+        Record record = new Record();
+        int visited = 0;
+        nextSegment:
+        for (Segment segment : segments) {
+            int count = segment.count;
+            if (count == 0 || segment.firstTimestamp >= toMillis || segment.lastTimestamp < fromMillis
+                    || (spatial && !segment.intersects(minLatitude, maxLatitude, minLongitude, maxLongitude))) {
+                continue;
+            }
+            ByteBuffer buffer = mapForScan(segment);
+            if (buffer == null) {
+                continue; // Deleted by compaction meanwhile
+            }
+            record.buffer = buffer;
+            int blocks = (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+            int block = segment.firstBlockFrom(buffer, blocks, fromMillis);
+            for (; block < blocks; block++) {
+                int start = block * INDEX_INTERVAL;
+                int end = Math.min(count, start + INDEX_INTERVAL);
+                if (segment.blockTimestamp(buffer, block) >= toMillis) {
+                    continue nextSegment;
+                }
+                // The block being appended to may not have its bounds updated for the newest records yet
+                if (spatial && end < count
+                        && !segment.blockIntersects(buffer, block, minLatitude, maxLatitude, minLongitude, maxLongitude)) {
+                    continue;
+                }
+                for (int i = start; i < end; i++) {
+                    record.offset = segment.recordOffset(i);
+                    long timestamp = record.timestamp();
+                    if (timestamp < fromMillis) {
+                        continue;
+                    }
+                    if (timestamp >= toMillis) {
+                        continue nextSegment; // A later segment may still be in range after a clock adjustment
+                    }
+                    if (spatial) {
+                        double latitude = record.latitude();
+                        double longitude = record.longitude();
+                        if (!(latitude >= minLatitude && latitude <= maxLatitude
+                                && longitude >= minLongitude && longitude <= maxLongitude)) {
+                            continue;
+                        }
+                    }
+                    visited++;
+                    if (!visitor.visit(record)) {
+                        return visited;
+                    }
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Drops every record older than {@code cutoffMillis}: segments entirely before it are deleted, a
+     * segment straddling it is rewritten with only the newer records.
+     *
+     * @return the number of records dropped
+     */
+    public synchronized long compact(long cutoffMillis) throws IOException {
+        if (!open) {
+            throw new IOException("Observation store is not open");
+        }
+        long dropped = 0;
+        List<Segment> kept = new ArrayList<>();
+        for (Segment segment : segments) {
+            if (segment.lastTimestamp < cutoffMillis) {
+                dropped += segment.count;
+                retire(segment);
+                if (!segment.file.delete()) {
+                    throw new IOException("Cannot delete " + segment.file);
+                }
+            } else if (segment.firstTimestamp < cutoffMillis) {
+                Segment rewritten = rewriteFrom(segment, cutoffMillis);
+                dropped += segment.count - rewritten.count;
+                kept.add(rewritten);
+            } else {
+                kept.add(segment);
+            }
+        }
+        segments = kept.toArray(new Segment[0]);
+        return dropped;
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        open = false;
+        for (Segment segment : segments) {
+            segment.retired = true;
+        }
+        segments = new Segment[0];
+        mapped.clear(); // Unmapped once collected; Java 8 has no explicit unmap
+    }
+
+    private Segment rewriteFrom(Segment segment, long cutoffMillis) throws IOException {
+        ByteBuffer source = map(segment);
+        int first = 0;
+        while (first < segment.count && source.getLong(segment.recordOffset(first) + TIMESTAMP) < cutoffMillis) {
+            first++;
+        }
+        File tmp = new File(directory, segment.file.getName() + ".tmp");
+        Segment rewritten = Segment.create(tmp, segment.sequence, segment.capacity);
+        MappedByteBuffer target = rewritten.map();
+        for (int i = first; i < segment.count; i++) {
+            int from = segment.recordOffset(i);
+            int index = i - first;
+            int to = rewritten.recordOffset(index);
+            ByteBuffer slice = source.duplicate();
+            slice.limit(from + RECORD_BYTES).position(from);
+            ByteBuffer destination = target.duplicate();
+            destination.position(to);
+            destination.put(slice);
+            long timestamp = target.getLong(to + TIMESTAMP);
+            double latitude = target.getDouble(to + LATITUDE);
+            double longitude = target.getDouble(to + LONGITUDE);
+            rewritten.index(target, index, timestamp, latitude, longitude);
+            rewritten.published(index + 1, timestamp, latitude, longitude);
+        }
+        target.force();
+        if (!tmp.renameTo(segment.file)) {
+            throw new IOException("Cannot rename " + tmp + " to " + segment.file);
+        }
+        rewritten.file = segment.file;
+        retire(segment);
+        touch(rewritten);
+        return rewritten;
+    }
+
+    /** Maps {@code segment} if needed and marks it recently used; caller holds the lock. */
+    private MappedByteBuffer map(Segment segment) {
+        MappedByteBuffer buffer = segment.buffer;
+        if (buffer == null) {
+            try {
+                buffer = segment.map();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot map " + segment.file, e);
+            }
+        }
+        touch(segment);
+        return buffer;
+    }
+
+    /** Null if {@code segment} was retired unmapped; its file is gone or holds a different segment now. */
+    private synchronized ByteBuffer mapForScan(Segment segment) {
+        if (segment.retired) {
+            return segment.buffer; // The old file's pages, which the mapping keeps alive
+        }
+        return map(segment);
+    }
+
+    /** Takes {@code segment} out of use; its mapping, if any, is left to the scans still holding it. */
+    private void retire(Segment segment) {
+        segment.retired = true;
+        mapped.remove(segment);
+    }
+
+    private void touch(Segment segment) {
+        mapped.remove(segment);
+        mapped.add(segment);
+        // A released segment is mapped again the next time it is used
+        while (mapped.size() > MAX_MAPPED_SEGMENTS) {
+            mapped.remove(0).buffer = null;
+        }
+    }
+
+    private static Segment[] append(Segment[] segments, Segment segment) {
+        Segment[] grown = Arrays.copyOf(segments, segments.length + 1);
+        grown[segments.length] = segment;
+        return grown;
+    }
+
+    private static String name(long sequence) {
+        return String.format("%s%016x%s", SEGMENT_PREFIX, sequence, SEGMENT_SUFFIX);
+    }
+
+    private static long sequence(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()), 16);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * One segment file: what is needed to skip it (count, time range, bounding box) is kept in
+     * memory, the index and the records are read from the mapping.
+     */
+    private static final class Segment {
+        File file;
+        final long sequence;
+        final int capacity;
+        final int indexOffset = HEADER_BYTES;
+        final int dataOffset;
+        volatile MappedByteBuffer buffer; // Null while not mapped
+        boolean retired;                  // Replaced or deleted by compaction, or the store closed; store lock
+
+        // Written by the appender before count; readers read count first
+        volatile int count;
+        long firstTimestamp;
+        long lastTimestamp;
+        double minLatitude = Double.POSITIVE_INFINITY;
+        double maxLatitude = Double.NEGATIVE_INFINITY;
+        double minLongitude = Double.POSITIVE_INFINITY;
+        double maxLongitude = Double.NEGATIVE_INFINITY;
+
+        private Segment(File file, long sequence, int capacity) {
+            this.file = file;
+            this.sequence = sequence;
+            this.capacity = capacity;
+            int indexBytes = capacity / INDEX_INTERVAL * INDEX_ENTRY_BYTES;
+            this.dataOffset = HEADER_BYTES + (indexBytes + RECORD_BYTES - 1) / RECORD_BYTES * RECORD_BYTES;
+        }
+
+        static Segment create(File file, long sequence, int capacity) throws IOException {
+            Segment segment = new Segment(file, sequence, capacity);
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(0);
+                raf.setLength(segment.fileLength()); // Zero-filled: no records yet
+            }
+            MappedByteBuffer buffer = segment.map();
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_BYTES);
+            buffer.putInt(12, capacity);
+            buffer.putInt(16, INDEX_INTERVAL);
+            return segment;
+        }
+
+        /** Reads an existing segment's header and finds its end, without mapping it. */
+        static Segment read(File file, long sequence) throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                FileChannel channel = raf.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                        || header.getInt(8) != RECORD_BYTES || header.getInt(16) != INDEX_INTERVAL) {
+                    throw new IOException("Not a version " + VERSION + " segment");
+                }
+                int capacity = header.getInt(12);
+                if (capacity <= 0 || capacity % INDEX_INTERVAL != 0) {
+                    throw new IOException("Bad capacity " + capacity);
+                }
+                Segment segment = new Segment(file, sequence, capacity);
+                if (channel.size() < segment.fileLength()) {
+                    throw new IOException("Truncated to " + channel.size() + " bytes");
+                }
+
+                // Records are contiguous from the start, so the first 0 timestamp is found by bisection
+                ByteBuffer word = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                int low = 0;
+                int high = capacity;
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (readLong(channel, word, segment.recordOffset(mid)) != 0) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                int count = low;
+                if (count > 0) {
+                    segment.firstTimestamp = readLong(channel, word, segment.recordOffset(0));
+                    segment.lastTimestamp = readLong(channel, word, segment.recordOffset(count - 1));
+                    int blocks = (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+                    ByteBuffer index = ByteBuffer.allocate(blocks * INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                    readFully(channel, index, HEADER_BYTES);
+                    for (int block = 0; block < blocks; block++) {
+                        int entry = block * INDEX_ENTRY_BYTES;
+                        segment.include(index.getDouble(entry + 8), index.getDouble(entry + 16),
+                                index.getDouble(entry + 24), index.getDouble(entry + 32));
+                    }
+                }
+                segment.count = count;
+                return segment;
+            }
+        }
+
+        MappedByteBuffer map() throws IOException {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, fileLength());
+                mapped.order(ByteOrder.LITTLE_ENDIAN); // The mapping stays valid after the channel closes
+                buffer = mapped;
+                return mapped;
+            }
+        }
+
+        long fileLength() {
+            return dataOffset + (long) capacity * RECORD_BYTES;
+        }
+
+        int recordOffset(int index) {
+            return dataOffset + index * RECORD_BYTES;
+        }
+
+        /** Adds record {@code index} to its block's index entry, before the record is published. */
+        void index(ByteBuffer buffer, int index, long timestamp, double latitude, double longitude) {
+            int entry = indexOffset + index / INDEX_INTERVAL * INDEX_ENTRY_BYTES;
+            boolean first = index % INDEX_INTERVAL == 0;
+            if (first) {
+                buffer.putLong(entry, timestamp);
+                buffer.putDouble(entry + 8, Double.POSITIVE_INFINITY);
+                buffer.putDouble(entry + 16, Double.NEGATIVE_INFINITY);
+                buffer.putDouble(entry + 24, Double.POSITIVE_INFINITY);
+                buffer.putDouble(entry + 32, Double.NEGATIVE_INFINITY);
+            }
+            if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+                buffer.putDouble(entry + 8, Math.min(buffer.getDouble(entry + 8), latitude));
+                buffer.putDouble(entry + 16, Math.max(buffer.getDouble(entry + 16), latitude));
+                buffer.putDouble(entry + 24, Math.min(buffer.getDouble(entry + 24), longitude));
+                buffer.putDouble(entry + 32, Math.max(buffer.getDouble(entry + 32), longitude));
+            }
+        }
+
+        void published(int newCount, long timestamp, double latitude, double longitude) {
+            if (newCount == 1) {
+                firstTimestamp = timestamp;
+            }
+            lastTimestamp = timestamp;
+            if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+                include(latitude, latitude, longitude, longitude);
+            }
+            count = newCount; // Volatile write publishes the record, its index entry and the fields above
+        }
+
+        void include(double minLat, double maxLat, double minLon, double maxLon) {
+            minLatitude = Math.min(minLatitude, minLat);
+            maxLatitude = Math.max(maxLatitude, maxLat);
+            minLongitude = Math.min(minLongitude, minLon);
+            maxLongitude = Math.max(maxLongitude, maxLon);
+        }
+
+        boolean intersects(double minLat, double maxLat, double minLon, double maxLon) {
+            return minLatitude <= maxLat && maxLatitude >= minLat && minLongitude <= maxLon && maxLongitude >= minLon;
+        }
+
+        long blockTimestamp(ByteBuffer buffer, int block) {
+            return buffer.getLong(indexOffset + block * INDEX_ENTRY_BYTES);
+        }
+
+        boolean blockIntersects(ByteBuffer buffer, int block, double minLat, double maxLat, double minLon, double maxLon) {
+            int entry = indexOffset + block * INDEX_ENTRY_BYTES;
+            return buffer.getDouble(entry + 8) <= maxLat && buffer.getDouble(entry + 16) >= minLat
+                    && buffer.getDouble(entry + 24) <= maxLon && buffer.getDouble(entry + 32) >= minLon;
+        }
+
+        /** The last block starting before {@code fromMillis}, where records at or after it may begin; 0 if none. */
+        int firstBlockFrom(ByteBuffer buffer, int blocks, long fromMillis) {
+            int low = 0;
+            int high = blocks - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (blockTimestamp(buffer, mid) < fromMillis) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+
+        private static void readFully(FileChannel channel, ByteBuffer target, long position) throws IOException {
+            while (target.hasRemaining()) {
+                if (channel.read(target, position + target.position()) < 0) {
+                    throw new IOException("Unexpected end of segment");
+                }
+            }
+        }
+
+        private static long readLong(FileChannel channel, ByteBuffer word, long position) throws IOException {
+            word.clear();
+            readFully(channel, word, position);
+            return word.getLong(0);
+        }
+    }
+
+    /**
+     * A view of one stored record, valid only during {@link Visitor#visit}: the same instance is
+     * moved from record to record, and the getters read the mapped file directly.
+     */
+    public static final class Record {
+        private ByteBuffer buffer;
+        private int offset;
+
+        private Record() {}
+
+        public long timestamp() {
+            return buffer.getLong(offset + TIMESTAMP);
+        }
+
+        public double latitude() {
+            return buffer.getDouble(offset + LATITUDE);
+        }
+
+        public double longitude() {
+            return buffer.getDouble(offset + LONGITUDE);
+        }
+
+        public double altitude() {
+            return buffer.getFloat(offset + ALTITUDE);
+        }
+
+        public float deviceAzimuth() {
+            return buffer.getFloat(offset + DEVICE_AZIMUTH);
+        }
+
+        public float devicePitch() {
+            return buffer.getFloat(offset + DEVICE_PITCH);
+        }
+
+        public float deviceRoll() {
+            return buffer.getFloat(offset + DEVICE_ROLL);
+        }
+
+        public double objectAzimuth() {
+            return buffer.getDouble(offset + OBJECT_AZIMUTH);
+        }
+
+        public double objectElevation() {
+            return buffer.getDouble(offset + OBJECT_ELEVATION);
+        }
+
+        public float cameraFovHorizontal() {
+            return buffer.getFloat(offset + FOV_HORIZONTAL);
+        }
+
+        public float cameraFovVertical() {
+            return buffer.getFloat(offset + FOV_VERTICAL);
+        }
+
+        public boolean hasObject() {
+            return !Double.isNaN(objectAzimuth()) && !Double.isNaN(objectElevation());
+        }
+
+        /** A copy that outlives the visit. */
+        public Observation toObservation(String deviceId) {
+            return new Observation(timestamp(), deviceId, latitude(), longitude(), altitude(),
+                    deviceAzimuth(), devicePitch(), deviceRoll(), objectAzimuth(), objectElevation(),
+                    cameraFovHorizontal(), cameraFovVertical());
+        }
+    }
+}
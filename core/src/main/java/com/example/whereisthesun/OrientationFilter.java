@@ -0,0 +1,34 @@
+package com.example.whereisthesun;
+
+/**
+ * Estimates device orientation from a stream of raw sensor events. Implementations are pure Java
+ * so they can be fed recorded IMU traces on a JVM; on the device the events come straight from the
+ * SensorManager. Not thread-safe: feed and query a filter from a single thread.
+ *
+ * The orientation is a unit quaternion (w, x, y, z) rotating device coordinates into East-North-Up
+ * world coordinates, the same frame SensorManager.getRotationMatrix() uses.
+ */
+public interface OrientationFilter {
+    // Same values as android.hardware.Sensor.TYPE_*, so event.sensor.getType() can be passed through
+    int TYPE_ACCELEROMETER = 1;
+    int TYPE_MAGNETIC_FIELD = 2;
+    int TYPE_GYROSCOPE = 4;
+    int TYPE_ROTATION_VECTOR = 11;
+
+    /**
+     * @param type           one of the TYPE_* constants; other types are ignored
+     * @param timestampNanos event time in nanoseconds (SensorEvent.timestamp)
+     * @param values         event values in SensorEvent units (m/s^2, uT, rad/s); not retained
+     */
+    void onSensorEvent(int type, long timestampNanos, float[] values);
+
+    /**
+     * Writes the current orientation into {@code q} (length 4, w first).
+     *
+     * @return false while the filter has no estimate yet
+     */
+    boolean getQuaternion(float[] q);
+
+    /** Forgets all state, e.g. after the sensors were stopped for a while. */
+    void reset();
+}
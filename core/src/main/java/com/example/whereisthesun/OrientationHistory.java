@@ -0,0 +1,184 @@
+package com.example.whereisthesun;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-capacity ring buffer of timestamped orientation quaternions, so a camera frame can be paired
+ * with the orientation at the moment it was exposed rather than whatever the sensors say by the time
+ * the frame has been decoded.
+ *
+ * One thread (the sensor callback) adds samples; any number of threads look them up concurrently.
+ * Neither side locks: the writer overwrites the oldest slot and then publishes a new head, and a
+ * reader re-checks the head after copying a slot to see whether the writer lapped it in the meantime,
+ * retrying if so. Nothing is allocated after construction.
+ */
+public class OrientationHistory {
+    // What the app keeps: ~2-5 s of fused samples
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long DEFAULT_MAX_GAP_NANOS = 100_000_000L;
+
+    private static final int MAX_READ_ATTEMPTS = 4;
+
+    private final int capacity;
+    private final int mask;
+    private final long maxGapNanos;
+    private final AtomicLongArray timestamps;
+    private final AtomicIntegerArray quaternions; // Float bits, 4 per slot (w, x, y, z)
+
+    // Number of samples ever added; sample n lives in slot n & mask. Only the writer stores it.
+    private volatile long head = 0;
+
+    /**
+     * @param capacity    number of samples kept, rounded up to a power of two
+     * @param maxGapNanos lookups fail rather than interpolate across a larger gap between samples, or
+     *                    hold the newest sample for longer than this
+     */
+    public OrientationHistory(int capacity, long maxGapNanos) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("capacity must be at least 2");
+        }
+        this.capacity = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.maxGapNanos = maxGapNanos;
+        timestamps = new AtomicLongArray(this.capacity);
+        quaternions = new AtomicIntegerArray(this.capacity * 4);
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Adds a sample. Must only be called from one thread at a time. Samples must arrive in timestamp
+     * order; one that is not newer than the previous sample is dropped.
+     */
+    public void add(long timestampNanos, float[] q) {
+        long n = head;
+        if (n > 0 && timestampNanos <= timestamps.get((int) ((n - 1) & mask))) {
+            return;
+        }
+        int slot = (int) (n & mask);
+        timestamps.set(slot, timestampNanos);
+        int base = slot * 4;
+        quaternions.set(base, Float.floatToRawIntBits(q[0]));
+        quaternions.set(base + 1, Float.floatToRawIntBits(q[1]));
+        quaternions.set(base + 2, Float.floatToRawIntBits(q[2]));
+        quaternions.set(base + 3, Float.floatToRawIntBits(q[3]));
+        head = n + 1;
+    }
+
+    /**
+     * Writes the orientation at {@code timestampNanos} into {@code q}, interpolating between the two
+     * samples around it. A timestamp slightly newer than the newest sample gets that sample.
+     *
+     * @return false if the timestamp is older than the buffer reaches back, too far past the newest
+     * sample, falls in a gap between samples, or the writer kept overwriting the samples being read
+     */
+    public boolean lookup(long timestampNanos, float[] q) {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            long h = head;
+            if (h == 0) {
+                return false;
+            }
+            // The writer may already be overwriting slot h, which held sample h - capacity
+            long oldest = Math.max(0, h - capacity + 1);
+            long newest = h - 1;
+
+            long newestTime = timestamps.get((int) (newest & mask));
+            if (timestampNanos >= newestTime) {
+                if (timestampNanos - newestTime > maxGapNanos) {
+                    return false;
+                }
+                readQuaternion(newest, q);
+                if (isIntact(newest)) {
+                    return true;
+                }
+                continue;
+            }
+            if (timestampNanos < timestamps.get((int) (oldest & mask))) {
+                if (isIntact(oldest)) {
+                    return false;
+                }
+                continue;
+            }
+
+            // Last sample at or before the timestamp. Values read here may be torn by the writer; the
+            // bracket is re-checked after it has been copied.
+            long lo = oldest;
+            long hi = newest;
+            while (lo < hi) {
+                long mid = (lo + hi + 1) >>> 1;
+                if (timestamps.get((int) (mid & mask)) <= timestampNanos) {
+                    lo = mid;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            long before = lo;
+            long after = Math.min(lo + 1, newest);
+            long t0 = timestamps.get((int) (before & mask));
+            long t1 = timestamps.get((int) (after & mask));
+            int b0 = (int) (before & mask) * 4;
+            int b1 = (int) (after & mask) * 4;
+            float w0 = Float.intBitsToFloat(quaternions.get(b0));
+            float x0 = Float.intBitsToFloat(quaternions.get(b0 + 1));
+            float y0 = Float.intBitsToFloat(quaternions.get(b0 + 2));
+            float z0 = Float.intBitsToFloat(quaternions.get(b0 + 3));
+            float w1 = Float.intBitsToFloat(quaternions.get(b1));
+            float x1 = Float.intBitsToFloat(quaternions.get(b1 + 1));
+            float y1 = Float.intBitsToFloat(quaternions.get(b1 + 2));
+            float z1 = Float.intBitsToFloat(quaternions.get(b1 + 3));
+            if (!isIntact(before) || t0 > timestampNanos || t1 < timestampNanos) {
+                continue;
+            }
+            if (t1 - t0 > maxGapNanos) {
+                return false;
+            }
+            float f = t1 == t0 ? 0f : (float) ((double) (timestampNanos - t0) / (t1 - t0));
+            interpolate(w0, x0, y0, z0, w1, x1, y1, z1, f, q);
+            return true;
+        }
+        return false;
+    }
+
+    /** True if sample {@code n} has not been overwritten since it was read. */
+    private boolean isIntact(long n) {
+        return head - n < capacity;
+    }
+
+    private void readQuaternion(long n, float[] q) {
+        int base = (int) (n & mask) * 4;
+        q[0] = Float.intBitsToFloat(quaternions.get(base));
+        q[1] = Float.intBitsToFloat(quaternions.get(base + 1));
+        q[2] = Float.intBitsToFloat(quaternions.get(base + 2));
+        q[3] = Float.intBitsToFloat(quaternions.get(base + 3));
+    }
+
+    /**
+     * Normalized linear interpolation. Samples are milliseconds apart, so the arc between them is tiny
+     * and nlerp is indistinguishable from slerp at a fraction of the cost.
+     */
+    private static void interpolate(float w0, float x0, float y0, float z0,
+                                    float w1, float x1, float y1, float z1, float f, float[] q) {
+        if (w0 * w1 + x0 * x1 + y0 * y1 + z0 * z1 < 0) {
+            // q and -q are the same rotation; take the short way round
+            w1 = -w1;
+            x1 = -x1;
+            y1 = -y1;
+            z1 = -z1;
+        }
+        float w = w0 + (w1 - w0) * f;
+        float x = x0 + (x1 - x0) * f;
+        float y = y0 + (y1 - y0) * f;
+        float z = z0 + (z1 - z0) * f;
+        float norm = (float) Math.sqrt(w * w + x * x + y * y + z * z);
+        if (norm == 0) {
+            norm = 1;
+        }
+        q[0] = w / norm;
+        q[1] = x / norm;
+        q[2] = y / norm;
+        q[3] = z / norm;
+    }
+}
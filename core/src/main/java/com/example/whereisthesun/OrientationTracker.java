@@ -0,0 +1,110 @@
+package com.example.whereisthesun;
+
+/**
+ * Runs sensor events through an {@link OrientationFilter}, keeps every estimate in an
+ * {@link OrientationHistory} and publishes the latest one (as a quaternion and as azimuth/pitch/roll)
+ * for other threads. The app's OrientationEngine feeds it from the device's sensors and the desktop
+ * replay from a {@link Recording}, so both pair frames with orientations the same way.
+ *
+ * {@link #onSensorEvent} and {@link #reset} belong to one thread and do not allocate; the getters are
+ * safe from any thread and never block it for longer than a copy.
+ */
+public class OrientationTracker {
+    private final OrientationFilter filter;
+    private final Metrics metrics;
+    private final OrientationHistory history = new OrientationHistory(
+            OrientationHistory.DEFAULT_CAPACITY, OrientationHistory.DEFAULT_MAX_GAP_NANOS);
+
+    // Only touched on the sensor thread
+    private final float[] q = new float[4];
+    private final float[] angles = new float[3];
+
+    // Latest published quaternion and angles (degrees) and whether there are any yet, guarded by "published"
+    private final float[] published = new float[3];
+    private final float[] publishedQuaternion = new float[4];
+    private boolean hasOrientation = false;
+
+    /** @param metrics counts sensor events */
+    public OrientationTracker(OrientationFilter filter, Metrics metrics) {
+        this.filter = filter;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Feeds one event (OrientationFilter.TYPE_* type, SensorEvent.timestamp time base) to the filter
+     * and records the estimate, if it has one.
+     */
+    public void onSensorEvent(int sensorType, long timestampNanos, float[] values) {
+        metrics.increment(Metrics.SENSOR_EVENTS);
+        filter.onSensorEvent(sensorType, timestampNanos, values);
+        if (!filter.getQuaternion(q)) {
+            return;
+        }
+        history.add(timestampNanos, q);
+        Orientations.quaternionToDegrees(q, angles);
+        synchronized (published) {
+            published[0] = angles[0];
+            published[1] = angles[1];
+            published[2] = angles[2];
+            System.arraycopy(q, 0, publishedQuaternion, 0, 4);
+            hasOrientation = true;
+        }
+    }
+
+    /** Starts the filter over; on the sensor thread, before any further events. */
+    public void reset() {
+        filter.reset();
+        clearLatest();
+    }
+
+    /** Stops offering the latest estimate until the filter has a new one, e.g. once the sensors stop. */
+    public void clearLatest() {
+        synchronized (published) {
+            hasOrientation = false;
+        }
+    }
+
+    /**
+     * Copies the latest device-to-world quaternion (w, x, y, z) into {@code quaternion} and azimuth
+     * (0-360), pitch and roll in degrees into {@code outDegrees}.
+     *
+     * @return false (leaving both untouched) until the filter has an estimate
+     */
+    public boolean getOrientation(float[] quaternion, float[] outDegrees) {
+        synchronized (published) {
+            if (!hasOrientation) {
+                return false;
+            }
+            System.arraycopy(publishedQuaternion, 0, quaternion, 0, 4);
+            outDegrees[0] = published[0];
+            outDegrees[1] = published[1];
+            outDegrees[2] = published[2];
+            return true;
+        }
+    }
+
+    /**
+     * Orientation at {@code timestampNanos}, interpolated from the recent history.
+     *
+     * @param quaternion receives the interpolated device-to-world quaternion (w, x, y, z)
+     * @param outDegrees receives azimuth (0-360), pitch and roll in degrees
+     * @return false (leaving {@code outDegrees} untouched) if the history does not cover the timestamp
+     */
+    public boolean getOrientationAt(long timestampNanos, float[] quaternion, float[] outDegrees) {
+        if (!history.lookup(timestampNanos, quaternion)) {
+            return false;
+        }
+        Orientations.quaternionToDegrees(quaternion, outDegrees);
+        return true;
+    }
+
+    /**
+     * Orientation for an image exposed at {@code timestampNanos}: from the history, or the latest
+     * estimate if the history does not reach that far.
+     *
+     * @return false (leaving {@code outDegrees} untouched) until the filter has an estimate
+     */
+    public boolean getOrientationFor(long timestampNanos, float[] quaternion, float[] outDegrees) {
+        return getOrientationAt(timestampNanos, quaternion, outDegrees) || getOrientation(quaternion, outDegrees);
+    }
+}
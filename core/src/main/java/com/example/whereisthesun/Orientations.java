@@ -0,0 +1,113 @@
+package com.example.whereisthesun;
+
+/**
+ * Conversions between orientation representations. Matrices are 3x3, row-major, and rotate device
+ * coordinates into East-North-Up world coordinates; quaternions are (w, x, y, z). The functions
+ * mirror their SensorManager namesakes so pure-Java code gives the same angles as the framework.
+ * None of them allocate.
+ */
+public final class Orientations {
+    private Orientations() {}
+
+    /**
+     * Same as SensorManager.getRotationMatrix() without the inclination matrix.
+     *
+     * @return false if the device is close to free fall or the field is parallel to gravity
+     */
+    public static boolean rotationMatrixFromAccelMag(float[] R, float[] gravity, float[] geomagnetic) {
+        float ax = gravity[0], ay = gravity[1], az = gravity[2];
+        float ex = geomagnetic[0], ey = geomagnetic[1], ez = geomagnetic[2];
+        float hx = ey * az - ez * ay;
+        float hy = ez * ax - ex * az;
+        float hz = ex * ay - ey * ax;
+        float normH = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+        float normA = (float) Math.sqrt(ax * ax + ay * ay + az * az);
+        if (normH < 0.1f || normA < 0.1f) {
+            return false;
+        }
+        hx /= normH;
+        hy /= normH;
+        hz /= normH;
+        ax /= normA;
+        ay /= normA;
+        az /= normA;
+        float mx = ay * hz - az * hy;
+        float my = az * hx - ax * hz;
+        float mz = ax * hy - ay * hx;
+        R[0] = hx; R[1] = hy; R[2] = hz;
+        R[3] = mx; R[4] = my; R[5] = mz;
+        R[6] = ax; R[7] = ay; R[8] = az;
+        return true;
+    }
+
+    /** Same as SensorManager.getRotationMatrixFromVector() for a unit quaternion. */
+    public static void quaternionToMatrix(float[] q, float[] R) {
+        float w = q[0], x = q[1], y = q[2], z = q[3];
+        R[0] = 1 - 2 * (y * y + z * z);
+        R[1] = 2 * (x * y - w * z);
+        R[2] = 2 * (x * z + w * y);
+        R[3] = 2 * (x * y + w * z);
+        R[4] = 1 - 2 * (x * x + z * z);
+        R[5] = 2 * (y * z - w * x);
+        R[6] = 2 * (x * z - w * y);
+        R[7] = 2 * (y * z + w * x);
+        R[8] = 1 - 2 * (x * x + y * y);
+    }
+
+    /** Inverse of {@link #quaternionToMatrix}; returns the quaternion with w &gt;= 0. */
+    public static void matrixToQuaternion(float[] R, float[] q) {
+        float trace = R[0] + R[4] + R[8];
+        float w, x, y, z;
+        if (trace > 0) {
+            float s = (float) Math.sqrt(trace + 1) * 2;
+            w = s / 4;
+            x = (R[7] - R[5]) / s;
+            y = (R[2] - R[6]) / s;
+            z = (R[3] - R[1]) / s;
+        } else if (R[0] > R[4] && R[0] > R[8]) {
+            float s = (float) Math.sqrt(1 + R[0] - R[4] - R[8]) * 2;
+            w = (R[7] - R[5]) / s;
+            x = s / 4;
+            y = (R[1] + R[3]) / s;
+            z = (R[2] + R[6]) / s;
+        } else if (R[4] > R[8]) {
+            float s = (float) Math.sqrt(1 + R[4] - R[0] - R[8]) * 2;
+            w = (R[2] - R[6]) / s;
+            x = (R[1] + R[3]) / s;
+            y = s / 4;
+            z = (R[5] + R[7]) / s;
+        } else {
+            float s = (float) Math.sqrt(1 + R[8] - R[0] - R[4]) * 2;
+            w = (R[3] - R[1]) / s;
+            x = (R[2] + R[6]) / s;
+            y = (R[5] + R[7]) / s;
+            z = s / 4;
+        }
+        float sign = w < 0 ? -1 : 1;
+        float norm = sign / (float) Math.sqrt(w * w + x * x + y * y + z * z);
+        q[0] = w * norm;
+        q[1] = x * norm;
+        q[2] = y * norm;
+        q[3] = z * norm;
+    }
+
+    /**
+     * Same as SensorManager.getOrientation() followed by the conversion the app reports: azimuth,
+     * pitch and roll in degrees, azimuth normalized to [0, 360).
+     */
+    public static void orientationDegrees(float[] R, float[] angles) {
+        float azimuth = (float) Math.toDegrees(Math.atan2(R[1], R[4]));
+        angles[0] = azimuth < 0 ? azimuth + 360 : azimuth;
+        angles[1] = (float) Math.toDegrees(Math.asin(Math.max(-1f, Math.min(1f, -R[7]))));
+        angles[2] = (float) Math.toDegrees(Math.atan2(-R[6], R[8]));
+    }
+
+    /** {@link #orientationDegrees} of {@link #quaternionToMatrix}, without the intermediate matrix. */
+    public static void quaternionToDegrees(float[] q, float[] angles) {
+        float w = q[0], x = q[1], y = q[2], z = q[3];
+        float azimuth = (float) Math.toDegrees(Math.atan2(2 * (x * y - w * z), 1 - 2 * (x * x + z * z)));
+        angles[0] = azimuth < 0 ? azimuth + 360 : azimuth;
+        angles[1] = (float) Math.toDegrees(Math.asin(Math.max(-1f, Math.min(1f, -2 * (y * z + w * x)))));
+        angles[2] = (float) Math.toDegrees(Math.atan2(-2 * (x * z - w * y), 1 - 2 * (x * x + y * y)));
+    }
+}
@@ -0,0 +1,289 @@
+package com.example.whereisthesun;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One stage of a processing pipeline: a bounded queue in front of a single thread of its own that
+ * hands each item to a {@link Handler}, in order. Producers call {@link #offer}; what happens when the
+ * queue is full is the stage's policy:
+ * <ul>
+ * <li>{@link #DROP_OLDEST}: the oldest queued item is discarded to make room, for streams where only
+ *     recent items are worth processing (camera frames);</li>
+ * <li>{@link #BLOCK}: the producer waits for room, so nothing is lost and the backlog propagates
+ *     upstream to a stage that may drop;</li>
+ * <li>{@link #COALESCE}: the new item is merged with the newest queued one by a {@link Coalescer}
+ *     (by default the new item replaces it), for requests where the latest state subsumes earlier ones.</li>
+ * </ul>
+ * Items that leave the stage without being processed (dropped, coalesced away, or offered after
+ * {@link #close}) go to the optional {@link Discarder}, e.g. to return buffers to their owner.
+ *
+ * A handler must not {@link #offer} into its own stage under {@link #BLOCK}: with the queue full it
+ * would wait for itself. Plain Java, so whole pipelines can be run and loaded on a desktop JVM.
+ */
+public class PipelineStage<T> implements Closeable {
+    // Policies when the queue is full
+    public static final int DROP_OLDEST = 0;
+    public static final int BLOCK = 1;
+    public static final int COALESCE = 2;
+
+    private static final Logger LOG = Logger.getLogger(PipelineStage.class.getName());
+    private static final long CLOSE_TIMEOUT_MILLIS = 5_000;
+
+    /** Processes one item on the stage's thread. */
+    public interface Handler<T> {
+        void process(T item) throws Exception;
+    }
+
+    /** Receives items that leave the stage without being processed. */
+    public interface Discarder<T> {
+        void discard(T item);
+    }
+
+    /**
+     * Merges {@code incoming} into {@code queued}, the newest queued item, and returns the one to keep:
+     * one of the two (the other is discarded) or a new item that takes over both.
+     */
+    public interface Coalescer<T> {
+        T coalesce(T queued, T incoming);
+    }
+
+    private final String name;
+    private final int capacity;
+    private final int policy;
+    private final Handler<T> handler;
+    private final Discarder<T> discarder;
+    private final Coalescer<T> coalescer;
+    private final Metrics metrics;
+    private final ExecutorService executor;
+
+    // Guarded by this
+    private final ArrayDeque<T> queue;
+    private boolean draining = false;
+    private boolean closed = false;
+    private long processed = 0;
+    private long dropped = 0;
+
+    /**
+     * @param discarder may be null
+     * @param coalescer only used with {@link #COALESCE}; null to keep the incoming item
+     * @param metrics where to count {@link Metrics#QUEUE_DROPS}; may be null
+     */
+    public PipelineStage(String name, int capacity, int policy, Handler<T> handler, Discarder<T> discarder,
+                         Coalescer<T> coalescer, Metrics metrics) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        if (policy < DROP_OLDEST || policy > COALESCE) {
+            throw new IllegalArgumentException("Unknown policy " + policy);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.handler = handler;
+        this.discarder = discarder;
+        this.coalescer = coalescer;
+        this.metrics = metrics;
+        this.queue = new ArrayDeque<>(capacity);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "pipeline-" + name);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public PipelineStage(String name, int capacity, int policy, Handler<T> handler) {
+        this(name, capacity, policy, handler, null, null, null);
+    }
+
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Queues {@code item} for processing, applying the stage's policy if the queue is full. Under
+     * {@link #BLOCK} this waits for room; an interrupt while waiting discards the item and keeps the
+     * thread's interrupt status.
+     *
+     * @return false if {@code item} itself was discarded (stage closed, interrupted, or coalesced into
+     *     the queued item)
+     */
+    public boolean offer(T item) {
+        T discard = null;
+        boolean shed = false;
+        synchronized (this) {
+            boolean interrupted = false;
+            if (policy == BLOCK) {
+                try {
+                    while (queue.size() >= capacity && !closed) {
+                        wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    interrupted = true;
+                }
+            }
+            if (closed || interrupted) {
+                discard = item;
+            } else if (queue.size() < capacity) {
+                queue.addLast(item);
+            } else if (policy == DROP_OLDEST) {
+                discard = queue.pollFirst();
+                queue.addLast(item);
+                shed = true;
+            } else { // COALESCE
+                T queued = queue.pollLast();
+                T kept = coalescer != null ? coalescer.coalesce(queued, item) : item;
+                queue.addLast(kept);
+                discard = kept == queued ? item : kept == item ? queued : null; // A merged third item consumes both
+                shed = true;
+            }
+            if (shed) {
+                dropped++;
+            }
+            if (discard != item && !draining) {
+                draining = true;
+                executor.execute(this::drain); // Under the lock, so close() cannot shut the executor down first
+            }
+        }
+        if (shed && metrics != null) {
+            metrics.increment(Metrics.QUEUE_DROPS);
+        }
+        if (discard != null) {
+            discard(discard);
+        }
+        return discard != item;
+    }
+
+    /**
+     * Runs {@code task} on the stage's thread, after the items being drained right now, e.g. to
+     * release something the handler owns. Not accepted after {@link #close}.
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /** Number of items handed to the handler so far. */
+    public synchronized long processed() {
+        return processed;
+    }
+
+    /** Number of items dropped or coalesced away because the queue was full. */
+    public synchronized long dropped() {
+        return dropped;
+    }
+
+    /**
+     * Stops accepting items, lets the queued ones (and pending {@link #execute} tasks) finish, and
+     * waits up to five seconds for the stage's thread. Producers blocked in {@link #offer} return.
+     */
+    @Override
+    public void close() {
+        shutdown();
+        try {
+            if (!awaitTermination(CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                LOG.warning("Pipeline stage " + name + " did not finish within " + CLOSE_TIMEOUT_MILLIS + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Like {@link #close()} but without waiting: the queued items still finish on the stage's thread.
+     * For callers that must not block, e.g. the UI thread; see {@link #awaitTermination}.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the stage's thread to finish after {@link #shutdown()} or {@link #close()}. Only then
+     * is it safe to release what the handler uses.
+     *
+     * @return whether it finished within the timeout
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    /** Processes queued items until the queue is empty; at most one drain runs at a time. */
+    private void drain() {
+        while (true) {
+            T item;
+            synchronized (this) {
+                item = queue.pollFirst();
+                if (item == null) {
+                    draining = false;
+                    return;
+                }
+                if (policy == BLOCK) {
+                    notifyAll();
+                }
+                processed++;
+            }
+            try {
+                handler.process(item);
+            } catch (Exception e) {
+                LOG.log(Level.WARNING, "Pipeline stage " + name + " failed to process an item", e);
+            } catch (Error e) {
+                // Kills the stage's thread; the executor starts a new one for the rest of the queue
+                continueAfterError();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Hands the rest of the queue to a new drain, or discards it if the stage is shut down and cannot
+     * run one any more. Without this {@link #draining} would stay set and the stage would never run again.
+     */
+    private void continueAfterError() {
+        List<T> discards = null;
+        synchronized (this) {
+            if (queue.isEmpty()) {
+                draining = false;
+                return;
+            }
+            try {
+                executor.execute(this::drain); // Accepted unless close() got as far as shutting it down
+            } catch (RejectedExecutionException e) {
+                discards = new ArrayList<>(queue);
+                queue.clear();
+                draining = false;
+                notifyAll();
+            }
+        }
+        if (discards != null) {
+            for (T item : discards) {
+                discard(item);
+            }
+        }
+    }
+
+    private void discard(T item) {
+        if (discarder != null) {
+            try {
+                discarder.discard(item);
+            } catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Pipeline stage " + name + " failed to discard an item", e);
+            }
+        }
+    }
+}
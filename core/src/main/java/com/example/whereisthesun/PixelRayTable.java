@@ -0,0 +1,90 @@
+package com.example.whereisthesun;
+
+/**
+ * Precomputed pixel-to-ray mapping for one image size. {@link CameraIntrinsics#normalize} is
+ * evaluated on a grid every {@link #GRID_STEP} pixels when the table is built; a lookup then is a
+ * bilinear interpolation between the four surrounding grid points instead of iterative undistortion
+ * per detection. Lens distortion varies slowly across the image, so the interpolated ray is within
+ * 0.001 degrees of the exact one at 640x480. The offset angles are taken from that ray rather than
+ * interpolated themselves: atan bends too much between grid points off the optical axis to stay
+ * within the same bound. Immutable and safe to share.
+ */
+public class PixelRayTable {
+    public static final int GRID_STEP = 8;
+
+    // Per grid point: normalized x', y'
+    private static final int STRIDE = 2;
+
+    private final CameraIntrinsics intrinsics;
+    private final int columns;
+    private final int rows;
+    private final float[] grid;
+
+    /** @param intrinsics intrinsics of the image size the table is for, see {@link CameraIntrinsics#forImage} */
+    public PixelRayTable(CameraIntrinsics intrinsics) {
+        this.intrinsics = intrinsics;
+        columns = (intrinsics.width + GRID_STEP - 1) / GRID_STEP + 1;
+        rows = (intrinsics.height + GRID_STEP - 1) / GRID_STEP + 1;
+        grid = new float[columns * rows * STRIDE];
+        double[] normalized = new double[2];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                intrinsics.normalize(column * GRID_STEP, row * GRID_STEP, normalized);
+                int i = (row * columns + column) * STRIDE;
+                grid[i] = (float) normalized[0];
+                grid[i + 1] = (float) normalized[1];
+            }
+        }
+    }
+
+    public CameraIntrinsics intrinsics() {
+        return intrinsics;
+    }
+
+    public int width() {
+        return intrinsics.width;
+    }
+
+    public int height() {
+        return intrinsics.height;
+    }
+
+    /** Horizontal angle of pixel ({@code x}, {@code y}) from the optical axis in degrees, positive to the right. */
+    public double horizontalOffset(double x, double y) {
+        return Math.toDegrees(Math.atan(interpolate(x, y, 0)));
+    }
+
+    /** Vertical angle of pixel ({@code x}, {@code y}) from the optical axis in degrees, positive below it. */
+    public double verticalOffset(double x, double y) {
+        return Math.toDegrees(Math.atan(interpolate(x, y, 1)));
+    }
+
+    /**
+     * Writes the undistorted normalized camera coordinates of pixel ({@code x}, {@code y}) to
+     * {@code out[0]} and {@code out[1]}; the ray through the pixel is (out[0], out[1], 1).
+     */
+    public void normalize(double x, double y, double[] out) {
+        out[0] = interpolate(x, y, 0);
+        out[1] = interpolate(x, y, 1);
+    }
+
+    private double interpolate(double x, double y, int component) {
+        double gx = clamp(x / GRID_STEP, columns - 1);
+        double gy = clamp(y / GRID_STEP, rows - 1);
+        int column = Math.min((int) gx, columns - 2);
+        int row = Math.min((int) gy, rows - 2);
+        double fx = gx - column;
+        double fy = gy - row;
+        int i00 = (row * columns + column) * STRIDE + component;
+        int i01 = i00 + STRIDE;
+        int i10 = i00 + columns * STRIDE;
+        int i11 = i10 + STRIDE;
+        double top = grid[i00] + (grid[i01] - grid[i00]) * fx;
+        double bottom = grid[i10] + (grid[i11] - grid[i10]) * fx;
+        return top + (bottom - top) * fy;
+    }
+
+    private static double clamp(double value, double max) {
+        return value < 0 ? 0 : Math.min(value, max);
+    }
+}
@@ -0,0 +1,335 @@
+package com.example.whereisthesun;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Everything the detection pipeline consumes during a tracking session, in arrival order, so the
+ * session can be replayed off-device (see the batch module's ReplayMain): the camera and calibration
+ * state at the start, then raw sensor events, location fixes, declination changes and the Y planes of
+ * analysis frames, optionally downsampled.
+ *
+ * <pre>
+ * file        := header event*
+ * header      := magic:i32 version:i32 deviceId:utf startWallMillis:i64 startElapsedNanos:i64
+ *                orientationFilter:i32 intrinsics:CameraIntrinsics fovHorizontal:f32 fovVertical:f32
+ *                calibration:CompassCalibration
+ * event       := type:u8 elapsedNanos:i64 body
+ * SENSOR      := sensorType:i32 count:u8 value:f32*count
+ * LOCATION    := provider:u8 latitude:f64 longitude:f64 altitude:f64 accuracy:f32 speed:f32 timeMillis:i64
+ *                fixElapsedNanos:i64
+ * DECLINATION := degrees:f32
+ * FRAME       := wallMillis:i64 width:i32 height:i32 scale:u8 flags:u8 pixel:u8*(width*height)
+ * </pre>
+ *
+ * Big-endian (DataOutput). Event times are when the pipeline got the event, on the SensorEvent clock
+ * (elapsedRealtimeNanos) like a fix's own fixElapsedNanos; wall clock times are UTC milliseconds.
+ * Frame width and height are those of the stored plane, i.e. after downsampling by {@code scale}. A
+ * recording cut off mid-event (the process died) reads up to the last complete event.
+ */
+public final class Recording {
+    public static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x57495452; // "WITR"
+
+    // Event types
+    public static final int END = -1;
+    public static final int SENSOR = 0;
+    public static final int LOCATION = 1;
+    public static final int DECLINATION = 2;
+    public static final int FRAME = 3;
+
+    // Orientation filters, as OrientationEngine picks them
+    public static final int FILTER_ROTATION_VECTOR = 0;
+    public static final int FILTER_MADGWICK = 1;
+
+    private static final int FLAG_SHORT_EXPOSURE = 1;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private Recording() {}
+
+    /**
+     * Appends events to a recording. Called from the sensor, location and frame threads alike, so
+     * every method is synchronized; none of them throws, since a failing recording must not take the
+     * pipeline down with it. The first error stops the recording and is rethrown by {@link #close()}.
+     */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream out;
+        private byte[] row = new byte[0];
+        private IOException error;
+        private boolean closed;
+
+        /**
+         * Writes the header.
+         *
+         * @param orientationFilter FILTER_* the sensor events are meant for
+         * @param intrinsics what detections will be projected with, at any resolution
+         * @param calibration state at the start; copied, not retained
+         */
+        public Writer(OutputStream stream, String deviceId, long startWallMillis, long startElapsedNanos,
+                      int orientationFilter, CameraIntrinsics intrinsics, float cameraFovHorizontal,
+                      float cameraFovVertical, CompassCalibration calibration) throws IOException {
+            out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(deviceId);
+            out.writeLong(startWallMillis);
+            out.writeLong(startElapsedNanos);
+            out.writeInt(orientationFilter);
+            intrinsics.writeTo(out);
+            out.writeFloat(cameraFovHorizontal);
+            out.writeFloat(cameraFovVertical);
+            calibration.writeTo(out);
+        }
+
+        /** A raw sensor event as the orientation filter gets it. */
+        public synchronized void sensor(int sensorType, long elapsedNanos, float[] values) {
+            if (!writable()) {
+                return;
+            }
+            try {
+                out.writeByte(SENSOR);
+                out.writeLong(elapsedNanos);
+                out.writeInt(sensorType);
+                int count = Math.min(values.length, 255);
+                out.writeByte(count);
+                for (int i = 0; i < count; i++) {
+                    out.writeFloat(values[i]);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        /** A fix as it is offered to the location fusion at {@code elapsedNanos}. */
+        public synchronized void location(long elapsedNanos, GeoFix fix) {
+            if (!writable()) {
+                return;
+            }
+            try {
+                out.writeByte(LOCATION);
+                out.writeLong(elapsedNanos);
+                out.writeByte(fix.provider);
+                out.writeDouble(fix.latitude);
+                out.writeDouble(fix.longitude);
+                out.writeDouble(fix.altitude);
+                out.writeFloat(fix.accuracy);
+                out.writeFloat(fix.speed);
+                out.writeLong(fix.timeMillis);
+                out.writeLong(fix.elapsedNanos);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        public synchronized void declination(long elapsedNanos, float degrees) {
+            if (!writable()) {
+                return;
+            }
+            try {
+                out.writeByte(DECLINATION);
+                out.writeLong(elapsedNanos);
+                out.writeFloat(degrees);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        /**
+         * A frame's Y plane, downsampled by averaging {@code scale} x {@code scale} blocks (1 keeps it
+         * as it is; 2 quarters the size of a recording, which is mostly frames). The buffer's position
+         * is left alone.
+         *
+         * @param shortExposure whether the frame was taken at the sun exposure (see {@link SunExposure})
+         */
+        public synchronized void frame(long elapsedNanos, long wallMillis, ByteBuffer plane, int width, int height,
+                                       int rowStride, int scale, boolean shortExposure) {
+            if (!writable()) {
+                return;
+            }
+            int outWidth = width / scale;
+            int outHeight = height / scale;
+            try {
+                out.writeByte(FRAME);
+                out.writeLong(elapsedNanos);
+                out.writeLong(wallMillis);
+                out.writeInt(outWidth);
+                out.writeInt(outHeight);
+                out.writeByte(scale);
+                out.writeByte(shortExposure ? FLAG_SHORT_EXPOSURE : 0);
+                if (row.length < outWidth) {
+                    row = new byte[outWidth];
+                }
+                int area = scale * scale;
+                for (int y = 0; y < outHeight; y++) {
+                    int top = y * scale * rowStride;
+                    if (scale == 1) {
+                        ByteBuffer source = plane.duplicate();
+                        source.position(top);
+                        source.get(row, 0, outWidth);
+                    } else {
+                        for (int x = 0; x < outWidth; x++) {
+                            int sum = 0;
+                            for (int dy = 0; dy < scale; dy++) {
+                                int offset = top + dy * rowStride + x * scale;
+                                for (int dx = 0; dx < scale; dx++) {
+                                    sum += plane.get(offset + dx) & 0xFF;
+                                }
+                            }
+                            row[x] = (byte) ((sum + area / 2) / area);
+                        }
+                    }
+                    out.write(row, 0, outWidth);
+                }
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        /** The error that stopped the recording, if any. */
+        public synchronized IOException error() {
+            return error;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                out.close();
+            } catch (IOException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+
+        private boolean writable() {
+            return !closed && error == null;
+        }
+    }
+
+    /**
+     * Reads a recording event by event. The fields of the last event read are overwritten by the next
+     * one, frame pixels included; the header fields stay. Not thread-safe.
+     */
+    public static final class Reader implements Closeable {
+        private final DataInputStream in;
+
+        // Header
+        public final String deviceId;
+        public final long startWallMillis;
+        public final long startElapsedNanos;
+        public final int orientationFilter;
+        public final CameraIntrinsics intrinsics;
+        public final float cameraFovHorizontal;
+        public final float cameraFovVertical;
+        public final CompassCalibration calibration = new CompassCalibration();
+
+        // Last event
+        public int type = END;
+        public long elapsedNanos;
+        public int sensorType;           // SENSOR
+        public float[] values;           // Exactly as many as were recorded
+        private final float[][] valueArrays = new float[256][];
+        public GeoFix fix;               // LOCATION
+        public float declination;        // DECLINATION
+        public long wallMillis;          // FRAME
+        public int width;
+        public int height;
+        public int scale;
+        public boolean shortExposure;
+        public byte[] pixels = new byte[0]; // width * height, row by row
+
+        /** Whether the recording ended in the middle of an event. */
+        public boolean truncated;
+
+        public Reader(InputStream stream) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+            int magic = in.readInt();
+            int version = in.readInt();
+            if (magic != MAGIC) {
+                throw new IOException("Not a recording");
+            }
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported recording format version " + version);
+            }
+            deviceId = in.readUTF();
+            startWallMillis = in.readLong();
+            startElapsedNanos = in.readLong();
+            orientationFilter = in.readInt();
+            intrinsics = CameraIntrinsics.readFrom(in);
+            cameraFovHorizontal = in.readFloat();
+            cameraFovVertical = in.readFloat();
+            calibration.readFrom(in);
+        }
+
+        /** Reads the next event into the fields; returns its type, or {@link #END}. */
+        public int next() throws IOException {
+            int nextType = in.read();
+            if (nextType < 0) {
+                return type = END;
+            }
+            try {
+                elapsedNanos = in.readLong();
+                switch (nextType) {
+                    case SENSOR:
+                        sensorType = in.readInt();
+                        int count = in.readUnsignedByte();
+                        if (valueArrays[count] == null) {
+                            valueArrays[count] = new float[count]; // Filters look at values.length
+                        }
+                        values = valueArrays[count];
+                        for (int i = 0; i < count; i++) {
+                            values[i] = in.readFloat();
+                        }
+                        break;
+                    case LOCATION:
+                        fix = new GeoFix(in.readUnsignedByte(), in.readDouble(), in.readDouble(), in.readDouble(),
+                                in.readFloat(), in.readFloat(), in.readLong(), in.readLong());
+                        break;
+                    case DECLINATION:
+                        declination = in.readFloat();
+                        break;
+                    case FRAME:
+                        wallMillis = in.readLong();
+                        width = in.readInt();
+                        height = in.readInt();
+                        scale = in.readUnsignedByte();
+                        shortExposure = (in.readUnsignedByte() & FLAG_SHORT_EXPOSURE) != 0;
+                        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+                            throw new IOException("Bad frame size " + width + "x" + height);
+                        }
+                        if (pixels.length != width * height) {
+                            pixels = new byte[width * height];
+                        }
+                        in.readFully(pixels);
+                        break;
+                    default:
+                        throw new IOException("Unknown event type " + nextType);
+                }
+            } catch (EOFException e) {
+                truncated = true;
+                return type = END;
+            }
+            return type = nextType;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.whereisthesun;
+
+/**
+ * Passes through the platform's fused TYPE_ROTATION_VECTOR sensor, which already is a unit
+ * quaternion from device to East-North-Up coordinates. Preferred where the device has one, since
+ * the fusion then runs in the sensor hub instead of on the application processor.
+ */
+public class RotationVectorFilter implements OrientationFilter {
+    private float w = 1, x = 0, y = 0, z = 0;
+    private boolean initialized = false;
+
+    @Override
+    public void onSensorEvent(int type, long timestampNanos, float[] values) {
+        if (type != TYPE_ROTATION_VECTOR) {
+            return;
+        }
+        x = values[0];
+        y = values[1];
+        z = values[2];
+        // values[3] (the scalar part) is optional on older devices
+        w = values.length > 3 ? values[3] : (float) Math.sqrt(Math.max(0f, 1f - x * x - y * y - z * z));
+        initialized = true;
+    }
+
+    @Override
+    public boolean getQuaternion(float[] q) {
+        if (!initialized) {
+            return false;
+        }
+        q[0] = w;
+        q[1] = x;
+        q[2] = y;
+        q[3] = z;
+        return true;
+    }
+
+    @Override
+    public void reset() {
+        w = 1;
+        x = y = z = 0;
+        initialized = false;
+    }
+}
@@ -0,0 +1,87 @@
+package com.example.whereisthesun;
+
+/**
+ * One UTC day of {@link SolarEphemeris} output for one location, sampled every
+ * {@link #STEP_MILLIS} and stored as East-North-Up unit vectors. A lookup interpolates between the
+ * two neighbouring samples, which costs one atan2, one asin and the refraction formula instead of a
+ * full ephemeris evaluation. Interpolating directions rather than angles keeps azimuth well-behaved
+ * where it wraps through north and where it swings fast near the zenith. The table holds the true
+ * direction and refraction is applied after interpolating, since refraction changes too quickly
+ * near the horizon to interpolate linearly.
+ *
+ * The sun moves about 0.25 deg per minute, so with a one-minute step the interpolation error stays
+ * below 0.001 deg except within a degree or so of the zenith. Immutable once built.
+ */
+public class SolarDayTable {
+    public static final long DAY_MILLIS = 86_400_000L;
+    public static final long STEP_MILLIS = 60_000L;
+    private static final int SAMPLES = (int) (DAY_MILLIS / STEP_MILLIS) + 1;
+
+    private final long dayStartMillis;
+    private final double latitude;
+    private final double longitude;
+    private final float[] directions = new float[SAMPLES * 3];
+
+    /**
+     * @param dayStartMillis UTC midnight the table starts at
+     */
+    public SolarDayTable(long dayStartMillis, double latitude, double longitude) {
+        this.dayStartMillis = dayStartMillis;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        SolarPosition position = new SolarPosition();
+        for (int i = 0; i < SAMPLES; i++) {
+            SolarEphemeris.computeGeometric(dayStartMillis + i * STEP_MILLIS, latitude, longitude, position);
+            double azimuth = Math.toRadians(position.azimuth);
+            double elevation = Math.toRadians(position.elevation);
+            double horizontal = Math.cos(elevation);
+            directions[i * 3] = (float) (horizontal * Math.sin(azimuth));
+            directions[i * 3 + 1] = (float) (horizontal * Math.cos(azimuth));
+            directions[i * 3 + 2] = (float) Math.sin(elevation);
+        }
+    }
+
+    public long dayStartMillis() {
+        return dayStartMillis;
+    }
+
+    public double latitude() {
+        return latitude;
+    }
+
+    public double longitude() {
+        return longitude;
+    }
+
+    public boolean covers(long epochMillis) {
+        return epochMillis >= dayStartMillis && epochMillis <= dayStartMillis + DAY_MILLIS;
+    }
+
+    /**
+     * Interpolated sun position at {@code epochMillis}.
+     *
+     * @return false if the time is not within this table's day
+     */
+    public boolean lookup(long epochMillis, SolarPosition out) {
+        if (!covers(epochMillis)) {
+            return false;
+        }
+        long offset = epochMillis - dayStartMillis;
+        int i = (int) (offset / STEP_MILLIS);
+        if (i >= SAMPLES - 1) {
+            i = SAMPLES - 2;
+        }
+        double f = (offset - i * STEP_MILLIS) / (double) STEP_MILLIS;
+        int a = i * 3;
+        int b = a + 3;
+        double e = directions[a] + (directions[b] - directions[a]) * f;
+        double n = directions[a + 1] + (directions[b + 1] - directions[a + 1]) * f;
+        double u = directions[a + 2] + (directions[b + 2] - directions[a + 2]) * f;
+        double norm = Math.sqrt(e * e + n * n + u * u);
+        double azimuth = Math.toDegrees(Math.atan2(e, n));
+        out.azimuth = azimuth < 0 ? azimuth + 360 : azimuth;
+        double elevation = Math.toDegrees(Math.asin(Math.max(-1, Math.min(1, u / norm))));
+        out.elevation = elevation + SolarEphemeris.refraction(elevation);
+        return true;
+    }
+}
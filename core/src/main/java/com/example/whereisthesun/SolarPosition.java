@@ -0,0 +1,20 @@
+package com.example.whereisthesun;
+
+/**
+ * Apparent position of the sun as seen from a point on the ground: azimuth clockwise from true
+ * north in [0, 360) and elevation above the horizon including atmospheric refraction, both in
+ * degrees. Mutable and meant to be reused, like {@link SunDetection}.
+ */
+public class SolarPosition {
+    public double azimuth;
+    public double elevation;
+
+    public boolean isAboveHorizon() {
+        return elevation > 0;
+    }
+
+    @Override
+    public String toString() {
+        return "SolarPosition{azimuth=" + azimuth + ", elevation=" + elevation + "}";
+    }
+}
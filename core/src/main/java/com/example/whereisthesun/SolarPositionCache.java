@@ -0,0 +1,71 @@
+package com.example.whereisthesun;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Expected sun position for high-rate callers: day tables ({@link SolarDayTable}) are built once per
+ * location cell and UTC day and kept in a small LRU, so all but the first lookup of a day are an
+ * interpolation. Cells are {@link #CELL_DEGREES} on a side (about 1 km); snapping to the cell center
+ * moves the sun by less than 0.01 deg.
+ *
+ * Thread-safe. The table of the previous lookup is checked before the map, so steady tracking from
+ * one place neither locks for long nor allocates.
+ */
+public class SolarPositionCache {
+    public static final double CELL_DEGREES = 0.01;
+    private static final int DEFAULT_MAX_TABLES = 8;
+
+    private final int maxTables;
+    private final LinkedHashMap<Long, SolarDayTable> tables;
+    private SolarDayTable last;
+    private long lastKey;
+
+    public SolarPositionCache() {
+        this(DEFAULT_MAX_TABLES);
+    }
+
+    public SolarPositionCache(int maxTables) {
+        this.maxTables = maxTables;
+        tables = new LinkedHashMap<Long, SolarDayTable>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, SolarDayTable> eldest) {
+                return size() > SolarPositionCache.this.maxTables;
+            }
+        };
+    }
+
+    /**
+     * Expected sun position at {@code epochMillis} (UTC) for the given latitude and longitude in
+     * degrees. Builds the cell's day table on first use, which takes about a millisecond.
+     */
+    public synchronized void lookup(long epochMillis, double latitude, double longitude, SolarPosition out) {
+        long latCell = (long) Math.floor(latitude / CELL_DEGREES);
+        long lonCell = (long) Math.floor(longitude / CELL_DEGREES);
+        long day = (long) Math.floor(epochMillis / (double) SolarDayTable.DAY_MILLIS);
+        // Cells span +/-9000 and +/-18000; 16 bits each leave the upper 32 for the day
+        long key = (day << 32) | ((latCell & 0xFFFF) << 16) | (lonCell & 0xFFFF);
+
+        SolarDayTable table = last;
+        if (table == null || key != lastKey) {
+            table = tables.get(key);
+            if (table == null) {
+                table = new SolarDayTable(day * SolarDayTable.DAY_MILLIS,
+                        (latCell + 0.5) * CELL_DEGREES, (lonCell + 0.5) * CELL_DEGREES);
+                tables.put(key, table);
+            }
+            last = table;
+            lastKey = key;
+        }
+        table.lookup(epochMillis, out);
+    }
+
+    public synchronized int size() {
+        return tables.size();
+    }
+
+    public synchronized void clear() {
+        tables.clear();
+        last = null;
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.whereisthesun;
+
+/**
+ * Every blob of one {@link SunDetector} pass that looks like the sun or moon, for
+ * {@link SunTracker} to choose from. Holds at most {@link #CAPACITY} candidates, keeping the largest
+ * ones. Mutable and meant to be reused from frame to frame, like {@link SunDetection}.
+ */
+public class SunCandidates {
+    public static final int CAPACITY = 8;
+
+    public int count;
+    public final double[] centerX = new double[CAPACITY];
+    public final double[] centerY = new double[CAPACITY];
+    public final double[] radius = new double[CAPACITY];
+    public final double[] area = new double[CAPACITY];
+    /** Whether the candidate lies next to the brightest pixel, see {@link #markNearBrightest()}. */
+    public final boolean[] nearBrightest = new boolean[CAPACITY];
+
+    // Brightest pixel of the searched region(s)
+    public double brightestX;
+    public double brightestY;
+    public double brightestValue;
+
+    public void clear() {
+        count = 0;
+        brightestX = 0;
+        brightestY = 0;
+        brightestValue = 0;
+    }
+
+    /**
+     * Adds a candidate. A candidate centered inside one already present (overlapping search regions
+     * find the same blob twice) is ignored; when full, the smallest candidate makes room.
+     */
+    public void add(double x, double y, double r, double a) {
+        for (int i = 0; i < count; i++) {
+            double dx = x - centerX[i];
+            double dy = y - centerY[i];
+            if (dx * dx + dy * dy < radius[i] * radius[i]) {
+                return;
+            }
+        }
+        int slot = count;
+        if (count == CAPACITY) {
+            slot = 0;
+            for (int i = 1; i < count; i++) {
+                if (area[i] < area[slot]) {
+                    slot = i;
+                }
+            }
+            if (area[slot] >= a) {
+                return;
+            }
+        } else {
+            count++;
+        }
+        centerX[slot] = x;
+        centerY[slot] = y;
+        radius[slot] = r;
+        area[slot] = a;
+    }
+
+    /**
+     * Flags the candidates within two radii of the brightest pixel: a bright, circular object rather
+     * than a glint or a patch of cloud next to it.
+     */
+    public void markNearBrightest() {
+        for (int i = 0; i < count; i++) {
+            double dx = centerX[i] - brightestX;
+            double dy = centerY[i] - brightestY;
+            nearBrightest[i] = dx * dx + dy * dy < 4.0 * radius[i] * radius[i];
+        }
+    }
+
+    /**
+     * The candidate a single detection pass reports: the largest one next to the brightest pixel.
+     * Only valid after {@link #markNearBrightest()}.
+     *
+     * @return its index, or -1 if there is none
+     */
+    public int best() {
+        int best = -1;
+        for (int i = 0; i < count; i++) {
+            if (nearBrightest[i] && (best < 0 || area[i] > area[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /** Copies candidate {@code index} (or "not found" for -1) and the brightest pixel into {@code result}. */
+    public void copyTo(int index, SunDetection result) {
+        result.clear();
+        result.brightestX = brightestX;
+        result.brightestY = brightestY;
+        result.brightestValue = brightestValue;
+        if (index >= 0) {
+            result.found = true;
+            result.centerX = centerX[index];
+            result.centerY = centerY[index];
+            result.radius = radius[index];
+            result.area = area[index];
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder s = new StringBuilder("SunCandidates{");
+        for (int i = 0; i < count; i++) {
+            s.append(i == 0 ? "" : ", ").append('(').append(centerX[i]).append(", ").append(centerY[i])
+                    .append(") r=").append(radius[i]);
+        }
+        return s.append('}').toString();
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.whereisthesun;
+
+/**
+ * Result of a single {@link SunDetector} pass. Instances are mutable and meant to be reused from
+ * frame to frame so the detection path does not allocate.
+ */
+public class SunDetection {
+    public boolean found;
+    public double centerX;
+    public double centerY;
+    public double radius;
+    public double area;
+
+    // Brightest pixel of the frame, reported even when no candidate passes the filters
+    public double brightestX;
+    public double brightestY;
+    public double brightestValue;
+
+    public void clear() {
+        found = false;
+        centerX = 0;
+        centerY = 0;
+        radius = 0;
+        area = 0;
+        brightestX = 0;
+        brightestY = 0;
+        brightestValue = 0;
+    }
+
+    public void set(SunDetection other) {
+        found = other.found;
+        centerX = other.centerX;
+        centerY = other.centerY;
+        radius = other.radius;
+        area = other.area;
+        brightestX = other.brightestX;
+        brightestY = other.brightestY;
+        brightestValue = other.brightestValue;
+    }
+
+    @Override
+    public String toString() {
+        if (!found) {
+            return "SunDetection{not found, brightest=(" + brightestX + ", " + brightestY + ")@" + brightestValue + "}";
+        }
+        return "SunDetection{center=(" + centerX + ", " + centerY + "), radius=" + radius + ", area=" + area + "}";
+    }
+}
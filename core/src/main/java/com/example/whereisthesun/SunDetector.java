@@ -0,0 +1,350 @@
+package com.example.whereisthesun;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Finds the sun/moon in a grayscale frame: locate the brightest pixel, threshold at a fraction of its
+ * intensity, and keep the largest circular contour close to that pixel. {@link #detectCandidates}
+ * instead reports every circular blob, for {@link SunTracker} to choose from across frames.
+ *
+ * Large frames are searched coarse-to-fine. The brightest blob is located on the 1/8 level of an
+ * image pyramid, and thresholding, contours and minEnclosingCircle only run on a full-resolution
+ * region of interest around it. Since a candidate must lie next to the brightest pixel anyway, this
+ * gives the same answer as the full-frame pass as long as the ROI contains the whole blob. Building
+ * the pyramid costs about three full-frame minMaxLoc passes, though, so it only pays off where the
+ * full-frame contour pass is expensive: on frames with many bright blobs (glints, cloud edges), and
+ * on clean skies only at still sizes. Below {@link #DEFAULT_MULTI_RESOLUTION_MIN_PIXELS} frames get
+ * the full-frame pass (see SunDetectionBenchmark for the crossover). A tracker that knows where to
+ * look can restrict the search to a window with {@link #detectCandidates(Mat, double, double, double,
+ * SunCandidates)} and skip both. {@link #setMultiResolution(boolean)} turns the pyramid off at any
+ * size, e.g. to validate the fast path against the full-frame pass.
+ *
+ * The working Mats are allocated once for the frame resolution and reused for every frame, so a
+ * detector should live as long as the stream it serves. The only per-frame allocations left are the
+ * ones made inside the OpenCV Java bindings (findContours(), minMaxLoc(), submat headers); those Mats
+ * are released before detect() returns. Not thread-safe: use one detector per thread and call
+ * {@link #release()} when done.
+ */
+public class SunDetector {
+    private static final double THRESHOLD_RATIO = 0.8;   // Fraction of the peak brightness kept
+    public static final double DEFAULT_MIN_CONTOUR_AREA = 100; // Filter out small noise
+    private static final double MIN_CIRCULARITY = 0.6;   // 1.0 is a perfect circle
+
+    private static final int PYRAMID_LEVELS = 3;         // Coarse search runs at 1/8 scale
+    private static final int COARSE_SCALE = 1 << PYRAMID_LEVELS;
+    private static final int MIN_COARSE_SIZE = 16;       // Below this the pyramid does not pay off
+    private static final double COARSE_THRESHOLD_RATIO = 0.5; // Generous, the fine pass re-thresholds
+    private static final int ROI_MARGIN = 2 * COARSE_SCALE;   // Pixels added around a candidate blob
+    public static final long DEFAULT_MULTI_RESOLUTION_MIN_PIXELS = 8_000_000; // Stills, not preview frames
+
+    private final Mat grayImage = new Mat();       // Only used for color input
+    private final Mat thresholdImage = new Mat();
+    private final Mat hierarchy = new Mat();
+    private final Mat[] pyramid = new Mat[PYRAMID_LEVELS];
+    private final Mat coarseMask = new Mat();
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private final MatOfPoint2f contour2f = new MatOfPoint2f();
+    private final Point center = new Point();
+    private final Point offset = new Point();
+    private final float[] radius = new float[1];
+    private final Rect roi = new Rect();
+    private final Rect[] coarseBoxes = new Rect[SunCandidates.CAPACITY]; // Full-resolution ROIs of coarse blobs
+    private int coarseBoxCount;
+    private final SunCandidates candidates = new SunCandidates();        // For detect()
+
+    private int width;
+    private int height;
+    private boolean multiResolution = true;
+    private long multiResolutionMinPixels = DEFAULT_MULTI_RESOLUTION_MIN_PIXELS;
+    private double minContourArea = DEFAULT_MIN_CONTOUR_AREA;
+
+    public SunDetector(int width, int height) {
+        for (int i = 0; i < PYRAMID_LEVELS; i++) {
+            pyramid[i] = new Mat();
+        }
+        for (int i = 0; i < coarseBoxes.length; i++) {
+            coarseBoxes[i] = new Rect();
+        }
+        allocate(width, height);
+    }
+
+    /**
+     * Enables the pyramid/ROI path for frames of at least {@link #setMultiResolutionMinPixels} pixels
+     * (default). When disabled every frame gets a full-frame pass.
+     */
+    public void setMultiResolution(boolean multiResolution) {
+        this.multiResolution = multiResolution;
+    }
+
+    /** Smallest frame, in pixels, searched coarse-to-fine; 0 uses the pyramid whenever it fits. */
+    public void setMultiResolutionMinPixels(long minPixels) {
+        this.multiResolutionMinPixels = minPixels;
+    }
+
+    /**
+     * Smallest blob area, in pixels, that counts as a candidate. The default suits normally exposed
+     * images, where the sun is a large saturated glare; at a short exposure only the disk remains,
+     * which at preview resolutions covers just a few tens of pixels (see {@link SunExposure#minContourArea}).
+     */
+    public void setMinContourArea(double minContourArea) {
+        this.minContourArea = minContourArea;
+    }
+
+    /** Runs detection on a BGR frame (e.g. a decoded JPEG). */
+    public boolean detectBgr(Mat bgrImage, SunDetection result) {
+        ensureSize(bgrImage.cols(), bgrImage.rows());
+        Imgproc.cvtColor(bgrImage, grayImage, Imgproc.COLOR_BGR2GRAY);
+        return detect(grayImage, result);
+    }
+
+    /**
+     * Runs detection on a single-channel 8-bit frame. The frame is not modified.
+     *
+     * @return true if a candidate was found; details are written to {@code result} either way
+     */
+    public boolean detect(Mat gray, SunDetection result) {
+        search(gray, false, candidates);
+        candidates.copyTo(candidates.best(), result);
+        return result.found;
+    }
+
+    /**
+     * Like {@link #detect(Mat, SunDetection)}, but reports every circular blob rather than only the
+     * one next to the brightest pixel. With the pyramid enabled, each bright blob on the coarse level
+     * gets its own full-resolution pass.
+     *
+     * @return the number of candidates
+     */
+    public int detectCandidates(Mat gray, SunCandidates out) {
+        search(gray, true, out);
+        return out.count;
+    }
+
+    /**
+     * Candidates within {@code halfSize} pixels of ({@code x}, {@code y}) only: a single
+     * full-resolution pass over that window, no pyramid. For a tracker that predicts where the object
+     * will be.
+     *
+     * @return the number of candidates
+     */
+    public int detectCandidates(Mat gray, double x, double y, double halfSize, SunCandidates out) {
+        ensureSize(gray.cols(), gray.rows());
+        out.clear();
+        if (setRoi(x - halfSize, y - halfSize, x + halfSize, y + halfSize)) {
+            findCandidates(gray, out);
+        }
+        out.markNearBrightest();
+        return out.count;
+    }
+
+    private void search(Mat gray, boolean allBlobs, SunCandidates out) {
+        ensureSize(gray.cols(), gray.rows());
+        out.clear();
+        if (!multiResolution || (long) width * height < multiResolutionMinPixels
+                || width / COARSE_SCALE < MIN_COARSE_SIZE || height / COARSE_SCALE < MIN_COARSE_SIZE) {
+            roi.x = 0;
+            roi.y = 0;
+            roi.width = width;
+            roi.height = height;
+            findCandidates(gray, out);
+        } else {
+            locateCoarseRois(gray, allBlobs);
+            for (int i = 0; i < coarseBoxCount; i++) {
+                Rect box = coarseBoxes[i];
+                roi.x = box.x;
+                roi.y = box.y;
+                roi.width = box.width;
+                roi.height = box.height;
+                findCandidates(gray, out);
+            }
+        }
+        out.markNearBrightest();
+    }
+
+    /** Frees all native buffers. The detector reallocates them if it is used again. */
+    public void release() {
+        releaseContours();
+        grayImage.release();
+        thresholdImage.release();
+        hierarchy.release();
+        for (Mat level : pyramid) {
+            level.release();
+        }
+        coarseMask.release();
+        contour2f.release();
+        width = 0;
+        height = 0;
+    }
+
+    /** Native Mats the detector holds right now: its allocated working buffers and unreleased contours. */
+    int nativeMatCount() {
+        int count = contours.size();
+        Mat[] buffers = {grayImage, thresholdImage, hierarchy, coarseMask, contour2f};
+        for (Mat buffer : buffers) {
+            count += buffer.empty() ? 0 : 1;
+        }
+        for (Mat level : pyramid) {
+            count += level.empty() ? 0 : 1;
+        }
+        return count;
+    }
+
+    /**
+     * Finds the bright blobs on the coarsest pyramid level and stores their bounding boxes, scaled back
+     * to full resolution, in {@link #coarseBoxes}: only the blob holding the coarse maximum, or with
+     * {@code allBlobs} every blob up to the capacity.
+     */
+    private void locateCoarseRois(Mat gray, boolean allBlobs) {
+        coarseBoxCount = 0;
+        Mat source = gray;
+        for (Mat level : pyramid) {
+            Imgproc.pyrDown(source, level, level.size());
+            source = level;
+        }
+        Mat coarse = pyramid[PYRAMID_LEVELS - 1];
+
+        Core.MinMaxLocResult mmr = Core.minMaxLoc(coarse);
+        if (mmr.maxVal <= 0) {
+            return;
+        }
+        Imgproc.threshold(coarse, coarseMask, mmr.maxVal * COARSE_THRESHOLD_RATIO, 255, Imgproc.THRESH_BINARY);
+        Imgproc.findContours(coarseMask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+
+        // Without allBlobs the blob holding the coarse maximum decides the fine ROI
+        for (int i = 0; i < contours.size() && coarseBoxCount < coarseBoxes.length; i++) {
+            Rect box = Imgproc.boundingRect(contours.get(i));
+            boolean holdsMaximum = box.contains(mmr.maxLoc);
+            if ((allBlobs || holdsMaximum)
+                    && setRoi(box.x * COARSE_SCALE - ROI_MARGIN,
+                            box.y * COARSE_SCALE - ROI_MARGIN,
+                            (box.x + box.width) * COARSE_SCALE + ROI_MARGIN,
+                            (box.y + box.height) * COARSE_SCALE + ROI_MARGIN)) {
+                Rect target = coarseBoxes[coarseBoxCount++];
+                target.x = roi.x;
+                target.y = roi.y;
+                target.width = roi.width;
+                target.height = roi.height;
+                if (!allBlobs) {
+                    break;
+                }
+            }
+        }
+        releaseContours();
+    }
+
+    /**
+     * Full-resolution pass over {@link #roi}, adding each bright circular contour to {@code out};
+     * contour coordinates come back in frame coordinates. The brightest pixel of {@code out} is updated
+     * if this region holds a brighter one.
+     */
+    private void findCandidates(Mat gray, SunCandidates out) {
+        boolean fullFrame = roi.width == width && roi.height == height;
+        Mat roiGray = fullFrame ? gray : gray.submat(roi);
+        Mat roiThreshold = fullFrame ? thresholdImage : thresholdImage.submat(roi);
+
+        // Find the brightest spot
+        Core.MinMaxLocResult mmr = Core.minMaxLoc(roiGray);
+        if (mmr.maxVal > out.brightestValue) {
+            out.brightestX = mmr.maxLoc.x + roi.x;
+            out.brightestY = mmr.maxLoc.y + roi.y;
+            out.brightestValue = mmr.maxVal;
+        }
+
+        Imgproc.threshold(roiGray, roiThreshold, mmr.maxVal * THRESHOLD_RATIO, 255, Imgproc.THRESH_BINARY);
+        offset.x = roi.x;
+        offset.y = roi.y;
+        Imgproc.findContours(roiThreshold, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE, offset);
+
+        if (!fullFrame) {
+            roiGray.release();
+            roiThreshold.release();
+        }
+
+        for (int i = 0; i < contours.size(); i++) {
+            MatOfPoint contour = contours.get(i);
+            double area = Imgproc.contourArea(contour);
+            if (area < minContourArea) {
+                continue;
+            }
+
+            contour.convertTo(contour2f, CvType.CV_32F);
+            double perimeter = Imgproc.arcLength(contour2f, true);
+            double circularity = 4 * Math.PI * area / (perimeter * perimeter);
+            if (circularity <= MIN_CIRCULARITY) {
+                continue;
+            }
+
+            // A blob cut off by the search region is not measured properly, and in a flat region the
+            // region itself would pass as one; the frame edge is fine
+            if (!fullFrame && touchesRoiEdge(Imgproc.boundingRect(contour))) {
+                continue;
+            }
+
+            Imgproc.minEnclosingCircle(contour2f, center, radius);
+            out.add(center.x, center.y, radius[0], area);
+        }
+
+        releaseContours();
+    }
+
+    private boolean touchesRoiEdge(Rect box) {
+        return (box.x <= roi.x && roi.x > 0)
+                || (box.y <= roi.y && roi.y > 0)
+                || (box.x + box.width >= roi.x + roi.width && roi.x + roi.width < width)
+                || (box.y + box.height >= roi.y + roi.height && roi.y + roi.height < height);
+    }
+
+    /** Clips the given box to the frame and stores it in {@link #roi}; false if nothing is left. */
+    private boolean setRoi(double left, double top, double right, double bottom) {
+        int x0 = Math.max(0, (int) Math.floor(left));
+        int y0 = Math.max(0, (int) Math.floor(top));
+        int x1 = Math.min(width, (int) Math.ceil(right));
+        int y1 = Math.min(height, (int) Math.ceil(bottom));
+        if (x1 <= x0 || y1 <= y0) {
+            return false;
+        }
+        roi.x = x0;
+        roi.y = y0;
+        roi.width = x1 - x0;
+        roi.height = y1 - y0;
+        return true;
+    }
+
+    private void ensureSize(int frameWidth, int frameHeight) {
+        if (frameWidth != width || frameHeight != height) {
+            allocate(frameWidth, frameHeight);
+        }
+    }
+
+    private void allocate(int frameWidth, int frameHeight) {
+        width = frameWidth;
+        height = frameHeight;
+        grayImage.create(height, width, CvType.CV_8UC1);
+        thresholdImage.create(height, width, CvType.CV_8UC1);
+
+        int levelWidth = width;
+        int levelHeight = height;
+        for (Mat level : pyramid) {
+            levelWidth = (levelWidth + 1) / 2;
+            levelHeight = (levelHeight + 1) / 2;
+            level.create(levelHeight, levelWidth, CvType.CV_8UC1);
+        }
+        coarseMask.create(levelHeight, levelWidth, CvType.CV_8UC1);
+    }
+
+    private void releaseContours() {
+        for (int i = 0; i < contours.size(); i++) {
+            contours.get(i).release();
+        }
+        contours.clear();
+    }
+}
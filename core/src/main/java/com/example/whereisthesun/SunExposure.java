@@ -0,0 +1,114 @@
+package com.example.whereisthesun;
+
+/**
+ * Manual exposure for looking straight at the sun (or moon). At normal exposure the disk and its halo
+ * clip to white, so detection measures a glare blob several times the size of the disk. Starting from
+ * the sensor's lowest sensitivity and a very short exposure only the disk itself stays bright; the
+ * settings are then steered by the peak brightness of the frames: halved while the peak saturates,
+ * doubled while it is dim (the moon, thin cloud), exposure time first and sensitivity second. After a
+ * change, and after starting over, {@link #SETTLE_FRAMES} frames are skipped, since frames already in
+ * flight still carry the old settings.
+ *
+ * Plain numbers only, so the camera binding (Camera2 on Android) stays outside. Not thread-safe.
+ */
+public class SunExposure {
+    public static final long START_EXPOSURE_NANOS = 100_000;   // 1/10000 s
+    public static final long MAX_EXPOSURE_NANOS = 10_000_000;  // 1/100 s; dimmer than that is not the sun
+    public static final double ANGULAR_RADIUS_DEGREES = 0.266; // Sun; the moon's is 0.24 - 0.28
+
+    private static final double SATURATED = 250;
+    private static final double DIM = 128;
+    public static final int SETTLE_FRAMES = 3;
+    private static final double MIN_CONTOUR_AREA = 4;
+
+    private final long minExposureNanos;
+    private final long maxExposureNanos;
+    private final int minIso;
+    private final int maxIso;
+
+    private long exposureNanos;
+    private int iso;
+    private int settling;
+
+    /** Limits as the sensor reports them (SENSOR_INFO_EXPOSURE_TIME_RANGE, SENSOR_INFO_SENSITIVITY_RANGE). */
+    public SunExposure(long minExposureNanos, long maxExposureNanos, int minIso, int maxIso) {
+        this.minExposureNanos = minExposureNanos;
+        this.maxExposureNanos = Math.max(minExposureNanos, Math.min(maxExposureNanos, MAX_EXPOSURE_NANOS));
+        this.minIso = minIso;
+        this.maxIso = Math.max(minIso, maxIso);
+        reset();
+    }
+
+    public void reset() {
+        exposureNanos = Math.max(minExposureNanos, Math.min(maxExposureNanos, START_EXPOSURE_NANOS));
+        iso = minIso;
+        settling = SETTLE_FRAMES;
+    }
+
+    public long exposureNanos() {
+        return exposureNanos;
+    }
+
+    public int iso() {
+        return iso;
+    }
+
+    /**
+     * Steers the settings by the peak brightness (0-255) of a frame taken with them.
+     *
+     * @return whether the settings changed and need to be applied
+     */
+    public boolean update(double peakValue) {
+        if (settling > 0) {
+            settling--;
+            return false;
+        }
+        long exposure = exposureNanos;
+        int sensitivity = iso;
+        if (peakValue >= SATURATED) {
+            if (sensitivity > minIso) {
+                sensitivity = Math.max(minIso, sensitivity / 2);
+            } else {
+                exposure = Math.max(minExposureNanos, exposure / 2);
+            }
+        } else if (peakValue < DIM) {
+            if (exposure < maxExposureNanos) {
+                exposure = Math.min(maxExposureNanos, exposure * 2);
+            } else {
+                sensitivity = Math.min(maxIso, sensitivity * 2);
+            }
+        }
+        if (exposure == exposureNanos && sensitivity == iso) {
+            return false;
+        }
+        exposureNanos = exposure;
+        iso = sensitivity;
+        settling = SETTLE_FRAMES;
+        return true;
+    }
+
+    /** Radius in pixels of the sun's disk for a lens with focal length {@code focalPixels}. */
+    public static double diskRadius(double focalPixels) {
+        return focalPixels * Math.tan(Math.toRadians(ANGULAR_RADIUS_DEGREES));
+    }
+
+    /**
+     * Smallest contour area detection should accept once the halo is gone: half the disk as
+     * contourArea measures it (the outline runs through the boundary pixels' centers, about a pixel
+     * inside the edge), and never below a few pixels, which would let single hot pixels through.
+     */
+    public static double minContourArea(double focalPixels) {
+        double radius = Math.max(0, diskRadius(focalPixels) - 1);
+        return Math.max(MIN_CONTOUR_AREA, 0.5 * Math.PI * radius * radius);
+    }
+
+    /** Contour area floor for frames from {@code intrinsics}, with or without the short exposure. */
+    public static double minContourArea(CameraIntrinsics intrinsics, boolean shortExposure) {
+        return shortExposure ? minContourArea(intrinsics.fx) : SunDetector.DEFAULT_MIN_CONTOUR_AREA;
+    }
+
+    @Override
+    public String toString() {
+        return "SunExposure{" + exposureNanos / 1000 + " us, ISO " + iso + "}";
+    }
+}
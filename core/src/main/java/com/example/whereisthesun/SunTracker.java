@@ -0,0 +1,202 @@
+package com.example.whereisthesun;
+
+/**
+ * Follows the sun/moon across frames with a constant-velocity Kalman filter on its image position,
+ * so that one frame's glint or cloud edge does not make the fix jump. Each frame's
+ * {@link SunCandidates} are gated by their Mahalanobis distance from the prediction and the closest
+ * one inside the gate updates the track; everything else is ignored. A track is reported once it
+ * has been confirmed by a few consecutive hits, and dropped after a few consecutive misses.
+ *
+ * Per frame: {@link #predict(long)} to the frame time, then, while {@link #isLocked()}, search only
+ * the window given by {@link #predictedX()}, {@link #predictedY()} and {@link #searchHalfSize()}
+ * (see {@link SunDetector#detectCandidates(org.opencv.core.Mat, double, double, double, SunCandidates)}),
+ * falling back to a full search when that finds nothing {@link #associate}s; then {@link #update}.
+ *
+ * x and y follow the same motion model and are measured with the same noise, so their 2x2
+ * position/velocity covariances are identical and only one is kept. Positions are in pixels, times
+ * in nanoseconds. Allocation-free; not thread-safe.
+ */
+public class SunTracker {
+    public static final double DEFAULT_ACCELERATION_SIGMA = 2000; // px/s^2, a hand-held phone panning
+    public static final double DEFAULT_MEASUREMENT_SIGMA = 2;     // px, centroid noise of a detection
+
+    private static final double GATE = 9.21;                      // Chi-square, 2 dof, 99%
+    private static final double INITIAL_VELOCITY_SIGMA = 300;     // px/s
+    private static final int CONFIRM_HITS = 3;
+    private static final int MAX_MISSES = 5;
+    private static final long MAX_DT_NANOS = 500_000_000L;        // Longer gaps restart the track
+    private static final double MAX_LOCKED_SIGMA = 8;             // px, position uncertainty allowing a window search
+    private static final double SIZE_SMOOTHING = 0.3;             // Weight of a new radius/area measurement
+
+    private final double accelerationVariance;
+    private final double measurementVariance;
+
+    private boolean hasTrack;
+    private long timestampNanos;
+    private double x, y, vx, vy;
+    private double p00, p01, p11;  // Position/velocity covariance, same for both axes
+    private double radius;
+    private double area;
+    private int hits;              // Consecutive frames with an associated candidate
+    private int misses;            // Consecutive frames without one
+
+    public SunTracker() {
+        this(DEFAULT_ACCELERATION_SIGMA, DEFAULT_MEASUREMENT_SIGMA);
+    }
+
+    public SunTracker(double accelerationSigma, double measurementSigma) {
+        accelerationVariance = accelerationSigma * accelerationSigma;
+        measurementVariance = measurementSigma * measurementSigma;
+    }
+
+    public void reset() {
+        hasTrack = false;
+        hits = 0;
+        misses = 0;
+    }
+
+    /** Whether there is a track, confirmed or not. */
+    public boolean hasTrack() {
+        return hasTrack;
+    }
+
+    /** Confirmed, hit on the last frame and tight enough that a window search will find it again. */
+    public boolean isLocked() {
+        return hasTrack && hits >= CONFIRM_HITS && misses == 0 && p00 <= MAX_LOCKED_SIGMA * MAX_LOCKED_SIGMA;
+    }
+
+    public double predictedX() {
+        return x;
+    }
+
+    public double predictedY() {
+        return y;
+    }
+
+    /** Half the side of a window centered on the prediction that holds the gate plus the whole blob. */
+    public double searchHalfSize() {
+        return Math.sqrt(GATE * (p00 + measurementVariance)) + 2 * radius;
+    }
+
+    /** Advances the track to {@code timestampNanos}; a gap too long (or backwards) to predict across drops it. */
+    public void predict(long timestampNanos) {
+        long dtNanos = timestampNanos - this.timestampNanos;
+        this.timestampNanos = timestampNanos;
+        if (!hasTrack) {
+            return;
+        }
+        if (dtNanos < 0 || dtNanos > MAX_DT_NANOS) {
+            reset();
+            return;
+        }
+        double dt = dtNanos * 1e-9;
+        x += vx * dt;
+        y += vy * dt;
+        // P = F P F^T + Q for F = [1 dt; 0 1] and white-noise acceleration
+        double dt2 = dt * dt;
+        p00 += dt * (2 * p01 + dt * p11) + accelerationVariance * dt2 * dt2 / 4;
+        p01 += dt * p11 + accelerationVariance * dt2 * dt / 2;
+        p11 += accelerationVariance * dt2;
+    }
+
+    /**
+     * The candidate inside the gate with the smallest Mahalanobis distance from the prediction.
+     *
+     * @return its index, or -1 if there is no track or no candidate inside the gate
+     */
+    public int associate(SunCandidates candidates) {
+        if (!hasTrack) {
+            return -1;
+        }
+        double s = p00 + measurementVariance;
+        int best = -1;
+        double bestDistance = GATE;
+        for (int i = 0; i < candidates.count; i++) {
+            double dx = candidates.centerX[i] - x;
+            double dy = candidates.centerY[i] - y;
+            double distance = (dx * dx + dy * dy) / s;
+            if (distance < bestDistance) {
+                best = i;
+                bestDistance = distance;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Updates the track with this frame's candidates (after {@link #predict(long)}) and writes the
+     * filtered fix to {@code result}. Without a track, the candidate a single detection pass would
+     * report ({@link SunCandidates#best()}) starts a tentative one.
+     *
+     * @return true if the track is confirmed and was hit on this frame, i.e. {@code result.found}
+     */
+    public boolean update(SunCandidates candidates, SunDetection result) {
+        candidates.copyTo(-1, result);
+        int match = associate(candidates);
+        if (match >= 0) {
+            correct(candidates, match);
+        } else if (hasTrack && hits >= CONFIRM_HITS && ++misses <= MAX_MISSES) {
+            return false; // Coast on the prediction for a few frames
+        } else {
+            start(candidates, candidates.best());
+        }
+
+        if (!hasTrack || hits < CONFIRM_HITS) {
+            return false;
+        }
+        result.found = true;
+        result.centerX = x;
+        result.centerY = y;
+        result.radius = radius;
+        result.area = area;
+        return true;
+    }
+
+    private void start(SunCandidates candidates, int index) {
+        hits = 0;
+        misses = 0;
+        hasTrack = index >= 0;
+        if (!hasTrack) {
+            return;
+        }
+        x = candidates.centerX[index];
+        y = candidates.centerY[index];
+        vx = 0;
+        vy = 0;
+        p00 = measurementVariance;
+        p01 = 0;
+        p11 = INITIAL_VELOCITY_SIGMA * INITIAL_VELOCITY_SIGMA;
+        radius = candidates.radius[index];
+        area = candidates.area[index];
+        hits = 1;
+    }
+
+    private void correct(SunCandidates candidates, int index) {
+        double s = p00 + measurementVariance;
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        double ex = candidates.centerX[index] - x;
+        double ey = candidates.centerY[index] - y;
+        x += k0 * ex;
+        y += k0 * ey;
+        vx += k1 * ex;
+        vy += k1 * ey;
+        // P = (I - K H) P
+        p11 -= k1 * p01;
+        p01 *= 1 - k0;
+        p00 *= 1 - k0;
+        radius += SIZE_SMOOTHING * (candidates.radius[index] - radius);
+        area += SIZE_SMOOTHING * (candidates.area[index] - area);
+        hits++;
+        misses = 0;
+    }
+
+    @Override
+    public String toString() {
+        if (!hasTrack) {
+            return "SunTracker{no track}";
+        }
+        return "SunTracker{position=(" + x + ", " + y + "), velocity=(" + vx + ", " + vy + "), sigma="
+                + Math.sqrt(p00) + ", hits=" + hits + ", misses=" + misses + "}";
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.whereisthesun;
+
+import org.opencv.core.Mat;
+
+/**
+ * Detection on a stream of grayscale frames, steered by a {@link SunTracker}: while the tracker is
+ * locked only the window around its prediction is searched; the full search runs when there is no
+ * lock or the window turns up nothing that fits the track. The detector is sized on the first frame.
+ *
+ * Shared by the app's frame stage and the desktop replay, so both run the same detection. Not
+ * thread-safe; {@link #release()} frees the native buffers.
+ */
+public class TrackingDetector {
+    private final Metrics metrics;
+    private final SunCandidates candidates = new SunCandidates();
+    private final SunTracker tracker = new SunTracker();
+    private SunDetector detector;
+
+    /** @param metrics records the detect stage latency */
+    public TrackingDetector(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Detects the sun in {@code gray}, exposed at {@code captureNanos}, into {@code result}.
+     *
+     * @param minContourArea smallest candidate accepted, see {@link SunDetector#setMinContourArea}
+     * @return whether it was found
+     */
+    public boolean detect(Mat gray, long captureNanos, double minContourArea, SunDetection result) {
+        if (detector == null) {
+            detector = new SunDetector(gray.cols(), gray.rows());
+            tracker.reset();
+        }
+        detector.setMinContourArea(minContourArea);
+        long detectStart = metrics.startTimer();
+        tracker.predict(captureNanos);
+        boolean windowed = tracker.isLocked()
+                && detector.detectCandidates(gray, tracker.predictedX(), tracker.predictedY(),
+                        tracker.searchHalfSize(), candidates) > 0
+                && tracker.associate(candidates) >= 0;
+        if (!windowed) {
+            detector.detectCandidates(gray, candidates);
+        }
+        boolean found = tracker.update(candidates, result);
+        metrics.stopTimer(Metrics.STAGE_DETECT, detectStart);
+        return found;
+    }
+
+    public void release() {
+        if (detector != null) {
+            detector.release();
+            detector = null;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class BinaryBatchEncoderTest {
+    private static final long T0 = 1_655_805_600_000L;
+    // In a batch of one record, from device "a", with location and object
+    private static final int FIRST_RECORD = 4 + 1 + 1 + 1 + 3 + 8;
+    private static final int TRAILER = FIRST_RECORD + 3 + 8 + 8 + 4 + 3 * 4 + 2 * 4 + 2 * 4;
+
+    private final BinaryBatchEncoder encoder = new BinaryBatchEncoder();
+
+    @Test
+    public void roundTripWithMetrics() throws IOException {
+        List<Observation> batch = Arrays.asList(
+                observation(T0, "phone-a", 48.1372, 11.5756, 520, 183.25, 42.5),
+                observation(T0 + 33, "phone-b", 48.1373, 11.5757, 521, Double.NaN, Double.NaN),
+                observation(T0 + 20, "phone-a", Double.NaN, Double.NaN, Double.NaN, 183.5, 42.25), // Clock stepped back
+                observation(T0 - 100_000, "tablet-c", -33.8688, 151.2093, 3, 12.125, Double.NaN),
+                observation(T0 + 1_000_000, "phone-b", 48.1374, 11.5758, 519, 184, 42));
+
+        Metrics metrics = new Metrics();
+        metrics.setEnabled(true);
+        MetricsSnapshot since = metrics.snapshot();
+        metrics.add(Metrics.FRAMES, 900);
+        metrics.increment(Metrics.UPLOADS);
+        for (int i = 1; i <= 100; i++) {
+            metrics.record(Metrics.STAGE_DETECT, i * 100_000L);
+        }
+        metrics.record(Metrics.STAGE_UPLOAD, 250_000_000L);
+        MetricsSnapshot snapshot = metrics.snapshot(since);
+
+        BinaryBatchEncoder.Trailer trailer = new BinaryBatchEncoder.Trailer();
+        List<Observation> decoded = BinaryBatchEncoder.decode(new ByteArrayInputStream(encode(batch, snapshot)),
+                trailer);
+
+        assertEquals(batch.size(), decoded.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Observation expected = batch.get(i);
+            Observation actual = decoded.get(i);
+            assertEquals(expected.timestamp, actual.timestamp);
+            assertEquals(expected.deviceId, actual.deviceId);
+            assertEquals(expected.latitude, actual.latitude, 0);
+            assertEquals(expected.longitude, actual.longitude, 0);
+            assertEquals((float) expected.altitude, actual.altitude, 0);
+            assertEquals(expected.deviceAzimuth, actual.deviceAzimuth, 0);
+            assertEquals(expected.devicePitch, actual.devicePitch, 0);
+            assertEquals(expected.deviceRoll, actual.deviceRoll, 0);
+            assertEquals(expected.hasObject(), actual.hasObject());
+            if (expected.hasObject()) {
+                assertEquals(expected.objectAzimuth, actual.objectAzimuth, 0);
+                assertEquals(expected.objectElevation, actual.objectElevation, 0);
+            } else {
+                // Both angles go, even the one that was there
+                assertTrue(Double.isNaN(actual.objectAzimuth));
+                assertTrue(Double.isNaN(actual.objectElevation));
+            }
+            assertEquals(expected.cameraFovHorizontal, actual.cameraFovHorizontal, 0);
+            assertEquals(expected.cameraFovVertical, actual.cameraFovVertical, 0);
+        }
+
+        assertTrue(trailer.hasMetrics);
+        assertEquals(snapshot.intervalNanos / 1_000_000, trailer.intervalMillis);
+        assertEquals(Metrics.COUNTER_COUNT, trailer.counters.length);
+        assertEquals(900, trailer.counters[Metrics.FRAMES]);
+        assertEquals(1, trailer.counters[Metrics.UPLOADS]);
+        assertEquals(Metrics.STAGE_COUNT, trailer.stageCounts.length);
+        for (int i = 0; i < Metrics.STAGE_COUNT; i++) {
+            assertEquals(snapshot.stageCounts[i], trailer.stageCounts[i]);
+            assertEquals(snapshot.p50Nanos[i] / 1000, trailer.p50Micros[i]);
+            assertEquals(snapshot.p90Nanos[i] / 1000, trailer.p90Micros[i]);
+            assertEquals(snapshot.p99Nanos[i] / 1000, trailer.p99Micros[i]);
+            assertEquals(snapshot.maxNanos[i] / 1000, trailer.maxMicros[i]);
+        }
+        assertEquals(100, trailer.stageCounts[Metrics.STAGE_DETECT]);
+        assertEquals(0, trailer.stageCounts[Metrics.STAGE_CAPTURE]);
+    }
+
+    @Test
+    public void dictionaryHoldsEachDeviceOnce() throws IOException {
+        List<Observation> batch = Arrays.asList(
+                observation(T0, "a", 1, 2, 3, 4, 5),
+                observation(T0 + 1, "b", 1, 2, 3, 4, 5),
+                observation(T0 + 2, "a", 1, 2, 3, 4, 5),
+                observation(T0 + 3, "c", 1, 2, 3, 4, 5));
+        byte[] bytes = encode(batch, null);
+        // Magic, version, count, then the dictionary in first-use order
+        assertEquals(4, bytes[5]);
+        assertEquals(3, bytes[6]);
+        assertArrayEquals(new byte[] {0, 1, 'a', 0, 1, 'b', 0, 1, 'c'}, Arrays.copyOfRange(bytes, 7, 16));
+
+        BinaryBatchEncoder.Trailer trailer = new BinaryBatchEncoder.Trailer();
+        List<Observation> decoded = BinaryBatchEncoder.decode(new ByteArrayInputStream(bytes), trailer);
+        assertEquals(Arrays.asList("a", "b", "a", "c"), Arrays.asList(decoded.get(0).deviceId,
+                decoded.get(1).deviceId, decoded.get(2).deviceId, decoded.get(3).deviceId));
+        assertFalse(trailer.hasMetrics);
+    }
+
+    @Test
+    public void emptyBatch() throws IOException {
+        assertTrue(BinaryBatchEncoder.decode(new ByteArrayInputStream(encode(Arrays.asList(), null))).isEmpty());
+    }
+
+    /** Damage to the trailer is an error, not a batch that decodes with its metrics missing. */
+    @Test
+    public void corruptTrailerIsRejected() throws IOException {
+        Metrics metrics = new Metrics();
+        metrics.setEnabled(true);
+        MetricsSnapshot since = metrics.snapshot();
+        metrics.record(Metrics.STAGE_DETECT, 1_000_000);
+        metrics.record(Metrics.STAGE_DETECT, 9_000_000);
+        byte[] bytes = encode(Arrays.asList(observation(T0, "a", 1, 2, 3, 4, 5)), metrics.snapshot(since));
+        BinaryBatchEncoder.decode(new ByteArrayInputStream(bytes));
+
+        byte[] hasMetrics = bytes.clone();
+        hasMetrics[TRAILER] = 2;
+        assertRejected(hasMetrics);
+
+        assertRejected(Arrays.copyOf(bytes, bytes.length - 1));
+        assertRejected(Arrays.copyOf(bytes, bytes.length + 1));
+
+        // The detect stage is count:1 byte and four two-byte durations, followed by three empty
+        // stages of five bytes; its max becomes 1 us, below its p99
+        byte[] percentiles = bytes.clone();
+        int max = bytes.length - 3 * 5 - 2;
+        percentiles[max] = (byte) 0x81;
+        percentiles[max + 1] = 0;
+        assertRejected(percentiles);
+
+        byte[] flags = bytes.clone();
+        flags[FIRST_RECORD] |= 1 << 5;
+        assertRejected(flags);
+    }
+
+    private byte[] encode(List<Observation> batch, MetricsSnapshot metrics) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        encoder.encode(batch, metrics, bytes);
+        return bytes.toByteArray();
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            BinaryBatchEncoder.decode(new ByteArrayInputStream(bytes));
+            fail("Decoded a corrupt batch");
+        } catch (IOException expected) {
+            // Detected
+        }
+    }
+
+    private static Observation observation(long timestamp, String deviceId, double latitude, double longitude,
+                                           double altitude, double objectAzimuth, double objectElevation) {
+        return new Observation(timestamp, deviceId, latitude, longitude, altitude, 181.5f, -2.25f, 0.5f,
+                objectAzimuth, objectElevation, 66.5f, 51.25f);
+    }
+}
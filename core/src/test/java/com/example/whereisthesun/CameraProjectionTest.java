@@ -0,0 +1,179 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Properties of the pixel to world chain over random device orientations: every matrix is a rotation,
+ * the principal point looks where the back of the phone points, and turning the phone about that
+ * axis moves nothing at the center of the image.
+ */
+public class CameraProjectionTest {
+    private static final int SAMPLES = 10_000;
+    private static final int[] SENSOR_ORIENTATIONS = {0, 90, 180, 270};
+    private static final double[] DEVICE_Z = {0, 0, 1};
+    private static final double EPSILON = 1e-9;
+
+    private final double[] deviceToWorld = new double[9];
+    private final double[] cameraToWorld = new double[9];
+    private final double[] scratch = new double[9];
+    private final double[] world = new double[3];
+
+    @Test
+    public void matricesAreRotations() {
+        Random random = new Random(1);
+        for (int sensorOrientation : SENSOR_ORIENTATIONS) {
+            CameraProjection.cameraToDevice(sensorOrientation, scratch);
+            assertRotation("sensor orientation " + sensorOrientation, scratch);
+        }
+        float[] q = new float[4];
+        for (int i = 0; i < SAMPLES; i++) {
+            randomOrientation(random, deviceToWorld);
+            assertRotation("from angles", deviceToWorld);
+            for (int sensorOrientation : SENSOR_ORIENTATIONS) {
+                CameraProjection.cameraToWorld(deviceToWorld, sensorOrientation, scratch, cameraToWorld);
+                assertRotation("camera to world", cameraToWorld);
+            }
+
+            double[] unit = Quaternions.random(random);
+            for (int j = 0; j < 4; j++) {
+                q[j] = (float) unit[j];
+            }
+            CameraProjection.quaternionToMatrix(q, deviceToWorld);
+            assertRotation("from a quaternion", deviceToWorld, 1e-6); // Float input
+        }
+    }
+
+    @Test
+    public void principalPointLooksOutOfTheBack() {
+        Random random = new Random(2);
+        double[] boresight = new double[3];
+        for (int i = 0; i < SAMPLES; i++) {
+            randomOrientation(random, deviceToWorld);
+            // The back camera looks along device -z
+            boresight[0] = -deviceToWorld[2];
+            boresight[1] = -deviceToWorld[5];
+            boresight[2] = -deviceToWorld[8];
+            for (int sensorOrientation : SENSOR_ORIENTATIONS) {
+                CameraProjection.cameraToWorld(deviceToWorld, sensorOrientation, scratch, cameraToWorld);
+                CameraProjection.project(cameraToWorld, 0, 0, world);
+                assertArrayEquals(boresight, world, EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void principalPixelNormalizesToTheOpticalAxis() {
+        CameraIntrinsics intrinsics = new CameraIntrinsics(4000, 3000, 3200, 3210, 2011.5, 1493.25,
+                0.08, -0.2, 0.1, 0.001, -0.0005, 90);
+        double[] normalized = new double[2];
+        intrinsics.normalize(intrinsics.cx, intrinsics.cy, normalized);
+        assertArrayEquals(new double[] {0, 0}, normalized, 1e-12);
+    }
+
+    @Test
+    public void rollingAboutTheLensAxisKeepsTheCenterPixel() {
+        Random random = new Random(3);
+        double[] roll = new double[9];
+        double[] rolled = new double[9];
+        double[] before = new double[3];
+        double[] center = new double[3];
+        double[] offCenter = new double[3];
+        for (int i = 0; i < SAMPLES; i++) {
+            randomOrientation(random, deviceToWorld);
+            int sensorOrientation = SENSOR_ORIENTATIONS[random.nextInt(4)];
+            double x = random.nextDouble() - 0.5;
+            double y = random.nextDouble() - 0.5;
+            CameraProjection.cameraToWorld(deviceToWorld, sensorOrientation, scratch, cameraToWorld);
+            CameraProjection.project(cameraToWorld, 0, 0, before);
+            CameraProjection.project(cameraToWorld, x, y, offCenter);
+            double azimuth = CameraProjection.azimuth(before);
+            double elevation = CameraProjection.elevation(before);
+            double offset = angle(before, offCenter);
+
+            CameraProjection.axisAngle(DEVICE_Z, 360 * random.nextDouble() - 180, roll);
+            CameraProjection.multiply(deviceToWorld, roll, rolled);
+            CameraProjection.cameraToWorld(rolled, sensorOrientation, scratch, cameraToWorld);
+            CameraProjection.project(cameraToWorld, 0, 0, center);
+            CameraProjection.project(cameraToWorld, x, y, offCenter);
+
+            assertEquals(elevation, CameraProjection.elevation(center), 1e-6);
+            if (Math.abs(elevation) < 89.9) { // Azimuth is undefined straight up or down
+                assertEquals(0, angleDifference(azimuth, CameraProjection.azimuth(center)), 1e-6);
+            }
+            // Everything else turns about the center
+            assertEquals(offset, angle(center, offCenter), 1e-6);
+        }
+    }
+
+    @Test
+    public void anglesRoundTripThroughTheMatrix() {
+        Random random = new Random(4);
+        double[] R = new double[9];
+        float[] floatR = new float[9];
+        float[] angles = new float[3];
+        for (int i = 0; i < SAMPLES; i++) {
+            double azimuth = 360 * random.nextDouble();
+            double pitch = 178 * random.nextDouble() - 89;
+            double roll = 360 * random.nextDouble() - 180;
+            CameraProjection.matrixFromOrientation(azimuth, pitch, roll, R);
+            for (int j = 0; j < 9; j++) {
+                floatR[j] = (float) R[j];
+            }
+            Orientations.orientationDegrees(floatR, angles);
+            assertEquals(0, angleDifference(azimuth, angles[0]), 0.01);
+            assertEquals(pitch, angles[1], 0.01);
+            assertEquals(0, angleDifference(roll, angles[2]), 0.01);
+        }
+    }
+
+    /** A phone upright in portrait, back camera to the north: sensor rows run up the sky. */
+    @Test
+    public void uprightPortraitLooksAtTheHorizon() {
+        CameraProjection.matrixFromOrientation(0, -90, 0, deviceToWorld);
+        CameraProjection.cameraToWorld(deviceToWorld, 90, scratch, cameraToWorld);
+        CameraProjection.project(cameraToWorld, 0, 0, world);
+        assertEquals(0, CameraProjection.elevation(world), 1e-9);
+        assertEquals(0, angleDifference(0, CameraProjection.azimuth(world)), 1e-9);
+        // SENSOR_ORIENTATION 90: the left edge of the sensor image is the top of the upright picture
+        CameraProjection.project(cameraToWorld, -0.1, 0, world);
+        assertEquals(Math.toDegrees(Math.atan(0.1)), CameraProjection.elevation(world), 1e-9);
+    }
+
+    private static void randomOrientation(Random random, double[] R) {
+        CameraProjection.matrixFromOrientation(360 * random.nextDouble(), 180 * random.nextDouble() - 90,
+                360 * random.nextDouble() - 180, R);
+    }
+
+    private static void assertRotation(String what, double[] M) {
+        assertRotation(what, M, EPSILON);
+    }
+
+    private static void assertRotation(String what, double[] M, double tolerance) {
+        for (int a = 0; a < 3; a++) {
+            for (int b = 0; b < 3; b++) {
+                double dot = M[a] * M[b] + M[3 + a] * M[3 + b] + M[6 + a] * M[6 + b];
+                assertEquals(what + " columns " + a + ", " + b, a == b ? 1 : 0, dot, tolerance);
+            }
+        }
+        double determinant = M[0] * (M[4] * M[8] - M[5] * M[7])
+                - M[1] * (M[3] * M[8] - M[5] * M[6])
+                + M[2] * (M[3] * M[7] - M[4] * M[6]);
+        assertEquals(what + " determinant", 1, determinant, tolerance);
+    }
+
+    /** Angle between two unit vectors in degrees. */
+    private static double angle(double[] u, double[] v) {
+        double cx = u[1] * v[2] - u[2] * v[1];
+        double cy = u[2] * v[0] - u[0] * v[2];
+        double cz = u[0] * v[1] - u[1] * v[0];
+        return Math.toDegrees(Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), u[0] * v[0] + u[1] * v[1] + u[2] * v[2]));
+    }
+
+    private static double angleDifference(double a, double b) {
+        return ((a - b + 540) % 360) - 180;
+    }
+}
@@ -0,0 +1,160 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Synthetic detections from a phone whose sensors are off by known biases: the sun is put where the
+ * true camera orientation sees it, and the calibration is fed the raw orientation.
+ */
+public class CompassCalibrationTest {
+    private static final double DECLINATION = 3.5;
+    private static final int SENSOR_ORIENTATION = 90;
+    private static final double NOISE_DEGREES = 0.3;
+
+    private final Random random = new Random(7);
+    private final double[] deviceToWorld = new double[9];
+    private final double[] trueCameraToWorld = new double[9];
+    private final double[] world = new double[3];
+    private final SolarPosition expected = new SolarPosition();
+    private double x;
+    private double y;
+
+    @Test
+    public void convergesToTheBiases() {
+        CompassCalibration calibration = new CompassCalibration();
+        for (int i = 0; i < 300; i++) {
+            nextSample(4, -1.5, 2);
+            assertTrue("sample " + i, add(calibration));
+        }
+        assertEquals(4, calibration.azimuthBias(), 0.1);
+        assertEquals(-1.5, calibration.pitchBias(), 0.1);
+        assertEquals(2, calibration.roll(), 0.1);
+        assertEquals(300, calibration.samples());
+        assertEquals(0, calibration.rejected());
+    }
+
+    /** A bias well beyond what would be an outlier later is learned, because the gate starts wide open. */
+    @Test
+    public void learnsALargeBiasFromScratch() {
+        CompassCalibration calibration = new CompassCalibration();
+        for (int i = 0; i < 100; i++) {
+            nextSample(25, 0, 0);
+            add(calibration);
+        }
+        assertEquals(0, calibration.rejected());
+        assertEquals(25, calibration.azimuthBias(), 0.1);
+    }
+
+    @Test
+    public void rejectsOutliersOnceSettled() {
+        CompassCalibration calibration = new CompassCalibration();
+        for (int i = 0; i < 200; i++) {
+            nextSample(4, -1.5, 2);
+            add(calibration);
+        }
+        double azimuthBias = calibration.azimuthBias();
+
+        // A reflection 8 degrees off; 8 degrees would have passed the first samples
+        nextSample(4, -1.5, 2);
+        expected.azimuth += 8;
+        assertFalse(add(calibration));
+        nextSample(4, -1.5, 2);
+        expected.elevation -= 8;
+        assertFalse(add(calibration));
+        assertEquals(2, calibration.rejected());
+        assertEquals(200, calibration.samples());
+        assertEquals(azimuthBias, calibration.azimuthBias(), 0);
+
+        // Ordinary noise still passes
+        int accepted = 0;
+        for (int i = 0; i < 100; i++) {
+            nextSample(4, -1.5, 2);
+            if (add(calibration)) {
+                accepted++;
+            }
+        }
+        assertEquals(100, accepted);
+    }
+
+    @Test
+    public void writeToReadFromRoundTrip() throws IOException {
+        CompassCalibration calibration = new CompassCalibration();
+        for (int i = 0; i < 50; i++) {
+            nextSample(4, -1.5, 2);
+            add(calibration);
+        }
+        nextSample(4, -1.5, 2);
+        expected.azimuth += 30;
+        add(calibration);
+        byte[] bytes = serialize(calibration);
+
+        CompassCalibration restored = new CompassCalibration();
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes)));
+        assertEquals(calibration.azimuthBias(), restored.azimuthBias(), 0);
+        assertEquals(calibration.pitchBias(), restored.pitchBias(), 0);
+        assertEquals(calibration.roll(), restored.roll(), 0);
+        assertEquals(50, restored.samples());
+        assertEquals(1, restored.rejected());
+        assertArrayEquals(bytes, serialize(restored)); // Covariance included
+
+        // And both go on the same way
+        nextSample(4, -1.5, 2);
+        add(calibration);
+        add(restored);
+        assertArrayEquals(serialize(calibration), serialize(restored));
+    }
+
+    /**
+     * A random raw orientation and a sun direction somewhere in the frame and above 5 degrees, as the
+     * camera would see it if the raw orientation were off by the given biases. The ephemeris
+     * position gets some noise.
+     */
+    private void nextSample(double azimuthBias, double pitchBias, double roll) {
+        do {
+            CameraProjection.matrixFromOrientation(random.nextDouble() * 360, random.nextDouble() * 180 - 90,
+                    random.nextDouble() * 360 - 180, deviceToWorld);
+            trueCameraToWorld(azimuthBias, pitchBias, roll);
+            x = random.nextDouble() - 0.5;
+            y = random.nextDouble() * 0.75 - 0.375;
+            CameraProjection.project(trueCameraToWorld, x, y, world);
+        } while (CameraProjection.elevation(world) < 5);
+        expected.azimuth = CameraProjection.azimuth(world) + random.nextGaussian() * NOISE_DEGREES;
+        expected.elevation = CameraProjection.elevation(world) + random.nextGaussian() * NOISE_DEGREES;
+    }
+
+    /** Azimuth about the vertical (with the declination), then pitch and roll about the camera axes. */
+    private void trueCameraToWorld(double azimuthBias, double pitchBias, double roll) {
+        double[] rotation = new double[9];
+        double[] product = new double[9];
+        double[] camera = new double[9];
+        CameraProjection.axisAngle(new double[] {0, 0, 1}, -(azimuthBias + DECLINATION), rotation);
+        CameraProjection.multiply(rotation, deviceToWorld, product);
+        CameraProjection.cameraToDevice(SENSOR_ORIENTATION, rotation);
+        CameraProjection.multiply(product, rotation, camera);
+        CameraProjection.axisAngle(new double[] {1, 0, 0}, pitchBias, rotation);
+        CameraProjection.multiply(camera, rotation, product);
+        CameraProjection.axisAngle(new double[] {0, 0, 1}, roll, rotation);
+        CameraProjection.multiply(product, rotation, trueCameraToWorld);
+    }
+
+    private boolean add(CompassCalibration calibration) {
+        return calibration.addSample(deviceToWorld, DECLINATION, SENSOR_ORIENTATION, x, y, expected);
+    }
+
+    private static byte[] serialize(CompassCalibration calibration) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        calibration.writeTo(new DataOutputStream(bytes));
+        return bytes.toByteArray();
+    }
+}
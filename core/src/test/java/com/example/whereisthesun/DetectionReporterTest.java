@@ -0,0 +1,107 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Which orientation and location a detection is paired with, and which detections are reported. */
+public class DetectionReporterTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long WALL_MILLIS = 1_700_000_000_000L;
+
+    private final Metrics metrics = new Metrics();
+    private final OrientationTracker orientation = new OrientationTracker(new RotationVectorFilter(), metrics);
+    private final LocationFusion locationFusion = new LocationFusion();
+    private final DetectionProjector projector = new DetectionProjector(new CompassCalibration(), metrics);
+    private final DetectionReporter reporter = new DetectionReporter(orientation, locationFusion, projector);
+    private final PixelRayTable rays = new PixelRayTable(CameraIntrinsics.fromFieldOfView(640, 480, 60, 45, 90));
+    private final SunDetection detection = new SunDetection();
+
+    @Test
+    public void dropsDetectionsWithoutAnOrientationEstimate() {
+        locationFusion.offer(fix(0), 0);
+        found(320, 240);
+        assertFalse(reporter.project(detection, rays, SECOND, 0, WALL_MILLIS));
+        assertFalse(projector.hasObject());
+        assertNull(reporter.observation("device", 60, 45));
+
+        heading(SECOND, 10);
+        assertTrue(reporter.project(detection, rays, SECOND, 0, WALL_MILLIS));
+        assertTrue(projector.hasObject());
+
+        // Once the sensors stop, an exposure past the history does not get the old estimate
+        orientation.clearLatest();
+        assertFalse(reporter.project(detection, rays, 10 * SECOND, 0, WALL_MILLIS));
+        assertFalse("nothing carries over", projector.hasObject());
+        assertNull(reporter.observation("device", 60, 45));
+    }
+
+    @Test
+    public void usesTheOrientationAtExposureElseTheLatest() {
+        heading(SECOND, 10);
+        heading(SECOND + 20_000_000L, 30);
+        found(320, 240);
+
+        assertTrue(reporter.project(detection, rays, SECOND + 10_000_000L, 0, WALL_MILLIS));
+        assertEquals(azimuth(20), reporter.orientationDegrees()[0], 1e-3);
+
+        // Well past what the history covers
+        assertTrue(reporter.project(detection, rays, 5 * SECOND, 0, WALL_MILLIS));
+        assertEquals(azimuth(30), reporter.orientationDegrees()[0], 1e-3);
+        Observation observation = reporter.observation("device", 60, 45);
+        assertNotNull(observation);
+        assertEquals(azimuth(30), observation.deviceAzimuth, 1e-3);
+        assertEquals(WALL_MILLIS, observation.timestamp);
+    }
+
+    @Test
+    public void reportsOnlyWithALocationOrAnObject() {
+        heading(SECOND, 10);
+        assertTrue(reporter.project(detection, rays, SECOND, 0, WALL_MILLIS)); // Nothing found, nowhere
+        assertNull(reporter.observation("device", 60, 45));
+
+        found(320, 240);
+        assertTrue(reporter.project(detection, rays, SECOND, 0, WALL_MILLIS));
+        Observation object = reporter.observation("device", 60, 45);
+        assertTrue(object.hasObject());
+        assertFalse(object.hasLocation());
+
+        locationFusion.offer(fix(SECOND), SECOND);
+        detection.clear();
+        assertTrue(reporter.project(detection, rays, SECOND, 0, WALL_MILLIS));
+        assertEquals(48.14, reporter.location().latitude, 0);
+        Observation location = reporter.observation("device", 60, 45);
+        assertTrue(location.hasLocation());
+        assertFalse(location.hasObject());
+        assertEquals(60, location.cameraFovHorizontal, 0);
+    }
+
+    /** A rotation vector event for the device turned {@code degrees} about the up axis. */
+    private void heading(long timestampNanos, double degrees) {
+        double half = Math.toRadians(degrees) / 2;
+        orientation.onSensorEvent(OrientationFilter.TYPE_ROTATION_VECTOR, timestampNanos,
+                new float[] {0, 0, (float) Math.sin(half), (float) Math.cos(half)});
+    }
+
+    private static float azimuth(double degrees) {
+        double half = Math.toRadians(degrees) / 2;
+        float[] angles = new float[3];
+        Orientations.quaternionToDegrees(new float[] {(float) Math.cos(half), 0, 0, (float) Math.sin(half)}, angles);
+        return angles[0];
+    }
+
+    private void found(double x, double y) {
+        detection.clear();
+        detection.found = true;
+        detection.centerX = x;
+        detection.centerY = y;
+    }
+
+    private static GeoFix fix(long elapsedNanos) {
+        return new GeoFix(GeoFix.PROVIDER_GPS, 48.14, 11.58, Double.NaN, 5, Float.NaN, WALL_MILLIS, elapsedNanos);
+    }
+}
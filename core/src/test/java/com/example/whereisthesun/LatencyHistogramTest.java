@@ -0,0 +1,61 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    private static final double RELATIVE_ERROR = 1.0 / LatencyHistogram.SUB_BUCKETS;
+
+    @Test
+    public void bucketsTileTheRangeWithoutGaps() {
+        assertEquals(0, LatencyHistogram.lowerBound(0));
+        for (int b = 1; b < LatencyHistogram.BUCKETS; b++) {
+            assertEquals("bucket " + b, LatencyHistogram.upperBound(b - 1) + 1, LatencyHistogram.lowerBound(b));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void everyValueLandsInABucketThatBoundsIt() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (long) Math.pow(2, random.nextDouble() * 38);
+            int bucket = LatencyHistogram.bucket(value);
+            long lower = LatencyHistogram.lowerBound(bucket);
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue(value + " in [" + lower + ", " + upper + "]", lower <= value && value <= upper);
+            assertTrue(value + ": bucket too wide", upper - lower + 1 <= Math.max(1, lower * RELATIVE_ERROR));
+        }
+        for (long value = 0; value < 4096; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(LatencyHistogram.lowerBound(bucket) <= value && value <= LatencyHistogram.upperBound(bucket));
+        }
+    }
+
+    @Test
+    public void outOfRangeValuesLandInTheEndBuckets() {
+        assertEquals(0, LatencyHistogram.bucket(-5));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(1L << 40));
+    }
+
+    @Test
+    public void countsAccumulate() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000);
+        histogram.record(1_001);
+        histogram.record(2_000_000);
+        long[] counts = new long[LatencyHistogram.BUCKETS];
+        histogram.copyCounts(counts);
+        assertEquals(2, counts[LatencyHistogram.bucket(1_000)]);
+        assertEquals(1, counts[LatencyHistogram.bucket(2_000_000)]);
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        assertEquals(3, total);
+    }
+}
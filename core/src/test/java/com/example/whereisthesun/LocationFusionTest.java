@@ -0,0 +1,105 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LocationFusionTest {
+    private static final long SECOND = 1_000_000_000L;
+    private static final long MINUTE = 60 * SECOND;
+
+    private final LocationFusion fusion = new LocationFusion();
+
+    @Test
+    public void networkFixDoesNotDisplaceARecentGpsFix() {
+        GeoFix gps = fix(GeoFix.PROVIDER_GPS, 0, 8, 0);
+        assertTrue(fusion.offer(gps, 0));
+        assertFalse(fusion.offer(fix(GeoFix.PROVIDER_NETWORK, 0, 10, SECOND), SECOND));
+        assertSame(gps, fusion.current(SECOND));
+
+        // Ten minutes on, the GPS fix could be 900 m off
+        GeoFix network = fix(GeoFix.PROVIDER_NETWORK, 0, 30, 10 * MINUTE);
+        assertTrue(fusion.offer(network, 10 * MINUTE));
+        assertSame(network, fusion.current(10 * MINUTE));
+    }
+
+    @Test
+    public void slowsDownAtRestAndSpeedsUpWhenMoving() {
+        long t = 0;
+        for (; t <= 11 * MINUTE; t += 30 * SECOND) {
+            fusion.offer(fix(GeoFix.PROVIDER_GPS, 0.00001 * (t / MINUTE % 3), 5, t), t); // A meter of jitter
+        }
+        assertTrue(fusion.isStationary());
+        assertEquals(LocationFusion.IDLE_INTERVAL_MILLIS, fusion.updateIntervalMillis());
+
+        assertTrue(fusion.offer(fix(GeoFix.PROVIDER_GPS, 0.001, 5, t), t)); // 111 m away
+        assertFalse(fusion.isStationary());
+        assertEquals(LocationFusion.FAST_INTERVAL_MILLIS, fusion.updateIntervalMillis());
+    }
+
+    /** Providers go quiet when nothing moves; the position does not get worse for it. */
+    @Test
+    public void keepsTheFixPastItsAgeLimitOnlyAtRest() {
+        long t = 0;
+        GeoFix last = null;
+        for (; t <= 3 * MINUTE; t += 30 * SECOND) {
+            last = fix(GeoFix.PROVIDER_GPS, 0, 5, t);
+            fusion.offer(last, t);
+        }
+        assertTrue(fusion.isStationary());
+        assertSame(last, fusion.current(last.elapsedNanos + LocationFusion.MAX_AGE_NANOS + 1));
+
+        LocationFusion moving = new LocationFusion();
+        GeoFix only = fix(GeoFix.PROVIDER_GPS, 0, 5, 0);
+        moving.offer(only, 0);
+        assertFalse(moving.isStationary());
+        assertSame(only, moving.current(LocationFusion.MAX_AGE_NANOS));
+        assertNull(moving.current(LocationFusion.MAX_AGE_NANOS + 1));
+    }
+
+    /** Rested, then no fix for more than a few idle intervals past the age limit: updates have stopped. */
+    @Test
+    public void dropsTheFixAtRestOnceUpdatesStop() {
+        GeoFix last = rest(3 * MINUTE);
+        assertTrue(fusion.isStationary());
+        assertSame(last, fusion.current(last.elapsedNanos + LocationFusion.STATIONARY_MAX_AGE_NANOS));
+        assertNull(fusion.current(last.elapsedNanos + LocationFusion.STATIONARY_MAX_AGE_NANOS + 1));
+    }
+
+    @Test
+    public void resetMotionEndsTheRest() {
+        GeoFix last = rest(11 * MINUTE);
+        assertEquals(LocationFusion.IDLE_INTERVAL_MILLIS, fusion.updateIntervalMillis());
+
+        fusion.resetMotion();
+        assertFalse(fusion.isStationary());
+        assertEquals(LocationFusion.FAST_INTERVAL_MILLIS, fusion.updateIntervalMillis());
+        assertSame(last, fusion.current(last.elapsedNanos + LocationFusion.MAX_AGE_NANOS));
+        assertNull(fusion.current(last.elapsedNanos + LocationFusion.MAX_AGE_NANOS + 1));
+
+        // The rest starts over from the next fix
+        long t = last.elapsedNanos + 30 * SECOND;
+        fusion.offer(fix(GeoFix.PROVIDER_GPS, 0, 4, t), t);
+        assertFalse(fusion.isStationary());
+    }
+
+    /** GPS fixes from the same spot every 30 seconds, up to {@code duration}; returns the last. */
+    private GeoFix rest(long duration) {
+        GeoFix last = null;
+        for (long t = 0; t <= duration; t += 30 * SECOND) {
+            last = fix(GeoFix.PROVIDER_GPS, 0, 5, t);
+            fusion.offer(last, t);
+        }
+        return last;
+    }
+
+    /** A fix {@code north} degrees of latitude from a point in Munich. */
+    private static GeoFix fix(int provider, double north, float accuracy, long elapsedNanos) {
+        return new GeoFix(provider, 48.14 + north, 11.58, Double.NaN, accuracy, Float.NaN, elapsedNanos / 1_000_000,
+                elapsedNanos);
+    }
+}
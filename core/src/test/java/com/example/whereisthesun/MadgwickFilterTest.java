@@ -0,0 +1,167 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * The filter fed synthetic IMU traces: sensor readings generated from a known orientation
+ * trajectory, with Gaussian noise and a gyroscope bias, at the rates a phone delivers them at
+ * SENSOR_DELAY_GAME. The estimate is compared with the trajectory.
+ */
+public class MadgwickFilterTest {
+    private static final double GRAVITY = 9.81;
+    private static final double[] FIELD = {0, 21, -43}; // uT, East-North-Up, mid northern latitudes
+    private static final long GYRO_PERIOD_NANOS = 5_000_000L;   // 200 Hz
+    private static final long ACCEL_PERIOD_NANOS = 10_000_000L; // 100 Hz
+    private static final long MAG_PERIOD_NANOS = 20_000_000L;   // 50 Hz
+    private static final long START_NANOS = 1_000_000_000L;
+
+    private final float[] q = new float[4];
+
+    @Test
+    public void startsFromAccelerometerAndMagnetometer() {
+        double[] truth = orientation(123, 50, -15);
+        MadgwickFilter filter = new MadgwickFilter();
+        assertFalse(filter.getQuaternion(q));
+        filter.onSensorEvent(OrientationFilter.TYPE_ACCELEROMETER, START_NANOS, accelerometer(truth, null, 0));
+        assertFalse("no estimate without the magnetometer", filter.getQuaternion(q));
+        filter.onSensorEvent(OrientationFilter.TYPE_MAGNETIC_FIELD, START_NANOS, magnetometer(truth, null, 0));
+
+        assertTrue(filter.getQuaternion(q));
+        assertEquals(1, Quaternions.norm(q), 1e-5);
+        assertEquals(0, Quaternions.angleBetween(q, truth), 0.1);
+    }
+
+    @Test
+    public void tracksAMovingDevice() {
+        Random random = new Random(7);
+        MadgwickFilter filter = new MadgwickFilter();
+        double[] bias = {0.004, -0.003, 0.002};
+        double worst = 0;
+        double sum = 0;
+        int count = 0;
+        long end = START_NANOS + 20_000_000_000L;
+        for (long t = START_NANOS; t < end; t += GYRO_PERIOD_NANOS) {
+            feed(filter, t, random, bias);
+            double seconds = (t - START_NANOS) * 1e-9;
+            if (seconds < 2) {
+                continue; // The seed is taken from noisy readings of a moving device
+            }
+            assertTrue(filter.getQuaternion(q));
+            double error = Quaternions.angleBetween(q, trajectory(seconds));
+            worst = Math.max(worst, error);
+            sum += error;
+            count++;
+        }
+        assertTrue("worst error " + worst + " deg", worst < 3);
+        assertTrue("mean error " + sum / count + " deg", sum / count < 1.5);
+    }
+
+    @Test
+    public void withoutGyroscopeConvergesOnAccelerometerAndMagnetometer() {
+        Random random = new Random(11);
+        MadgwickFilter filter = new MadgwickFilter();
+        double[] before = orientation(200, 30, 5);
+        double[] after = orientation(215, 40, -5); // Moved while the filter ran; it corrects at a bounded rate
+        long t = START_NANOS;
+        for (; t < START_NANOS + 1_000_000_000L; t += ACCEL_PERIOD_NANOS) {
+            filter.onSensorEvent(OrientationFilter.TYPE_MAGNETIC_FIELD, t, magnetometer(before, random, 0.5));
+            filter.onSensorEvent(OrientationFilter.TYPE_ACCELEROMETER, t, accelerometer(before, random, 0.05));
+        }
+        assertTrue(filter.getQuaternion(q));
+        assertEquals(0, Quaternions.angleBetween(q, before), 2);
+
+        for (long end = t + 30_000_000_000L; t < end; t += ACCEL_PERIOD_NANOS) {
+            filter.onSensorEvent(OrientationFilter.TYPE_MAGNETIC_FIELD, t, magnetometer(after, random, 0.5));
+            filter.onSensorEvent(OrientationFilter.TYPE_ACCELEROMETER, t, accelerometer(after, random, 0.05));
+        }
+        assertTrue(filter.getQuaternion(q));
+        assertEquals(0, Quaternions.angleBetween(q, after), 1.5);
+    }
+
+    @Test
+    public void gapsAreNotIntegrated() {
+        MadgwickFilter filter = new MadgwickFilter();
+        double[] truth = orientation(90, 20, 0);
+        filter.onSensorEvent(OrientationFilter.TYPE_ACCELEROMETER, START_NANOS, accelerometer(truth, null, 0));
+        filter.onSensorEvent(OrientationFilter.TYPE_MAGNETIC_FIELD, START_NANOS, magnetometer(truth, null, 0));
+        float[] spin = {0, 0, 2}; // rad/s; integrated over the gap this would be a turn of 115 degrees
+        filter.onSensorEvent(OrientationFilter.TYPE_GYROSCOPE, START_NANOS, spin);
+        filter.onSensorEvent(OrientationFilter.TYPE_GYROSCOPE, START_NANOS + 1_000_000_000L, spin);
+
+        assertTrue(filter.getQuaternion(q));
+        assertEquals(0, Quaternions.angleBetween(q, truth), 0.1);
+    }
+
+    @Test
+    public void resetForgetsTheEstimate() {
+        MadgwickFilter filter = new MadgwickFilter();
+        double[] truth = orientation(10, 10, 10);
+        filter.onSensorEvent(OrientationFilter.TYPE_ACCELEROMETER, START_NANOS, accelerometer(truth, null, 0));
+        filter.onSensorEvent(OrientationFilter.TYPE_MAGNETIC_FIELD, START_NANOS, magnetometer(truth, null, 0));
+        assertTrue(filter.getQuaternion(q));
+        filter.reset();
+        assertFalse(filter.getQuaternion(q));
+    }
+
+    /** Feeds every event due in [t, t + gyro period): gyroscope, accelerometer and magnetometer. */
+    private static void feed(MadgwickFilter filter, long t, Random random, double[] bias) {
+        double seconds = (t - START_NANOS) * 1e-9;
+        double[] truth = trajectory(seconds);
+        if ((t - START_NANOS) % MAG_PERIOD_NANOS == 0) {
+            filter.onSensorEvent(OrientationFilter.TYPE_MAGNETIC_FIELD, t, magnetometer(truth, random, 0.5));
+        }
+        if ((t - START_NANOS) % ACCEL_PERIOD_NANOS == 0) {
+            filter.onSensorEvent(OrientationFilter.TYPE_ACCELEROMETER, t, accelerometer(truth, random, 0.05));
+        }
+        double[] rate = angularVelocity(seconds);
+        float[] gyro = new float[3];
+        for (int i = 0; i < 3; i++) {
+            gyro[i] = (float) (rate[i] + bias[i] + 0.01 * random.nextGaussian());
+        }
+        filter.onSensorEvent(OrientationFilter.TYPE_GYROSCOPE, t, gyro);
+    }
+
+    /** Someone sweeping the sky: yaw, pitch and roll all change, up to about 35 degrees/s. */
+    private static double[] trajectory(double seconds) {
+        return orientation(40 + 60 * Math.sin(0.5 * seconds), 35 + 20 * Math.sin(0.8 * seconds),
+                10 * Math.sin(1.1 * seconds));
+    }
+
+    /** Device to East-North-Up: heading clockwise from north, then pitch up, then roll. */
+    private static double[] orientation(double azimuth, double pitch, double roll) {
+        return Quaternions.multiply(Quaternions.axisAngle(0, 0, 1, -azimuth),
+                Quaternions.multiply(Quaternions.axisAngle(1, 0, 0, pitch), Quaternions.axisAngle(0, 1, 0, roll)));
+    }
+
+    /** Body rates in the device frame, what the gyroscope measures. */
+    private static double[] angularVelocity(double seconds) {
+        double h = 1e-4;
+        double[] delta = Quaternions.multiply(Quaternions.conjugate(trajectory(seconds - h / 2)),
+                trajectory(seconds + h / 2));
+        double sign = delta[0] < 0 ? -1 : 1;
+        return new double[] {2 * sign * delta[1] / h, 2 * sign * delta[2] / h, 2 * sign * delta[3] / h};
+    }
+
+    private static float[] accelerometer(double[] truth, Random random, double noise) {
+        return measure(truth, new double[] {0, 0, GRAVITY}, random, noise);
+    }
+
+    private static float[] magnetometer(double[] truth, Random random, double noise) {
+        return measure(truth, FIELD, random, noise);
+    }
+
+    /** World vector {@code v} in device coordinates, plus noise. */
+    private static float[] measure(double[] truth, double[] v, Random random, double noise) {
+        double[] device = Quaternions.rotate(Quaternions.conjugate(truth), v);
+        float[] values = new float[3];
+        for (int i = 0; i < 3; i++) {
+            values[i] = (float) (device[i] + (random != null ? noise * random.nextGaussian() : 0));
+        }
+        return values;
+    }
+}
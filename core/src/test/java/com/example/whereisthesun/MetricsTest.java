@@ -0,0 +1,133 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Percentiles and interval bookkeeping of {@link Metrics} snapshots. */
+public class MetricsTest {
+    private static final double RELATIVE_ERROR = 1.0 / LatencyHistogram.SUB_BUCKETS;
+
+    private final Metrics metrics = new Metrics();
+
+    @Before
+    public void setUp() {
+        metrics.setEnabled(true);
+    }
+
+    @Test
+    public void percentilesOfAUniformDistribution() {
+        long[] samples = new long[10_000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (i + 1) * 1_000L; // 1 us to 10 ms
+        }
+        assertPercentiles(samples, Metrics.STAGE_DETECT);
+    }
+
+    @Test
+    public void percentilesOfALongTailedDistribution() {
+        Random random = new Random(5);
+        long[] samples = new long[20_000];
+        for (int i = 0; i < samples.length; i++) {
+            // Log-normal around 2 ms with the odd request taking seconds
+            samples[i] = (long) (2_000_000 * Math.exp(random.nextGaussian() * 1.2));
+        }
+        assertPercentiles(samples, Metrics.STAGE_UPLOAD);
+    }
+
+    @Test
+    public void fewSamples() {
+        long[] samples = {40_000, 10_000, 30_000};
+        assertPercentiles(samples, Metrics.STAGE_CAPTURE);
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.bucket(30_000)), snapshot.p50Nanos[Metrics.STAGE_CAPTURE]);
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.bucket(40_000)), snapshot.p99Nanos[Metrics.STAGE_CAPTURE]);
+        assertEquals(0, snapshot.stageCounts[Metrics.STAGE_DECODE]);
+        assertEquals(0, snapshot.maxNanos[Metrics.STAGE_DECODE]);
+    }
+
+    /** Once a snapshot is reported, the next covers only what came after it. */
+    @Test
+    public void consecutiveSnapshotsCoverTheirOwnInterval() {
+        metrics.add(Metrics.FRAMES, 30);
+        for (int i = 0; i < 100; i++) {
+            metrics.record(Metrics.STAGE_DETECT, 1_000_000);
+        }
+        MetricsSnapshot first = metrics.snapshot();
+        assertEquals(30, first.counters[Metrics.FRAMES]);
+        assertEquals(100, first.stageCounts[Metrics.STAGE_DETECT]);
+        metrics.markReported(first);
+
+        metrics.add(Metrics.FRAMES, 12);
+        metrics.increment(Metrics.UPLOADS);
+        for (int i = 0; i < 10; i++) {
+            metrics.record(Metrics.STAGE_DETECT, 50_000_000);
+        }
+        MetricsSnapshot second = metrics.snapshot();
+        assertEquals(12, second.counters[Metrics.FRAMES]);
+        assertEquals(1, second.counters[Metrics.UPLOADS]);
+        assertEquals(10, second.stageCounts[Metrics.STAGE_DETECT]);
+        // None of the fast first-interval samples
+        long bound = LatencyHistogram.upperBound(LatencyHistogram.bucket(50_000_000));
+        assertEquals(bound, second.p50Nanos[Metrics.STAGE_DETECT]);
+        assertEquals(second.takenNanos - first.takenNanos, second.intervalNanos);
+
+        // A failed upload is not reported, so the next snapshot covers it again
+        MetricsSnapshot third = metrics.snapshot();
+        assertEquals(12, third.counters[Metrics.FRAMES]);
+        assertEquals(third.takenNanos - first.takenNanos, third.intervalNanos);
+
+        // A display can keep its own baseline
+        MetricsSnapshot display = metrics.snapshot(third);
+        assertEquals(0, display.counters[Metrics.FRAMES]);
+        assertEquals(0, display.stageCounts[Metrics.STAGE_DETECT]);
+
+        // An older snapshot does not move the baseline back
+        metrics.markReported(third);
+        metrics.markReported(first);
+        assertEquals(0, metrics.snapshot().counters[Metrics.FRAMES]);
+    }
+
+    @Test
+    public void nothingIsRecordedWhileDisabled() {
+        metrics.setEnabled(false);
+        assertEquals(0, metrics.startTimer());
+        metrics.stopTimer(Metrics.STAGE_DETECT, 0);
+        metrics.record(Metrics.STAGE_DETECT, 1_000);
+        metrics.increment(Metrics.FRAMES);
+        metrics.add(Metrics.SENSOR_EVENTS, 100);
+        MetricsSnapshot snapshot = metrics.snapshot();
+        assertEquals(0, snapshot.stageCounts[Metrics.STAGE_DETECT]);
+        assertEquals(0, snapshot.counters[Metrics.FRAMES]);
+        assertEquals(0, snapshot.counters[Metrics.SENSOR_EVENTS]);
+    }
+
+    /**
+     * Records {@code samples} for {@code stage} and checks each reported percentile against the
+     * exact one of the same rank: never below it (they are bucket upper bounds) and at most one
+     * bucket width above it.
+     */
+    private void assertPercentiles(long[] samples, int stage) {
+        for (long sample : samples) {
+            metrics.record(stage, sample);
+        }
+        MetricsSnapshot snapshot = metrics.snapshot();
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        int n = sorted.length;
+        assertEquals(n, snapshot.stageCounts[stage]);
+        assertWithinBucket("p50", sorted[(n + 1) / 2 - 1], snapshot.p50Nanos[stage]);
+        assertWithinBucket("p90", sorted[(int) Math.ceil(n * 0.9) - 1], snapshot.p90Nanos[stage]);
+        assertWithinBucket("p99", sorted[(int) Math.ceil(n * 0.99) - 1], snapshot.p99Nanos[stage]);
+        assertWithinBucket("max", sorted[n - 1], snapshot.maxNanos[stage]);
+    }
+
+    private static void assertWithinBucket(String name, long exact, long reported) {
+        assertTrue(name + ": " + reported + " for " + exact,
+                reported >= exact && reported <= exact * (1 + RELATIVE_ERROR));
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The upload queue against a local server: failures and backoff, partial and odd acknowledgements,
+ * batch order, rejected batches and recovery after the process went away. Batches are sealed by size
+ * or {@link ObservationQueue#flush()}; the age threshold is out of reach.
+ */
+public class ObservationQueueTest {
+    private static final int BATCH_SIZE = 5;
+    private static final long MAX_BATCH_AGE_MILLIS = 10 * 60_000;
+    private static final long MIN_BACKOFF_MILLIS = 2_500; // Half the initial backoff, the least jitter leaves
+    private static final long TIMEOUT_SECONDS = 15;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private MockWebServer server;
+    private File directory;
+    private ObservationQueue queue;
+    private long nextTimestamp = 1_600_000_000_000L;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+        directory = folder.newFolder("queue");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (queue != null) {
+            queue.close();
+        }
+        server.shutdown();
+    }
+
+    @Test
+    public void serverErrorsAreRetriedAfterBackoff() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        server.enqueue(new MockResponse());
+        queue = open();
+        List<Long> sent = enqueue(BATCH_SIZE);
+
+        Upload failed = take();
+        long failedAt = System.nanoTime();
+        Upload retried = take();
+        long backoff = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - failedAt);
+
+        assertEquals(sent, failed.timestamps);
+        assertEquals(failed.id, retried.id);
+        assertEquals(0, retried.offset);
+        assertEquals(sent, retried.timestamps);
+        assertTrue("retried after " + backoff + " ms", backoff >= MIN_BACKOFF_MILLIS - 100);
+        awaitNoBatches();
+    }
+
+    @Test
+    public void partialAcknowledgementResendsTheTail() throws Exception {
+        server.enqueue(new MockResponse().setHeader(ObservationQueue.HEADER_ACKNOWLEDGED, 2));
+        server.enqueue(new MockResponse());
+        queue = open();
+        List<Long> sent = enqueue(BATCH_SIZE);
+
+        Upload first = take();
+        Upload rest = take();
+        assertEquals(sent, first.timestamps);
+        assertEquals(first.id, rest.id);
+        assertEquals(2, rest.offset);
+        assertEquals(sent.subList(2, BATCH_SIZE), rest.timestamps);
+        awaitNoBatches();
+        assertNull(server.takeRequest(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void clientErrorDropsTheBatch() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(400));
+        server.enqueue(new MockResponse());
+        queue = open();
+        List<Long> rejected = enqueue(BATCH_SIZE);
+        Upload first = take();
+        List<Long> accepted = enqueue(BATCH_SIZE);
+        Upload second = take();
+
+        assertEquals(rejected, first.timestamps);
+        assertEquals(accepted, second.timestamps);
+        assertEquals(first.id + 1, second.id);
+        awaitNoBatches();
+        assertNull("the rejected batch was sent again", server.takeRequest(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void batchesSurviveClosingAndReopening() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(503));
+        queue = open();
+        List<Long> sealed = enqueue(BATCH_SIZE);
+        assertEquals(sealed, take().timestamps); // Now backing off
+        awaitPendingCount(0);
+        List<Long> pending = enqueue(3);
+        queue.close();
+
+        // The process died in the middle of the next append
+        try (FileOutputStream out = new FileOutputStream(new File(directory, "pending.log"), true)) {
+            out.write(new byte[] {0, 0, 0, 90, 1, 2, 3});
+        }
+
+        server.enqueue(new MockResponse());
+        server.enqueue(new MockResponse());
+        queue = open();
+        assertEquals(3, queue.pendingCount());
+        Upload first = take();
+        assertEquals(sealed, first.timestamps);
+        queue.flush();
+        Upload second = take();
+        assertEquals(pending, second.timestamps);
+        assertEquals(first.id + 1, second.id);
+        awaitNoBatches();
+    }
+
+    @Test
+    public void acknowledgementsKeepBatchesInOrder() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(500));
+        queue = open();
+        List<Long> batch0 = enqueue(BATCH_SIZE);
+        take(); // Backing off while more batches are sealed behind the failed one
+        awaitPendingCount(0);
+        List<Long> batch1 = enqueue(BATCH_SIZE);
+        awaitPendingCount(0);
+        List<Long> batch2 = enqueue(2);
+        queue.flush();
+        awaitPendingCount(0);
+
+        // A stale acknowledgement larger than the batch, a partial one, then one the server garbled
+        server.enqueue(new MockResponse().setHeader(ObservationQueue.HEADER_ACKNOWLEDGED, 50));
+        server.enqueue(new MockResponse().setHeader(ObservationQueue.HEADER_ACKNOWLEDGED, 2));
+        server.enqueue(new MockResponse().setHeader(ObservationQueue.HEADER_ACKNOWLEDGED, "three"));
+        server.enqueue(new MockResponse());
+
+        Upload retried = take();
+        Upload head1 = take();
+        Upload tail1 = take();
+        Upload last = take();
+        assertEquals(batch0, retried.timestamps);
+        assertEquals(retried.id + 1, head1.id);
+        assertEquals(0, head1.offset);
+        assertEquals(batch1, head1.timestamps);
+        assertEquals(head1.id, tail1.id);
+        assertEquals(2, tail1.offset);
+        assertEquals(batch1.subList(2, BATCH_SIZE), tail1.timestamps);
+        assertEquals(head1.id + 1, last.id);
+        assertEquals(batch2, last.timestamps);
+        awaitNoBatches();
+        assertNull(server.takeRequest(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void failedSealKeepsAcceptingObservations() throws Exception {
+        Logger log = Logger.getLogger(ObservationQueue.class.getName());
+        CountDownLatch sealFailed = new CountDownLatch(1);
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getLevel() == Level.SEVERE && record.getMessage().startsWith("Failed to seal")) {
+                    sealFailed.countDown();
+                }
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        log.addHandler(handler);
+        try {
+            queue = open();
+            // A directory where the first batch would go makes the rename fail
+            File blocker = new File(directory, String.format("batch-%019d-0.log", 0));
+            assertTrue(blocker.mkdir());
+            List<Long> sent = enqueue(BATCH_SIZE);
+            assertTrue(sealFailed.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            sent.addAll(enqueue(1));
+            assertEquals(BATCH_SIZE + 1, queue.pendingCount());
+
+            assertTrue(blocker.delete());
+            server.enqueue(new MockResponse());
+            queue.flush();
+            Upload upload = take();
+            assertEquals(sent, upload.timestamps);
+            awaitNoBatches();
+        } finally {
+            log.removeHandler(handler);
+        }
+    }
+
+    private ObservationQueue open() throws IOException {
+        ObservationQueue q = new ObservationQueue(directory, new OkHttpClient(), server.url("/observations").toString(),
+                new BinaryBatchEncoder(), BATCH_SIZE, MAX_BATCH_AGE_MILLIS, null);
+        q.start();
+        return q;
+    }
+
+    /** Enqueues {@code count} observations; returns their timestamps. */
+    private List<Long> enqueue(int count) throws IOException {
+        List<Long> timestamps = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long timestamp = nextTimestamp++;
+            queue.enqueue(new Observation(timestamp, "test-device", 48.1, 11.6, 520,
+                    180, 30, 0, 181.5, 31.25, 60, 45));
+            timestamps.add(timestamp);
+        }
+        return timestamps;
+    }
+
+    private Upload take() throws Exception {
+        RecordedRequest request = server.takeRequest(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        assertNotNull("no upload", request);
+        assertEquals("gzip", request.getHeader("Content-Encoding"));
+        return new Upload(request);
+    }
+
+    private void awaitPendingCount(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (queue.pendingCount() != count) {
+            assertTrue("pending count stuck at " + queue.pendingCount(), System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /** Waits until every sealed batch has been deleted, i.e. acknowledged or dropped. */
+    private void awaitNoBatches() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (true) {
+            String[] batches = directory.list((dir, name) -> name.startsWith("batch-"));
+            if (batches == null || batches.length == 0) {
+                return;
+            }
+            assertTrue(batches.length + " batches left", System.nanoTime() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    /** What the server got in one request. */
+    private static final class Upload {
+        final long id;
+        final int offset;
+        final List<Long> timestamps = new ArrayList<>();
+
+        Upload(RecordedRequest request) throws IOException {
+            id = Long.parseLong(request.getHeader(ObservationQueue.HEADER_BATCH_ID));
+            offset = Integer.parseInt(request.getHeader(ObservationQueue.HEADER_BATCH_OFFSET));
+            for (Observation o : BinaryBatchEncoder.decode(new GZIPInputStream(request.getBody().inputStream()))) {
+                timestamps.add(o.timestamp);
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The store across reopens, a record torn by a crash, the wall clock stepping back and compaction,
+ * also in the middle of a scan, and bounding box scans against a brute-force filter. Segments are
+ * small so a few hundred records span several.
+ */
+public class ObservationStoreTest {
+    private static final int SEGMENT_RECORDS = ObservationStore.INDEX_INTERVAL;
+    private static final int DATA_OFFSET = 128; // 64-byte header, one 40-byte index entry padded to a record
+    private static final long T0 = 1_600_000_000_000L;
+    private static final int BLOCKS_PER_SEGMENT = 4; // For the bounding box tests, so blocks can be skipped
+    // Latitude and longitude of a few places, and boxes around them
+    private static final double[][] PLACES = {{48.14, 11.58}, {-33.87, 151.21}, {40.71, -74.01}, {64.15, -21.94}};
+    private static final double[][] BOXES = {
+            {48, 48.3, 11.4, 11.8},      // The first place
+            {-34, -33.8, 151, 151.3},    // The second
+            {40, 49, -80, 12},           // The first and third
+            {-90, 90, -180, 180},        // Everywhere, but not NaN
+            {0, 10, 0, 10},              // Nowhere
+            {48.14, 48.14, 11.58, 11.58} // Degenerate, on the first place
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private ObservationStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("store");
+        store = open();
+    }
+
+    @After
+    public void tearDown() {
+        store.close();
+    }
+
+    @Test
+    public void reopenFindsEveryRecordAndAppendsContinue() throws IOException {
+        appendRange(0, 600);
+        store.close();
+        store = open();
+        assertEquals(600, store.size());
+        assertTimestamps(range(0, 600), scanAll());
+
+        appendRange(600, 610); // Into the last, partly filled segment
+        assertEquals(3, segmentFiles().length);
+        store.close();
+        store = open();
+        assertTimestamps(range(0, 610), scanAll());
+
+        // Fields come back as written
+        List<Observation> copies = new ArrayList<>();
+        store.scan(T0 + 5, T0 + 6, record -> copies.add(record.toObservation("device")));
+        Observation expected = observation(5);
+        Observation actual = copies.get(0);
+        assertEquals(expected.latitude, actual.latitude, 0);
+        assertEquals(expected.longitude, actual.longitude, 0);
+        assertEquals(expected.altitude, actual.altitude, 0);
+        assertEquals(expected.deviceAzimuth, actual.deviceAzimuth, 0);
+        assertEquals(expected.objectElevation, actual.objectElevation, 0);
+        assertEquals(expected.cameraFovVertical, actual.cameraFovVertical, 0);
+    }
+
+    /** A crash between the body and the timestamp leaves a record without its timestamp. */
+    @Test
+    public void tornRecordDisappearsOnReopen() throws IOException {
+        appendRange(0, 10);
+        store.close();
+        try (RandomAccessFile raf = new RandomAccessFile(segmentFiles()[0], "rw")) {
+            raf.seek(recordOffset(9));
+            raf.writeLong(0);
+            raf.seek(recordOffset(10) + 8);
+            raf.writeLong(-1); // Half of a following record, timestamp still 0
+        }
+        store = open();
+        assertEquals(9, store.size());
+        assertTimestamps(range(0, 9), scanAll());
+
+        store.append(observation(9)); // Overwrites the torn slot
+        store.append(observation(10));
+        assertTimestamps(range(0, 11), scanAll());
+        store.close();
+        store = open();
+        assertTimestamps(range(0, 11), scanAll());
+    }
+
+    /** The wall clock stepped back: a new segment, and range scans still find both runs. */
+    @Test
+    public void clockJumpBackStartsANewSegment() throws IOException {
+        appendRange(100, 110);
+        appendRange(50, 55);
+        assertEquals(2, segmentFiles().length);
+        assertEquals(15, store.size());
+
+        List<Long> all = new ArrayList<>();
+        all.addAll(range(100, 110));
+        all.addAll(range(50, 55));
+        assertTimestamps(all, scanAll());
+        assertTimestamps(range(50, 55), scan(50, 100));
+        assertTimestamps(range(100, 105), scan(100, 105));
+        List<Long> straddling = new ArrayList<>(range(100, 102)); // In segment order
+        straddling.addAll(range(52, 55));
+        assertTimestamps(straddling, scan(52, 102));
+    }
+
+    @Test
+    public void compactionDropsOldRecordsAndSurvivesReopen() throws IOException {
+        appendRange(0, 600); // Segments of 0-255, 256-511, 512-599
+        assertEquals(300, store.compact(T0 + 300));
+        assertEquals(300, store.size());
+        assertTimestamps(range(300, 600), scanAll());
+        assertEquals(2, segmentFiles().length);
+        assertEquals(0, directory.listFiles((dir, name) -> name.endsWith(".tmp")).length);
+
+        appendRange(600, 700);
+        store.close();
+        store = open();
+        assertTimestamps(range(300, 700), scanAll());
+        assertEquals(0, store.compact(T0));
+    }
+
+    /**
+     * Compaction while two scans are in their first segment. The inner one goes on to map every
+     * other segment, which pushes the replaced third segment out of the mapped set; the outer one
+     * then reaches it and must still read the records it had, not the rewritten file.
+     */
+    @Test
+    public void compactionDuringScans() throws IOException {
+        int segments = 20; // More than stay mapped
+        appendRange(0, segments * SEGMENT_RECORDS);
+        long cutoff = T0 + 2 * SEGMENT_RECORDS + 100; // Inside the third segment
+        List<Long> outer = new ArrayList<>();
+        List<Long> inner = new ArrayList<>();
+        store.scan(0, Long.MAX_VALUE, record -> {
+            if (outer.isEmpty()) {
+                store.scan(0, Long.MAX_VALUE, innerRecord -> {
+                    if (inner.isEmpty()) {
+                        compact(cutoff);
+                    }
+                    inner.add(innerRecord.timestamp());
+                    return true;
+                });
+            }
+            outer.add(record.timestamp());
+            return true;
+        });
+        for (List<Long> visited : Arrays.asList(inner, outer)) {
+            for (int i = 1; i < visited.size(); i++) {
+                assertTrue("at " + i + ": " + visited.get(i), visited.get(i) > visited.get(i - 1));
+            }
+            assertTrue(visited.containsAll(range(2 * SEGMENT_RECORDS, segments * SEGMENT_RECORDS)));
+        }
+
+        // Scans from now on see the compacted segments only
+        assertTimestamps(range(2 * SEGMENT_RECORDS + 100, segments * SEGMENT_RECORDS), scanAll());
+        compact(cutoff + SEGMENT_RECORDS);
+        assertTimestamps(range(3 * SEGMENT_RECORDS + 100, segments * SEGMENT_RECORDS), scanAll());
+    }
+
+    /**
+     * Runs of records at different places, a few without a location, over several segments; every
+     * box and a few time ranges give what a brute-force filter gives, whether the last block is full
+     * or not, and again after a reopen, when the segment bounds come from the index.
+     */
+    @Test
+    public void boundingBoxScanMatchesBruteForce() throws IOException {
+        reopen(BLOCKS_PER_SEGMENT * SEGMENT_RECORDS);
+        List<Observation> all = new ArrayList<>();
+        int[] chunks = {1, 37, 218, 256, 300, 700, 1, 1000, 255, 3}; // Last blocks partly filled in between
+        int i = 0;
+        for (int chunk : chunks) {
+            for (int end = i + chunk; i < end; i++) {
+                Observation o = placedObservation(i);
+                store.append(o);
+                all.add(o);
+            }
+            assertBoxScans(all);
+        }
+        assertTrue(segmentFiles().length > 2);
+        store.close();
+        store = open(BLOCKS_PER_SEGMENT * SEGMENT_RECORDS);
+        assertBoxScans(all);
+    }
+
+    /**
+     * Proves the skips by making records contradict the index: a record moved into the box behind
+     * the index's back stays invisible when its block or segment is skipped, but shows up in the
+     * block still being appended to, which is always read record by record.
+     */
+    @Test
+    public void boundingBoxScanSkipsSegmentsAndBlocksByTheirIndex() throws IOException {
+        int segmentRecords = BLOCKS_PER_SEGMENT * SEGMENT_RECORDS;
+        reopen(segmentRecords);
+        double[] a = PLACES[0];
+        double[] b = PLACES[1];
+        int total = 2 * segmentRecords + SEGMENT_RECORDS + 10;
+        for (int i = 0; i < total; i++) {
+            int block = i / SEGMENT_RECORDS;
+            // Segment 0: block 2 at b; segment 1: all at a; segment 2: block 0 at b, the partial block 1 at a
+            double[] place = block == 2 || block == 8 ? b : a;
+            store.append(observation(i, place[0], place[1]));
+        }
+        store.close();
+
+        File[] files = segmentFiles();
+        Arrays.sort(files);
+        assertEquals(3, files.length);
+        moveRecord(files[0], segmentRecords, SEGMENT_RECORDS + 5, b);      // Full block indexed at a
+        moveRecord(files[1], segmentRecords, 17, b);                       // Segment indexed at a
+        moveRecord(files[2], segmentRecords, SEGMENT_RECORDS + 3, b);      // Block being appended to
+        store = open(segmentRecords);
+
+        double[] box = BOXES[1];
+        List<Long> expected = new ArrayList<>(range(2 * SEGMENT_RECORDS, 3 * SEGMENT_RECORDS));
+        expected.addAll(range(2 * segmentRecords, 2 * segmentRecords + SEGMENT_RECORDS));
+        expected.add(T0 + 2 * segmentRecords + SEGMENT_RECORDS + 3);
+        assertTimestamps(expected, scanBox(Long.MIN_VALUE, Long.MAX_VALUE, box));
+    }
+
+    private void reopen(int segmentRecords) throws IOException {
+        store.close();
+        store = open(segmentRecords);
+    }
+
+    private ObservationStore open() throws IOException {
+        return open(SEGMENT_RECORDS);
+    }
+
+    private ObservationStore open(int segmentRecords) throws IOException {
+        ObservationStore opened = new ObservationStore(directory, segmentRecords);
+        opened.open();
+        return opened;
+    }
+
+    private void compact(long cutoffMillis) {
+        try {
+            store.compact(cutoffMillis);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void appendRange(int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            store.append(observation(i));
+        }
+    }
+
+    /** Runs of 90 records per place in turn, every seventh record without a location. */
+    private static Observation placedObservation(int i) {
+        if (i % 7 == 3) {
+            return observation(i, Double.NaN, Double.NaN);
+        }
+        double[] place = PLACES[i / 90 % PLACES.length];
+        return observation(i, place[0] + (i % 10) * 0.01, place[1] - (i % 9) * 0.01);
+    }
+
+    private static Observation observation(int i, double latitude, double longitude) {
+        return new Observation(T0 + i, "device", latitude, longitude, 520, 10, -30, 2, 180, 30, 60, 45);
+    }
+
+    private void assertBoxScans(List<Observation> all) {
+        long last = all.get(all.size() - 1).timestamp;
+        long[][] ranges = {{Long.MIN_VALUE, Long.MAX_VALUE}, {T0 + 100, T0 + 1300}, {last, last + 1}, {T0, T0}};
+        for (double[] box : BOXES) {
+            for (long[] range : ranges) {
+                List<Long> expected = new ArrayList<>();
+                for (Observation o : all) {
+                    if (o.timestamp >= range[0] && o.timestamp < range[1] && o.latitude >= box[0]
+                            && o.latitude <= box[1] && o.longitude >= box[2] && o.longitude <= box[3]) {
+                        expected.add(o.timestamp);
+                    }
+                }
+                assertEquals(Arrays.toString(box) + " " + Arrays.toString(range), expected,
+                        scanBox(range[0], range[1], box));
+            }
+        }
+    }
+
+    /** Timestamps of the records in {@code [from, to)} and box (minLat, maxLat, minLon, maxLon), in scan order. */
+    private List<Long> scanBox(long from, long to, double[] box) {
+        List<Long> timestamps = new ArrayList<>();
+        store.scan(from, to, box[0], box[1], box[2], box[3], record -> timestamps.add(record.timestamp()));
+        return timestamps;
+    }
+
+    /** Overwrites the location of record {@code index} in a closed segment file, leaving its index alone. */
+    private static void moveRecord(File segment, int segmentRecords, int index, double[] place) throws IOException {
+        int indexBytes = segmentRecords / ObservationStore.INDEX_INTERVAL * 40;
+        long dataOffset = 64 + (indexBytes + ObservationStore.RECORD_BYTES - 1) / ObservationStore.RECORD_BYTES
+                * ObservationStore.RECORD_BYTES;
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            raf.seek(dataOffset + (long) index * ObservationStore.RECORD_BYTES + 8);
+            raf.write(littleEndian(place[0]));
+            raf.write(littleEndian(place[1]));
+        }
+    }
+
+    private static byte[] littleEndian(double value) {
+        return ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putDouble(value).array();
+    }
+
+    private static Observation observation(int i) {
+        return new Observation(T0 + i, "device", 48 + i * 1e-4, 11.5, 520, 10 + i % 360, -30, 2, 180 + i * 0.01,
+                30 - i * 0.001, 60, 45);
+    }
+
+    private List<Long> scanAll() {
+        return scan(-T0, Long.MAX_VALUE - T0);
+    }
+
+    /** Timestamps of the records from {@code T0 + from} to before {@code T0 + to}, in scan order. */
+    private List<Long> scan(long from, long to) {
+        List<Long> timestamps = new ArrayList<>();
+        store.scan(T0 + from, T0 + to, record -> timestamps.add(record.timestamp()));
+        return timestamps;
+    }
+
+    private static List<Long> range(int from, int to) {
+        List<Long> timestamps = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            timestamps.add(T0 + i);
+        }
+        return timestamps;
+    }
+
+    private static void assertTimestamps(List<Long> expected, List<Long> actual) {
+        assertEquals(expected, actual);
+    }
+
+    private File[] segmentFiles() {
+        return directory.listFiles((dir, name) -> name.endsWith(".obs"));
+    }
+
+    private static long recordOffset(int index) {
+        return DATA_OFFSET + (long) index * ObservationStore.RECORD_BYTES;
+    }
+}
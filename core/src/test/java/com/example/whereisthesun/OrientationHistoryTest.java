@@ -0,0 +1,176 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+/**
+ * Lookups on a single thread, then a stress test: one writer adding samples as fast as it can into
+ * a small ring while several readers look up times all over it, including the slots being
+ * overwritten. Sample k is a rotation of k * {@link #STEP_DEGREES} about the z axis, so any result
+ * can be checked against the two samples around the requested time; one torn by the writer lapping
+ * the ring would be a whole ring's worth of rotation off.
+ */
+public class OrientationHistoryTest {
+    private static final long T0 = 1_000_000_000L;
+    private static final long PERIOD_NANOS = 1_000;
+    private static final double STEP_DEGREES = 0.37; // A ring's worth is never a multiple of 360
+    private static final double TOLERANCE_DEGREES = 1e-3;
+
+    private final float[] q = new float[4];
+
+    @Test
+    public void interpolatesBetweenSamples() {
+        OrientationHistory history = new OrientationHistory(8, 10 * PERIOD_NANOS);
+        assertFalse(history.lookup(T0, q));
+        for (int k = 0; k < 5; k++) {
+            history.add(time(k), sample(k));
+        }
+        assertTrue(history.lookup(time(2), q));
+        assertEquals(2 * STEP_DEGREES, angle(q), TOLERANCE_DEGREES);
+        assertTrue(history.lookup(time(2) + PERIOD_NANOS / 4, q));
+        assertEquals(2.25 * STEP_DEGREES, angle(q), TOLERANCE_DEGREES);
+        assertEquals(1, Quaternions.norm(q), 1e-6);
+
+        // Shortly past the newest sample it is held, not extrapolated
+        assertTrue(history.lookup(time(4) + 5 * PERIOD_NANOS, q));
+        assertArrayEquals(sample(4), q, 1e-7f);
+        assertFalse(history.lookup(time(4) + 11 * PERIOD_NANOS, q));
+        assertFalse(history.lookup(time(0) - 1, q));
+    }
+
+    @Test
+    public void forgetsOverwrittenSamplesAndRefusesGaps() {
+        OrientationHistory history = new OrientationHistory(5, 10 * PERIOD_NANOS); // Rounded up to 8
+        assertEquals(8, history.capacity());
+        for (int k = 0; k < 20; k++) {
+            history.add(time(k), sample(k));
+        }
+        assertFalse(history.lookup(time(11), q)); // Overwritten
+        assertTrue(history.lookup(time(13), q));
+        assertEquals(13 * STEP_DEGREES, angle(q), TOLERANCE_DEGREES);
+
+        history.add(time(19), sample(0)); // Not newer: dropped
+        history.add(time(40), sample(40));
+        assertFalse(history.lookup(time(30), q));
+        assertFalse(history.lookup(time(19), q)); // Its bracket spans the gap
+        assertTrue(history.lookup(time(18) + PERIOD_NANOS / 2, q));
+        assertEquals(18.5 * STEP_DEGREES, angle(q), TOLERANCE_DEGREES);
+    }
+
+    @Test
+    public void concurrentLookupsNeverSeeTornSamples() throws Exception {
+        final int capacity = 16;
+        final int readers = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        final long samples = 3_000_000;
+        OrientationHistory history = new OrientationHistory(capacity, 2 * PERIOD_NANOS);
+        AtomicLong written = new AtomicLong();
+        AtomicLong hits = new AtomicLong();
+        AtomicLong misses = new AtomicLong();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+
+        Thread writer = new Thread(() -> {
+            float[] sample = new float[4];
+            try {
+                start.await();
+                for (long k = 0; k < samples && failure.get() == null; k++) {
+                    sample(k, sample);
+                    history.add(time(k), sample);
+                    written.set(k + 1);
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, "writer");
+
+        List<Thread> threads = new ArrayList<>();
+        for (int r = 0; r < readers; r++) {
+            final long seed = r;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                float[] result = new float[4];
+                try {
+                    start.await();
+                    while (writer.isAlive() && failure.get() == null) {
+                        long n = written.get();
+                        if (n < 2) {
+                            continue;
+                        }
+                        // Mostly around the oldest samples, where the writer is overwriting
+                        long back = random.nextInt(4) == 0 ? random.nextInt(capacity) : capacity - 3 + random.nextInt(4);
+                        long k = Math.max(0, n - 1 - back);
+                        long t = time(k) + (k < n - 1 ? random.nextInt((int) PERIOD_NANOS) : 0);
+                        if (!history.lookup(t, result)) {
+                            misses.incrementAndGet();
+                            continue;
+                        }
+                        hits.incrementAndGet();
+                        assertEquals(1, Quaternions.norm(result), 1e-5);
+                        assertEquals(0, result[1], 1e-6);
+                        assertEquals(0, result[2], 1e-6);
+                        double offset = wrap(angle(result) - k * STEP_DEGREES);
+                        assertTrue("lookup at sample " + k + " + " + (t - time(k)) + " ns was " + offset
+                                        + " degrees past it",
+                                offset >= -TOLERANCE_DEGREES && offset <= STEP_DEGREES + TOLERANCE_DEGREES);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }, "reader-" + r));
+        }
+
+        writer.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        writer.join();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(samples, written.get());
+        assertTrue("only " + hits.get() + " successful lookups", hits.get() > 10_000);
+        assertTrue("no lookup ever fell off the ring", misses.get() > 0);
+    }
+
+    private static long time(long k) {
+        return T0 + k * PERIOD_NANOS;
+    }
+
+    private static float[] sample(long k) {
+        float[] q = new float[4];
+        sample(k, q);
+        return q;
+    }
+
+    private static void sample(long k, float[] q) {
+        double half = Math.toRadians(k * STEP_DEGREES) / 2;
+        q[0] = (float) Math.cos(half);
+        q[1] = 0;
+        q[2] = 0;
+        q[3] = (float) Math.sin(half);
+    }
+
+    /** Rotation about z in degrees, in [-180, 180). */
+    private static double angle(float[] q) {
+        return wrap(Math.toDegrees(2 * Math.atan2(q[3], q[0])));
+    }
+
+    private static double wrap(double degrees) {
+        double d = degrees % 360;
+        return d < -180 ? d + 360 : d >= 180 ? d - 360 : d;
+    }
+}
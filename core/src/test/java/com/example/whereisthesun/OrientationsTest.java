@@ -0,0 +1,103 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** The conversions agree with each other and with the SensorManager conventions they mirror. */
+public class OrientationsTest {
+    private static final int SAMPLES = 10_000;
+
+    @Test
+    public void matrixAndQuaternionRoundTrip() {
+        Random random = new Random(1);
+        float[] R = new float[9];
+        float[] q = new float[4];
+        for (int i = 0; i < SAMPLES; i++) {
+            double[] truth = Quaternions.random(random);
+            Orientations.quaternionToMatrix(Quaternions.toFloat(truth), R);
+            Orientations.matrixToQuaternion(R, q);
+            assertTrue(q[0] >= 0);
+            assertEquals(1, Quaternions.norm(q), 1e-5);
+            assertEquals(0, Quaternions.angleBetween(q, truth), 0.05); // acos near 1 in float precision
+        }
+    }
+
+    @Test
+    public void quaternionAnglesMatchMatrixAngles() {
+        Random random = new Random(2);
+        float[] R = new float[9];
+        float[] fromMatrix = new float[3];
+        float[] fromQuaternion = new float[3];
+        for (int i = 0; i < SAMPLES; i++) {
+            float[] q = Quaternions.toFloat(Quaternions.random(random));
+            Orientations.quaternionToMatrix(q, R);
+            Orientations.orientationDegrees(R, fromMatrix);
+            Orientations.quaternionToDegrees(q, fromQuaternion);
+            if (Math.abs(fromMatrix[1]) > 89) {
+                continue; // Azimuth and roll are degenerate looking straight up or down
+            }
+            assertEquals(0, angleDifference(fromMatrix[0], fromQuaternion[0]), 0.01);
+            assertEquals(fromMatrix[1], fromQuaternion[1], 0.01);
+            assertEquals(0, angleDifference(fromMatrix[2], fromQuaternion[2]), 0.01);
+            assertTrue(fromQuaternion[0] >= 0 && fromQuaternion[0] < 360);
+        }
+    }
+
+    @Test
+    public void accelerometerAndMagnetometerGiveTheRotation() {
+        Random random = new Random(3);
+        float[] R = new float[9];
+        float[] q = new float[4];
+        double[] field = {0, 21, -43};
+        for (int i = 0; i < SAMPLES; i++) {
+            double[] truth = Quaternions.random(random);
+            double[] toDevice = Quaternions.conjugate(truth);
+            float[] gravity = toFloat(Quaternions.rotate(toDevice, new double[] {0, 0, 9.81}));
+            float[] geomagnetic = toFloat(Quaternions.rotate(toDevice, field));
+            assertTrue(Orientations.rotationMatrixFromAccelMag(R, gravity, geomagnetic));
+            Orientations.matrixToQuaternion(R, q);
+            assertEquals(0, Quaternions.angleBetween(q, truth), 0.05);
+        }
+    }
+
+    @Test
+    public void rejectsFreeFallAndFieldAlongGravity() {
+        float[] R = new float[9];
+        assertFalse(Orientations.rotationMatrixFromAccelMag(R, new float[] {0, 0, 0.01f}, new float[] {0, 20, -40}));
+        assertFalse(Orientations.rotationMatrixFromAccelMag(R, new float[] {0, 0, 9.81f}, new float[] {0, 0, -40}));
+    }
+
+    @Test
+    public void anglesFollowTheSensorManagerConventions() {
+        float[] angles = new float[3];
+        // Flat, screen up, top edge pointing east: azimuth 90, no pitch or roll
+        Orientations.quaternionToDegrees(Quaternions.toFloat(Quaternions.axisAngle(0, 0, 1, -90)), angles);
+        assertEquals(90, angles[0], 1e-3);
+        assertEquals(0, angles[1], 1e-3);
+        assertEquals(0, angles[2], 1e-3);
+        // Top edge tilted up by 30 degrees: negative pitch, as SensorManager.getOrientation() reports it
+        Orientations.quaternionToDegrees(Quaternions.toFloat(Quaternions.axisAngle(1, 0, 0, 30)), angles);
+        assertEquals(-30, angles[1], 1e-3);
+        // Right edge lifted by 20 degrees: negative roll
+        Orientations.quaternionToDegrees(Quaternions.toFloat(Quaternions.axisAngle(0, 1, 0, -20)), angles);
+        assertEquals(-20, angles[2], 1e-3);
+    }
+
+    private static float angleDifference(float a, float b) {
+        float d = (a - b) % 360;
+        if (d > 180) {
+            d -= 360;
+        } else if (d < -180) {
+            d += 360;
+        }
+        return d;
+    }
+
+    private static float[] toFloat(double[] v) {
+        return new float[] {(float) v[0], (float) v[1], (float) v[2]};
+    }
+}
@@ -0,0 +1,230 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+
+/**
+ * The app's pipeline shape under load on a desktop JVM: a camera offering frames much faster than a
+ * slow detect stage takes them, stills in between, and a persist stage that stalls now and then like
+ * an fsync. Frames may be dropped, but only at the frame stage; everything detected reaches the end,
+ * in order, and the camera is never held up.
+ */
+public class PipelineStageTest {
+    private static final int FRAMES = 3_000;
+    private static final int STILLS = 20;
+    private static final long FRAME_PERIOD_NANOS = 200_000;    // 5000 fps, far beyond the detect stage
+    private static final long DETECT_NANOS = 1_000_000;
+    private static final long PROJECT_NANOS = 300_000;
+    private static final long PERSIST_STALL_MILLIS = 20;        // Every PERSIST_STALL_EVERY items
+    private static final int PERSIST_STALL_EVERY = 50;
+    private static final long MAX_CAMERA_WAIT_NANOS = 100_000_000L;
+
+    @Test
+    public void dropsOnlyFramesAndDeliversEverythingElseInOrder() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.setEnabled(true);
+        List<Integer> persisted = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> detectedFrames = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger discardedFrames = new AtomicInteger();
+        AtomicInteger maxProjectBacklog = new AtomicInteger();
+
+        // Items are ints: frames count up from 0, stills are negative
+        PipelineStage<Integer> persist = new PipelineStage<>("persist", 64, PipelineStage.BLOCK, item -> {
+            if (persisted.size() % PERSIST_STALL_EVERY == 0) {
+                Thread.sleep(PERSIST_STALL_MILLIS);
+            }
+            persisted.add(item);
+        }, null, null, metrics);
+        PipelineStage<Integer> project = new PipelineStage<>("project", 16, PipelineStage.BLOCK, item -> {
+            spin(PROJECT_NANOS);
+            persist.offer(item);
+        }, null, null, metrics);
+        PipelineStage<Integer> frames = new PipelineStage<>("frame", 1, PipelineStage.DROP_OLDEST, item -> {
+            spin(DETECT_NANOS);
+            detectedFrames.add(item);
+            project.offer(item);
+            maxProjectBacklog.accumulateAndGet(project.size(), Math::max);
+        }, item -> discardedFrames.incrementAndGet(), null, metrics);
+        PipelineStage<Integer> stills = new PipelineStage<>("still", 4, PipelineStage.BLOCK, item -> {
+            spin(5 * DETECT_NANOS);
+            project.offer(item);
+        }, null, null, metrics);
+
+        Thread shutter = new Thread(() -> {
+            for (int i = 1; i <= STILLS; i++) {
+                stills.offer(-i);
+                spin(2_000_000);
+            }
+        }, "shutter");
+        shutter.start();
+        long worstWait = 0;
+        long next = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            long start = System.nanoTime();
+            frames.offer(i);
+            worstWait = Math.max(worstWait, System.nanoTime() - start);
+            next += FRAME_PERIOD_NANOS;
+            while (System.nanoTime() < next) {
+                // Camera frame period
+            }
+        }
+        shutter.join();
+
+        // Upstream first, like MainActivity
+        stills.close();
+        frames.close();
+        project.close();
+        persist.close();
+
+        assertTrue("camera waited " + worstWait / 1000 + " us", worstWait < MAX_CAMERA_WAIT_NANOS);
+        assertEquals(FRAMES, frames.processed() + frames.dropped());
+        assertEquals(frames.dropped(), discardedFrames.get());
+        assertTrue("nothing was dropped, so there was no load", frames.dropped() > FRAMES / 2);
+        assertEquals(frames.dropped(), metrics.snapshot().counters[Metrics.QUEUE_DROPS]);
+        assertEquals(0, project.dropped());
+        assertEquals(0, persist.dropped());
+        assertTrue(maxProjectBacklog.get() <= 16);
+
+        // Every detected frame and every still reached the end, once, each stream in order
+        List<Integer> persistedFrames = new ArrayList<>();
+        List<Integer> persistedStills = new ArrayList<>();
+        for (int item : persisted) {
+            (item >= 0 ? persistedFrames : persistedStills).add(item);
+        }
+        assertEquals(detectedFrames, persistedFrames);
+        assertEquals(STILLS, persistedStills.size());
+        for (int i = 0; i < STILLS; i++) {
+            assertEquals(-(i + 1), (int) persistedStills.get(i));
+        }
+        for (int i = 1; i < persistedFrames.size(); i++) {
+            assertTrue(persistedFrames.get(i) > persistedFrames.get(i - 1));
+        }
+        assertEquals(FRAMES - 1, (int) persistedFrames.get(persistedFrames.size() - 1)); // The newest survives
+    }
+
+    @Test
+    public void shutdownDoesNotWaitAndReleasesBlockedProducers() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+        AtomicInteger handled = new AtomicInteger();
+        AtomicInteger discarded = new AtomicInteger();
+        PipelineStage<Integer> stage = new PipelineStage<>("slow", 1, PipelineStage.BLOCK, item -> {
+            started.countDown();
+            finish.await();
+            handled.incrementAndGet();
+        }, item -> discarded.incrementAndGet(), null, null);
+
+        assertTrue(stage.offer(1));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertTrue(stage.offer(2)); // Queued behind the busy handler
+        AtomicLong blockedResult = new AtomicLong(-1);
+        Thread producer = new Thread(() -> blockedResult.set(stage.offer(3) ? 1 : 0), "producer");
+        producer.start();
+        waitUntilWaiting(producer);
+
+        long start = System.nanoTime();
+        stage.shutdown();
+        assertTrue(System.nanoTime() - start < 50_000_000L);
+        producer.join(5_000);
+        assertEquals("the blocked producer's item is discarded", 0, blockedResult.get());
+        assertFalse(stage.offer(4));
+        assertEquals(2, discarded.get());
+        assertFalse(stage.awaitTermination(50, TimeUnit.MILLISECONDS));
+
+        finish.countDown();
+        assertTrue(stage.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals("queued items still finish", 2, handled.get());
+    }
+
+    @Test
+    public void coalescesIntoTheNewestQueuedItem() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> discarded = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> stage = new PipelineStage<>("coalesce", 2, PipelineStage.COALESCE, item -> {
+            release.await();
+            handled.add(item);
+        }, discarded::add, (queued, incoming) -> queued + incoming, null);
+
+        stage.offer(1); // Taken by the handler, which waits
+        while (stage.size() > 0) {
+            Thread.sleep(1);
+        }
+        stage.offer(10);
+        stage.offer(20);
+        assertTrue(stage.offer(300));  // Merged with 20 into a new item, which takes over both
+        assertTrue(stage.offer(4000)); // And again
+        release.countDown();
+        stage.close();
+
+        assertEquals(Arrays.asList(1, 10, 4320), handled);
+        assertEquals(Collections.emptyList(), discarded);
+        assertEquals(2, stage.dropped());
+
+        // Offered after close: discarded right away
+        assertFalse(stage.offer(5));
+        assertEquals(Collections.singletonList(5), discarded);
+    }
+
+    /** An Error takes the stage's thread down, but not the stage: the rest of the queue and later items still run. */
+    @Test
+    public void keepsProcessingAfterTheHandlerThrowsAnError() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+        PipelineStage<Integer> stage = new PipelineStage<>("error", 4, PipelineStage.BLOCK, item -> {
+            release.await();
+            if (item == 2) {
+                throw new StackOverflowError("handler " + item);
+            }
+            handled.add(item);
+        });
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        AtomicInteger uncaught = new AtomicInteger();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> uncaught.incrementAndGet());
+        try {
+            stage.offer(1);
+            stage.offer(2);
+            stage.offer(3);
+            release.countDown();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (handled.size() < 2) {
+                assertTrue(System.nanoTime() < deadline);
+                Thread.sleep(1);
+            }
+            assertTrue(stage.offer(4));
+            stage.close();
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(previous);
+        }
+        assertEquals(Arrays.asList(1, 3, 4), handled);
+        assertEquals("rethrown to the thread", 1, uncaught.get());
+        assertEquals(4, stage.processed());
+    }
+
+    /** Busy work standing in for detection, which keeps a core busy rather than sleeping. */
+    private static void spin(long nanos) {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() < end) {
+            // Busy
+        }
+    }
+
+    private static void waitUntilWaiting(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import org.junit.Test;
+
+/** The interpolated table against {@link CameraIntrinsics#normalize} at the analysis resolution. */
+public class PixelRayTableTest {
+    private static final double MAX_ERROR_DEGREES = 0.001;
+
+    // A 4:3 sensor with noticeable barrel distortion and a decentered lens, scaled to 640x480
+    private static final CameraIntrinsics INTRINSICS = new CameraIntrinsics(4000, 3000, 3200, 3210, 2011.5,
+            1493.25, 0.08, -0.2, 0.1, 0.001, -0.0005, 90).forImage(640, 480);
+
+    private final PixelRayTable table = new PixelRayTable(INTRINSICS);
+    private final double[] exact = new double[2];
+    private final double[] interpolated = new double[2];
+
+    @Test
+    public void gridPoints() {
+        for (int y = 0; y <= 480; y += PixelRayTable.GRID_STEP) {
+            for (int x = 0; x <= 640; x += PixelRayTable.GRID_STEP) {
+                assertClose(x, y);
+            }
+        }
+    }
+
+    @Test
+    public void betweenGridPoints() {
+        double half = PixelRayTable.GRID_STEP / 2.0;
+        for (double y = half; y < 480; y += PixelRayTable.GRID_STEP) {
+            for (double x = half; x < 640; x += PixelRayTable.GRID_STEP) {
+                assertClose(x, y);
+            }
+        }
+        Random random = new Random(11);
+        for (int i = 0; i < 10_000; i++) {
+            assertClose(random.nextDouble() * 640, random.nextDouble() * 480);
+        }
+    }
+
+    /** Distortion is strongest there, and the last cells are the ones clamped to the table. */
+    @Test
+    public void edgesAndCorners() {
+        for (double x = 0; x <= 640; x += 0.5) {
+            assertClose(x, 0);
+            assertClose(x, 479.5);
+            assertClose(x, 480);
+        }
+        for (double y = 0; y <= 480; y += 0.5) {
+            assertClose(0, y);
+            assertClose(639.5, y);
+            assertClose(640, y);
+        }
+    }
+
+    @Test
+    public void offsetAngles() {
+        Random random = new Random(12);
+        for (int i = 0; i < 1_000; i++) {
+            double x = random.nextDouble() * 640;
+            double y = random.nextDouble() * 480;
+            INTRINSICS.normalize(x, y, exact);
+            assertEquals(Math.toDegrees(Math.atan(exact[0])), table.horizontalOffset(x, y), MAX_ERROR_DEGREES);
+            assertEquals(Math.toDegrees(Math.atan(exact[1])), table.verticalOffset(x, y), MAX_ERROR_DEGREES);
+        }
+        // The distortion is real: ignoring it would be off by far more at the left edge
+        double pinhole = Math.toDegrees(Math.atan(-INTRINSICS.cx / INTRINSICS.fx));
+        assertTrue(Math.abs(table.horizontalOffset(0, 240) - pinhole) > 100 * MAX_ERROR_DEGREES);
+    }
+
+    /** Angle between the exact and the interpolated ray through pixel ({@code x}, {@code y}). */
+    private void assertClose(double x, double y) {
+        INTRINSICS.normalize(x, y, exact);
+        table.normalize(x, y, interpolated);
+        double dot = exact[0] * interpolated[0] + exact[1] * interpolated[1] + 1;
+        double cos = dot / Math.sqrt((exact[0] * exact[0] + exact[1] * exact[1] + 1)
+                * (interpolated[0] * interpolated[0] + interpolated[1] * interpolated[1] + 1));
+        double error = Math.toDegrees(Math.acos(Math.min(1, cos)));
+        assertTrue("(" + x + ", " + y + ") off by " + error + " deg", error <= MAX_ERROR_DEGREES);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.whereisthesun;
+
+import java.util.Random;
+
+/** Quaternion helpers for the tests, in double precision; (w, x, y, z) like the production code. */
+final class Quaternions {
+    private Quaternions() {}
+
+    static double[] axisAngle(double x, double y, double z, double degrees) {
+        double norm = Math.sqrt(x * x + y * y + z * z);
+        double half = Math.toRadians(degrees) / 2;
+        double s = Math.sin(half) / norm;
+        return new double[] {Math.cos(half), x * s, y * s, z * s};
+    }
+
+    /** {@code a * b}: rotate by {@code b}, then by {@code a}. */
+    static double[] multiply(double[] a, double[] b) {
+        return new double[] {
+                a[0] * b[0] - a[1] * b[1] - a[2] * b[2] - a[3] * b[3],
+                a[0] * b[1] + a[1] * b[0] + a[2] * b[3] - a[3] * b[2],
+                a[0] * b[2] - a[1] * b[3] + a[2] * b[0] + a[3] * b[1],
+                a[0] * b[3] + a[1] * b[2] - a[2] * b[1] + a[3] * b[0]};
+    }
+
+    static double[] conjugate(double[] q) {
+        return new double[] {q[0], -q[1], -q[2], -q[3]};
+    }
+
+    /** Rotates vector {@code v} by {@code q}. */
+    static double[] rotate(double[] q, double[] v) {
+        double[] p = multiply(multiply(q, new double[] {0, v[0], v[1], v[2]}), conjugate(q));
+        return new double[] {p[1], p[2], p[3]};
+    }
+
+    /** Angle of the rotation from {@code a} to {@code b} in degrees; q and -q are the same rotation. */
+    static double angleBetween(double[] a, double[] b) {
+        double dot = Math.abs(a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]);
+        return Math.toDegrees(2 * Math.acos(Math.min(1, dot)));
+    }
+
+    static double angleBetween(float[] a, double[] b) {
+        return angleBetween(toDouble(a), b);
+    }
+
+    /** Uniformly distributed unit quaternion (Shoemake). */
+    static double[] random(Random random) {
+        double u1 = random.nextDouble();
+        double u2 = 2 * Math.PI * random.nextDouble();
+        double u3 = 2 * Math.PI * random.nextDouble();
+        double a = Math.sqrt(1 - u1);
+        double b = Math.sqrt(u1);
+        return new double[] {a * Math.sin(u2), a * Math.cos(u2), b * Math.sin(u3), b * Math.cos(u3)};
+    }
+
+    static double norm(float[] q) {
+        return Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+    }
+
+    static float[] toFloat(double[] q) {
+        return new float[] {(float) q[0], (float) q[1], (float) q[2], (float) q[3]};
+    }
+
+    static double[] toDouble(float[] q) {
+        return new double[] {q[0], q[1], q[2], q[3]};
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+
+/** Everything a {@link Recording.Writer} writes comes back from a {@link Recording.Reader}. */
+public class RecordingTest {
+    private static final CameraIntrinsics INTRINSICS = new CameraIntrinsics(4000, 3000, 3200, 3210, 2011.5,
+            1493.25, 0.08, -0.2, 0.1, 0.001, -0.0005, 90);
+
+    @Test
+    public void roundTrip() throws IOException {
+        GeoFix fix = new GeoFix(GeoFix.PROVIDER_NETWORK, 48.14, 11.58, Double.NaN, 25, Float.NaN,
+                1_600_000_000_123L, 5_000_000_000L);
+        // A 6x4 plane in a buffer with a row stride of 8
+        int width = 6;
+        int height = 4;
+        int rowStride = 8;
+        ByteBuffer plane = ByteBuffer.allocateDirect(rowStride * height);
+        for (int i = 0; i < plane.capacity(); i++) {
+            plane.put(i, (byte) (i * 7 + 200));
+        }
+        plane.position(3);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Recording.Writer writer = writer(bytes)) {
+            writer.sensor(OrientationFilter.TYPE_ROTATION_VECTOR, 1_000, new float[] {0.1f, -0.2f, 0.3f, 0.9f, 0.5f});
+            writer.sensor(OrientationFilter.TYPE_GYROSCOPE, 2_000, new float[] {1, 2, 3});
+            writer.location(3_000, fix);
+            writer.declination(4_000, 3.25f);
+            writer.frame(5_000, 1_600_000_000_500L, plane, width, height, rowStride, 1, true);
+            writer.frame(6_000, 1_600_000_000_533L, plane, width, height, rowStride, 2, false);
+            assertEquals(3, plane.position());
+        }
+
+        try (Recording.Reader reader = new Recording.Reader(new ByteArrayInputStream(bytes.toByteArray()))) {
+            assertEquals("device", reader.deviceId);
+            assertEquals(1_600_000_000_000L, reader.startWallMillis);
+            assertEquals(900L, reader.startElapsedNanos);
+            assertEquals(Recording.FILTER_MADGWICK, reader.orientationFilter);
+            assertEquals(INTRINSICS.fx, reader.intrinsics.fx, 0);
+            assertEquals(INTRINSICS.cy, reader.intrinsics.cy, 0);
+            assertEquals(INTRINSICS.sensorOrientation, reader.intrinsics.sensorOrientation);
+            assertEquals(66.5f, reader.cameraFovHorizontal, 0);
+            assertEquals(51.25f, reader.cameraFovVertical, 0);
+            assertEquals(0, reader.calibration.samples());
+
+            assertEquals(Recording.SENSOR, reader.next());
+            assertEquals(1_000, reader.elapsedNanos);
+            assertEquals(OrientationFilter.TYPE_ROTATION_VECTOR, reader.sensorType);
+            assertArrayEquals(new float[] {0.1f, -0.2f, 0.3f, 0.9f, 0.5f}, reader.values, 0);
+            assertEquals(Recording.SENSOR, reader.next());
+            assertArrayEquals(new float[] {1, 2, 3}, reader.values, 0); // Exactly as many
+
+            assertEquals(Recording.LOCATION, reader.next());
+            assertEquals(3_000, reader.elapsedNanos);
+            assertEquals(fix.provider, reader.fix.provider);
+            assertEquals(fix.latitude, reader.fix.latitude, 0);
+            assertEquals(fix.longitude, reader.fix.longitude, 0);
+            assertTrue(Double.isNaN(reader.fix.altitude));
+            assertEquals(fix.accuracy, reader.fix.accuracy, 0);
+            assertTrue(Float.isNaN(reader.fix.speed));
+            assertEquals(fix.timeMillis, reader.fix.timeMillis);
+            assertEquals(fix.elapsedNanos, reader.fix.elapsedNanos);
+
+            assertEquals(Recording.DECLINATION, reader.next());
+            assertEquals(3.25f, reader.declination, 0);
+
+            assertEquals(Recording.FRAME, reader.next());
+            assertEquals(5_000, reader.elapsedNanos);
+            assertEquals(1_600_000_000_500L, reader.wallMillis);
+            assertEquals(width, reader.width);
+            assertEquals(height, reader.height);
+            assertEquals(1, reader.scale);
+            assertTrue(reader.shortExposure);
+            byte[] expected = new byte[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    expected[y * width + x] = plane.get(y * rowStride + x);
+                }
+            }
+            assertArrayEquals(expected, reader.pixels);
+
+            // Averaged 2x2 blocks, rounded
+            assertEquals(Recording.FRAME, reader.next());
+            assertEquals(width / 2, reader.width);
+            assertEquals(height / 2, reader.height);
+            assertEquals(2, reader.scale);
+            assertFalse(reader.shortExposure);
+            for (int y = 0; y < height / 2; y++) {
+                for (int x = 0; x < width / 2; x++) {
+                    int sum = 0;
+                    for (int dy = 0; dy < 2; dy++) {
+                        for (int dx = 0; dx < 2; dx++) {
+                            sum += plane.get((2 * y + dy) * rowStride + 2 * x + dx) & 0xFF;
+                        }
+                    }
+                    assertEquals((sum + 2) / 4, reader.pixels[y * (width / 2) + x] & 0xFF);
+                }
+            }
+
+            assertEquals(Recording.END, reader.next());
+            assertFalse(reader.truncated);
+        }
+    }
+
+    /** The process died mid-frame: everything before it is still there. */
+    @Test
+    public void truncatedRecordingReadsUpToTheLastCompleteEvent() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (Recording.Writer writer = writer(bytes)) {
+            writer.declination(1_000, 2);
+            writer.frame(2_000, 1_600_000_000_000L, ByteBuffer.allocate(64 * 48), 64, 48, 64, 1, false);
+        }
+        byte[] whole = bytes.toByteArray();
+        byte[] cut = Arrays.copyOf(whole, whole.length - 100);
+        try (Recording.Reader reader = new Recording.Reader(new ByteArrayInputStream(cut))) {
+            assertEquals(Recording.DECLINATION, reader.next());
+            assertEquals(Recording.END, reader.next());
+            assertTrue(reader.truncated);
+        }
+    }
+
+    /** A failing stream stops the recording without throwing into the pipeline; close() reports it. */
+    @Test
+    public void writeErrorStopsTheRecording() throws IOException {
+        FailingStream stream = new FailingStream();
+        Recording.Writer writer = writer(stream);
+        stream.failing = true;
+        writer.frame(1_000, 1_600_000_000_000L, ByteBuffer.allocate(256 * 256), 256, 256, 256, 1, false);
+        assertNotNull(writer.error());
+        int writes = stream.writes;
+        writer.declination(2_000, 1);
+        assertEquals(writes, stream.writes);
+        try {
+            writer.close();
+            fail("close() should rethrow the write error");
+        } catch (IOException expected) {
+            // Reported
+        }
+        writer.close(); // Once only
+        writer.declination(3_000, 1); // Ignored after close
+    }
+
+    private static Recording.Writer writer(OutputStream stream) throws IOException {
+        return new Recording.Writer(stream, "device", 1_600_000_000_000L, 900, Recording.FILTER_MADGWICK,
+                INTRINSICS, 66.5f, 51.25f, new CompassCalibration());
+    }
+
+    private static final class FailingStream extends OutputStream {
+        boolean failing;
+        int writes;
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            writes++;
+            if (failing) {
+                throw new IOException("disk full");
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Instant;
+import org.junit.Test;
+
+/** Interpolated lookups against direct {@link SolarEphemeris} evaluations over whole days. */
+public class SolarDayTableTest {
+    private static final double DOCUMENTED_ERROR = 0.001; // Degrees
+    private static final long PROBE_STEP_MILLIS = 7_000; // Not a divisor of the table step
+
+    /** Latitude, longitude, UTC day. */
+    private static final Object[][] DAYS = {
+            {48.14, 11.58, "2022-06-21"},
+            {48.14, 11.58, "2022-12-21"},
+            {1.35, 103.82, "2021-03-24"},  // The sun passes within a few hundredths of a degree of the zenith
+            {-33.92, 18.42, "2022-06-21"},
+            {69.65, 18.96, "2022-06-21"},  // Never sets
+            {69.65, 18.96, "2022-12-21"},  // Never rises
+            {39.74, -105.18, "2021-03-20"}, // Sunrise and sunset are in different UTC days
+    };
+
+    @Test
+    public void interpolationStaysWithinTheDocumentedError() {
+        SolarPosition interpolated = new SolarPosition();
+        SolarPosition direct = new SolarPosition();
+        for (Object[] day : DAYS) {
+            double latitude = (Double) day[0];
+            double longitude = (Double) day[1];
+            long start = Instant.parse(day[2] + "T00:00:00Z").toEpochMilli();
+            SolarDayTable table = new SolarDayTable(start, latitude, longitude);
+            for (long t = start; t <= start + SolarDayTable.DAY_MILLIS; t += PROBE_STEP_MILLIS) {
+                assertTrue(table.lookup(t, interpolated));
+                SolarEphemeris.compute(t, latitude, longitude, direct);
+                String where = day[2] + " at " + latitude + ", " + longitude + ", " + (t - start) / 1000 + " s";
+
+                assertEquals(where, 0, separation(interpolated, direct), DOCUMENTED_ERROR);
+                assertEquals(where, direct.elevation, interpolated.elevation, DOCUMENTED_ERROR);
+                if (direct.elevation < 89) { // Azimuth itself is ill-conditioned right at the zenith
+                    double azimuthError = ((interpolated.azimuth - direct.azimuth + 540) % 360) - 180;
+                    assertEquals(where, 0, azimuthError * Math.cos(Math.toRadians(direct.elevation)), DOCUMENTED_ERROR);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void coversOneDayInclusive() {
+        long start = Instant.parse("2022-06-21T00:00:00Z").toEpochMilli();
+        SolarDayTable table = new SolarDayTable(start, 48.14, 11.58);
+        SolarPosition position = new SolarPosition();
+        assertFalse(table.lookup(start - 1, position));
+        assertTrue(table.lookup(start, position));
+        assertTrue(table.lookup(start + SolarDayTable.DAY_MILLIS, position));
+        assertFalse(table.lookup(start + SolarDayTable.DAY_MILLIS + 1, position));
+
+        SolarPosition direct = new SolarPosition();
+        SolarEphemeris.compute(start + SolarDayTable.DAY_MILLIS, 48.14, 11.58, direct);
+        assertEquals(direct.elevation, position.elevation, 1e-4);
+    }
+
+    /** Angle between the two directions on the sky, in degrees. */
+    private static double separation(SolarPosition a, SolarPosition b) {
+        double[] u = direction(a);
+        double[] v = direction(b);
+        double dot = u[0] * v[0] + u[1] * v[1] + u[2] * v[2];
+        double cx = u[1] * v[2] - u[2] * v[1];
+        double cy = u[2] * v[0] - u[0] * v[2];
+        double cz = u[0] * v[1] - u[1] * v[0];
+        return Math.toDegrees(Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), dot));
+    }
+
+    private static double[] direction(SolarPosition p) {
+        double azimuth = Math.toRadians(p.azimuth);
+        double elevation = Math.toRadians(p.elevation);
+        return new double[] {Math.cos(elevation) * Math.sin(azimuth), Math.cos(elevation) * Math.cos(azimuth),
+                Math.sin(elevation)};
+    }
+}
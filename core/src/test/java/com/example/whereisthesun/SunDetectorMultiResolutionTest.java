@@ -0,0 +1,92 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import nu.pattern.OpenCV;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * The coarse-to-fine path must find what the full-frame pass finds. Fixtures are synthetic frames of
+ * several resolutions: a sun with a halo, a dimmer reflection, a bright sky gradient and sensor
+ * noise, or nothing but sky.
+ */
+public class SunDetectorMultiResolutionTest {
+    private static final int FIXTURES = 200;
+    private static final int[][] SIZES = {{320, 240}, {640, 480}, {1280, 720}, {1920, 1080}};
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        OpenCV.loadLocally();
+    }
+
+    @Test
+    public void matchesFullFramePass() {
+        Random random = new Random(3);
+        SunDetection fast = new SunDetection();
+        SunDetection full = new SunDetection();
+        int found = 0;
+        for (int i = 0; i < FIXTURES; i++) {
+            int[] size = SIZES[i % SIZES.length];
+            Mat frame = fixture(size[0], size[1], random, i % 10 != 9);
+            SunDetector multiResolution = new SunDetector(size[0], size[1]);
+            multiResolution.setMultiResolutionMinPixels(0); // These sizes are below the default
+            SunDetector fullFrame = new SunDetector(size[0], size[1]);
+            fullFrame.setMultiResolution(false);
+            try {
+                multiResolution.detect(frame, fast);
+                fullFrame.detect(frame, full);
+            } finally {
+                multiResolution.release();
+                fullFrame.release();
+                frame.release();
+            }
+
+            String message = "fixture " + i + ": " + fast + " vs " + full;
+            assertEquals(message, full.found, fast.found);
+            assertEquals(message, full.centerX, fast.centerX, 1e-9);
+            assertEquals(message, full.centerY, fast.centerY, 1e-9);
+            assertEquals(message, full.radius, fast.radius, 1e-9);
+            found += full.found ? 1 : 0;
+        }
+        // Most fixtures hold a sun the full-frame pass finds, or the comparison proves little
+        assertTrue("found " + found, found >= FIXTURES * 8 / 10);
+    }
+
+    /** A synthetic sky, with a sun if {@code withSun}. */
+    private static Mat fixture(int width, int height, Random random, boolean withSun) {
+        Mat frame = new Mat(height, width, CvType.CV_8UC1);
+        double sky = 40 + random.nextInt(80);
+        for (int y = 0; y < height; y += 8) {
+            Imgproc.rectangle(frame, new Point(0, y), new Point(width, y + 8),
+                    new Scalar(sky + 40.0 * y / height), -1);
+        }
+        Mat noise = new Mat(height, width, CvType.CV_8UC1);
+        Core.randn(noise, 0, 4);
+        Core.add(frame, noise, frame);
+        noise.release();
+
+        int scale = Math.min(width, height);
+        if (withSun) {
+            double radius = scale * (0.02 + 0.04 * random.nextDouble());
+            Point center = new Point(radius * 2 + random.nextDouble() * (width - radius * 4),
+                    radius * 2 + random.nextDouble() * (height - radius * 4));
+            Imgproc.circle(frame, center, (int) Math.round(radius * 1.8), new Scalar(sky + 60), -1);
+            Imgproc.circle(frame, center, (int) Math.round(radius), new Scalar(255), -1);
+        }
+        if (random.nextBoolean()) {
+            double radius = scale * 0.01 + random.nextDouble() * scale * 0.02;
+            Point center = new Point(random.nextDouble() * width, random.nextDouble() * height);
+            Imgproc.circle(frame, center, (int) Math.round(radius), new Scalar(190 + random.nextInt(40)), -1);
+        }
+        return frame;
+    }
+}
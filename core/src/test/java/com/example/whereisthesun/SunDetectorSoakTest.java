@@ -0,0 +1,139 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import nu.pattern.OpenCV;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * 10k frames through one detector, alternating the single-result, all-candidates, windowed and
+ * full-frame paths: once warmed up, the detector must neither allocate more per frame nor hold on to
+ * more native Mats, and the process's resident memory must stay flat. Resident memory is compared
+ * over the second half only, when the JIT and the heap have settled.
+ */
+public class SunDetectorSoakTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int WARM_UP_FRAMES = 5000;
+    private static final int FRAMES = 10_000;
+    private static final long MAX_RSS_GROWTH = 8L << 20;
+
+    private Mat frame;
+    private SunDetector detector;
+    private final SunDetection detection = new SunDetection();
+    private final SunCandidates candidates = new SunCandidates();
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        OpenCV.loadLocally();
+    }
+
+    @Before
+    public void setUp() {
+        frame = Mat.zeros(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Imgproc.circle(frame, new Point(400, 200), 30, new Scalar(120), -1); // Halo
+        Imgproc.circle(frame, new Point(400, 200), 20, new Scalar(255), -1); // Sun
+        Imgproc.circle(frame, new Point(120, 320), 12, new Scalar(235), -1); // Reflection
+        detector = new SunDetector(WIDTH, HEIGHT);
+    }
+
+    @After
+    public void tearDown() {
+        detector.release();
+        frame.release();
+    }
+
+    @Test
+    public void heapAndNativeMatsStayFlat() throws IOException {
+        com.sun.management.ThreadMXBean threads = threadMxBean();
+        long thread = Thread.currentThread().getId();
+
+        run(WARM_UP_FRAMES);
+        assertTrue(detection.found);
+        assertEquals(400, detection.centerX, 1);
+        assertEquals(200, detection.centerY, 1);
+        int mats = detector.nativeMatCount();
+
+        long start = threads.getThreadAllocatedBytes(thread);
+        run(FRAMES / 2);
+        long firstHalf = threads.getThreadAllocatedBytes(thread) - start;
+        assertEquals(mats, detector.nativeMatCount());
+        long rss = residentBytesAfterGc();
+        start = threads.getThreadAllocatedBytes(thread);
+        run(FRAMES / 2);
+        long secondHalf = threads.getThreadAllocatedBytes(thread) - start;
+        assertEquals(mats, detector.nativeMatCount());
+        assertEquals(400, detection.centerX, 1);
+
+        // The bindings allocate a little per call (findContours() lists, minMaxLoc() results), but
+        // the same amount every frame
+        assertTrue("Java allocations grew from " + firstHalf + " to " + secondHalf + " bytes",
+                secondHalf <= firstHalf + firstHalf / 10);
+
+        if (rss != Long.MIN_VALUE) {
+            long growth = residentBytesAfterGc() - rss;
+            assertTrue("Resident memory grew by " + growth + " bytes", growth < MAX_RSS_GROWTH);
+        }
+    }
+
+    private void run(int frames) {
+        for (int i = 0; i < frames; i++) {
+            switch (i % 4) {
+                case 0:
+                    detector.setMultiResolution(true);
+                    detector.detect(frame, detection);
+                    break;
+                case 1:
+                    detector.detectCandidates(frame, candidates);
+                    break;
+                case 2:
+                    detector.detectCandidates(frame, 400, 200, 60, candidates);
+                    break;
+                default:
+                    detector.setMultiResolution(false);
+                    detector.detect(frame, detection);
+                    break;
+            }
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadMxBean() {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    /**
+     * Resident set size once released Mat headers have been finalized (the bindings free a Mat's
+     * native header only then), or Long.MIN_VALUE where /proc is not available.
+     */
+    @SuppressWarnings("deprecation")
+    private static long residentBytesAfterGc() throws IOException {
+        File statm = new File("/proc/self/statm");
+        if (!statm.canRead()) {
+            return Long.MIN_VALUE;
+        }
+        System.gc();
+        System.runFinalization();
+        System.gc();
+        String[] fields = new String(Files.readAllBytes(statm.toPath()), StandardCharsets.US_ASCII).trim().split(" ");
+        return Long.parseLong(fields[1]) * 4096;
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import nu.pattern.OpenCV;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Steering against a simulated sensor whose frame peak is proportional to exposure time and ISO and
+ * clips at 255. Frames in flight during the settle carry the old settings, which update() must ignore.
+ */
+public class SunExposureTest {
+    private static final long MIN_EXPOSURE_NANOS = 10_000;   // A typical phone sensor
+    private static final long SENSOR_MAX_EXPOSURE_NANOS = 1_000_000_000L;
+    private static final int MIN_ISO = 100;
+    private static final int MAX_ISO = 3_000;
+
+    private final SunExposure exposure = new SunExposure(MIN_EXPOSURE_NANOS, SENSOR_MAX_EXPOSURE_NANOS, MIN_ISO,
+            MAX_ISO);
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        OpenCV.loadLocally();
+    }
+
+    /** The sun peaks at 200 at the shortest exposure: halved from the start value down to it. */
+    @Test
+    public void settlesOnABrightSunInFourChanges() {
+        double sun = 200.0 / MIN_EXPOSURE_NANOS;
+        int changes = 0;
+        int frame = 0;
+        int lastChange = 0;
+        for (; frame < 100; frame++) {
+            if (exposure.update(peak(sun))) {
+                changes++;
+                // Every change is a halving, and waits out the frames in flight
+                assertEquals(changes == 1 ? SunExposure.SETTLE_FRAMES : SunExposure.SETTLE_FRAMES + 1,
+                        frame - lastChange);
+                lastChange = frame;
+            }
+        }
+        assertEquals(4, changes); // 100 -> 50 -> 25 -> 12.5 -> 10 us
+        assertEquals(MIN_EXPOSURE_NANOS, exposure.exposureNanos());
+        assertEquals(MIN_ISO, exposure.iso());
+        assertEquals(200, peak(sun), 0);
+    }
+
+    @Test
+    public void settleFramesAreIgnored() {
+        for (int i = 0; i < SunExposure.SETTLE_FRAMES; i++) {
+            assertFalse(exposure.update(255));
+        }
+        assertTrue(exposure.update(255));
+        assertEquals(SunExposure.START_EXPOSURE_NANOS / 2, exposure.exposureNanos());
+        for (int i = 0; i < SunExposure.SETTLE_FRAMES; i++) {
+            assertFalse(exposure.update(0)); // Whatever they show
+        }
+        assertEquals(SunExposure.START_EXPOSURE_NANOS / 2, exposure.exposureNanos());
+        assertTrue(exposure.update(0));
+        assertEquals(SunExposure.START_EXPOSURE_NANOS, exposure.exposureNanos());
+
+        // Starting over waits as well
+        exposure.reset();
+        assertFalse(exposure.update(255));
+        assertEquals(SunExposure.START_EXPOSURE_NANOS, exposure.exposureNanos());
+    }
+
+    /** Dim: exposure time doubles up to its cap, then ISO up to the sensor's; bright: ISO comes down first. */
+    @Test
+    public void doublesExposureThenIsoAndHalvesIsoThenExposure() {
+        steady(0, 100);
+        assertEquals(SunExposure.MAX_EXPOSURE_NANOS, exposure.exposureNanos()); // Not the sensor's 1 s
+        assertEquals(MAX_ISO, exposure.iso());                                 // 100 ... 1600, 3000
+        assertFalse(settleAndUpdate(0));
+
+        steady(255, 4);
+        assertEquals(SunExposure.MAX_EXPOSURE_NANOS, exposure.exposureNanos());
+        assertEquals(187, exposure.iso()); // 3000, 1500, 750, 375, 187
+        steady(255, 1);
+        assertEquals(MIN_ISO, exposure.iso()); // Not 93
+        assertEquals(SunExposure.MAX_EXPOSURE_NANOS, exposure.exposureNanos());
+        steady(255, 1);
+        assertEquals(SunExposure.MAX_EXPOSURE_NANOS / 2, exposure.exposureNanos());
+
+        steady(255, 100);
+        assertEquals(MIN_EXPOSURE_NANOS, exposure.exposureNanos());
+        assertEquals(MIN_ISO, exposure.iso());
+        assertFalse(settleAndUpdate(255)); // Nothing left to halve
+    }
+
+    /** A moon-like target is brought up into the usable band and left there. */
+    @Test
+    public void bringsADimTargetIntoRange() {
+        double moon = 143.0 / (SunExposure.START_EXPOSURE_NANOS * 8); // Peak 143 at 800 us
+        steady(moon, 100);
+        double peak = peak(moon);
+        assertTrue("peak " + peak, peak >= 128 && peak < 250);
+        assertEquals(SunExposure.START_EXPOSURE_NANOS * 8, exposure.exposureNanos());
+        assertFalse(settleAndUpdate(peak));
+    }
+
+    @Test
+    public void startsWithinTheSensorLimits() {
+        SunExposure slowSensor = new SunExposure(250_000, SENSOR_MAX_EXPOSURE_NANOS, 50, 800);
+        assertEquals(250_000, slowSensor.exposureNanos());
+        assertEquals(50, slowSensor.iso());
+        SunExposure narrow = new SunExposure(20_000, 40_000, 100, 50); // Odd ranges do not invert
+        assertEquals(40_000, narrow.exposureNanos());
+        for (int i = 0; i < 20; i++) {
+            narrow.update(0);
+        }
+        assertEquals(40_000, narrow.exposureNanos());
+        assertEquals(100, narrow.iso());
+    }
+
+    @Test
+    public void minContourAreaIsHalfTheDisk() {
+        double focal = 3_200; // 12 MP still
+        double radius = SunExposure.diskRadius(focal);
+        assertEquals(14.86, radius, 0.01);
+        assertEquals(0.5 * Math.PI * (radius - 1) * (radius - 1), SunExposure.minContourArea(focal), 1e-9);
+        assertEquals(4, SunExposure.minContourArea(100), 0); // Never below a few pixels
+        CameraIntrinsics intrinsics = CameraIntrinsics.fromFieldOfView(640, 480, 60, 45, 90);
+        assertEquals(SunDetector.DEFAULT_MIN_CONTOUR_AREA, SunExposure.minContourArea(intrinsics, false), 0);
+        assertEquals(SunExposure.minContourArea(intrinsics.fx), SunExposure.minContourArea(intrinsics, true), 0);
+    }
+
+    /**
+     * At preview resolution the short-exposure disk is a few pixels across: detected with the lowered
+     * floor, where the default floor would drop it, while a hot pixel stays below the floor.
+     */
+    @Test
+    public void minContourAreaKeepsTheDiskAndDropsHotPixels() {
+        CameraIntrinsics intrinsics = CameraIntrinsics.fromFieldOfView(640, 480, 60, 45, 90);
+        double radius = SunExposure.diskRadius(intrinsics.fx);
+        Mat frame = new Mat(480, 640, CvType.CV_8UC1, new Scalar(10));
+        SunDetector detector = new SunDetector(640, 480);
+        SunDetection detection = new SunDetection();
+        try {
+            Imgproc.circle(frame, new Point(400, 150), (int) Math.round(radius), new Scalar(200), -1);
+            assertFalse(detector.detect(frame, detection));
+            detector.setMinContourArea(SunExposure.minContourArea(intrinsics, true));
+            assertTrue(detector.detect(frame, detection));
+            assertEquals(400, detection.centerX, 0.5);
+            assertEquals(150, detection.centerY, 0.5);
+
+            frame.setTo(new Scalar(10));
+            Imgproc.rectangle(frame, new Point(100, 100), new Point(101, 101), new Scalar(255), -1);
+            assertFalse(detector.detect(frame, detection));
+        } finally {
+            detector.release();
+            frame.release();
+        }
+    }
+
+    /** Peak of a target of {@code radiance} (per nanosecond at ISO 100) with the current settings. */
+    private double peak(double radiance) {
+        return Math.min(255, radiance * exposure.exposureNanos() * exposure.iso() / 100.0);
+    }
+
+    /** Up to {@code changes} settled changes against a fixed target, or a fixed peak if it is 0 or 255. */
+    private void steady(double target, int changes) {
+        for (int i = 0; i < changes; i++) {
+            double peak = target == 0 || target == 255 ? target : peak(target);
+            if (!settleAndUpdate(peak)) {
+                return;
+            }
+        }
+    }
+
+    /** Feeds frames with {@code peak} through any settle until one changes the settings; false if none did. */
+    private boolean settleAndUpdate(double peak) {
+        for (int i = 0; i <= SunExposure.SETTLE_FRAMES; i++) {
+            if (exposure.update(peak)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
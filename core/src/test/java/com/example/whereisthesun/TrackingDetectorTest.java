@@ -0,0 +1,175 @@
+package com.example.whereisthesun;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import nu.pattern.OpenCV;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A rendered sequence at 30 fps: a disc crossing a noisy sky past two static reflections, with lens
+ * flare that a single detection pass would take for the sun. The track has to stay on the disc
+ * through all of it, and while the disc is hidden it coasts instead of jumping to the flare.
+ */
+public class TrackingDetectorTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int FRAMES = 120;
+    private static final long FRAME_NANOS = 33_333_333L;
+    private static final int SUN_RADIUS = 15;
+    private static final double TOLERANCE = 1.5; // px
+    private static final int SHIFT = 4;          // Sub-pixel bits for drawing
+    private static final double[][] REFLECTIONS = {{90, 400}, {560, 80}};
+
+    // Frames with a big flare far from the disc, the disc hidden behind cloud with the flare still
+    // there, and a small flare right next to the disc, inside the search window but outside the gate
+    private static final int FAR_FLARE_FROM = 30;
+    private static final int HIDDEN_FROM = 50;
+    private static final int HIDDEN_UNTIL = 54;
+    private static final int FAR_FLARE_UNTIL = 60;
+    private static final int NEAR_FLARE_FROM = 80;
+    private static final int NEAR_FLARE_UNTIL = 90;
+    private static final double[] FAR_FLARE = {520, 380};
+    private static final double NEAR_FLARE_OFFSET = 27;
+
+    private final Mat sky = new Mat();
+    private final Mat frame = new Mat();
+    private final TrackingDetector tracking = new TrackingDetector(new Metrics());
+    private final SunDetection detection = new SunDetection();
+
+    @BeforeClass
+    public static void loadOpenCv() {
+        OpenCV.loadLocally();
+    }
+
+    @Before
+    public void setUp() {
+        Core.setRNGSeed(13);
+        sky.create(HEIGHT, WIDTH, CvType.CV_8UC1);
+        Core.randn(sky, 70, 4);
+        for (double[] reflection : REFLECTIONS) {
+            disc(sky, reflection[0], reflection[1], 9, 215); // Bright enough to be candidates
+        }
+    }
+
+    @After
+    public void tearDown() {
+        tracking.release();
+        frame.release();
+        sky.release();
+    }
+
+    @Test
+    public void followsTheDiscThroughDistractorsAndFlare() {
+        SunDetector single = new SunDetector(WIDTH, HEIGHT);
+        SunDetection singleDetection = new SunDetection();
+        int tracked = 0;
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                double[] sun = sunPosition(i);
+                render(i, sun);
+                boolean found = tracking.detect(frame, 1_000_000_000L + i * FRAME_NANOS,
+                        SunDetector.DEFAULT_MIN_CONTOUR_AREA, detection);
+                String where = "frame " + i + ", sun at (" + sun[0] + ", " + sun[1] + ")";
+
+                if (i >= HIDDEN_FROM && i < HIDDEN_UNTIL) {
+                    assertFalse(where + ": reported " + detection, found);
+                    continue;
+                }
+                if (i < 3 || i == HIDDEN_UNTIL) {
+                    continue; // Confirming a new track, or picking the old one up again
+                }
+                assertTrue(where, found);
+                assertEquals(where, sun[0], detection.centerX, TOLERANCE);
+                assertEquals(where, sun[1], detection.centerY, TOLERANCE);
+                assertEquals(where, SUN_RADIUS, detection.radius, 2);
+                tracked++;
+
+                // The far flare is what a detector without a track reports
+                if (i >= FAR_FLARE_FROM && i < FAR_FLARE_UNTIL) {
+                    assertTrue(single.detect(frame, singleDetection));
+                    assertEquals(where, FAR_FLARE[0], singleDetection.centerX, 2);
+                    assertEquals(where, FAR_FLARE[1], singleDetection.centerY, 2);
+                }
+            }
+        } finally {
+            single.release();
+        }
+        assertEquals(FRAMES - 3 - (HIDDEN_UNTIL - HIDDEN_FROM) - 1, tracked);
+    }
+
+    @Test
+    public void gateRejectsCandidatesFarFromThePrediction() {
+        SunTracker tracker = new SunTracker();
+        SunCandidates candidates = new SunCandidates();
+        long t = 0;
+        for (int i = 0; i < 10; i++, t += FRAME_NANOS) {
+            tracker.predict(t);
+            candidates.clear();
+            candidates.add(100 + 3 * i, 200, SUN_RADIUS, Math.PI * SUN_RADIUS * SUN_RADIUS);
+            candidates.brightestX = 100 + 3 * i;
+            candidates.brightestY = 200;
+            candidates.markNearBrightest();
+            tracker.update(candidates, detection);
+        }
+        assertTrue(tracker.isLocked());
+
+        // Next frame: the disc where the motion says, plus a bigger flare that holds the brightest pixel
+        tracker.predict(t);
+        candidates.clear();
+        candidates.add(400, 300, 30, Math.PI * 900);
+        candidates.add(130, 200, SUN_RADIUS, Math.PI * SUN_RADIUS * SUN_RADIUS);
+        candidates.brightestX = 400;
+        candidates.brightestY = 300;
+        candidates.markNearBrightest();
+        assertEquals(0, candidates.best());
+        assertEquals(1, tracker.associate(candidates));
+        assertTrue(tracker.update(candidates, detection));
+        assertEquals(130, detection.centerX, 1);
+
+        // Only the flare: a miss, not a jump
+        t += FRAME_NANOS;
+        tracker.predict(t);
+        candidates.clear();
+        candidates.add(400, 300, 30, Math.PI * 900);
+        candidates.markNearBrightest();
+        assertEquals(-1, tracker.associate(candidates));
+        assertFalse(tracker.update(candidates, detection));
+        assertTrue(tracker.hasTrack());
+        assertEquals(133, tracker.predictedX(), 1);
+    }
+
+    /** A gentle arc across the frame, about 190 px/s at the start and slowing down. */
+    private static double[] sunPosition(int i) {
+        double t = i / 30.0;
+        return new double[] {120 + 190 * t - 20 * t * t, 150 + 40 * t + 4 * t * t};
+    }
+
+    private void render(int i, double[] sun) {
+        sky.copyTo(frame);
+        if (i < HIDDEN_FROM || i >= HIDDEN_UNTIL) {
+            disc(frame, sun[0], sun[1], SUN_RADIUS, 250);
+        }
+        if (i >= FAR_FLARE_FROM && i < FAR_FLARE_UNTIL) {
+            disc(frame, FAR_FLARE[0], FAR_FLARE[1], 2 * SUN_RADIUS, 255);
+        }
+        if (i >= NEAR_FLARE_FROM && i < NEAR_FLARE_UNTIL) {
+            disc(frame, sun[0], sun[1] + NEAR_FLARE_OFFSET, 7, 255);
+        }
+    }
+
+    private static void disc(Mat image, double x, double y, int radius, double value) {
+        Imgproc.circle(image, new Point(x * (1 << SHIFT), y * (1 << SHIFT)), radius << SHIFT, new Scalar(value),
+                -1, Imgproc.LINE_8, SHIFT);
+    }
+}